@@ -7,6 +7,7 @@ import io.grpc.StatusRuntimeException;
 import it.unical.trenical.grpc.ticket.*;
 
 import java.sql.Time;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -181,6 +182,35 @@ public class TicketClient {
         }
     }
 
+    /**
+     * Calcola con una sola chiamata i prezzi di più treni (ad esempio una pagina di risultati di ricerca).
+     *
+     * @param userType Tipo di utente; se null o vuoto il server lo ricava da username
+     * @param username Utente per cui calcolare i prezzi
+     * @param queries Preventivi richiesti (treno, tratta, data, classe, codice promo)
+     * @return I prezzi nello stesso ordine dei preventivi richiesti
+     * @throws StatusRuntimeException Se si verifica un errore durante la chiamata RPC
+     */
+    public List<TicketPriceResult> getTicketPrices(String userType, String username, List<TicketPriceQuery> queries) {
+        GetTicketPricesRequest.Builder requestBuilder = GetTicketPricesRequest.newBuilder()
+                .addAllQueries(queries);
+        if (userType != null && !userType.isEmpty()) {
+            requestBuilder.setUserType(userType);
+        }
+        if (username != null) {
+            requestBuilder.setUsername(username);
+        }
+
+        try {
+            GetTicketPricesResponse response = blockingStub.getTicketPrices(requestBuilder.build());
+            logger.info("Calcolati " + response.getPricesCount() + " prezzi per utente " + response.getUserType());
+            return response.getPricesList();
+        } catch (StatusRuntimeException e) {
+            logger.log(Level.WARNING, "Errore RPC durante il calcolo dei prezzi: {0}", e.getStatus());
+            throw e;
+        }
+    }
+
     /**
      * Metodo main per test.
      */
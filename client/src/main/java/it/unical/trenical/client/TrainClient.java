@@ -98,13 +98,41 @@ public class TrainClient {
             Timestamp timeFrom,
             Timestamp timeTo,
             String trainType) {
+        return searchTrains(departureStation, arrivalStation, date, timeFrom, timeTo, trainType, false).getTrainsList();
+    }
+
+    /**
+     * Cerca treni come {@link #searchTrains(String, String, Timestamp, Timestamp, Timestamp, String)},
+     * facendo calcolare al server anche i posti disponibili di ogni treno nella stessa risposta.
+     *
+     * @return Risposta con i treni e, nello stesso ordine, la loro disponibilità
+     */
+    public TrainResponse searchTrainsWithAvailability(
+            String departureStation,
+            String arrivalStation,
+            Timestamp date,
+            Timestamp timeFrom,
+            Timestamp timeTo,
+            String trainType) {
+        return searchTrains(departureStation, arrivalStation, date, timeFrom, timeTo, trainType, true);
+    }
+
+    private TrainResponse searchTrains(
+            String departureStation,
+            String arrivalStation,
+            Timestamp date,
+            Timestamp timeFrom,
+            Timestamp timeTo,
+            String trainType,
+            boolean includeAvailability) {
 
         logger.info("Ricerca treni da " + departureStation + " a " + arrivalStation + " il " + date + " tipo: " + trainType);
 
         SearchTrainRequest.Builder requestBuilder = SearchTrainRequest.newBuilder()
                 .setDepartureStation(departureStation)
                 .setArrivalStation(arrivalStation)
-                .setDate(date);
+                .setDate(date)
+                .setIncludeAvailability(includeAvailability);
 
         if (timeFrom != null && (timeFrom.getSeconds() != 0 || timeFrom.getNanos() != 0)) {
             requestBuilder.setTimeFrom(timeFrom);
@@ -121,7 +149,7 @@ public class TrainClient {
         try {
             response = blockingStub.searchTrains(requestBuilder.build());
             logger.info("Trovati " + response.getTrainsCount() + " treni");
-            return response.getTrainsList();
+            return response;
         } catch (StatusRuntimeException e) {
             logger.log(Level.WARNING, "Errore RPC: {0}", e.getStatus());
             throw e;
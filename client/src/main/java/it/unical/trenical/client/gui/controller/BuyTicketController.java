@@ -552,7 +552,7 @@ public class BuyTicketController {
 
     private List<String> fetchStationSuggestions(String query) {
         try {
-            SearchStationRequest request = SearchStationRequest.newBuilder().setQuery(query).setLimit(10).build();
+            SearchStationRequest request = SearchStationRequest.newBuilder().setQuery(query).setLimit(10).setFuzzy(true).build();
             SearchStationResponse response = trainService.searchStations(request);
             return response.getStationsList().stream().map(it.unical.trenical.grpc.common.Station::getName).toList(); // lambda -> method reference
         } catch (Exception e) {
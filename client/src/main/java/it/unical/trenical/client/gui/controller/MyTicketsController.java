@@ -8,10 +8,12 @@ import it.unical.trenical.client.session.UserSession;
 import it.unical.trenical.grpc.common.Ticket;
 import it.unical.trenical.grpc.ticket.*;
 import it.unical.trenical.grpc.train.TrainServiceGrpc;
+import javafx.application.Platform;
 import javafx.beans.property.SimpleStringProperty;
 import javafx.beans.property.StringProperty;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
+import javafx.concurrent.Task;
 import javafx.fxml.FXML;
 import javafx.scene.control.*;
 
@@ -19,6 +21,8 @@ import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.time.ZoneOffset;
+import java.util.Iterator;
+import java.util.List;
 
 
 /**
@@ -46,6 +50,9 @@ public class MyTicketsController {
     private ManagedChannel channel;
 
     private static final double PENALTY_PERCENTAGE = 0.10; // 10% penale annullamento
+    private static final int TICKETS_PER_CHUNK = 200; // biglietti per blocco durante il caricamento
+    // Incrementato a ogni caricamento, per scartare i blocchi di quelli precedenti
+    private int loadGeneration;
 
     @FXML
     public void initialize() {
@@ -94,7 +101,7 @@ public class MyTicketsController {
     }
 
     /**
-     * Carica i biglietti dal server.
+     * Carica i biglietti dal server a blocchi, in un thread separato.
      * @param onlyPersonal Se true, anche l'admin vedrà solo i propri biglietti personali
      */
     private void loadTicketsFromServer(boolean onlyPersonal) {
@@ -104,17 +111,40 @@ public class MyTicketsController {
                 AlertUtils.showError("Errore", "Utente non loggato. Effettua il login.");
                 return;
             }
-            ListTicketsRequest.Builder reqBuilder = ListTicketsRequest.newBuilder();
+            ListTicketsRequest.Builder reqBuilder = ListTicketsRequest.newBuilder().setPageSize(TICKETS_PER_CHUNK);
             // Se admin e non richiede solo i propri biglietti personali, carica tutti i biglietti
             if (!UserSession.isAdmin() || onlyPersonal) {
                 reqBuilder.setPassengerName(username);
             }
-            ListTicketsResponse resp = ticketService.listTickets(reqBuilder.build());
+            ListTicketsRequest request = reqBuilder.build();
+            int generation = ++loadGeneration;
             tickets.clear();
-            for (Ticket t : resp.getTicketsList()) {
-                tickets.add(new TicketViewModel(t));
-            }
-            refreshTicketsTable();
+            // I biglietti arrivano a blocchi: la tabella si riempie man mano senza bloccare l'interfaccia
+            Task<Void> task = new Task<>() {
+                @Override
+                protected Void call() {
+                    Iterator<ListTicketsResponse> chunks = ticketService.streamTickets(request);
+                    while (chunks.hasNext()) {
+                        List<TicketViewModel> rows = chunks.next().getTicketsList().stream()
+                                .map(TicketViewModel::new)
+                                .toList();
+                        Platform.runLater(() -> {
+                            // Blocchi di un caricamento già sostituito da uno più recente
+                            if (generation == loadGeneration) tickets.addAll(rows);
+                        });
+                    }
+                    return null;
+                }
+            };
+            task.setOnSucceeded(e -> refreshTicketsTable());
+            task.setOnFailed(e -> {
+                if (generation == loadGeneration) {
+                    AlertUtils.showError("Errore", "Impossibile caricare i biglietti dal server.");
+                }
+            });
+            Thread loader = new Thread(task, "tickets-loader");
+            loader.setDaemon(true);
+            loader.start();
         } catch (Exception e) {
             AlertUtils.showError("Errore", "Impossibile caricare i biglietti dal server.");
         }
@@ -197,7 +197,8 @@ public class SearchTrainsController {
             Timestamp timeFromTimestamp = null;
             Timestamp timeToTimestamp = null;
 
-            List<Train> trains = trainClient.searchTrains(
+            // Una sola chiamata restituisce treni e posti disponibili
+            TrainResponse response = trainClient.searchTrainsWithAvailability(
                     partenza,
                     arrivo,
                     dateTimestamp,
@@ -205,12 +206,15 @@ public class SearchTrainsController {
                     timeToTimestamp,
                     tipologia
             );
+            List<Train> trains = response.getTrainsList();
 
             // Converte i risultati e aggiorna la tabella
             searchResults.clear();
             TrainSearchResult firstResult = null;
-            for (Train train : trains) {
-                TrainSearchResult result = convertToTrainSearchResult(train);
+            for (int i = 0; i < trains.size(); i++) {
+                int availableSeats = i < response.getAvailabilityCount()
+                        ? response.getAvailability(i).getSeatsAvailable() : 0;
+                TrainSearchResult result = convertToTrainSearchResult(trains.get(i), availableSeats);
                 // Filtro: mostra solo treni futuri se la data è oggi
                 if (!data.isEqual(LocalDate.now()) || (result.getTime() != null && result.getTime().isAfter(LocalTime.now()))) {
                     searchResults.add(result);
@@ -234,9 +238,10 @@ public class SearchTrainsController {
     }
 
     /**
-     * Converte un oggetto Train gRPC in un oggetto TrainSearchResult per la visualizzazione.
+     * Converte un oggetto Train gRPC in un oggetto TrainSearchResult per la visualizzazione,
+     * con i posti disponibili già ricevuti dalla ricerca.
      */
-    private TrainSearchResult convertToTrainSearchResult(Train train) {
+    private TrainSearchResult convertToTrainSearchResult(Train train, int availableSeats) {
         int trainId = train.getId();
         String trainName = train.getName();
         String departureStation = train.getDepartureStation();
@@ -249,22 +254,6 @@ public class SearchTrainsController {
             date = datePicker.getValue();
         }
         LocalTime departureTime = convertTimestampToLocalTime(train.getDepartureTime());
-        int availableSeats = 0;
-        try {
-            // Richiama sempre il server con la data e l'orario esatti del treno
-            if (date != null && departureTime != null) {
-                LocalDateTime dateTime = LocalDateTime.of(date, departureTime);
-                TrainDetailsResponse details = trainClient.getTrainDetails(trainId, dateTime);
-                if (details != null) {
-                    availableSeats = details.getSeatsAvailable();
-                } else {
-                    availableSeats = 0;
-                }
-            }
-        } catch (Exception e) {
-            // In caso di errore, mostra 0 posti disponibili
-            availableSeats = 0;
-        }
         return new TrainSearchResult(
                 trainId,
                 trainName,
@@ -290,6 +279,7 @@ public class SearchTrainsController {
             SearchStationRequest request = SearchStationRequest.newBuilder()
                     .setQuery(query)
                     .setLimit(10)
+                    .setFuzzy(true) // Suggerimenti anche con errori di battitura
                     .build();
             SearchStationResponse response = trainClient.searchStations(request);
             return response.getStationsList().stream()
@@ -2,22 +2,54 @@ package it.unical.trenical.server;
 
 import com.google.protobuf.util.JsonFormat;
 import com.google.protobuf.Message.*;
+import com.google.protobuf.Parser;
 import it.unical.trenical.grpc.common.Ticket;
 import it.unical.trenical.grpc.common.Train;
 import it.unical.trenical.grpc.common.Station;
 import it.unical.trenical.grpc.train.Route;
 import it.unical.trenical.grpc.promotion.Promotion;
+import it.unical.trenical.server.persistence.DurabilityException;
+import it.unical.trenical.server.persistence.ChangeJournal;
+import it.unical.trenical.server.persistence.GroupCommitWriter;
+import it.unical.trenical.server.persistence.JournalRecord;
+import it.unical.trenical.server.persistence.JournalRecord.EntityType;
+import it.unical.trenical.server.persistence.SnapshotData;
+import it.unical.trenical.server.persistence.SnapshotStore;
+import it.unical.trenical.server.persistence.SnapshotStore.Section;
+import it.unical.trenical.server.persistence.WriteSequencer;
+import it.unical.trenical.server.index.PassengerTicketIndex;
+import it.unical.trenical.server.index.PromotionIndex;
+import it.unical.trenical.server.index.StationSearchIndex;
+import it.unical.trenical.server.index.TicketExpiryIndex;
+import it.unical.trenical.server.inventory.SeatInventory;
+import it.unical.trenical.server.inventory.SeatReservation;
+import it.unical.trenical.server.timetable.StationBoard;
+import it.unical.trenical.server.timetable.TimetableEngine;
+import it.unical.trenical.server.user.UserProfileRegistry;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
 
 import java.time.*;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.io.Serializable;
 
@@ -34,15 +66,59 @@ public final class DataStore implements Serializable {
     private static final String TICKETS_FILE = DATA_DIR + "/tickets.json";
     private static final String ROUTES_FILE = DATA_DIR + "/routes.json";
     private static final String PROMOTIONS_FILE = DATA_DIR + "/promotions.json";
+    private static final String USERS_FILE = DATA_DIR + "/users.json";
+    private static final String JOURNAL_FILE = DATA_DIR + "/journal.log";
+    private static final String SNAPSHOT_FILE = DATA_DIR + "/snapshot.bin";
+
+    // Numero di record nel journal oltre il quale viene riscritto lo snapshot completo
+    private static final int JOURNAL_COMPACTION_THRESHOLD = 10_000;
 
     private static DataStore instance;
-    private List<Station> stations = new ArrayList<>();
-    private List<Train> trains = new ArrayList<>();
-    private List<Ticket> tickets = Collections.synchronizedList(new ArrayList<>());
+
+    // Un lock di lettura/scrittura per partizione: le letture di una partizione non attendono le scritture
+    // delle altre. L'orario e i profili utente hanno lock propri, i posti sono gestiti senza lock.
+    // Quando servono più partizioni i lock si prendono in quest'ordine: rete, biglietti, promozioni.
+    // Rete: stazioni, indici delle stazioni e tratte
+    private final transient ReentrantReadWriteLock networkLock = new ReentrantReadWriteLock();
+    private final transient ReentrantReadWriteLock ticketsLock = new ReentrantReadWriteLock();
+    private final transient ReentrantReadWriteLock promotionsLock = new ReentrantReadWriteLock();
+    // Compattazione del journal richiesta durante una modifica, eseguita dopo aver rilasciato il lock
+    private final transient AtomicBoolean compactionRequested = new AtomicBoolean();
+    private final transient Object snapshotLock = new Object();
+    // Modalità a scrittore singolo (trenical.datastore.singleWriter): le modifiche diventano comandi
+    // eseguiti in ordine da un solo thread; null se disattivata
+    private final transient WriteSequencer writeSequencer = WriteSequencer.isEnabled() ? new WriteSequencer() : null;
+    // Indici per chiave primaria; LinkedHashMap mantiene l'ordine di inserimento per le liste restituite
+    private Map<Integer, Station> stations = new LinkedHashMap<>();
+    private final Map<String, Station> stationsByName = new HashMap<>();
+    // Ricerca per prefisso e sottostringa usata dall'autocompletamento, aggiornata insieme a stationsByName
+    private final transient StationSearchIndex stationSearch = new StationSearchIndex();
+    // Orario generato su richiesta per i giorni interrogati (treni ogni 2 ore dalle 6 alle 22)
+    private final transient TimetableEngine timetable = new TimetableEngine(6, 22, 2);
+    private Map<String, Ticket> tickets = new LinkedHashMap<>();
     private List<Route> routes = new ArrayList<>();
-    private List<Promotion> promotions = new ArrayList<>();
-    private final Map<Integer, Integer> trainSeatsAvailable = new ConcurrentHashMap<>();
+    private Map<Integer, Promotion> promotions = new LinkedHashMap<>();
+    // Viste immutabili delle collezioni, ripubblicate da chi le modifica tenendo il lock di scrittura:
+    // le letture non prendono lock e non copiano. La versione delle stazioni dice a chi ne deriva dati
+    // (es. le distanze) quando ricalcolarli
+    private transient volatile Snapshot<Station> stationsSnapshot = Snapshot.empty();
+    private transient volatile Snapshot<Ticket> ticketsSnapshot = Snapshot.empty();
+    private transient volatile Snapshot<Route> routesSnapshot = Snapshot.empty();
+    private transient volatile Snapshot<Promotion> promotionsSnapshot = Snapshot.empty();
+    // Indice delle promozioni usato da findBestPromotion e dalle strategie di prezzo, ricostruito a ogni modifica
+    private transient volatile PromotionIndex promotionIndex = PromotionIndex.empty(ZoneId.systemDefault());
+    // Posti prenotati per corsa, aggiornati a ogni modifica dei biglietti
+    private final transient SeatInventory seatInventory = new SeatInventory(DEFAULT_SEATS_PER_TRAIN);
+    // Biglietti validi in ordine di orario di viaggio, consumato da expireTickets
+    private final transient TicketExpiryIndex ticketExpiry = new TicketExpiryIndex();
+    // Biglietti per passeggero, letti senza lock dall'elenco dei biglietti
+    private final transient PassengerTicketIndex ticketsByPassenger = new PassengerTicketIndex();
     private static final int DEFAULT_SEATS_PER_TRAIN = 150;
+    private transient ChangeJournal changeJournal;
+    private transient GroupCommitWriter journalWriter;
+    private final transient SnapshotStore snapshotStore = new SnapshotStore(Paths.get(SNAPSHOT_FILE));
+    // Profili utente in memoria, aggiornati quando il client modifica users.json
+    private transient UserProfileRegistry userProfiles;
 
     // Costruttore privato per impedire istanziazione esterna
     private DataStore() {
@@ -54,6 +130,8 @@ public final class DataStore implements Serializable {
         }
         createJsonFilesIfNotExist();
         loadData();
+        userProfiles = new UserProfileRegistry(Paths.get(USERS_FILE));
+        userProfiles.startWatching();
     }
 
     private void createJsonFilesIfNotExist() {
@@ -95,6 +173,113 @@ public final class DataStore implements Serializable {
     }
 
     private void loadData() {
+        // Lo snapshot binario è la fonte principale; i file JSON vengono importati solo se più recenti
+        boolean fromSnapshot = loadFromSnapshot();
+        if (!fromSnapshot) {
+            importJsonFiles();
+        }
+
+        // Riapplica sopra lo snapshot le modifiche registrate nel journal
+        long replayed = 0;
+        try {
+            changeJournal = new ChangeJournal(Paths.get(JOURNAL_FILE));
+            replayed = changeJournal.replay(this::applyJournalRecord);
+            journalWriter = new GroupCommitWriter(changeJournal);
+        } catch (IOException e) {
+            System.err.println("Impossibile aprire il journal delle modifiche: " + e.getMessage());
+        }
+
+        rebuildStationNameIndex();
+        // I biglietti con posto non valido o già occupato sulla stessa corsa ricevono un posto libero
+        List<Ticket> reseated = seatInventory.rebuild(tickets.values());
+        for (Ticket ticket : reseated) {
+            tickets.put(ticket.getId(), ticket);
+        }
+        if (!reseated.isEmpty()) {
+            System.out.println("[POSTI] Posti riassegnati a biglietti in conflitto: " + reseated.size());
+        }
+        ticketExpiry.rebuild(tickets.values().stream().filter(SeatInventory::occupiesSeat).toList());
+        ticketsByPassenger.rebuild(tickets.values());
+        publishStations();
+        publishTickets();
+        publishRoutes();
+        publishPromotions();
+
+        // Le corse non vengono più generate in anticipo: si costruiscono solo gli schemi di servizio
+        rebuildTimetable();
+        // Lo snapshot viene riscritto solo se ci sono modifiche da consolidare, dati importati da JSON o posti riassegnati
+        if (replayed > 0 || !fromSnapshot || !reseated.isEmpty()) {
+            saveData();
+        }
+    }
+
+    /**
+     * Carica stazioni, biglietti, tratte e promozioni dallo snapshot binario,
+     * se esiste ed è più recente dei file JSON.
+     * <p>
+     * Uno snapshot di una versione sconosciuta blocca l'avvio invece di ripiegare sui file JSON,
+     * che possono essere più vecchi e verrebbero poi salvati sopra lo snapshot. Uno snapshot corrotto
+     * viene spostato da parte prima dell'import, così il salvataggio successivo non lo cancella.
+     *
+     * @return true se i dati sono stati caricati dallo snapshot
+     */
+    private boolean loadFromSnapshot() {
+        if (!snapshotStore.exists() || isJsonNewerThanSnapshot()) return false;
+        try {
+            // I treni sono rigenerati all'avvio: la loro sezione viene saltata
+            SnapshotData data = snapshotStore.read(EnumSet.of(Section.STATIONS, Section.TICKETS,
+                    Section.ROUTES, Section.PROMOTIONS));
+            stations = indexBy(data.getStations(), Station::getId);
+            tickets = indexBy(data.getTickets(), Ticket::getId);
+            routes = data.getRoutes();
+            promotions = indexBy(data.getPromotions(), Promotion::getId);
+            return true;
+        } catch (SnapshotStore.UnsupportedVersionException e) {
+            throw new IllegalStateException("Snapshot " + snapshotStore.getFile()
+                    + " non leggibile da questa versione del server: " + e.getMessage(), e);
+        } catch (IOException e) {
+            System.err.println("Snapshot non leggibile, import dai file JSON: " + e.getMessage());
+            preserveUnreadableSnapshot();
+            return false;
+        }
+    }
+
+    /**
+     * Rinomina lo snapshot illeggibile in {@code snapshot.bin.corrupt} per poterlo recuperare a mano.
+     */
+    private void preserveUnreadableSnapshot() {
+        Path file = snapshotStore.getFile();
+        Path corrupt = file.resolveSibling(file.getFileName() + ".corrupt");
+        try {
+            Files.move(file, corrupt, StandardCopyOption.REPLACE_EXISTING);
+            System.err.println("Snapshot illeggibile conservato in " + corrupt);
+        } catch (IOException e) {
+            System.err.println("Impossibile conservare lo snapshot illeggibile: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Verifica se qualche file JSON è stato modificato dopo l'ultimo snapshot (es. modifica manuale o export).
+     */
+    private boolean isJsonNewerThanSnapshot() {
+        try {
+            FileTime snapshotTime = Files.getLastModifiedTime(snapshotStore.getFile());
+            for (String filename : List.of(STATIONS_FILE, TICKETS_FILE, ROUTES_FILE, PROMOTIONS_FILE)) {
+                Path path = Paths.get(filename);
+                if (Files.exists(path) && Files.getLastModifiedTime(path).compareTo(snapshotTime) > 0) {
+                    return true;
+                }
+            }
+            return false;
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Importa i dati dai file JSON.
+     */
+    private void importJsonFiles() {
         resetFileIfMalformed(STATIONS_FILE);
         resetFileIfMalformed(TRAINS_FILE);
         resetFileIfMalformed(TICKETS_FILE);
@@ -102,19 +287,19 @@ public final class DataStore implements Serializable {
         resetFileIfMalformed(PROMOTIONS_FILE);
 
         try {
-            stations = loadEntitiesFromFile(STATIONS_FILE, Station::newBuilder, "stazione");
+            stations = indexBy(this.<Station>loadEntitiesFromFile(STATIONS_FILE, Station::newBuilder, "stazione"),
+                    Station::getId);
         } catch (Exception e) {
             System.out.println("Impossibile caricare le stazioni: " + e.getMessage());
-            stations = new ArrayList<>();
+            stations = new LinkedHashMap<>();
         }
 
-        // Pulisci i treni prima di rigenerarli
-        trains.clear();
         try {
-            tickets = loadEntitiesFromFile(TICKETS_FILE, Ticket::newBuilder, "biglietto");
+            tickets = indexBy(this.<Ticket>loadEntitiesFromFile(TICKETS_FILE, Ticket::newBuilder, "biglietto"),
+                    Ticket::getId);
         } catch (Exception e) {
             System.out.println("Impossibile caricare i biglietti: " + e.getMessage());
-            tickets = new ArrayList<>();
+            tickets = new LinkedHashMap<>();
         }
 
         try {
@@ -125,65 +310,88 @@ public final class DataStore implements Serializable {
         }
 
         try {
-            promotions = loadEntitiesFromFile(PROMOTIONS_FILE, Promotion::newBuilder, "promozione");
+            promotions = indexBy(this.<Promotion>loadEntitiesFromFile(PROMOTIONS_FILE, Promotion::newBuilder, "promozione"),
+                    Promotion::getId);
         } catch (Exception e) {
             System.out.println("Impossibile caricare le promozioni: " + e.getMessage());
-            promotions = new ArrayList<>();
+            promotions = new LinkedHashMap<>();
+        }
+    }
+
+    /**
+     * Costruisce un indice per chiave primaria mantenendo l'ordine della lista.
+     * In caso di chiavi duplicate resta la prima occorrenza, come nelle vecchie ricerche lineari.
+     */
+    private static <K, T> Map<K, T> indexBy(List<T> list, Function<T, K> keyOf) {
+        Map<K, T> index = new LinkedHashMap<>();
+        for (T entity : list) {
+            index.putIfAbsent(keyOf.apply(entity), entity);
         }
+        return index;
+    }
 
-        generateTrainsForWeeks(2, 6, 22, 2); // 2 settimane, treni ogni 2 ore dalle 6 alle 22
-        saveData();
+    // --- INDICE DELLE STAZIONI PER NOME ---
+
+    private static String normalizeStationName(String name) {
+        return name == null ? "" : name.trim().toLowerCase(Locale.ROOT);
+    }
 
-        for (Train t : trains) {
-            trainSeatsAvailable.putIfAbsent(t.getId(), DEFAULT_SEATS_PER_TRAIN);
+    private void rebuildStationNameIndex() {
+        stationsByName.clear();
+        for (Station s : stations.values()) {
+            stationsByName.putIfAbsent(normalizeStationName(s.getName()), s);
         }
+        stationSearch.rebuild(stations.values());
     }
 
-    /**
-     * Genera treni per tutte le tratte, per un certo numero di settimane e corse ogni ora tra 6:00 e 22:00
-     *
-     * @param weeks numero di settimane
-     */
-    private void generateTrainsForWeeks(int weeks, int firstHour, int lastHour, int step) {
-        if (routes == null || routes.isEmpty()) return;
-        int maxId = trains.stream().mapToInt(Train::getId).max().orElse(0);
-        var today = java.time.LocalDate.now();
-        var rand = new java.util.Random();
-        // Usa il fuso orario italiano per evitare problemi di conversione
-        var zoneId = java.time.ZoneId.of("Europe/Rome");
-        Set<String> uniqueTrainKeys = new HashSet<>();
-        for (Route route : routes) {
-            for (int w = 0; w < weeks; w++) {
-                for (int d = 0; d < 7; d++) {
-                    var date = today.plusDays(w * 7 + d);
-                    for (int hour = firstHour; hour <= lastHour; hour += step) {
-                        var departure = date.atTime(hour, 0);
-                        var arrival = departure.plusMinutes(60 + rand.nextInt(60));
-                        String routeKey = route.getName() + "_" +
-                                getStationById(route.getDepartureStationId()).getName() + "_" +
-                                getStationById(route.getArrivalStationId()).getName();
-                        String key = routeKey + "_" + date + "_" + hour;
-                        if (!uniqueTrainKeys.add(key)) continue;
-
-                        Train train = Train.newBuilder()
-                                .setId(++maxId)
-                                .setName(route.getName())
-                                .setDepartureStation(getStationById(route.getDepartureStationId()).getName())
-                                .setArrivalStation(getStationById(route.getArrivalStationId()).getName())
-                                .setDepartureTime(com.google.protobuf.Timestamp.newBuilder()
-                                        .setSeconds(departure.atZone(zoneId).toEpochSecond())
-                                        .build())
-                                .setArrivalTime(com.google.protobuf.Timestamp.newBuilder()
-                                        .setSeconds(arrival.atZone(zoneId).toEpochSecond())
-                                        .build())
-                                .build();
-                        trains.add(train);
-                    }
+    private void putStation(Station station) {
+        Station previous = stations.put(station.getId(), station);
+        if (previous != null) {
+            unindexStationName(previous);
+        }
+        String key = normalizeStationName(station.getName());
+        Station indexed = stationsByName.get(key);
+        if (indexed == null || indexed.getId() == station.getId()) {
+            stationsByName.put(key, station);
+        }
+        stationSearch.put(station);
+    }
+
+    private void removeStation(Station station) {
+        stations.remove(station.getId());
+        unindexStationName(station);
+        stationSearch.remove(station.getId());
+    }
+
+    private void unindexStationName(Station station) {
+        String key = normalizeStationName(station.getName());
+        Station indexed = stationsByName.get(key);
+        if (indexed != null && indexed.getId() == station.getId()) {
+            stationsByName.remove(key);
+            // Un'eventuale altra stazione con lo stesso nome prende il suo posto nell'indice
+            for (Station other : stations.values()) {
+                if (other.getId() != station.getId() && normalizeStationName(other.getName()).equals(key)) {
+                    stationsByName.put(key, other);
+                    break;
                 }
             }
         }
     }
 
+    /**
+     * Ricostruisce gli schemi dell'orario dalle tratte e stazioni correnti.
+     */
+    private void rebuildTimetable() {
+        timetable.rebuildPatterns(routes, stations::get);
+        // Popolarità per l'autocompletamento: numero di tratte che servono la stazione
+        Map<Integer, Integer> routesPerStation = new HashMap<>();
+        for (Route route : routes) {
+            routesPerStation.merge(route.getDepartureStationId(), 1, Integer::sum);
+            routesPerStation.merge(route.getArrivalStationId(), 1, Integer::sum);
+        }
+        stationSearch.setPopularity(routesPerStation);
+    }
+
     private void resetFileIfMalformed(String filename) {
         try {
             File file = new File(filename);
@@ -232,7 +440,7 @@ public final class DataStore implements Serializable {
     }
 
 
-    private void saveToFile(String filename, List<?> objects) throws IOException {
+    private void saveToFile(String filename, Collection<?> objects) throws IOException {
         File file = new File(filename);
         File dir = file.getParentFile();
         if (!dir.exists()) {
@@ -257,118 +465,387 @@ public final class DataStore implements Serializable {
             first = false;
         }
         jsonArray.append("]");
-        Files.writeString(Paths.get(filename), jsonArray.toString());
+        writeAtomically(Paths.get(filename), jsonArray.toString());
+    }
+
+    /**
+     * Scrive il contenuto su un file temporaneo, lo rende durevole e lo sostituisce al file di destinazione,
+     * così che un crash durante la compattazione non lasci snapshot a metà.
+     */
+    private void writeAtomically(Path target, String content) throws IOException {
+        Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(content.getBytes(StandardCharsets.UTF_8));
+            while (buffer.hasRemaining()) {
+                ch.write(buffer);
+            }
+            ch.force(true);
+        }
+        try {
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
     }
 
+    /**
+     * Riscrive lo snapshot binario completo e, se riuscito, svuota il journal (compattazione).
+     * Le singole modifiche non passano da qui: vengono aggiunte al journal con {@link #journal(JournalRecord...)}.
+     */
     public void saveData() {
+        writeSnapshot();
+    }
+
+    /**
+     * Scrive lo snapshot completo e svuota il journal.
+     *
+     * @return true se lo snapshot è stato scritto (i dati in memoria sono durevoli)
+     */
+    private boolean writeSnapshot() {
+        // Con i lock di lettura di tutte le partizioni nessuna modifica può finire tra lo snapshot e il reset
+        synchronized (snapshotLock) {
+            return readAll(() -> {
+                try {
+                    // Dei treni si salvano solo le corse straordinarie: quelle di orario sono derivate dalle tratte
+                    snapshotStore.write(new SnapshotData(stationsSnapshot.items(), timetable.getAdHocTrains(),
+                            ticketsSnapshot.items(), routesSnapshot.items(), promotionsSnapshot.items()));
+                } catch (IOException e) {
+                    System.err.println("Errore nel salvataggio dei dati: " + e.getMessage());
+                    return false;
+                }
+                try {
+                    if (changeJournal != null) {
+                        changeJournal.reset();
+                    }
+                } catch (IOException e) {
+                    // Lo snapshot contiene già tutto: i record rimasti nel journal verranno solo riapplicati
+                    System.err.println("Errore nello svuotamento del journal: " + e.getMessage());
+                }
+                return true;
+            });
+        }
+    }
+
+    /**
+     * Esporta i dati correnti nei file JSON (formato di import/export leggibile).
+     */
+    public void exportJsonFiles() {
+        readAll(() -> {
+            try {
+                saveToFile(STATIONS_FILE, stationsSnapshot.items());
+                saveToFile(TRAINS_FILE, timetable.getAdHocTrains());
+                saveToFile(TICKETS_FILE, ticketsSnapshot.items());
+                saveToFile(ROUTES_FILE, routesSnapshot.items());
+                saveToFile(PROMOTIONS_FILE, promotionsSnapshot.items());
+            } catch (IOException e) {
+                System.err.println("Errore nell'export dei file JSON: " + e.getMessage());
+            }
+            return null;
+        });
+    }
+
+    // --- LOCK PER PARTIZIONE ---
+
+    private static <T> T read(ReentrantReadWriteLock lock, Supplier<T> action) {
+        lock.readLock().lock();
         try {
-            saveToFile(STATIONS_FILE, stations);
-            saveToFile(TRAINS_FILE, trains);
-            saveToFile(TICKETS_FILE, tickets);
-            saveToFile(ROUTES_FILE, routes);
-            saveToFile(PROMOTIONS_FILE, promotions);
-        } catch (IOException e) {
-            System.err.println("Errore nel salvataggio dei dati: " + e.getMessage());
+            return action.get();
+        } finally {
+            lock.readLock().unlock();
         }
     }
 
-    // --- THREAD SAFETY SU TUTTE LE LISTE ---
-    // RIMOSSI METODI DUPLICATI E NON USATI
-    // --- METODI DI UPDATE (corretti, senza validazioni inutili) ---
-    public synchronized void updateStation(Station updated) {
-        if (updated == null || updated.getId() <= 0) return;
-        for (int i = 0; i < stations.size(); i++) {
-            if (stations.get(i).getId() == updated.getId()) {
-                stations.set(i, updated);
-                saveData();
-                return;
+    private static <T> T write(ReentrantReadWriteLock lock, Supplier<T> action) {
+        lock.writeLock().lock();
+        try {
+            return action.get();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Applica una modifica con il lock di scrittura della partizione e restituisce il commit del journal
+     * (null se non c'era nulla da modificare). In modalità a scrittore singolo la modifica viene eseguita
+     * dal thread della {@link WriteSequencer} e il chiamante attende che sia stata applicata: le letture
+     * successive la vedono, come nella modalità normale. Il lock resta per chi legge le mappe; lo scrittore
+     * non lo contende con nessuno.
+     */
+    private CompletableFuture<Void> mutate(ReentrantReadWriteLock lock, Supplier<CompletableFuture<Void>> change) {
+        if (writeSequencer == null) {
+            return write(lock, change);
+        }
+        try {
+            return writeSequencer.submit(() -> write(lock, change)).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) throw cause;
+            throw e;
+        }
+    }
+
+    /**
+     * Esegue l'azione con i lock di lettura di tutte le partizioni, presi nell'ordine stabilito.
+     */
+    private <T> T readAll(Supplier<T> action) {
+        return read(networkLock, () -> read(ticketsLock, () -> read(promotionsLock, action)));
+    }
+
+    // --- JOURNAL DELLE MODIFICHE ---
+
+    /**
+     * Accoda le modifiche allo scrittore del journal e restituisce il future del commit.
+     * Va chiamato tenendo il lock di scrittura della partizione modificata, così l'ordine nel journal coincide
+     * con quello in memoria per ogni entità (partizioni diverse non toccano le stesse chiavi);
+     * l'attesa della durabilità ({@link #awaitDurable}) va invece fatta fuori dal lock, in modo che
+     * i commit di più thread finiscano nello stesso gruppo (una sola append + fsync).
+     * La compattazione non avviene qui: richiede i lock di tutte le partizioni e viene eseguita da
+     * {@link #awaitDurable} dopo il rilascio, evitando attese circolari tra partizioni.
+     */
+    private CompletableFuture<Void> journal(JournalRecord... records) {
+        if (journalWriter == null) {
+            compactionRequested.set(true);
+            return CompletableFuture.completedFuture(null);
+        }
+        CompletableFuture<Void> commit = journalWriter.submit(Arrays.asList(records));
+        if (changeJournal.recordCount() >= JOURNAL_COMPACTION_THRESHOLD) {
+            compactionRequested.set(true);
+        }
+        return commit;
+    }
+
+    /**
+     * Attende che il commit sia durevole su disco ed esegue l'eventuale compattazione richiesta.
+     * Se la scrittura del journal fallisce la modifica, già applicata in memoria, viene resa durevole
+     * con uno snapshot completo; se fallisce anche questo l'errore arriva al chiamante.
+     * Va chiamato senza tenere lock di partizione.
+     *
+     * @throws DurabilityException se la modifica non è stata salvata su disco
+     */
+    private void awaitDurable(CompletableFuture<Void> commit) {
+        if (commit == null) return;
+        try {
+            commit.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            System.err.println("Errore nella scrittura del journal, salvataggio di uno snapshot: " + cause.getMessage());
+            if (!writeSnapshot()) {
+                // Il prossimo salvataggio riuscito porterà su disco anche questa modifica
+                compactionRequested.set(true);
+                throw new DurabilityException("Modifica non salvata su disco: " + cause.getMessage(), cause);
             }
+            return;
+        }
+        if (compactionRequested.compareAndSet(true, false)) {
+            saveData();
         }
     }
 
-    public synchronized void updateTrain(Train updated) {
-        if (updated == null || updated.getId() <= 0) return;
-        for (int i = 0; i < trains.size(); i++) {
-            if (trains.get(i).getId() == updated.getId()) {
-                trains.set(i, updated);
-                saveData();
-                return;
+    /**
+     * Scrive i commit ancora in coda e chiude il journal. Da chiamare allo spegnimento del server.
+     */
+    public void shutdown() {
+        if (userProfiles != null) {
+            userProfiles.close();
+        }
+        // Prima si eseguono le modifiche ancora in coda, poi si chiude il journal che le registra
+        if (writeSequencer != null) {
+            writeSequencer.close();
+        }
+        if (journalWriter != null) {
+            journalWriter.close();
+        }
+        try {
+            if (changeJournal != null) {
+                changeJournal.close();
             }
+        } catch (IOException e) {
+            System.err.println("Errore nella chiusura del journal: " + e.getMessage());
         }
     }
 
-    public synchronized void updateTicket(Ticket updated) {
-        if (updated == null || updated.getId() == null) return;
-        for (int i = 0; i < tickets.size(); i++) {
-            if (tickets.get(i).getId().equals(updated.getId())) {
-                tickets.set(i, updated);
-                saveData();
-                return;
+    /**
+     * Applica un record del journal alle collezioni in memoria durante il replay.
+     */
+    private void applyJournalRecord(JournalRecord record) {
+        try {
+            switch (record.getEntityType()) {
+                case STATION -> applyRecord(stations, record, Station.parser(), Integer::valueOf);
+                case TICKET -> applyRecord(tickets, record, Ticket.parser(), Function.identity());
+                case ROUTE -> applyRecord(routes, record, Route.parser(), r -> String.valueOf(r.getId()));
+                case PROMOTION -> applyRecord(promotions, record, Promotion.parser(), Integer::valueOf);
             }
+        } catch (Exception e) {
+            System.err.println("Record del journal ignorato (" + record + "): " + e.getMessage());
         }
     }
 
-    public synchronized void updateRoute(Route updated) {
-        if (updated == null || updated.getId() <= 0) return;
-        for (int i = 0; i < routes.size(); i++) {
-            if (routes.get(i).getId() == updated.getId()) {
-                routes.set(i, updated);
-                saveData();
-                return;
+    private <K, T> void applyRecord(Map<K, T> index, JournalRecord record, Parser<T> parser,
+                                    Function<String, K> keyOf) throws IOException {
+        switch (record.getOperation()) {
+            case CLEAR -> index.clear();
+            case DELETE -> index.remove(keyOf.apply(record.getKey()));
+            case PUT -> index.put(keyOf.apply(record.getKey()), parser.parseFrom(record.getPayload()));
+        }
+    }
+
+    private <T> void applyRecord(List<T> list, JournalRecord record, Parser<T> parser,
+                                 Function<T, String> keyOf) throws IOException {
+        switch (record.getOperation()) {
+            case CLEAR -> list.clear();
+            case DELETE -> list.removeIf(e -> keyOf.apply(e).equals(record.getKey()));
+            case PUT -> {
+                T entity = parser.parseFrom(record.getPayload());
+                for (int i = 0; i < list.size(); i++) {
+                    if (keyOf.apply(list.get(i)).equals(record.getKey())) {
+                        list.set(i, entity);
+                        return;
+                    }
+                }
+                list.add(entity);
             }
         }
     }
 
-    public synchronized void updatePromotion(Promotion updated) {
+    // --- THREAD SAFETY SU TUTTE LE LISTE ---
+    // RIMOSSI METODI DUPLICATI E NON USATI
+    // --- METODI DI UPDATE (corretti, senza validazioni inutili) ---
+    public void updateStation(Station updated) {
         if (updated == null || updated.getId() <= 0) return;
-        for (int i = 0; i < promotions.size(); i++) {
-            if (promotions.get(i).getId() == updated.getId()) {
-                promotions.set(i, updated);
-                saveData();
-                return;
+        CompletableFuture<Void> commit = mutate(networkLock, () -> {
+            if (!stations.containsKey(updated.getId())) return null;
+            putStation(updated);
+            publishStations();
+            rebuildTimetable();
+            return journal(JournalRecord.put(EntityType.STATION, String.valueOf(updated.getId()), updated));
+        });
+        awaitDurable(commit);
+    }
+
+    public void updateTrain(Train updated) {
+        if (updated == null || updated.getId() <= 0) return;
+        // I treni non sono persistiti: la modifica resta solo in memoria
+        timetable.updateTrain(updated);
+    }
+
+    /**
+     * Sostituisce un biglietto esistente.
+     *
+     * @return false se il biglietto non esiste
+     */
+    public boolean updateTicket(Ticket updated) {
+        return updateTicket(null, updated);
+    }
+
+    /**
+     * Sostituisce un biglietto solo se la versione corrente è ancora {@code expected} (confronto e scambio):
+     * chi ha costruito la modifica partendo da una lettura ormai superata, ad esempio durante un annullamento
+     * concorrente, non la sovrascrive.
+     *
+     * @param expected versione letta da cui è stata costruita la modifica, oppure null per non verificarla
+     * @return true se il biglietto è stato aggiornato, false se non esiste o è cambiato nel frattempo
+     */
+    public boolean updateTicket(Ticket expected, Ticket updated) {
+        return updateTicket(expected, updated, null);
+    }
+
+    /**
+     * Come {@link #updateTicket(Ticket, Ticket)}, per una modifica che prende il nuovo posto
+     * dalla prenotazione indicata, ancora da confermare.
+     *
+     * @param reservation prenotazione da cui proviene il posto del biglietto, oppure null
+     */
+    public boolean updateTicket(Ticket expected, Ticket updated, SeatReservation reservation) {
+        if (updated == null || updated.getId() == null) return false;
+        boolean[] applied = {false};
+        CompletableFuture<Void> commit = mutate(ticketsLock, () -> {
+            Ticket previous = tickets.get(updated.getId());
+            if (previous == null || (expected != null && !previous.equals(expected))) return null;
+            tickets.put(updated.getId(), updated);
+            Map<String, String> moved = seatInventory.ticketReplaced(previous, updated, reservation);
+            ticketsByPassenger.put(previous, updated);
+            if (SeatInventory.occupiesSeat(updated)) ticketExpiry.offer(updated);
+            List<JournalRecord> records = new ArrayList<>();
+            records.add(JournalRecord.put(EntityType.TICKET, updated.getId(), updated));
+            reseatTickets(moved, records);
+            publishTickets();
+            applied[0] = true;
+            return journal(records.toArray(new JournalRecord[0]));
+        });
+        awaitDurable(commit);
+        return applied[0];
+    }
+
+    public void updateRoute(Route updated) {
+        if (updated == null || updated.getId() <= 0) return;
+        CompletableFuture<Void> commit = mutate(networkLock, () -> {
+            for (int i = 0; i < routes.size(); i++) {
+                if (routes.get(i).getId() == updated.getId()) {
+                    routes.set(i, updated);
+                    publishRoutes();
+                    rebuildTimetable();
+                    return journal(JournalRecord.put(EntityType.ROUTE, String.valueOf(updated.getId()), updated));
+                }
             }
-        }
+            return null;
+        });
+        awaitDurable(commit);
+    }
+
+    public void updatePromotion(Promotion updated) {
+        if (updated == null || updated.getId() <= 0) return;
+        CompletableFuture<Void> commit = mutate(promotionsLock, () -> {
+            if (!promotions.containsKey(updated.getId())) return null;
+            promotions.put(updated.getId(), updated);
+            publishPromotions();
+            return journal(JournalRecord.put(EntityType.PROMOTION, String.valueOf(updated.getId()), updated));
+        });
+        awaitDurable(commit);
     }
 
     // --- GESTIONE ID CENTRALIZZATA ---
-    private synchronized int generateNextId(List<?> list, java.util.function.ToIntFunction<Object> idGetter) {
+    private static int generateNextId(Collection<?> list, java.util.function.ToIntFunction<Object> idGetter) {
         return list.stream().mapToInt(idGetter).max().orElse(0) + 1;
     }
 
-    public synchronized int generateNextStationId() {
-        return generateNextId(stations, s -> ((Station) s).getId());
+    public int generateNextStationId() {
+        return read(networkLock, () -> generateNextId(stations.keySet(), id -> (Integer) id));
     }
 
-    public synchronized int generateNextTrainId() {
-        return generateNextId(trains, t -> ((Train) t).getId());
+    public int generateNextTrainId() {
+        return timetable.maxTrainId() + 1;
     }
 
-    public synchronized int generateNextRouteId() {
-        return generateNextId(routes, r -> ((Route) r).getId());
+    public int generateNextRouteId() {
+        return read(networkLock, () -> generateNextId(routes, r -> ((Route) r).getId()));
     }
 
-    public synchronized int generateNextPromotionId() {
-        return generateNextId(promotions, p -> ((Promotion) p).getId());
+    public int generateNextPromotionId() {
+        return read(promotionsLock, () -> generateNextId(promotions.keySet(), id -> (Integer) id));
     }
     // --- BACKUP/RESTORE ---
 
     /**
      * Esporta tutti i dati in una stringa JSON.
      */
-    public synchronized String exportAllData() {
+    public String exportAllData() {
+        return readAll(this::exportAllDataLocked);
+    }
+
+    private String exportAllDataLocked() {
         try {
             JSONObject obj = new JSONObject();
             com.google.protobuf.util.JsonFormat.Printer printer = com.google.protobuf.util.JsonFormat.printer();
             JSONArray stationsArr = new JSONArray();
-            for (Station s : stations) stationsArr.put(new JSONObject(printer.print(s)));
+            for (Station s : stations.values()) stationsArr.put(new JSONObject(printer.print(s)));
             JSONArray trainsArr = new JSONArray();
-            for (Train t : trains) trainsArr.put(new JSONObject(printer.print(t)));
+            for (Train t : timetable.getAdHocTrains()) trainsArr.put(new JSONObject(printer.print(t)));
             JSONArray ticketsArr = new JSONArray();
-            for (Ticket t : tickets) ticketsArr.put(new JSONObject(printer.print(t)));
+            for (Ticket t : tickets.values()) ticketsArr.put(new JSONObject(printer.print(t)));
             JSONArray routesArr = new JSONArray();
             for (Route r : routes) routesArr.put(new JSONObject(printer.print(r)));
             JSONArray promotionsArr = new JSONArray();
-            for (Promotion p : promotions) promotionsArr.put(new JSONObject(printer.print(p)));
+            for (Promotion p : promotions.values()) promotionsArr.put(new JSONObject(printer.print(p)));
             obj.put("stations", stationsArr);
             obj.put("trains", trainsArr);
             obj.put("tickets", ticketsArr);
@@ -381,12 +858,36 @@ public final class DataStore implements Serializable {
     }
 
     // --- METODI PUBBLICI DI ACCESSO E GESTIONE ---
-    public synchronized List<Station> getAllStations() {
-        return new ArrayList<>(stations);
+    /**
+     * Stazioni in ordine di inserimento; la lista è immutabile e non va copiata.
+     */
+    public List<Station> getAllStations() {
+        return stationsSnapshot.items();
+    }
+
+    /**
+     * Stazioni correnti con la loro versione, lette senza lock.
+     */
+    public Snapshot<Station> getStationsSnapshot() {
+        return stationsSnapshot;
+    }
+
+    /**
+     * Versione corrente delle stazioni, letta senza lock.
+     */
+    public long getStationsVersion() {
+        return stationsSnapshot.version();
+    }
+
+    /**
+     * Versione dei dati da cui dipendono i prezzi (promozioni e stazioni): cambia a ogni loro modifica.
+     */
+    public long getPricingVersion() {
+        return promotionsSnapshot.version() + stationsSnapshot.version();
     }
 
-    public synchronized Station getStationById(int id) {
-        return stations.stream().filter(station -> station.getId() == id).findFirst().orElse(null);
+    public Station getStationById(int id) {
+        return read(networkLock, () -> stations.get(id));
     }
 
     /**
@@ -394,42 +895,56 @@ public final class DataStore implements Serializable {
      * @param name Nome della stazione
      * @return la stazione trovata o null
      */
-    public synchronized Station getStationByName(String name) {
+    public Station getStationByName(String name) {
         if (name == null || name.trim().isEmpty()) return null;
 
-        return stations.stream()
-                .filter(station -> station.getName().equalsIgnoreCase(name.trim()))
-                .findFirst()
-                .orElse(null);
+        return read(networkLock, () -> stationsByName.get(normalizeStationName(name)));
     }
 
-    public synchronized void addStation(Station station) {
+    public void addStation(Station station) {
         if (station == null || station.getId() <= 0) return;
-        boolean exists = stations.stream().anyMatch(s -> s.getId() == station.getId());
-        if (!exists) {
-            stations.add(station);
-            saveData();
-        }
+        CompletableFuture<Void> commit = mutate(networkLock, () -> {
+            if (stations.containsKey(station.getId())) return null;
+            putStation(station);
+            publishStations();
+            rebuildTimetable();
+            return journal(JournalRecord.put(EntityType.STATION, String.valueOf(station.getId()), station));
+        });
+        awaitDurable(commit);
     }
 
-    public synchronized void deleteStation(int id) {
-        stations.removeIf(s -> s.getId() == id);
-        saveData();
+    public void deleteStation(int id) {
+        CompletableFuture<Void> commit = mutate(networkLock, () -> {
+            Station removed = stations.get(id);
+            if (removed == null) return null;
+            removeStation(removed);
+            publishStations();
+            rebuildTimetable();
+            return journal(JournalRecord.delete(EntityType.STATION, String.valueOf(id)));
+        });
+        awaitDurable(commit);
     }
 
-    public synchronized List<Station> searchStations(String query, int limit) {
-        if (query == null || query.isEmpty()) {
-            return stations.stream().limit(limit).collect(Collectors.toList());
+    /**
+     * Cerca le stazioni il cui nome o città contiene la query, prima quelle che iniziano con la query
+     * e poi le più servite. L'indice ha un proprio lock: l'autocompletamento non attende la partizione delle stazioni.
+     */
+    public List<Station> searchStations(String query, int limit) {
+        return searchStations(query, limit, 0);
+    }
+
+    /**
+     * Come {@link #searchStations(String, int)}; con {@code maxEdits > 0} completa i risultati con le stazioni
+     * che differiscono dalla query per al più {@code maxEdits} modifiche per parola (errori di battitura).
+     */
+    public List<Station> searchStations(String query, int limit, int maxEdits) {
+        if (query == null || query.trim().isEmpty()) {
+            return read(networkLock, () -> stations.values().stream().limit(limit).collect(Collectors.toList()));
         }
-        String lowerQuery = query.toLowerCase();
-        return stations.stream()
-                .filter(station -> station.getName().toLowerCase().contains(lowerQuery) ||
-                        station.getCity().toLowerCase().contains(lowerQuery))
-                .limit(limit)
-                .collect(Collectors.toList());
+        return maxEdits > 0 ? stationSearch.searchFuzzy(query, limit, maxEdits) : stationSearch.search(query, limit);
     }
 
-    public synchronized List<Train> getAllTrains() {
+    public List<Train> getAllTrains() {
         LocalDate today = java.time.LocalDate.now();
         return generateTrainsForDay(null, null, today);
     }
@@ -441,113 +956,189 @@ public final class DataStore implements Serializable {
      * @param dateTime data e ora della corsa
      * @return il treno corrispondente, oppure null se non trovato
      */
-    public synchronized Train getTrainById(int id, LocalDateTime dateTime) {
+    public Train getTrainById(int id, LocalDateTime dateTime) {
         if (dateTime == null) return null;
-        return trains.stream()
-                .filter(train -> train.getId() == id)
-                .filter(train -> {
-                    LocalDateTime dep = LocalDateTime.ofInstant(
-                            Instant.ofEpochSecond(train.getDepartureTime().getSeconds()),
-                            ZoneId.systemDefault() // Uniforma a systemDefault
-                    );
-                    // Confronta anno, mese, giorno, ora e minuto (ignora secondi e nanosecondi)
-                    return dep.getYear() == dateTime.getYear() &&
-                           dep.getMonthValue() == dateTime.getMonthValue() &&
-                           dep.getDayOfMonth() == dateTime.getDayOfMonth() &&
-                           dep.getHour() == dateTime.getHour() &&
-                           dep.getMinute() == dateTime.getMinute();
-                })
-                .findFirst()
-                .orElse(null);
-    }
-
-    public synchronized void addTrain(Train train) {
+        // Confronta anno, giorno, ora e minuto (ignora secondi e nanosecondi)
+        return timetable.findRun(id, dateTime);
+    }
+
+    public void addTrain(Train train) {
         if (train == null || train.getId() <= 0) return;
-        boolean exists = trains.stream().anyMatch(t -> t.getId() == train.getId());
-        if (!exists) {
-            trains.add(train);
-            saveData();
-        }
+        // Corsa straordinaria: resta in memoria fino al riavvio e non viene registrata nel journal
+        timetable.addTrain(train);
     }
 
-    public synchronized void deleteTrain(int id) {
-        trains.removeIf(t -> t.getId() == id);
-        saveData();
+    public void deleteTrain(int id) {
+        timetable.removeTrain(id);
     }
 
-    public synchronized List<Ticket> getAllTickets() {
-        return new ArrayList<>(tickets);
+    /**
+     * Biglietti in ordine di inserimento; la lista è immutabile e non va copiata.
+     */
+    public List<Ticket> getAllTickets() {
+        return ticketsSnapshot.items();
     }
 
-    public synchronized Ticket getTicketById(String id) {
-        return tickets.stream().filter(ticket -> ticket.getId().equals(id)).findFirst().orElse(null);
+    public Snapshot<Ticket> getTicketsSnapshot() {
+        return ticketsSnapshot;
     }
 
-    public synchronized void addTicket(Ticket ticket) {
+    /**
+     * Biglietti del passeggero (nome esatto) in ordine di inserimento, senza scorrere gli altri;
+     * la lista è immutabile.
+     */
+    public List<Ticket> getTicketsByPassenger(String passengerName) {
+        return ticketsByPassenger.get(passengerName);
+    }
+
+    public Ticket getTicketById(String id) {
+        return id == null ? null : read(ticketsLock, () -> tickets.get(id));
+    }
+
+    public void addTicket(Ticket ticket) {
         if (ticket == null || ticket.getId() == null) return;
-        boolean exists = tickets.stream().anyMatch(t -> t.getId().equals(ticket.getId()));
-        if (!exists) {
-            tickets.add(ticket);
-            saveData();
-        }
+        CompletableFuture<Void> commit = mutate(ticketsLock, () -> {
+            if (tickets.containsKey(ticket.getId())) return null;
+            tickets.put(ticket.getId(), ticket);
+            Map<String, String> moved = seatInventory.ticketAdded(ticket);
+            ticketsByPassenger.put(null, ticket);
+            if (SeatInventory.occupiesSeat(ticket)) ticketExpiry.offer(ticket);
+            List<JournalRecord> records = new ArrayList<>();
+            records.add(JournalRecord.put(EntityType.TICKET, ticket.getId(), ticket));
+            reseatTickets(moved, records);
+            publishTickets();
+            return journal(records.toArray(new JournalRecord[0]));
+        });
+        awaitDurable(commit);
     }
 
-    public synchronized void deleteTicket(String id) {
-        Ticket toRemove = null;
-        for (Ticket t : tickets) {
-            if (t.getId().equals(id)) {
-                toRemove = t;
-                break;
-            }
-        }
-        if (toRemove != null) {
-            tickets.remove(toRemove);
-            saveData();
+    /**
+     * Salva in un'unica operazione i biglietti di uno stesso acquisto, con un solo commit sul journal.
+     * L'inserimento è tutto o niente: se un ID è già presente non viene salvato nessun biglietto.
+     *
+     * @return true se i biglietti sono stati salvati
+     */
+    public boolean addTickets(List<Ticket> newTickets) {
+        return addTickets(newTickets, null);
+    }
+
+    /**
+     * Come {@link #addTickets(List)}, per biglietti che occupano i posti della prenotazione indicata,
+     * ancora da confermare.
+     *
+     * @param reservation prenotazione da cui provengono i posti dei biglietti, oppure null
+     */
+    public boolean addTickets(List<Ticket> newTickets, SeatReservation reservation) {
+        if (newTickets == null || newTickets.isEmpty()) return false;
+        for (Ticket ticket : newTickets) {
+            if (ticket == null || ticket.getId() == null) return false;
         }
+        boolean[] applied = {false};
+        CompletableFuture<Void> commit = mutate(ticketsLock, () -> {
+            Set<String> ids = new HashSet<>();
+            for (Ticket ticket : newTickets) {
+                if (tickets.containsKey(ticket.getId()) || !ids.add(ticket.getId())) return null;
+            }
+            List<JournalRecord> records = new ArrayList<>();
+            for (Ticket ticket : newTickets) {
+                tickets.put(ticket.getId(), ticket);
+                Map<String, String> moved = seatInventory.ticketAdded(ticket, reservation);
+                ticketsByPassenger.put(null, ticket);
+                if (SeatInventory.occupiesSeat(ticket)) ticketExpiry.offer(ticket);
+                records.add(JournalRecord.put(EntityType.TICKET, ticket.getId(), ticket));
+                reseatTickets(moved, records);
+            }
+            publishTickets();
+            applied[0] = true;
+            return journal(records.toArray(new JournalRecord[0]));
+        });
+        awaitDurable(commit);
+        return applied[0];
+    }
+
+    public void deleteTicket(String id) {
+        if (id == null) return;
+        CompletableFuture<Void> commit = mutate(ticketsLock, () -> {
+            Ticket removed = tickets.remove(id);
+            if (removed == null) return null;
+            Map<String, String> moved = seatInventory.ticketRemoved(removed);
+            ticketsByPassenger.remove(removed);
+            List<JournalRecord> records = new ArrayList<>();
+            records.add(JournalRecord.delete(EntityType.TICKET, id));
+            reseatTickets(moved, records);
+            publishTickets();
+            return journal(records.toArray(new JournalRecord[0]));
+        });
+        awaitDurable(commit);
+    }
+
+    public List<Route> getAllRoutes() {
+        return routesSnapshot.items();
     }
 
-    public synchronized List<Route> getAllRoutes() {
-        return new ArrayList<>(routes);
+    public Snapshot<Route> getRoutesSnapshot() {
+        return routesSnapshot;
     }
 
-    public synchronized List<Promotion> getAllPromotions() {
-        return new ArrayList<>(promotions);
+    public List<Promotion> getAllPromotions() {
+        return promotionsSnapshot.items();
     }
 
-    public synchronized Promotion getPromotionById(int id) {
-        return promotions.stream().filter(p -> p.getId() == id).findFirst().orElse(null);
+    public Snapshot<Promotion> getPromotionsSnapshot() {
+        return promotionsSnapshot;
     }
 
-    public synchronized void addPromotion(Promotion promotion) {
+    public Promotion getPromotionById(int id) {
+        return read(promotionsLock, () -> promotions.get(id));
+    }
+
+    public void addPromotion(Promotion promotion) {
         if (promotion == null || promotion.getId() <= 0) return;
-        boolean exists = promotions.stream().anyMatch(p -> p.getId() == promotion.getId());
-        if (!exists) {
-            promotions.add(promotion);
-            saveData();
-        }
+        CompletableFuture<Void> commit = mutate(promotionsLock, () -> {
+            if (promotions.containsKey(promotion.getId())) return null;
+            promotions.put(promotion.getId(), promotion);
+            publishPromotions();
+            return journal(JournalRecord.put(EntityType.PROMOTION, String.valueOf(promotion.getId()), promotion));
+        });
+        awaitDurable(commit);
     }
 
-    public synchronized void deletePromotion(int id) {
-        promotions.removeIf(p -> p.getId() == id);
-        saveData();
+    public void deletePromotion(int id) {
+        CompletableFuture<Void> commit = mutate(promotionsLock, () -> {
+            if (promotions.remove(id) == null) return null;
+            publishPromotions();
+            return journal(JournalRecord.delete(EntityType.PROMOTION, String.valueOf(id)));
+        });
+        awaitDurable(commit);
     }
 
     // --- GENERAZIONE DINAMICA TRENI E RICERCA ---
-    public synchronized List<Train> generateTrainsForDay(String departureStation, String arrivalStation, java.time.LocalDate date) {
-        List<Train> result = new ArrayList<>();
-        for (Train t : trains) {
-            boolean matchDep = (departureStation == null || departureStation.isEmpty() || t.getDepartureStation().toLowerCase().contains(departureStation.toLowerCase()));
-            boolean matchArr = (arrivalStation == null || arrivalStation.isEmpty() || t.getArrivalStation().toLowerCase().contains(arrivalStation.toLowerCase()));
-            LocalDate depDate = Instant.ofEpochSecond(t.getDepartureTime().getSeconds())
-                    .atZone(ZoneId.systemDefault()).toLocalDate();
-            if (matchDep && matchArr && depDate.equals(date)) {
-                result.add(t);
-            }
-        }
-        return result;
+    // L'orario ha un proprio lock e indicizza le corse per giorno e coppia di stazioni:
+    // le ricerche non passano per i lock delle partizioni del DataStore.
+
+    public List<Train> generateTrainsForDay(String departureStation, String arrivalStation, java.time.LocalDate date) {
+        return timetable.search(date, departureStation, arrivalStation, null, null);
+    }
+
+    /**
+     * Tabellone partenze e arrivi di una stazione in un giorno.
+     */
+    public StationBoard getStationBoard(LocalDate date, String stationName) {
+        return timetable.stationBoard(date, stationName);
+    }
+
+    public List<Train> searchTrains(String departureStation, String arrivalStation, String date, String trainType, int limit) {
+        return searchTrains(departureStation, arrivalStation, date, null, null, trainType, limit);
     }
 
-    public synchronized List<Train> searchTrains(String departureStation, String arrivalStation, String date, String trainType, int limit) {
+    /**
+     * Cerca le corse di un giorno tra due stazioni, con partenza nella fascia oraria indicata.
+     *
+     * @param timeFrom orario minimo di partenza (incluso), oppure null
+     * @param timeTo   orario massimo di partenza (incluso), oppure null
+     */
+    public List<Train> searchTrains(String departureStation, String arrivalStation, String date,
+                                    LocalTime timeFrom, LocalTime timeTo, String trainType, int limit) {
         LocalDate searchDate;
         if (date == null || date.isEmpty()) {
             searchDate = java.time.LocalDate.now();
@@ -558,7 +1149,7 @@ public final class DataStore implements Serializable {
                 searchDate = java.time.LocalDate.now();
             }
         }
-        List<Train> found = generateTrainsForDay(departureStation, arrivalStation, searchDate);
+        List<Train> found = timetable.search(searchDate, departureStation, arrivalStation, timeFrom, timeTo);
         // Filtro per tipologia se specificata e diversa da null/vuota
         if (trainType != null && !trainType.isEmpty() && !trainType.equalsIgnoreCase("Tutti")) {
             found = found.stream()
@@ -581,7 +1172,7 @@ public final class DataStore implements Serializable {
      * @param seats          numero di posti richiesti
      * @return true se ci sono abbastanza posti disponibili
      */
-    public synchronized boolean checkAvailableSeats(int trainId, LocalDateTime travelDateTime, int seats) {
+    public boolean checkAvailableSeats(int trainId, LocalDateTime travelDateTime, int seats) {
         int available = getAvailableSeats(trainId, travelDateTime);
         return available >= seats;
     }
@@ -593,167 +1184,178 @@ public final class DataStore implements Serializable {
      * @param travelDateTime data e ora della corsa (può essere null: in tal caso considera solo la data)
      * @return numero di posti disponibili per quella corsa
      */
-    public synchronized int getAvailableSeats(int trainId, LocalDateTime travelDateTime) {
-        System.out.println("[DEBUG] getAvailableSeats: trainId=" + trainId + ", travelDateTime=" + travelDateTime);
-        // Trova il treno esatto per ID e data/ora
+    public int getAvailableSeats(int trainId, LocalDateTime travelDateTime) {
+        // Trova il treno esatto per ID e data/orario
         Train train = getTrainById(trainId, travelDateTime);
         if (train == null) {
-            System.out.println("[DEBUG] Nessun treno trovato per ID=" + trainId + ", travelDateTime=" + travelDateTime);
             return 0;
         }
-        int totalSeats = DEFAULT_SEATS_PER_TRAIN;
-        int booked = 0;
-        for (Ticket t : tickets) {
-            if (t.getTrainId() == trainId && t.hasTravelDate()) {
-                // Escludi biglietti annullati o scaduti
-                if (t.getStatus() != null && (t.getStatus().equalsIgnoreCase("Annullato") || t.getStatus().equalsIgnoreCase("Scaduto"))) {
-                    System.out.println("[DEBUG] Biglietto " + t.getId() + " escluso per status: " + t.getStatus());
-                    continue;
-                }
-                Instant instant = Instant.ofEpochSecond(t.getTravelDate().getSeconds());
-                LocalDateTime ticketDateTime = LocalDateTime.ofInstant(instant, ZoneId.systemDefault()); // Uniforma a systemDefault
-                System.out.println("[DEBUG] Confronto ticketDateTime=" + ticketDateTime + " con travelDateTime=" + travelDateTime);
-                if (travelDateTime != null) {
-                    // Confronta solo anno, mese, giorno, ora e minuto (ignora secondi e fuso orario)
-                    if (ticketDateTime.getYear() == travelDateTime.getYear() &&
-                        ticketDateTime.getMonthValue() == travelDateTime.getMonthValue() &&
-                        ticketDateTime.getDayOfMonth() == travelDateTime.getDayOfMonth() &&
-                        ticketDateTime.getHour() == travelDateTime.getHour() &&
-                        ticketDateTime.getMinute() == travelDateTime.getMinute()) {
-                        booked++;
-                        System.out.println("[DEBUG] Biglietto " + t.getId() + " CONTA per il treno " + trainId);
-                    } else {
-                        System.out.println("[DEBUG] Biglietto " + t.getId() + " NON conta: orario diverso");
-                    }
-                }
-            } else if (t.getTrainId() == trainId) {
-                System.out.println("[DEBUG] Biglietto " + t.getId() + " NON ha travelDate");
-            }
+        return seatInventory.availableSeats(trainId, travelDateTime);
+    }
+
+    /**
+     * Posti disponibili per ciascuna delle corse indicate, nello stesso ordine, in un solo passaggio.
+     * Le corse sono identificate da ID e orario di partenza del treno, come nei biglietti; non serve
+     * cercare ogni treno nell'orario né prendere il lock dei biglietti.
+     */
+    public int[] getAvailableSeats(List<Train> trains) {
+        int[] available = new int[trains.size()];
+        for (int i = 0; i < available.length; i++) {
+            Train train = trains.get(i);
+            if (!train.hasDepartureTime()) continue;
+            long epochMinute = Math.floorDiv(train.getDepartureTime().getSeconds(), 60);
+            available[i] = seatInventory.availableSeats(train.getId(), epochMinute);
         }
-        int available = totalSeats - booked;
-        System.out.println("[DEBUG] Posti disponibili per treno " + trainId + " = " + available + " (prenotati: " + booked + ")");
-        return Math.max(available, 0);
+        return available;
+    }
+
+    /**
+     * Salva il posto assegnato dall'inventario ai biglietti indicati (ID → posto), aggiungendo
+     * le scritture al commit in corso. Va chiamato con il lock dei biglietti.
+     */
+    private void reseatTickets(Map<String, String> moved, List<JournalRecord> records) {
+        for (Map.Entry<String, String> entry : moved.entrySet()) {
+            Ticket current = tickets.get(entry.getKey());
+            if (current == null || current.getSeat().equals(entry.getValue())) continue;
+            Ticket reseated = current.toBuilder().setSeat(entry.getValue()).build();
+            tickets.put(reseated.getId(), reseated);
+            ticketsByPassenger.put(current, reseated);
+            records.add(JournalRecord.put(EntityType.TICKET, reseated.getId(), reseated));
+        }
+    }
+
+    /**
+     * Riserva dei posti sulla corsa indicata, preferendo posti vicini.
+     * Non richiede il lock dei biglietti: acquisti concorrenti, anche sulla stessa corsa, non si bloccano
+     * a vicenda e non possono superare la capienza. La prenotazione va confermata dopo aver salvato
+     * i biglietti oppure annullata.
+     *
+     * @return la prenotazione, oppure null se la corsa non ha abbastanza posti liberi
+     */
+    public SeatReservation reserveSeats(int trainId, LocalDateTime travelDateTime, int seats) {
+        if (travelDateTime == null || seats <= 0) return null;
+        return seatInventory.reserve(trainId, travelDateTime, seats);
     }
 
     // --- PROMOZIONI ---
     /**
      * Trova la migliore promozione per tratta, classe, data e tipologia treno (obbligatorio).
      */
-    public synchronized Promotion findBestPromotion(String routeName, String serviceClass, java.time.LocalDate travelDate, String trainType) {
-        Promotion bestPromo = null;
-        double maxDiscount = 0.0;
-        for (Promotion promo : promotions) {
-            boolean routeOk = (promo.getRouteNamesList().isEmpty() || promo.getRouteNamesList().contains(routeName));
-            boolean classOk = (promo.getServiceClassesList().isEmpty() || promo.getServiceClassesList().contains(serviceClass));
-            boolean fromOk = (!promo.hasValidFrom() || !travelDate.isBefore(java.time.Instant.ofEpochSecond(promo.getValidFrom().getSeconds()).atZone(java.time.ZoneOffset.UTC).toLocalDate()));
-            boolean toOk = (!promo.hasValidTo() || !travelDate.isAfter(java.time.Instant.ofEpochSecond(promo.getValidTo().getSeconds()).atZone(java.time.ZoneOffset.UTC).toLocalDate()));
-            boolean typeOk = (promo.getTrainType().isEmpty() || promo.getTrainType().equalsIgnoreCase(trainType));
-            if (routeOk && classOk && fromOk && toOk && typeOk) {
-                if (promo.getDiscountPercent() > maxDiscount) {
-                    maxDiscount = promo.getDiscountPercent();
-                    bestPromo = promo;
-                }
-            }
-        }
-        return bestPromo;
+    public Promotion findBestPromotion(String routeName, String serviceClass, java.time.LocalDate travelDate, String trainType) {
+        return promotionIndex.findBest(routeName, serviceClass, trainType, null, travelDate.toEpochDay());
     }
 
-    public synchronized void clearAllTickets() {
-        tickets.clear();
-        // Reset posti disponibili per ogni treno
-        for (Train t : trains) {
-            trainSeatsAvailable.put(t.getId(), DEFAULT_SEATS_PER_TRAIN);
-        }
-        saveData();
+    /**
+     * Indice corrente delle promozioni; l'istanza restituita non cambia mai e può essere letta senza lock.
+     */
+    public PromotionIndex getPromotionIndex() {
+        return promotionIndex;
     }
 
-    // --- GESTIONE UTENTI SEMPLIFICATA (SOLO LETTURA) ---
+    // --- VISTE IMMUTABILI ---
 
     /**
-     * Carica i dati utenti direttamente dal file JSON.
+     * Vista immutabile di una collezione con la sua versione.
+     * <p>
+     * Chi modifica la collezione pubblica una nuova vista tenendo il lock di scrittura della partizione;
+     * i lettori ottengono con una sola lettura volatile una lista coerente, senza lock né copie.
+     * La versione cresce a ogni pubblicazione: le cache di dati derivati la confrontano per sapere
+     * quando ricalcolarli.
      */
-    private Map<String, Map<String, Object>> loadUsersData() {
-        Map<String, Map<String, Object>> usersData = new HashMap<>();
-        try {
-            String usersFile = DATA_DIR + "/users.json";
-            File file = new File(usersFile);
-            if (!file.exists()) return usersData;
-
-            String json = Files.readString(Paths.get(usersFile)).trim();
-            if (json.isEmpty() || json.equals("[]")) return usersData;
-
-            JSONArray arr = new JSONArray(json);
-            for (int i = 0; i < arr.length(); i++) {
-                JSONObject obj = arr.getJSONObject(i);
-                String username = obj.optString("username");
-                if (!username.isEmpty()) {
-                    Map<String, Object> userData = new HashMap<>();
-                    userData.put("email", obj.optString("email", ""));
-                    userData.put("fidelityMember", obj.optBoolean("fidelityMember", false));
-                    userData.put("customerType", obj.optString("customerType", "standard"));
-                    usersData.put(username, userData);
-                }
-            }
-        } catch (Exception e) {
-            System.err.println("Errore caricamento utenti: " + e.getMessage());
+    public record Snapshot<T>(List<T> items, long version) {
+
+        private static <T> Snapshot<T> empty() {
+            return new Snapshot<>(List.of(), 0);
         }
-        return usersData;
+
+        private Snapshot<T> next(Collection<T> current) {
+            return new Snapshot<>(List.copyOf(current), version + 1);
+        }
+    }
+
+    private void publishStations() {
+        stationsSnapshot = stationsSnapshot.next(stations.values());
+    }
+
+    private void publishTickets() {
+        ticketsSnapshot = ticketsSnapshot.next(tickets.values());
+    }
+
+    private void publishRoutes() {
+        routesSnapshot = routesSnapshot.next(routes);
+    }
+
+    private void publishPromotions() {
+        Snapshot<Promotion> snapshot = promotionsSnapshot.next(promotions.values());
+        promotionsSnapshot = snapshot;
+        promotionIndex = PromotionIndex.build(snapshot.items(), ZoneId.systemDefault(), snapshot.version());
     }
 
     /**
-     * Salva i dati utenti nel file JSON.
+     * Porta a "Scaduto" i biglietti ancora validi con orario di viaggio precedente a {@code nowEpochSecond}.
+     * I biglietti vengono presi dall'indice per orario, senza scorrere gli altri, e le modifiche finiscono
+     * in un unico commit sul journal. Le corse già partite vengono tolte dall'inventario dei posti.
+     *
+     * @return numero di biglietti scaduti
      */
-    private synchronized void saveUsersData(Map<String, Map<String, Object>> usersData) {
-        try {
-            String usersFile = DATA_DIR + "/users.json";
-            JSONArray arr = new JSONArray();
-
-            for (Map.Entry<String, Map<String, Object>> entry : usersData.entrySet()) {
-                JSONObject obj = new JSONObject();
-                obj.put("username", entry.getKey());
-                obj.put("email", entry.getValue().getOrDefault("email", ""));
-                obj.put("fidelityMember", entry.getValue().getOrDefault("fidelityMember", false));
-                obj.put("customerType", entry.getValue().getOrDefault("customerType", "standard"));
-                arr.put(obj);
+    public int expireTickets(long nowEpochSecond) {
+        int[] expired = {0};
+        CompletableFuture<Void> commit = mutate(ticketsLock, () -> {
+            List<JournalRecord> records = new ArrayList<>();
+            int count = 0;
+            for (String id : ticketExpiry.pollDue(nowEpochSecond)) {
+                Ticket current = tickets.get(id);
+                // Voce superata: biglietto eliminato, annullato o spostato a una data successiva
+                if (!SeatInventory.occupiesSeat(current) || current.getTravelDate().getSeconds() >= nowEpochSecond) {
+                    continue;
+                }
+                Ticket updated = current.toBuilder().setStatus("Scaduto").build();
+                tickets.put(id, updated);
+                Map<String, String> moved = seatInventory.ticketReplaced(current, updated);
+                ticketsByPassenger.put(current, updated);
+                records.add(JournalRecord.put(EntityType.TICKET, id, updated));
+                reseatTickets(moved, records);
+                count++;
             }
+            expired[0] = count;
+            seatInventory.pruneBefore(Math.floorDiv(nowEpochSecond, 60));
+            if (records.isEmpty()) return null;
+            publishTickets();
+            return journal(records.toArray(new JournalRecord[0]));
+        });
+        awaitDurable(commit);
+        return expired[0];
+    }
 
-            Files.writeString(Paths.get(usersFile), arr.toString());
-        } catch (Exception e) {
-            System.err.println("Errore salvataggio utenti: " + e.getMessage());
-        }
+    public void clearAllTickets() {
+        CompletableFuture<Void> commit = mutate(ticketsLock, () -> {
+            tickets.clear();
+            // Reset posti disponibili per ogni treno
+            seatInventory.clear();
+            ticketExpiry.clear();
+            ticketsByPassenger.clear();
+            publishTickets();
+            return journal(JournalRecord.clear(EntityType.TICKET));
+        });
+        awaitDurable(commit);
     }
 
+    // --- GESTIONE UTENTI ---
+
     /**
      * Imposta il tipo di cliente per un utente (per i test).
      */
-    public synchronized void setCustomerType(String username, String customerType) {
+    public void setCustomerType(String username, String customerType) {
         if (username == null || username.isEmpty() || customerType == null) return;
-
-        Map<String, Map<String, Object>> usersData = loadUsersData();
-        Map<String, Object> userData = usersData.getOrDefault(username, new HashMap<>());
-        userData.put("username", username);
-        userData.put("email", userData.getOrDefault("email", username + "@test.com"));
-        userData.put("fidelityMember", userData.getOrDefault("fidelityMember", false));
-        userData.put("customerType", customerType);
-
-        usersData.put(username, userData);
-        saveUsersData(usersData);
+        userProfiles.setCustomerType(username, customerType);
     }
 
     /**
-     * Ottiene il tipo di cliente per un utente (SOLO LETTURA).
-     * Legge direttamente il valore salvato nel file JSON.
+     * Ottiene il tipo di cliente per un utente dai profili in memoria.
      */
     public String getCustomerType(String username) {
         if (username == null || username.isEmpty()) return "standard";
-
-        Map<String, Map<String, Object>> usersData = loadUsersData();
-        Map<String, Object> userData = usersData.get(username);
-        if (userData == null) return "standard";
-
-        // Restituisce il tipo salvato nel file JSON
-        String customerType = (String) userData.getOrDefault("customerType", "standard");
-        return customerType != null && !customerType.isEmpty() ? customerType : "standard";
+        return userProfiles.getCustomerType(username);
     }
 
 }
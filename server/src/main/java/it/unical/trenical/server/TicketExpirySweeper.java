@@ -0,0 +1,71 @@
+package it.unical.trenical.server;
+
+import java.io.Closeable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Task periodico che porta a "Scaduto" i biglietti il cui orario di viaggio è passato.
+ * <p>
+ * A ogni esecuzione chiama {@link DataStore#expireTickets(long)}: i biglietti scaduti sono presi
+ * dall'indice per orario di viaggio e salvati con un solo commit, così l'elenco dei biglietti resta
+ * una sola lettura. L'intervallo è configurabile con la proprietà di sistema {@value #INTERVAL_PROPERTY}.
+ */
+public final class TicketExpirySweeper implements Closeable {
+
+    public static final String INTERVAL_PROPERTY = "trenical.tickets.expirySweepSeconds";
+
+    private static final int DEFAULT_INTERVAL_SECONDS = 60;
+
+    private final DataStore dataStore;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "ticket-expiry-sweeper");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public TicketExpirySweeper(DataStore dataStore) {
+        this.dataStore = dataStore;
+    }
+
+    /**
+     * Esegue subito un primo passaggio e poi uno ogni intervallo.
+     */
+    public void start() {
+        long interval = Math.max(1, Integer.getInteger(INTERVAL_PROPERTY, DEFAULT_INTERVAL_SECONDS));
+        scheduler.scheduleWithFixedDelay(this::sweep, 0, interval, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Un passaggio: scade i biglietti con orario di viaggio passato.
+     *
+     * @return numero di biglietti scaduti
+     */
+    public int sweep() {
+        try {
+            int expired = dataStore.expireTickets(System.currentTimeMillis() / 1000L);
+            if (expired > 0) {
+                System.out.println("[SCADENZE] Biglietti scaduti: " + expired);
+            }
+            return expired;
+        } catch (Exception e) {
+            // Un errore non deve fermare i passaggi successivi
+            System.err.println("[SCADENZE] Errore durante la scadenza dei biglietti: " + e.getMessage());
+            return 0;
+        }
+    }
+
+    /**
+     * Ferma i passaggi successivi, lasciando finire quello in corso.
+     */
+    @Override
+    public void close() {
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
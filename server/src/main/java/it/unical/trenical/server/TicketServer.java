@@ -24,6 +24,9 @@ public class TicketServer {
             // e di verificare che la pipeline delle notifiche funzioni correttamente lato client/server.
             // In un sistema reale, questi eventi sarebbero generati da operatori o sistemi esterni.
             notificationService.startRandomTrainStatusUpdater();
+            // Porta periodicamente a "Scaduto" i biglietti con viaggio passato
+            TicketExpirySweeper expirySweeper = new TicketExpirySweeper(DataStore.getInstance());
+            expirySweeper.start();
 
             // Configura e avvia il server gRPC
             Server server = ServerBuilder.forPort(SERVER_PORT)
@@ -43,6 +46,9 @@ public class TicketServer {
             Runtime.getRuntime().addShutdownHook(new Thread(() -> {
                 System.out.println("Arresto del server in corso...");
                 server.shutdown();
+                expirySweeper.close();
+                // Scrive su disco le modifiche ancora in coda nel journal
+                DataStore.getInstance().shutdown();
                 System.out.println("Server arrestato.");
             }));
 
@@ -2,10 +2,15 @@ package it.unical.trenical.server;
 
 import com.google.protobuf.Timestamp;
 import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
 import it.unical.trenical.grpc.common.Ticket;
 import it.unical.trenical.grpc.ticket.*;
 import it.unical.trenical.grpc.ticket.PurchaseTicketRequest;
+import it.unical.trenical.server.inventory.SeatInventory;
+import it.unical.trenical.server.inventory.SeatReservation;
+import it.unical.trenical.server.persistence.DurabilityException;
+import it.unical.trenical.server.strategy.FareQuoteCache;
 import it.unical.trenical.server.strategy.PriceCalculator;
 
 import java.time.Instant;
@@ -15,8 +20,9 @@ import java.time.ZoneId;
 import java.util.UUID;
 import java.util.List;
 import java.util.ArrayList;
-import java.util.Set;
-import java.util.HashSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.IntStream;
 
 /**
  * Implementazione del servizio gRPC per la gestione dei biglietti.
@@ -30,6 +36,14 @@ public class TicketServiceImpl extends TicketServiceGrpc.TicketServiceImplBase {
     private final PriceCalculator priceCalculator;
     // DataStore per la persistenza dei dati
     private final DataStore dataStore;
+    // Preventivi già calcolati, invalidati quando cambiano promozioni o stazioni
+    private final FareQuoteCache fareQuotes;
+
+    // Numero massimo di preventivi in una GetTicketPrices e soglia oltre la quale il calcolo è parallelo
+    private static final int MAX_PRICE_QUERIES = 500;
+    private static final int PARALLEL_PRICING_THRESHOLD = 16;
+    // Biglietti per blocco di StreamTickets quando la richiesta non indica page_size
+    private static final int DEFAULT_STREAM_CHUNK = 500;
 
     /**
      * Costruttore che inizializza il servizio con strategia di calcolo prezzi standard.
@@ -38,6 +52,7 @@ public class TicketServiceImpl extends TicketServiceGrpc.TicketServiceImplBase {
     public TicketServiceImpl() {
         this.priceCalculator = new PriceCalculator(); // Strategia standard di default
         this.dataStore = DataStore.getInstance();
+        this.fareQuotes = new FareQuoteCache(dataStore::getPricingVersion);
 
         System.out.println("[STRATEGY PATTERN] TicketServiceImpl inizializzato con strategia: " +
                          priceCalculator.getCurrentStrategyName());
@@ -52,6 +67,7 @@ public class TicketServiceImpl extends TicketServiceGrpc.TicketServiceImplBase {
     public TicketServiceImpl(PriceCalculator priceCalculator) {
         this.priceCalculator = priceCalculator;
         this.dataStore = DataStore.getInstance();
+        this.fareQuotes = new FareQuoteCache(dataStore::getPricingVersion);
 
         System.out.println("[STRATEGY PATTERN] TicketServiceImpl inizializzato con strategia custom: " +
                          priceCalculator.getCurrentStrategyName());
@@ -77,16 +93,13 @@ public class TicketServiceImpl extends TicketServiceGrpc.TicketServiceImplBase {
                 return;
             }
 
-            // PATTERN STRATEGY: Determina il tipo di cliente e imposta la strategia appropriata
+            // PATTERN STRATEGY: Determina il tipo di cliente: la strategia viene scelta a ogni calcolo in base al tipo
             String username = request.getPassengerName();
             String customerType = dataStore.getCustomerType(username);
 
             System.out.println("[STRATEGY PATTERN] Cliente: " + username +
                               ", Tipo: " + customerType);
 
-            // PATTERN STRATEGY: Imposta la strategia appropriata per il tipo di cliente
-            priceCalculator.setStrategyByType(customerType);
-
             // Se la richiesta non contiene un metodo di pagamento o è esplicitamente marcata come solo prezzo,
             // viene trattata come simulazione per calcolo prezzo
             if (request.getPaymentMethod().isEmpty() ||
@@ -107,7 +120,7 @@ public class TicketServiceImpl extends TicketServiceGrpc.TicketServiceImplBase {
                 }
 
                 // PATTERN STRATEGY: Delega il calcolo del prezzo alla strategia corretta per tipo utente
-                double price = priceCalculator.calculateTicketPrice(
+                double price = quotePrice(
                         request.getDepartureStation(),
                         request.getArrivalStation(),
                         request.getServiceClass(),
@@ -120,7 +133,7 @@ public class TicketServiceImpl extends TicketServiceGrpc.TicketServiceImplBase {
                 PurchaseTicketResponse response = PurchaseTicketResponse.newBuilder()
                         .setSuccess(true)
                         .setPrice(price)
-                        .setMessage("Prezzo calcolato per cliente " + customerType + ": " + priceCalculator.getCurrentStrategyName())
+                        .setMessage("Prezzo calcolato per cliente " + customerType + ": " + priceCalculator.getStrategyName(customerType))
                         .build();
                 responseObserver.onNext(response);
                 responseObserver.onCompleted();
@@ -153,6 +166,7 @@ public class TicketServiceImpl extends TicketServiceGrpc.TicketServiceImplBase {
                         .atZone(ZoneId.systemDefault()).toLocalDateTime();
             }
 
+            // Controllo rapido (esistenza della corsa e posti residui); la garanzia vera viene dalla prenotazione
             boolean seatsOk = dataStore.checkAvailableSeats(trainId, travelDateTime, seatsRequested);
             if (!seatsOk) {
                 PurchaseTicketResponse response = PurchaseTicketResponse.newBuilder()
@@ -175,50 +189,42 @@ public class TicketServiceImpl extends TicketServiceGrpc.TicketServiceImplBase {
                     customerType
             );
 
-            // Crea e salva un biglietto per ogni posto richiesto
-            List<Ticket> createdTickets = new ArrayList<>();
-            Set<Integer> occupiedSeats = new HashSet<>();
-
-            // Trova tutti i posti già occupati per il treno
-            for (Ticket t : dataStore.getAllTickets()) {
-                if (t.getTrainId() == trainId) {
-                    try {
-                        occupiedSeats.add(Integer.parseInt(t.getSeat()));
-                    } catch (Exception ignored) {}
-                }
+            // Riserva atomicamente i posti sulla corsa: due acquisti concorrenti non possono superare la capienza
+            SeatReservation reservation = dataStore.reserveSeats(trainId, travelDateTime, seatsRequested);
+            if (reservation == null) {
+                PurchaseTicketResponse response = PurchaseTicketResponse.newBuilder()
+                        .setSuccess(false)
+                        .setMessage("Posti esauriti per questo treno o richiesta superiore ai posti disponibili.")
+                        .build();
+                responseObserver.onNext(response);
+                responseObserver.onCompleted();
+                return;
             }
 
-            int seatNumber = 1;
-            for (int i = 0; i < seatsRequested; i++) {
-                // Trova il primo posto libero
-                while (occupiedSeats.contains(seatNumber)) {
-                    seatNumber++;
+            // Crea un biglietto per ogni posto riservato e li salva insieme; in caso di errore i posti tornano liberi
+            List<Ticket> createdTickets = new ArrayList<>();
+            boolean saved;
+            try {
+                for (int seatNumber : reservation.getSeats()) {
+                    createdTickets.add(buildTicket(request, finalPrice, seatNumber));
                 }
-
-                String ticketId = UUID.randomUUID().toString();
-
-                // Pattern BUILDER: utilizzo di Ticket.newBuilder() per costruire oggetti complessi
-                Ticket ticket = Ticket.newBuilder()
-                        .setId(ticketId)
-                        .setTrainId(request.getTrainId())
-                        .setPassengerName(request.getPassengerName())
-                        .setDepartureStation(request.getDepartureStation())
-                        .setArrivalStation(request.getArrivalStation())
-                        .setTravelDate(request.getTravelDate())
-                        .setServiceClass(request.getServiceClass())
-                        .setPrice(finalPrice)
-                        .setSeat(String.valueOf(seatNumber))
-                        .setPurchaseDate(
-                            Timestamp.newBuilder()
-                                .setSeconds(Instant.now().getEpochSecond())
-                                .build()
-                        )
+                saved = dataStore.addTickets(createdTickets, reservation);
+                if (saved) reservation.commit();
+            } catch (DurabilityException e) {
+                // I biglietti sono già in memoria e occupano i posti: la prenotazione non va restituita
+                reservation.commit();
+                throw e;
+            } finally {
+                reservation.rollback();
+            }
+            if (!saved) {
+                PurchaseTicketResponse response = PurchaseTicketResponse.newBuilder()
+                        .setSuccess(false)
+                        .setMessage("Impossibile salvare i biglietti, riprovare.")
                         .build();
-
-                dataStore.addTicket(ticket);
-                createdTickets.add(ticket);
-                occupiedSeats.add(seatNumber);
-                seatNumber++;
+                responseObserver.onNext(response);
+                responseObserver.onCompleted();
+                return;
             }
 
             // Prepara e invia la risposta al client
@@ -228,7 +234,7 @@ public class TicketServiceImpl extends TicketServiceGrpc.TicketServiceImplBase {
                 "Prezzo per biglietto: %.2f €. " +
                 (!promoCode.trim().isEmpty() ?
                     "Codice promo '" + promoCode + "' applicato." : "Nessun codice promo applicato."),
-                priceCalculator.getCurrentStrategyName(),
+                priceCalculator.getStrategyName(customerType),
                 finalPrice
             );
 
@@ -286,21 +292,6 @@ public class TicketServiceImpl extends TicketServiceGrpc.TicketServiceImplBase {
             // Determina il nuovo trainId (se non specificato, usa quello attuale)
             int newTrainId = request.getTrainId() != 0 ? request.getTrainId() : ticket.getTrainId();
 
-            // Libera il vecchio posto (rimuovendo il biglietto)
-            dataStore.deleteTicket(ticket.getId());
-            // Trova tutti i posti occupati sul nuovo treno/data/orario
-            Set<Integer> occupiedSeats = new HashSet<>();
-            for (Ticket t : dataStore.getAllTickets()) {
-                if (t.getTrainId() == newTrainId && t.hasTravelDate() && t.getTravelDate().equals(newDate) && t.hasTravelTime() && t.getTravelTime().equals(newTime)) {
-                    try { occupiedSeats.add(Integer.parseInt(t.getSeat())); } catch (Exception ignored) {}
-                }
-            }
-            // Assegna il primo posto libero
-            int seatNumber = 1;
-            while (occupiedSeats.contains(seatNumber)) {
-                seatNumber++;
-            }
-            updatedTicket.setSeat(String.valueOf(seatNumber));
             // Aggiorna i campi modificati
             if (isValidField(request.getNewDepartureStation())) {
                 updatedTicket.setDepartureStation(request.getNewDepartureStation());
@@ -334,15 +325,17 @@ public class TicketServiceImpl extends TicketServiceGrpc.TicketServiceImplBase {
                 return;
             }
 
-            // Ricalcola il prezzo e applica eventuale penale/differenza
+            // Ricalcola il prezzo con la strategia del tipo di cliente del passeggero, come nell'acquisto
             double oldPrice = ticket.getPrice();
+            String customerType = dataStore.getCustomerType(ticket.getPassengerName());
             double newPrice = priceCalculator.calculateTicketPrice(
                     newDeparture,
                     newArrival,
                     newServiceClass,
                     newDate,
                     "", // promoCode vuoto, nessun codice promo durante modifica
-                    request.getTrainType()
+                    request.getTrainType(),
+                    customerType
             );
             double penale = 0.0;
 
@@ -369,9 +362,38 @@ public class TicketServiceImpl extends TicketServiceGrpc.TicketServiceImplBase {
                 finalPrice = oldPrice + penale + diff;
             }
             updatedTicket.setPrice(finalPrice);
-            // Elimina solo una volta il biglietto originale
-            dataStore.deleteTicket(ticket.getId());
-            dataStore.addTicket(updatedTicket.build());
+
+            // Se cambia la corsa (treno o orario) serve un posto sulla nuova corsa, altrimenti il posto resta lo stesso.
+            // Il vecchio posto viene liberato dal DataStore quando il biglietto viene aggiornato.
+            // L'aggiornamento riesce solo se il biglietto è ancora quello letto all'inizio (es. non annullato nel frattempo).
+            boolean updated;
+            boolean runChanged = newTrainId != ticket.getTrainId()
+                    || newDate.getSeconds() / 60 != ticket.getTravelDate().getSeconds() / 60;
+            if (runChanged) {
+                LocalDateTime newDateTime = Instant.ofEpochSecond(newDate.getSeconds())
+                        .atZone(ZoneId.systemDefault()).toLocalDateTime();
+                SeatReservation reservation = dataStore.reserveSeats(newTrainId, newDateTime, 1);
+                if (reservation == null) {
+                    sendOperationResponse(false, "Nessun posto disponibile sulla nuova corsa!", responseObserver);
+                    return;
+                }
+                try {
+                    updatedTicket.setSeat(String.valueOf(reservation.getSeats()[0]));
+                    updated = dataStore.updateTicket(ticket, updatedTicket.build(), reservation);
+                    if (updated) reservation.commit();
+                } catch (DurabilityException e) {
+                    reservation.commit();
+                    throw e;
+                } finally {
+                    reservation.rollback();
+                }
+            } else {
+                updated = dataStore.updateTicket(ticket, updatedTicket.build());
+            }
+            if (!updated) {
+                sendOperationResponse(false, "Il biglietto è stato modificato o annullato nel frattempo, riprovare.", responseObserver);
+                return;
+            }
             // Risposta dettagliata con breakdown prezzi
             String msg = String.format(
                 "Biglietto modificato con successo! Prezzo precedente: %.2f €, Prezzo nuovo: %.2f €, Penale: %.2f €, Differenza tariffaria: %.2f €, Totale da pagare: %.2f €",
@@ -476,8 +498,16 @@ public class TicketServiceImpl extends TicketServiceGrpc.TicketServiceImplBase {
                     .setPrice(refundAmount) // Imposta il prezzo come importo rimborsato
                     .build();
 
-            dataStore.deleteTicket(ticketId);
-            dataStore.addTicket(cancelledTicket);
+            // Aggiornamento sul posto: il biglietto mantiene la sua posizione negli elenchi (e nei cursori di paginazione)
+            if (!dataStore.updateTicket(ticket, cancelledTicket)) {
+                OperationResponse response = OperationResponse.newBuilder()
+                        .setSuccess(false)
+                        .setMessage("Il biglietto è stato modificato nel frattempo, riprovare.")
+                        .build();
+                responseObserver.onNext(response);
+                responseObserver.onCompleted();
+                return;
+            }
 
             // Prepara il messaggio di risposta dettagliato
             String message;
@@ -540,44 +570,23 @@ public class TicketServiceImpl extends TicketServiceGrpc.TicketServiceImplBase {
 
     /**
      * Gestisce la richiesta di elenco dei biglietti.
-     * Restituisce solo i biglietti dell'utente richiesto o tutti se non è specificato un passeggero.
-     * @param request Richiesta contenente i criteri di ricerca (es. nome passeggero).
+     * Restituisce solo i biglietti dell'utente richiesto o tutti se non è specificato un passeggero,
+     * in ordine di acquisto; con {@code page_size} restituisce una pagina e il cursore della successiva.
+     * È una sola lettura: lo stato "Scaduto" viene salvato da {@link TicketExpirySweeper}; un biglietto
+     * scaduto dopo l'ultimo passaggio viene comunque mostrato come tale.
+     * @param request Richiesta contenente i criteri di ricerca (es. nome passeggero) e la paginazione.
      * @param responseObserver Stream per inviare la risposta al client.
      */
     @Override
     public void listTickets(ListTicketsRequest request, StreamObserver<ListTicketsResponse> responseObserver) {
         try {
-            String passengerName = request.getPassengerName();
-            List<Ticket> allTickets = dataStore.getAllTickets();
-            List<Ticket> filteredTickets = new ArrayList<>();
-            List<Ticket> toUpdate = new ArrayList<>();
-            long now = System.currentTimeMillis() / 1000L;
-            for (Ticket t : allTickets) {
-                if (t.hasTravelDate() && ( (!t.getStatus().equalsIgnoreCase("Annullato") && !t.getStatus().equalsIgnoreCase("Scaduto")))) {
-                    long travelEpoch = t.getTravelDate().getSeconds();
-                    if (travelEpoch < now) {
-                        // Aggiorna lo stato a "Scaduto"
-                        Ticket updated = t.toBuilder().setStatus("Scaduto").build();
-                        toUpdate.add(updated);
-                        t = updated;
-                    }
-                }
-                if (!passengerName.isEmpty()) {
-                    if (t.getPassengerName().equals(passengerName)) {
-                        filteredTickets.add(t);
-                    }
-                } else {
-                    filteredTickets.add(t);
-                }
-            }
-            // Aggiorna i biglietti scaduti nel DataStore
-            for (Ticket t : toUpdate) {
-                dataStore.deleteTicket(t.getId());
-                dataStore.addTicket(t);
-            }
-            ListTicketsResponse response = ListTicketsResponse.newBuilder().addAllTickets(filteredTickets).build();
-            responseObserver.onNext(response);
+            List<Ticket> source = ticketsFor(request);
+            int start = pageStart(source, request.getPageToken());
+            int end = request.getPageSize() > 0 ? Math.min(source.size(), start + request.getPageSize()) : source.size();
+            responseObserver.onNext(ticketPage(source, start, end));
             responseObserver.onCompleted();
+        } catch (IllegalArgumentException e) {
+            responseObserver.onError(Status.INVALID_ARGUMENT.withDescription(e.getMessage()).asRuntimeException());
         } catch (Exception e) {
             responseObserver.onError(
                     Status.INTERNAL
@@ -587,6 +596,103 @@ public class TicketServiceImpl extends TicketServiceGrpc.TicketServiceImplBase {
         }
     }
 
+    /**
+     * Come {@link #listTickets}, ma invia i biglietti a blocchi di {@code page_size} (predefinito
+     * {@value #DEFAULT_STREAM_CHUNK}) partendo da {@code page_token}. I blocchi vengono inviati solo quando
+     * il client è pronto a riceverli, così un elenco grande non resta tutto in memoria nel buffer di invio.
+     */
+    @Override
+    public void streamTickets(ListTicketsRequest request, StreamObserver<ListTicketsResponse> responseObserver) {
+        List<Ticket> source;
+        int start;
+        try {
+            source = ticketsFor(request);
+            start = pageStart(source, request.getPageToken());
+        } catch (IllegalArgumentException e) {
+            responseObserver.onError(Status.INVALID_ARGUMENT.withDescription(e.getMessage()).asRuntimeException());
+            return;
+        }
+        int chunk = request.getPageSize() > 0 ? request.getPageSize() : DEFAULT_STREAM_CHUNK;
+        // Senza chiamata gRPC reale (es. nei test) non c'è controllo di flusso: i blocchi partono tutti di seguito
+        ServerCallStreamObserver<ListTicketsResponse> call =
+                responseObserver instanceof ServerCallStreamObserver<ListTicketsResponse> observer ? observer : null;
+        int[] position = {start};
+        boolean[] completed = {false};
+        // Eseguito all'avvio e ogni volta che il client torna pronto; gRPC non lo esegue mai in parallelo
+        Runnable sendChunks = () -> {
+            while (!completed[0] && (call == null || (call.isReady() && !call.isCancelled()))) {
+                int end = Math.min(source.size(), position[0] + chunk);
+                if (end > position[0]) {
+                    responseObserver.onNext(ticketPage(source, position[0], end));
+                }
+                position[0] = end;
+                if (end >= source.size()) {
+                    completed[0] = true;
+                    responseObserver.onCompleted();
+                }
+            }
+        };
+        if (call != null) {
+            call.setOnReadyHandler(sendChunks);
+        }
+        sendChunks.run();
+    }
+
+    /**
+     * Biglietti del passeggero richiesto dall'indice per passeggero, oppure tutti se il nome è vuoto.
+     */
+    private List<Ticket> ticketsFor(ListTicketsRequest request) {
+        String passengerName = request.getPassengerName();
+        return passengerName.isEmpty() ? dataStore.getAllTickets() : dataStore.getTicketsByPassenger(passengerName);
+    }
+
+    /**
+     * Pagina [start, end) dei biglietti, con il cursore della successiva se ce ne sono altri.
+     * Il cursore è "posizione:id dell'ultimo biglietto inviato".
+     */
+    private static ListTicketsResponse ticketPage(List<Ticket> source, int start, int end) {
+        ListTicketsResponse.Builder response = ListTicketsResponse.newBuilder();
+        long now = System.currentTimeMillis() / 1000L;
+        for (Ticket t : source.subList(start, end)) {
+            if (SeatInventory.occupiesSeat(t) && t.getTravelDate().getSeconds() < now) {
+                t = t.toBuilder().setStatus("Scaduto").build();
+            }
+            response.addTickets(t);
+        }
+        if (end > start && end < source.size()) {
+            response.setNextPageToken(end + ":" + source.get(end - 1).getId());
+        }
+        return response.build();
+    }
+
+    /**
+     * Posizione da cui riprendere l'elenco indicata dal cursore. Se nel frattempo sono stati eliminati
+     * biglietti precedenti, la posizione viene ricalcolata dall'id dell'ultimo biglietto inviato.
+     *
+     * @throws IllegalArgumentException se il cursore non è valido
+     */
+    static int pageStart(List<Ticket> source, String pageToken) {
+        if (pageToken == null || pageToken.isEmpty()) return 0;
+        int separator = pageToken.indexOf(':');
+        int offset;
+        try {
+            offset = separator > 0 ? Integer.parseInt(pageToken.substring(0, separator)) : -1;
+        } catch (NumberFormatException e) {
+            offset = -1;
+        }
+        if (offset < 0) {
+            throw new IllegalArgumentException("Cursore di pagina non valido: " + pageToken);
+        }
+        String lastId = pageToken.substring(separator + 1);
+        if (offset > 0 && offset <= source.size() && source.get(offset - 1).getId().equals(lastId)) {
+            return offset;
+        }
+        for (int i = Math.min(offset, source.size()) - 1; i >= 0; i--) {
+            if (source.get(i).getId().equals(lastId)) return i + 1;
+        }
+        return Math.min(offset, source.size());
+    }
+
     @Override
     public void clearAllTickets(ClearAllTicketsRequest request, StreamObserver<OperationResponse> responseObserver) {
         try {
@@ -622,11 +728,8 @@ public class TicketServiceImpl extends TicketServiceGrpc.TicketServiceImplBase {
 
             System.out.println("[STRATEGY PATTERN] Calcolo prezzo per tipo utente: " + userType);
 
-            // PATTERN STRATEGY: Imposta la strategia appropriata per il tipo di utente
-            priceCalculator.setStrategyByUserType(userType);
-
             // PATTERN STRATEGY: Delega il calcolo alla strategia corretta per tipo utente
-            double price = priceCalculator.calculateTicketPrice(
+            double price = quotePrice(
                 request.getDepartureStation(),
                 request.getArrivalStation(),
                 request.getServiceClass(),
@@ -650,6 +753,96 @@ public class TicketServiceImpl extends TicketServiceGrpc.TicketServiceImplBase {
         }
     }
 
+    /**
+     * Calcola i prezzi di più preventivi per lo stesso utente in una sola chiamata.
+     * Il tipo di utente viene risolto una volta per tutta la richiesta, i preventivi identici vengono calcolati
+     * una sola volta e, oltre una certa dimensione, il calcolo viene distribuito su più core.
+     */
+    @Override
+    public void getTicketPrices(GetTicketPricesRequest request, StreamObserver<GetTicketPricesResponse> responseObserver) {
+        if (request.getQueriesCount() > MAX_PRICE_QUERIES) {
+            responseObserver.onError(Status.INVALID_ARGUMENT
+                    .withDescription("Troppi preventivi in una richiesta (massimo " + MAX_PRICE_QUERIES + ")")
+                    .asRuntimeException());
+            return;
+        }
+        try {
+            String userType = request.getUserType();
+            if (userType.isEmpty()) {
+                userType = dataStore.getCustomerType(request.getUsername());
+            }
+
+            // Preventivi distinti: le stesse combinazioni ripetute nella pagina si calcolano una volta
+            List<TicketPriceQuery> queries = request.getQueriesList();
+            Map<FareQuoteCache.Key, Integer> slotByKey = new HashMap<>();
+            List<TicketPriceQuery> distinct = new ArrayList<>();
+            int[] slotOfQuery = new int[queries.size()];
+            for (int i = 0; i < queries.size(); i++) {
+                TicketPriceQuery q = queries.get(i);
+                FareQuoteCache.Key key = FareQuoteCache.key(q.getDepartureStation(), q.getArrivalStation(),
+                        q.getServiceClass(), q.getTravelDate(), normalizePromoCode(q.getPromoCode()),
+                        q.getTrainType(), userType);
+                Integer slot = slotByKey.get(key);
+                if (slot == null) {
+                    slot = distinct.size();
+                    slotByKey.put(key, slot);
+                    distinct.add(q);
+                }
+                slotOfQuery[i] = slot;
+            }
+
+            final String resolvedType = userType;
+            double[] prices = new double[distinct.size()];
+            IntStream slots = IntStream.range(0, distinct.size());
+            if (distinct.size() >= PARALLEL_PRICING_THRESHOLD) {
+                slots = slots.parallel();
+            }
+            slots.forEach(i -> {
+                TicketPriceQuery q = distinct.get(i);
+                prices[i] = quotePrice(q.getDepartureStation(), q.getArrivalStation(), q.getServiceClass(),
+                        q.getTravelDate(), normalizePromoCode(q.getPromoCode()), q.getTrainType(), resolvedType);
+            });
+
+            GetTicketPricesResponse.Builder response = GetTicketPricesResponse.newBuilder().setUserType(userType);
+            for (int i = 0; i < queries.size(); i++) {
+                TicketPriceQuery q = queries.get(i);
+                response.addPrices(TicketPriceResult.newBuilder()
+                        .setTrainId(q.getTrainId())
+                        .setServiceClass(q.getServiceClass())
+                        .setPromoCode(q.getPromoCode())
+                        .setPrice(prices[slotOfQuery[i]]));
+            }
+            responseObserver.onNext(response.build());
+            responseObserver.onCompleted();
+        } catch (Exception e) {
+            responseObserver.onError(
+                Status.INTERNAL.withDescription("Errore durante il calcolo dei prezzi: " + e.getMessage()).asRuntimeException()
+            );
+        }
+    }
+
+    private static String normalizePromoCode(String promoCode) {
+        return !promoCode.trim().isEmpty() ? promoCode.toUpperCase() : "";
+    }
+
+    /**
+     * Prezzo di un preventivo, preso dalla cache se già calcolato con le promozioni e le stazioni correnti.
+     */
+    private double quotePrice(String departureStation, String arrivalStation, String serviceClass,
+                              Timestamp travelDate, String promoCode, String trainType, String userType) {
+        FareQuoteCache.Key key = FareQuoteCache.key(departureStation, arrivalStation, serviceClass,
+                travelDate, promoCode, trainType, userType);
+        return fareQuotes.getOrCompute(key, () -> priceCalculator.calculateTicketPrice(
+                departureStation, arrivalStation, serviceClass, travelDate, promoCode, trainType, userType));
+    }
+
+    /**
+     * Statistiche della cache dei preventivi (hit, miss, invalidazioni).
+     */
+    public FareQuoteCache getFareQuoteCache() {
+        return fareQuotes;
+    }
+
     /**
      * Gestisce la richiesta di recupero di un biglietto per ID.
      *
@@ -683,6 +876,29 @@ public class TicketServiceImpl extends TicketServiceGrpc.TicketServiceImplBase {
         }
     }
 
+    /**
+     * Costruisce il biglietto per un posto già riservato sulla corsa.
+     */
+    private Ticket buildTicket(PurchaseTicketRequest request, double price, int seatNumber) {
+        // Pattern BUILDER: utilizzo di Ticket.newBuilder() per costruire oggetti complessi
+        return Ticket.newBuilder()
+                .setId(UUID.randomUUID().toString())
+                .setTrainId(request.getTrainId())
+                .setPassengerName(request.getPassengerName())
+                .setDepartureStation(request.getDepartureStation())
+                .setArrivalStation(request.getArrivalStation())
+                .setTravelDate(request.getTravelDate())
+                .setServiceClass(request.getServiceClass())
+                .setPrice(price)
+                .setSeat(String.valueOf(seatNumber))
+                .setPurchaseDate(
+                    Timestamp.newBuilder()
+                        .setSeconds(Instant.now().getEpochSecond())
+                        .build()
+                )
+                .build();
+    }
+
     private boolean isValidPurchaseRequest(PurchaseTicketRequest request) {
         return request != null &&
                 request.getTrainId() > 0 &&
@@ -6,6 +6,8 @@ import io.grpc.stub.StreamObserver;
 import it.unical.trenical.grpc.common.Station;
 import it.unical.trenical.grpc.common.Train;
 import it.unical.trenical.grpc.train.*;
+import it.unical.trenical.server.index.StationSearchIndex;
+import it.unical.trenical.server.timetable.StationBoard;
 import java.time.*;
 import java.util.List;
 
@@ -35,8 +37,10 @@ public class TrainServiceImpl extends TrainServiceGrpc.TrainServiceImplBase {
         try {
             String query = request.getQuery();
             int limit = request.getLimit();
+            int maxEdits = !request.getFuzzy() ? 0
+                    : request.getMaxEdits() > 0 ? request.getMaxEdits() : StationSearchIndex.MAX_EDITS;
 
-            List<Station> stations = dataStore.searchStations(query, limit);
+            List<Station> stations = dataStore.searchStations(query, limit, maxEdits);
 
             SearchStationResponse response = SearchStationResponse.newBuilder()
                     .addAllStations(stations)
@@ -71,15 +75,32 @@ public class TrainServiceImpl extends TrainServiceGrpc.TrainServiceImplBase {
                 date = convertTimestampToDateString(request.getDate());
             }
 
-            int limit = 20; // Limite predefinito risultati
+            // Fascia oraria di partenza (opzionale), come orario locale del giorno cercato
+            LocalTime timeFrom = request.hasTimeFrom()
+                    ? convertTimestampToLocalDateTime(request.getTimeFrom()).toLocalTime() : null;
+            LocalTime timeTo = request.hasTimeTo()
+                    ? convertTimestampToLocalDateTime(request.getTimeTo()).toLocalTime() : null;
 
-            List<Train> trains = dataStore.searchTrains(departureStation, arrivalStation, date, trainType, limit);
+            int limit = 20; // Limite predefinito risultati
 
-            TrainResponse response = TrainResponse.newBuilder()
-                    .addAllTrains(trains)
-                    .build();
+            List<Train> trains = dataStore.searchTrains(departureStation, arrivalStation, date,
+                    timeFrom, timeTo, trainType, limit);
+
+            TrainResponse.Builder response = TrainResponse.newBuilder()
+                    .addAllTrains(trains);
+
+            // Disponibilità di tutti i treni calcolata insieme, evitando una GetTrainDetails per riga
+            if (request.getIncludeAvailability()) {
+                int[] seats = dataStore.getAvailableSeats(trains);
+                for (int i = 0; i < trains.size(); i++) {
+                    response.addAvailability(TrainAvailability.newBuilder()
+                            .setTrainId(trains.get(i).getId())
+                            .setSeatsAvailable(seats[i])
+                            .setSoldOut(seats[i] <= 0));
+                }
+            }
 
-            responseObserver.onNext(response);
+            responseObserver.onNext(response.build());
             responseObserver.onCompleted();
 
         } catch (Exception e) {
@@ -180,31 +201,43 @@ public class TrainServiceImpl extends TrainServiceGrpc.TrainServiceImplBase {
     // ==================== ORARI STAZIONE ====================
 
     /**
-     * Recupera gli orari di partenza e arrivo per una stazione specifica in una data.
+     * Recupera gli orari di partenza e arrivo per una stazione specifica in una data,
+     * leggendo il tabellone precalcolato della stazione.
+     * Fascia oraria e paginazione (offset/limit) sono opzionali e si applicano a partenze e arrivi.
      *
-     * @param request richiesta contenente stazione e data
+     * @param request richiesta contenente stazione, data ed eventuali fascia oraria e paginazione
      * @param responseObserver observer per inviare la risposta
      */
     @Override
     public void getTrainSchedule(ScheduleRequest request, StreamObserver<ScheduleResponse> responseObserver) {
         try {
             String stationName = request.getStation();
-            Timestamp date = request.hasDate() ? request.getDate() : null;
-
-            List<ScheduleEntry> departures = new java.util.ArrayList<>();
-            List<ScheduleEntry> arrivals = new java.util.ArrayList<>();
-
-            // Analizza tutti i treni per trovare partenze e arrivi dalla stazione
-            for (Train train : dataStore.getAllTrains()) {
-                processTrainForSchedule(train, stationName, date, departures, arrivals);
+            LocalDate date = request.hasDate()
+                    ? convertTimestampToLocalDateTime(request.getDate()).toLocalDate()
+                    : LocalDate.now();
+
+            long from = request.hasTimeFrom()
+                    ? toEpochSecond(date, convertTimestampToLocalDateTime(request.getTimeFrom()).toLocalTime())
+                    : Long.MIN_VALUE;
+            long to = request.hasTimeTo()
+                    ? toEpochSecond(date, convertTimestampToLocalDateTime(request.getTimeTo()).toLocalTime())
+                    : Long.MAX_VALUE;
+
+            StationBoard board = dataStore.getStationBoard(date, stationName);
+            StationBoard.Page departures = board.departures(from, to, request.getOffset(), request.getLimit());
+            StationBoard.Page arrivals = board.arrivals(from, to, request.getOffset(), request.getLimit());
+
+            ScheduleResponse.Builder response = ScheduleResponse.newBuilder()
+                    .setTotalDepartures(departures.total())
+                    .setTotalArrivals(arrivals.total());
+            for (Train train : departures.trains()) {
+                response.addDepartures(toScheduleEntry(train, train.getDepartureTime(), train.getArrivalStation()));
+            }
+            for (Train train : arrivals.trains()) {
+                response.addArrivals(toScheduleEntry(train, train.getArrivalTime(), train.getDepartureStation()));
             }
 
-            ScheduleResponse response = ScheduleResponse.newBuilder()
-                    .addAllDepartures(departures)
-                    .addAllArrivals(arrivals)
-                    .build();
-
-            responseObserver.onNext(response);
+            responseObserver.onNext(response.build());
             responseObserver.onCompleted();
 
         } catch (Exception e) {
@@ -240,139 +273,23 @@ public class TrainServiceImpl extends TrainServiceGrpc.TrainServiceImplBase {
     // ==================== METODI PRIVATI DI SUPPORTO ====================
 
     /**
-     * Elabora un treno per generare le entry di orario per una stazione specifica.
+     * Crea la voce di orario di un treno.
      *
-     * @param train treno da elaborare
-     * @param stationName nome della stazione di interesse
-     * @param date data di riferimento
-     * @param departures lista delle partenze da popolare
-     * @param arrivals lista degli arrivi da popolare
+     * @param time orario di partenza (per le partenze) o di arrivo (per gli arrivi)
+     * @param otherStation destinazione (per le partenze) o origine (per gli arrivi)
      */
-    private void processTrainForSchedule(Train train, String stationName, Timestamp date,
-                                       List<ScheduleEntry> departures, List<ScheduleEntry> arrivals) {
-
-        // Trova la rotta corrispondente al treno
-        Route route = dataStore.getAllRoutes().stream()
-                .filter(r -> isRouteMatchingTrain(r, train))
-                .findFirst()
-                .orElse(null);
-
-        if (route == null) {
-            // Usa direttamente i dati del treno se non c'è rotta corrispondente
-            processTrainDirectly(train, stationName, departures, arrivals);
-            return;
-        }
-
-        // Elabora partenze e arrivi usando la rotta
-        processTrainWithRoute(train, route, stationName, date, departures, arrivals);
-    }
-
-    /**
-     * Verifica se una rotta corrisponde a un treno specifico.
-     */
-    private boolean isRouteMatchingTrain(Route route, Train train) {
-        Station depStation = dataStore.getStationById(route.getDepartureStationId());
-        Station arrStation = dataStore.getStationById(route.getArrivalStationId());
-
-        return depStation != null && arrStation != null &&
-               depStation.getName().equalsIgnoreCase(train.getDepartureStation()) &&
-               arrStation.getName().equalsIgnoreCase(train.getArrivalStation());
-    }
-
-    /**
-     * Elabora un treno usando direttamente i suoi dati (senza rotta).
-     */
-    private void processTrainDirectly(Train train, String stationName,
-                                    List<ScheduleEntry> departures, List<ScheduleEntry> arrivals) {
-
-        ScheduleEntry.Builder entryBuilder = ScheduleEntry.newBuilder()
+    private ScheduleEntry toScheduleEntry(Train train, Timestamp time, String otherStation) {
+        return ScheduleEntry.newBuilder()
                 .setTrainId(train.getId())
                 .setTrainName(train.getName())
-                .setStatus(TrainStatus.ON_TIME);
-
-        // Partenza dalla stazione
-        if (train.getDepartureStation().equalsIgnoreCase(stationName)) {
-            ScheduleEntry departure = entryBuilder
-                    .setTime(train.getDepartureTime())
-                    .setDestination(train.getArrivalStation())
-                    .build();
-            departures.add(departure);
-        }
-
-        // Arrivo alla stazione
-        if (train.getArrivalStation().equalsIgnoreCase(stationName)) {
-            ScheduleEntry arrival = entryBuilder
-                    .setTime(train.getArrivalTime())
-                    .setDestination(train.getDepartureStation())
-                    .build();
-            arrivals.add(arrival);
-        }
+                .setTime(time)
+                .setDestination(otherStation)
+                .setStatus(TrainStatus.ON_TIME)
+                .build();
     }
 
-    /**
-     * Elabora un treno usando una rotta specifica.
-     */
-    private void processTrainWithRoute(Train train, Route route, String stationName, Timestamp date,
-                                     List<ScheduleEntry> departures, List<ScheduleEntry> arrivals) {
-
-        Station depStation = dataStore.getStationById(route.getDepartureStationId());
-        Station arrStation = dataStore.getStationById(route.getArrivalStationId());
-
-        // Partenza dalla stazione
-        if (depStation != null && depStation.getName().equalsIgnoreCase(stationName)) {
-            ScheduleEntry departure = ScheduleEntry.newBuilder()
-                    .setTrainId(train.getId())
-                    .setTrainName(train.getName())
-                    .setTime(Timestamp.newBuilder()
-                            .setSeconds(parseTimeToEpoch(route.getDepartureTime(), date))
-                            .build())
-                    .setDestination(arrStation != null ? arrStation.getName() : "Destinazione sconosciuta")
-                    .setStatus(TrainStatus.ON_TIME)
-                    .build();
-            departures.add(departure);
-        }
-
-        // Arrivo alla stazione
-        if (arrStation != null && arrStation.getName().equalsIgnoreCase(stationName)) {
-            ScheduleEntry arrival = ScheduleEntry.newBuilder()
-                    .setTrainId(train.getId())
-                    .setTrainName(train.getName())
-                    .setTime(Timestamp.newBuilder()
-                            .setSeconds(parseTimeToEpoch(route.getArrivalTime(), date))
-                            .build())
-                    .setDestination(depStation != null ? depStation.getName() : "Origine sconosciuta")
-                    .setStatus(TrainStatus.ON_TIME)
-                    .build();
-            arrivals.add(arrival);
-        }
-    }
-
-    /**
-     * Converte una stringa tempo (HH:mm) e una data in timestamp epoch.
-     *
-     * @param time orario in formato HH:mm
-     * @param date data di riferimento
-     * @return timestamp in secondi dall'epoch
-     */
-    private long parseTimeToEpoch(String time, Timestamp date) {
-        if (date == null || time == null || time.isEmpty()) {
-            return 0L;
-        }
-
-        try {
-            LocalDate localDate = Instant.ofEpochSecond(date.getSeconds())
-                    .atZone(ZoneId.systemDefault())
-                    .toLocalDate();
-            LocalTime localTime = LocalTime.parse(time);
-            LocalDateTime dateTime = LocalDateTime.of(localDate, localTime);
-
-            return dateTime.atZone(ZoneId.systemDefault()).toEpochSecond();
-
-        } catch (Exception e) {
-            System.err.println("Errore nel parsing del tempo: " + e.getMessage() +
-                             " per il valore: '" + time + "'");
-            return 0L;
-        }
+    private long toEpochSecond(LocalDate date, LocalTime time) {
+        return LocalDateTime.of(date, time).atZone(ZoneId.systemDefault()).toEpochSecond();
     }
 
     /**
@@ -0,0 +1,119 @@
+package it.unical.trenical.server.index;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * BK-tree di termini con distanza di Levenshtein.
+ * <p>
+ * Ogni figlio di un nodo è etichettato con la sua distanza dal nodo: cercando i termini entro
+ * distanza {@code k} dalla query si visitano solo i figli con etichetta in [d - k, d + k], dove d è
+ * la distanza tra query e nodo (disuguaglianza triangolare). Con k piccolo la ricerca tocca una
+ * frazione dei termini. I termini non si rimuovono: chi usa l'albero lo ricostruisce quando
+ * i termini non più validi diventano troppi.
+ */
+final class BkTree {
+
+    /** Termine trovato e sua distanza dalla query. */
+    record Hit(String term, int distance) {
+    }
+
+    private static final class Node {
+        final String term;
+        Map<Integer, Node> children;
+
+        Node(String term) {
+            this.term = term;
+        }
+    }
+
+    private Node root;
+    private int size;
+
+    /**
+     * Aggiunge un termine; i duplicati vengono ignorati.
+     */
+    void add(String term) {
+        if (root == null) {
+            root = new Node(term);
+            size++;
+            return;
+        }
+        Node node = root;
+        while (true) {
+            int d = distance(term, node.term);
+            if (d == 0) return;
+            if (node.children == null) node.children = new HashMap<>(4);
+            Node child = node.children.get(d);
+            if (child == null) {
+                node.children.put(d, new Node(term));
+                size++;
+                return;
+            }
+            node = child;
+        }
+    }
+
+    /**
+     * Termini a distanza al più {@code maxDistance} dalla query.
+     */
+    List<Hit> search(String query, int maxDistance) {
+        List<Hit> hits = new ArrayList<>();
+        if (root == null) return hits;
+        Deque<Node> pending = new ArrayDeque<>();
+        pending.push(root);
+        // Righe della matrice di Levenshtein riusate per tutti i nodi visitati
+        int[][] rows = new int[2][];
+        while (!pending.isEmpty()) {
+            Node node = pending.pop();
+            int d = distance(query, node.term, rows);
+            if (d <= maxDistance) hits.add(new Hit(node.term, d));
+            if (node.children == null) continue;
+            for (int edge = Math.max(1, d - maxDistance); edge <= d + maxDistance; edge++) {
+                Node child = node.children.get(edge);
+                if (child != null) pending.push(child);
+            }
+        }
+        return hits;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Distanza di Levenshtein (inserimenti, cancellazioni e sostituzioni) su due righe.
+     */
+    static int distance(String a, String b) {
+        return distance(a, b, new int[2][]);
+    }
+
+    private static int distance(String a, String b, int[][] rows) {
+        if (a.equals(b)) return 0;
+        if (a.isEmpty()) return b.length();
+        if (b.isEmpty()) return a.length();
+        if (rows[0] == null || rows[0].length <= b.length()) {
+            rows[0] = new int[b.length() + 1];
+            rows[1] = new int[b.length() + 1];
+        }
+        int[] previous = rows[0];
+        int[] current = rows[1];
+        for (int j = 0; j <= b.length(); j++) previous[j] = j;
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            char ca = a.charAt(i - 1);
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = ca == b.charAt(j - 1) ? 0 : 1;
+                current[j] = Math.min(Math.min(current[j - 1] + 1, previous[j] + 1), previous[j - 1] + cost);
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return previous[b.length()];
+    }
+}
@@ -0,0 +1,83 @@
+package it.unical.trenical.server.index;
+
+import it.unical.trenical.grpc.common.Ticket;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Biglietti raggruppati per nome del passeggero, in ordine di inserimento.
+ * <p>
+ * Ogni passeggero ha una lista immutabile che viene sostituita per intero a ogni modifica dei suoi biglietti:
+ * le letture non prendono lock e vedono sempre una lista coerente. Le modifiche vanno serializzate
+ * da chi usa l'indice (il DataStore le esegue con il lock di scrittura dei biglietti).
+ */
+public final class PassengerTicketIndex {
+
+    private final Map<String, List<Ticket>> byPassenger = new ConcurrentHashMap<>();
+
+    /**
+     * Biglietti del passeggero (nome esatto), lista vuota se non ne ha.
+     */
+    public List<Ticket> get(String passengerName) {
+        return passengerName == null ? List.of() : byPassenger.getOrDefault(passengerName, List.of());
+    }
+
+    /**
+     * Sostituisce il contenuto dell'indice con i biglietti indicati.
+     */
+    public void rebuild(Collection<Ticket> tickets) {
+        Map<String, List<Ticket>> grouped = new HashMap<>();
+        for (Ticket ticket : tickets) {
+            grouped.computeIfAbsent(ticket.getPassengerName(), k -> new ArrayList<>()).add(ticket);
+        }
+        byPassenger.clear();
+        grouped.forEach((passenger, list) -> byPassenger.put(passenger, List.copyOf(list)));
+    }
+
+    /**
+     * Registra un biglietto nuovo o modificato; {@code previous} è la versione precedente, oppure null.
+     * Un biglietto modificato resta nella stessa posizione, salvo cambio di passeggero.
+     */
+    public void put(Ticket previous, Ticket current) {
+        if (previous != null && !previous.getPassengerName().equals(current.getPassengerName())) {
+            remove(previous);
+            previous = null;
+        }
+        List<Ticket> list = new ArrayList<>(get(current.getPassengerName()));
+        int position = previous == null ? -1 : indexOf(list, current.getId());
+        if (position >= 0) {
+            list.set(position, current);
+        } else {
+            list.add(current);
+        }
+        byPassenger.put(current.getPassengerName(), List.copyOf(list));
+    }
+
+    public void remove(Ticket ticket) {
+        List<Ticket> list = new ArrayList<>(get(ticket.getPassengerName()));
+        int position = indexOf(list, ticket.getId());
+        if (position < 0) return;
+        list.remove(position);
+        if (list.isEmpty()) {
+            byPassenger.remove(ticket.getPassengerName());
+        } else {
+            byPassenger.put(ticket.getPassengerName(), List.copyOf(list));
+        }
+    }
+
+    public void clear() {
+        byPassenger.clear();
+    }
+
+    private static int indexOf(List<Ticket> tickets, String ticketId) {
+        for (int i = 0; i < tickets.size(); i++) {
+            if (tickets.get(i).getId().equals(ticketId)) return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,291 @@
+package it.unical.trenical.server.index;
+
+import com.google.protobuf.Timestamp;
+import it.unical.trenical.grpc.promotion.Promotion;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Indice immutabile delle promozioni, ricostruito a ogni modifica.
+ * <p>
+ * Le promozioni sono raggruppate per tratta, classe di servizio, tipo di treno e tipo di utente
+ * (la stringa vuota indica "qualsiasi"). In ogni gruppo il periodo di validità è diviso in intervalli
+ * di giorni (epoch day) disgiunti, ognuno con la promozione di sconto massimo già calcolata: la ricerca
+ * della promozione migliore è quindi una ricerca binaria per ciascuno dei pochi gruppi compatibili.
+ * I codici promozionali sono indicizzati per nome, senza distinzione tra maiuscole e minuscole.
+ */
+public final class PromotionIndex {
+
+    /** Giorno di viaggio non specificato: nessun controllo sulle date di validità. */
+    public static final long ANY_DAY = Long.MIN_VALUE;
+
+    private static final String ANY = "";
+    // Tipo di utente usato per indicizzare ogni promozione quando la ricerca non filtra per utente
+    private static final String ALL_USERS = "*";
+
+    /**
+     * Promozione con i criteri di applicabilità già convertiti: insiemi di tratte e classi,
+     * validità in giorni.
+     */
+    public static final class CompiledPromotion {
+        private final Promotion promotion;
+        private final int order;
+        private final Set<String> routes;
+        private final Set<String> serviceClasses;
+        private final String trainType;
+        private final long fromDay;
+        private final long toDay;
+
+        private CompiledPromotion(Promotion promotion, int order, ZoneId zone) {
+            this.promotion = promotion;
+            this.order = order;
+            this.routes = Set.copyOf(promotion.getRouteNamesList());
+            this.serviceClasses = Set.copyOf(promotion.getServiceClassesList());
+            this.trainType = promotion.getTrainType().toLowerCase(Locale.ROOT);
+            this.fromDay = promotion.hasValidFrom() ? epochDay(promotion.getValidFrom(), zone) : Long.MIN_VALUE;
+            this.toDay = promotion.hasValidTo() ? epochDay(promotion.getValidTo(), zone) : Long.MAX_VALUE;
+        }
+
+        public Promotion promotion() {
+            return promotion;
+        }
+
+        /**
+         * Verifica tratta, classe, tipo di treno e data come facevano i singoli chiamanti.
+         * @param travelDay giorno di viaggio, oppure {@link #ANY_DAY}
+         */
+        public boolean appliesTo(String routeName, String serviceClass, String trainType, long travelDay) {
+            boolean routeOk = routes.isEmpty() || routes.contains(routeName);
+            boolean classOk = serviceClasses.isEmpty() || serviceClasses.contains(serviceClass);
+            boolean typeOk = this.trainType.isEmpty()
+                    || (trainType != null && this.trainType.equals(trainType.toLowerCase(Locale.ROOT)));
+            return routeOk && classOk && typeOk && coversDay(travelDay);
+        }
+
+        boolean coversDay(long travelDay) {
+            return travelDay == ANY_DAY || (travelDay >= fromDay && travelDay <= toDay);
+        }
+    }
+
+    /**
+     * Promozioni di uno stesso gruppo: per ogni intervallo di giorni [starts[i], starts[i+1]) la migliore.
+     */
+    private static final class Bucket {
+        private final long[] starts;
+        private final CompiledPromotion[] best;
+        // Migliore senza controllo sulle date, comprese le promozioni con periodo vuoto
+        private final CompiledPromotion overall;
+
+        private Bucket(List<CompiledPromotion> all) {
+            CompiledPromotion overallBest = null;
+            for (CompiledPromotion p : all) {
+                if (overallBest == null || compareByPriority(p, overallBest) < 0) overallBest = p;
+            }
+            this.overall = overallBest;
+            // Una promozione con fine prima dell'inizio non vale in nessun giorno: resta fuori dagli intervalli
+            List<CompiledPromotion> members = all.stream().filter(p -> p.fromDay <= p.toDay).toList();
+
+            // Estremi degli intervalli: inizio validità e giorno successivo alla fine
+            TreeSet<Long> bounds = new TreeSet<>();
+            for (CompiledPromotion p : members) {
+                bounds.add(p.fromDay);
+                if (p.toDay != Long.MAX_VALUE) bounds.add(p.toDay + 1);
+            }
+            long[] points = bounds.stream().mapToLong(Long::longValue).toArray();
+
+            // Scansione degli intervalli in ordine: le promozioni entrano al loro inizio ed escono dopo la fine
+            List<CompiledPromotion> byStart = new ArrayList<>(members);
+            byStart.sort(Comparator.comparingLong(p -> p.fromDay));
+            List<CompiledPromotion> byEnd = new ArrayList<>(members);
+            byEnd.sort(Comparator.comparingLong(p -> p.toDay));
+            TreeSet<CompiledPromotion> active = new TreeSet<>(PromotionIndex::compareByPriority);
+            CompiledPromotion[] bestPerSegment = new CompiledPromotion[points.length];
+            int started = 0;
+            int ended = 0;
+            for (int i = 0; i < points.length; i++) {
+                long day = points[i];
+                while (started < byStart.size() && byStart.get(started).fromDay <= day) {
+                    active.add(byStart.get(started++));
+                }
+                while (ended < byEnd.size() && byEnd.get(ended).toDay < day) {
+                    active.remove(byEnd.get(ended++));
+                }
+                bestPerSegment[i] = active.isEmpty() ? null : active.first();
+            }
+            this.starts = points;
+            this.best = bestPerSegment;
+        }
+
+        CompiledPromotion bestOn(long travelDay) {
+            int i = Arrays.binarySearch(starts, travelDay);
+            if (i < 0) i = -i - 2;
+            return i < 0 ? null : best[i];
+        }
+
+        CompiledPromotion bestOverall() {
+            return overall;
+        }
+    }
+
+    private record BucketKey(String route, String serviceClass, String trainType, String userType) {
+    }
+
+    private final ZoneId zone;
+    private final long version;
+    private final Map<String, List<CompiledPromotion>> byCode;
+    private final Map<BucketKey, Bucket> buckets;
+    private final int size;
+
+    private PromotionIndex(ZoneId zone, long version, Map<String, List<CompiledPromotion>> byCode,
+                           Map<BucketKey, Bucket> buckets, int size) {
+        this.zone = zone;
+        this.version = version;
+        this.byCode = byCode;
+        this.buckets = buckets;
+        this.size = size;
+    }
+
+    public static PromotionIndex empty(ZoneId zone) {
+        return build(List.of(), zone, 0);
+    }
+
+    /**
+     * Costruisce l'indice. L'ordine delle promozioni decide i pareggi: a parità di sconto
+     * vince quella che compare per prima, come nella vecchia scansione lineare.
+     */
+    public static PromotionIndex build(Collection<Promotion> promotions, ZoneId zone, long version) {
+        Map<String, List<CompiledPromotion>> byCode = new HashMap<>();
+        Map<BucketKey, List<CompiledPromotion>> grouped = new HashMap<>();
+        int order = 0;
+        for (Promotion promotion : promotions) {
+            CompiledPromotion compiled = new CompiledPromotion(promotion, order++, zone);
+            byCode.computeIfAbsent(codeKey(promotion.getName()), k -> new ArrayList<>()).add(compiled);
+            // Le promozioni senza sconto non sono mai "la migliore"
+            if (promotion.getDiscountPercent() <= 0) continue;
+
+            Set<String> userKeys = new LinkedHashSet<>();
+            userKeys.add(ALL_USERS);
+            if (promotion.getUserTypesList().isEmpty()) {
+                userKeys.add(ANY);
+            } else {
+                for (String userType : promotion.getUserTypesList()) userKeys.add(userType.toLowerCase(Locale.ROOT));
+            }
+            for (String route : orAny(compiled.routes)) {
+                for (String serviceClass : orAny(compiled.serviceClasses)) {
+                    for (String userType : userKeys) {
+                        grouped.computeIfAbsent(new BucketKey(route, serviceClass, compiled.trainType, userType),
+                                k -> new ArrayList<>()).add(compiled);
+                    }
+                }
+            }
+        }
+        Map<BucketKey, Bucket> buckets = new HashMap<>();
+        grouped.forEach((key, members) -> buckets.put(key, new Bucket(members)));
+        byCode.replaceAll((code, list) -> Collections.unmodifiableList(list));
+        return new PromotionIndex(zone, version, byCode, buckets, order);
+    }
+
+    /**
+     * Promozioni con il nome indicato (senza distinzione tra maiuscole e minuscole), in ordine di inserimento.
+     */
+    public List<CompiledPromotion> byCode(String code) {
+        if (code == null) return List.of();
+        List<CompiledPromotion> result = byCode.get(codeKey(code));
+        return result != null ? result : List.of();
+    }
+
+    /**
+     * Prima promozione con il nome indicato, oppure null.
+     */
+    public Promotion firstByCode(String code) {
+        List<CompiledPromotion> matches = byCode(code);
+        return matches.isEmpty() ? null : matches.get(0).promotion;
+    }
+
+    /**
+     * Prima promozione con il nome indicato applicabile al viaggio, oppure null.
+     */
+    public Promotion findApplicable(String code, String routeName, String serviceClass, String trainType,
+                                    long travelDay) {
+        for (CompiledPromotion candidate : byCode(code)) {
+            if (candidate.appliesTo(routeName, serviceClass, trainType, travelDay)) return candidate.promotion;
+        }
+        return null;
+    }
+
+    /**
+     * Promozione con lo sconto più alto applicabile al viaggio, oppure null.
+     * @param userType tipo di utente; null per ignorare i tipi di utente ammessi
+     * @param travelDay giorno di viaggio (epoch day), oppure {@link #ANY_DAY}
+     */
+    public Promotion findBest(String routeName, String serviceClass, String trainType, String userType,
+                              long travelDay) {
+        String[] routes = {routeName == null ? ANY : routeName, ANY};
+        String[] classes = {serviceClass == null ? ANY : serviceClass, ANY};
+        String[] types = {trainType == null ? ANY : trainType.toLowerCase(Locale.ROOT), ANY};
+        String[] users = userType == null ? new String[]{ALL_USERS} : new String[]{userType.toLowerCase(Locale.ROOT), ANY};
+
+        CompiledPromotion best = null;
+        for (int r = 0; r < (routes[0].isEmpty() ? 1 : 2); r++) {
+            for (int c = 0; c < (classes[0].isEmpty() ? 1 : 2); c++) {
+                for (int t = 0; t < (types[0].isEmpty() ? 1 : 2); t++) {
+                    for (String user : users) {
+                        Bucket bucket = buckets.get(new BucketKey(routes[r], classes[c], types[t], user));
+                        if (bucket == null) continue;
+                        CompiledPromotion candidate = travelDay == ANY_DAY ? bucket.bestOverall() : bucket.bestOn(travelDay);
+                        if (candidate != null && (best == null || compareByPriority(candidate, best) < 0)) {
+                            best = candidate;
+                        }
+                    }
+                }
+            }
+        }
+        return best != null ? best.promotion : null;
+    }
+
+    /**
+     * Giorno (epoch day) di un istante nel fuso dell'indice, {@link #ANY_DAY} se l'istante manca.
+     */
+    public long dayOf(Timestamp timestamp) {
+        return timestamp == null ? ANY_DAY : epochDay(timestamp, zone);
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private static long epochDay(Timestamp timestamp, ZoneId zone) {
+        return Instant.ofEpochSecond(timestamp.getSeconds()).atZone(zone).toLocalDate().toEpochDay();
+    }
+
+    private static String codeKey(String code) {
+        return code.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static Set<String> orAny(Set<String> values) {
+        return values.isEmpty() ? Set.of(ANY) : values;
+    }
+
+    // Sconto più alto prima; a parità, la promozione inserita prima
+    private static int compareByPriority(CompiledPromotion a, CompiledPromotion b) {
+        int byDiscount = Double.compare(b.promotion.getDiscountPercent(), a.promotion.getDiscountPercent());
+        return byDiscount != 0 ? byDiscount : Integer.compare(a.order, b.order);
+    }
+}
@@ -0,0 +1,420 @@
+package it.unical.trenical.server.index;
+
+import it.unical.trenical.grpc.common.Station;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+/**
+ * Indice per la ricerca delle stazioni (autocompletamento) per nome o città.
+ * <p>
+ * Nomi e città sono normalizzati (spazi esterni rimossi, minuscole). Le ricerche per prefisso usano
+ * una mappa ordinata, le ricerche per sottostringa gli n-grammi (da 1 a 3 caratteri): i candidati sono
+ * le stazioni della lista di n-grammi più corta tra quelli della query, poi verificati con {@code contains}.
+ * <p>
+ * I risultati sono ordinati per tipo di corrispondenza (prefisso del nome, prefisso della città,
+ * sottostringa), poi per popolarità decrescente e infine per nome. L'indice si aggiorna stazione per
+ * stazione: non serve ricostruirlo quando ne cambia una sola.
+ * <p>
+ * La ricerca tollerante agli errori di battitura ({@link #searchFuzzy}) usa un {@link BkTree} dei termini
+ * di ogni stazione: le parole di nome e città e le iniziali delle parole del nome
+ * ("Firenze Santa Maria Novella" → "smn"), senza accenti né punteggiatura.
+ * <p>
+ * Le ricerche usano il lock di lettura e procedono in parallelo; gli aggiornamenti quello di scrittura.
+ */
+public final class StationSearchIndex {
+
+    private static final int GRAM = 3;
+    private static final int NAME_PREFIX = 0;
+    private static final int CITY_PREFIX = 1;
+    private static final int SUBSTRING = 2;
+    /** Distanza di modifica massima accettata dalla ricerca tollerante. */
+    public static final int MAX_EDITS = 2;
+
+    private static final class Entry {
+        final Station station;
+        final String name;
+        final String city;
+        final Set<String> fuzzyTerms;
+        int popularity;
+
+        Entry(Station station, int popularity) {
+            this.station = station;
+            this.name = normalize(station.getName());
+            this.city = normalize(station.getCity());
+            this.fuzzyTerms = fuzzyTermsOf(station);
+            this.popularity = popularity;
+        }
+
+        Set<String> keys() {
+            Set<String> keys = new LinkedHashSet<>(2);
+            if (!name.isEmpty()) keys.add(name);
+            if (!city.isEmpty()) keys.add(city);
+            return keys;
+        }
+    }
+
+    private record Match(Entry entry, int rank) {
+    }
+
+    /**
+     * I migliori {@code limit} risultati visti finora. L'heap tiene in testa il peggiore, così un candidato
+     * che non lo supera viene scartato senza allocazioni.
+     */
+    private static final class TopMatches {
+        private final int limit;
+        private final PriorityQueue<Match> worstFirst =
+                new PriorityQueue<>((a, b) -> compare(b.entry(), b.rank(), a.entry(), a.rank()));
+
+        TopMatches(int limit) {
+            this.limit = limit;
+        }
+
+        void offer(Entry entry, int rank) {
+            if (worstFirst.size() >= limit) {
+                Match worst = worstFirst.peek();
+                if (compare(entry, rank, worst.entry(), worst.rank()) >= 0) return;
+                worstFirst.poll();
+            }
+            worstFirst.offer(new Match(entry, rank));
+        }
+
+        boolean isFull() {
+            return worstFirst.size() >= limit;
+        }
+
+        List<Station> stations() {
+            List<Match> best = new ArrayList<>(worstFirst);
+            best.sort((a, b) -> compare(a.entry(), a.rank(), b.entry(), b.rank()));
+            List<Station> result = new ArrayList<>(best.size());
+            for (Match match : best) {
+                result.add(match.entry().station);
+            }
+            return result;
+        }
+    }
+
+    // Ordine dei risultati: tipo di corrispondenza (o distanza), popolarità decrescente, nome, id
+    private static int compare(Entry a, int rankA, Entry b, int rankB) {
+        if (rankA != rankB) return Integer.compare(rankA, rankB);
+        if (a.popularity != b.popularity) return Integer.compare(b.popularity, a.popularity);
+        int byName = a.name.compareTo(b.name);
+        return byName != 0 ? byName : Integer.compare(a.station.getId(), b.station.getId());
+    }
+
+    private final Map<Integer, Entry> entries = new HashMap<>();
+    private final NavigableMap<String, Set<Integer>> names = new TreeMap<>();
+    private final NavigableMap<String, Set<Integer>> cities = new TreeMap<>();
+    private final Map<String, Set<Integer>> grams = new HashMap<>();
+    private final Map<Integer, Integer> popularity = new HashMap<>();
+    private final Map<String, Set<Integer>> fuzzyPostings = new HashMap<>();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    // Termini rimasti nell'albero senza più stazioni: oltre una certa quota l'albero si ricostruisce
+    private final Set<String> deadFuzzyTerms = new HashSet<>();
+    // Un albero per lunghezza del termine: una parola di n caratteri cerca solo tra n - k e n + k
+    private final Map<Integer, BkTree> fuzzyTrees = new HashMap<>();
+
+    /**
+     * Sostituisce il contenuto dell'indice con le stazioni indicate.
+     */
+    public void rebuild(Collection<Station> stations) {
+        write(() -> {
+            entries.clear();
+            names.clear();
+            cities.clear();
+            grams.clear();
+            fuzzyPostings.clear();
+            deadFuzzyTerms.clear();
+            fuzzyTrees.clear();
+            for (Station station : stations) {
+                add(station);
+            }
+        });
+    }
+
+    /**
+     * Aggiunge una stazione o aggiorna quella con lo stesso id.
+     */
+    public void put(Station station) {
+        write(() -> {
+            unlinkStation(station.getId());
+            add(station);
+        });
+    }
+
+    /**
+     * Rimuove la stazione con l'id indicato, se presente.
+     */
+    public void remove(int stationId) {
+        write(() -> unlinkStation(stationId));
+    }
+
+    private void unlinkStation(int stationId) {
+        Entry entry = entries.remove(stationId);
+        if (entry == null) return;
+        unlink(names, entry.name, stationId);
+        unlink(cities, entry.city, stationId);
+        for (String key : entry.keys()) {
+            for (String gram : gramsOf(key)) {
+                unlink(grams, gram, stationId);
+            }
+        }
+        for (String term : entry.fuzzyTerms) {
+            unlink(fuzzyPostings, term, stationId);
+            if (!fuzzyPostings.containsKey(term)) deadFuzzyTerms.add(term);
+        }
+        if (deadFuzzyTerms.size() > fuzzyPostings.size()) {
+            rebuildFuzzyTree();
+        }
+    }
+
+    /**
+     * Imposta la popolarità delle stazioni (ad esempio il numero di tratte che le servono).
+     * Le stazioni non presenti nella mappa hanno popolarità zero.
+     */
+    public void setPopularity(Map<Integer, Integer> popularityById) {
+        write(() -> {
+            popularity.clear();
+            popularity.putAll(popularityById);
+            for (Entry entry : entries.values()) {
+                entry.popularity = popularity.getOrDefault(entry.station.getId(), 0);
+            }
+        });
+    }
+
+    /**
+     * Restituisce al massimo {@code limit} stazioni il cui nome o città contiene la query,
+     * nell'ordine descritto nella documentazione della classe.
+     */
+    public List<Station> search(String query, int limit) {
+        return read(() -> searchExact(query, limit));
+    }
+
+    private List<Station> searchExact(String query, int limit) {
+        String q = normalize(query);
+        if (q.isEmpty() || limit <= 0) return List.of();
+
+        // Ogni gruppo precede i successivi: se i primi k sono già completi i gruppi dopo non servono
+        TopMatches top = new TopMatches(limit);
+        for (Set<Integer> ids : withPrefix(names, q)) {
+            for (int id : ids) {
+                top.offer(entries.get(id), NAME_PREFIX);
+            }
+        }
+        if (top.isFull()) return top.stations();
+        for (Set<Integer> ids : withPrefix(cities, q)) {
+            for (int id : ids) {
+                Entry entry = entries.get(id);
+                if (!entry.name.startsWith(q)) top.offer(entry, CITY_PREFIX);
+            }
+        }
+        if (top.isFull()) return top.stations();
+        for (int id : substringCandidates(q)) {
+            Entry entry = entries.get(id);
+            if (!entry.name.startsWith(q) && !entry.city.startsWith(q)
+                    && (entry.name.contains(q) || entry.city.contains(q))) {
+                top.offer(entry, SUBSTRING);
+            }
+        }
+        return top.stations();
+    }
+
+    /**
+     * Come {@link #search}, ma se le corrispondenze esatte sono meno di {@code limit} aggiunge le stazioni
+     * in cui ogni parola della query ha un termine entro {@code maxEdits} modifiche (al massimo
+     * {@value #MAX_EDITS}). Le parole corte
+     * tollerano meno errori (nessuno fino a 3 caratteri, uno fino a 5). Le stazioni aggiunte sono
+     * ordinate per numero di modifiche, popolarità e nome.
+     */
+    public List<Station> searchFuzzy(String query, int limit, int maxEdits) {
+        return read(() -> searchWithEdits(query, limit, maxEdits));
+    }
+
+    private List<Station> searchWithEdits(String query, int limit, int maxEdits) {
+        List<Station> exact = searchExact(query, limit);
+        String q = fuzzyKey(query);
+        if (exact.size() >= limit || q.isEmpty()) return exact;
+        int edits = Math.max(0, Math.min(maxEdits, MAX_EDITS));
+
+        // Ogni parola deve trovare un termine della stazione; le distanze si sommano
+        Map<Integer, Integer> distances = null;
+        for (String word : q.split(" ")) {
+            Map<Integer, Integer> byWord = closestMatches(word, edits);
+            if (distances == null) {
+                distances = byWord;
+            } else {
+                distances.keySet().retainAll(byWord.keySet());
+                distances.replaceAll((id, d) -> d + byWord.get(id));
+            }
+            if (distances.isEmpty()) return exact;
+        }
+
+        Set<Integer> found = new HashSet<>();
+        for (Station station : exact) found.add(station.getId());
+        TopMatches top = new TopMatches(limit - exact.size());
+        distances.forEach((id, d) -> {
+            if (!found.contains(id)) top.offer(entries.get(id), d);
+        });
+
+        List<Station> result = new ArrayList<>(exact);
+        result.addAll(top.stations());
+        return result;
+    }
+
+    public int size() {
+        return read(entries::size);
+    }
+
+    private <T> T read(Supplier<T> action) {
+        lock.readLock().lock();
+        try {
+            return action.get();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void write(Runnable action) {
+        lock.writeLock().lock();
+        try {
+            action.run();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void add(Station station) {
+        Entry entry = new Entry(station, popularity.getOrDefault(station.getId(), 0));
+        entries.put(station.getId(), entry);
+        link(names, entry.name, station.getId());
+        link(cities, entry.city, station.getId());
+        for (String key : entry.keys()) {
+            for (String gram : gramsOf(key)) {
+                link(grams, gram, station.getId());
+            }
+        }
+        for (String term : entry.fuzzyTerms) {
+            if (!fuzzyPostings.containsKey(term) && !deadFuzzyTerms.remove(term)) {
+                fuzzyTrees.computeIfAbsent(term.length(), k -> new BkTree()).add(term);
+            }
+            link(fuzzyPostings, term, station.getId());
+        }
+    }
+
+    private void rebuildFuzzyTree() {
+        fuzzyTrees.clear();
+        for (String term : fuzzyPostings.keySet()) {
+            fuzzyTrees.computeIfAbsent(term.length(), k -> new BkTree()).add(term);
+        }
+        deadFuzzyTerms.clear();
+    }
+
+    /**
+     * Stazioni con un termine vicino alla parola, con la distanza minima trovata.
+     */
+    private Map<Integer, Integer> closestMatches(String word, int maxEdits) {
+        int allowed = Math.min(maxEdits, word.length() <= 3 ? 0 : word.length() <= 5 ? 1 : MAX_EDITS);
+        Map<Integer, Integer> result = new HashMap<>();
+        for (int length = word.length() - allowed; length <= word.length() + allowed; length++) {
+            BkTree tree = fuzzyTrees.get(length);
+            if (tree == null) continue;
+            for (BkTree.Hit hit : tree.search(word, allowed)) {
+                for (int id : fuzzyPostings.getOrDefault(hit.term(), Set.of())) {
+                    result.merge(id, hit.distance(), Math::min);
+                }
+            }
+        }
+        return result;
+    }
+    private static Collection<Set<Integer>> withPrefix(NavigableMap<String, Set<Integer>> sorted, String prefix) {
+        return sorted.subMap(prefix, true, prefix + Character.MAX_VALUE, false).values();
+    }
+
+    /**
+     * Stazioni che contengono tutti gli n-grammi della query: si parte dalla lista più corta.
+     * Per query fino a {@value #GRAM} caratteri la lista della query stessa è già esatta.
+     */
+    private Set<Integer> substringCandidates(String q) {
+        if (q.length() <= GRAM) {
+            return grams.getOrDefault(q, Set.of());
+        }
+        Set<Integer> shortest = null;
+        for (int i = 0; i + GRAM <= q.length(); i++) {
+            Set<Integer> ids = grams.get(q.substring(i, i + GRAM));
+            if (ids == null) return Set.of();
+            if (shortest == null || ids.size() < shortest.size()) shortest = ids;
+        }
+        return shortest;
+    }
+
+    private static Set<String> gramsOf(String key) {
+        Set<String> result = new HashSet<>();
+        for (int length = 1; length <= GRAM; length++) {
+            for (int i = 0; i + length <= key.length(); i++) {
+                result.add(key.substring(i, i + length));
+            }
+        }
+        return result;
+    }
+
+    private static void link(Map<String, Set<Integer>> map, String key, int id) {
+        if (key.isEmpty()) return;
+        map.computeIfAbsent(key, k -> new HashSet<>()).add(id);
+    }
+
+    private static void unlink(Map<String, Set<Integer>> map, String key, int id) {
+        Set<Integer> ids = map.get(key);
+        if (ids == null) return;
+        ids.remove(id);
+        if (ids.isEmpty()) map.remove(key);
+    }
+
+    /**
+     * Termini della ricerca tollerante: parole di nome e città di almeno 3 caratteri e iniziali delle
+     * parole del nome (tutte e quelle dopo la prima). I nomi completi non servono, perché le query si
+     * confrontano parola per parola: così l'albero cresce con il vocabolario, non con il numero di stazioni.
+     */
+    private static Set<String> fuzzyTermsOf(Station station) {
+        Set<String> terms = new LinkedHashSet<>();
+        String name = fuzzyKey(station.getName());
+        String city = fuzzyKey(station.getCity());
+        for (String value : new String[]{name, city}) {
+            if (value.isEmpty()) continue;
+            for (String word : value.split(" ")) {
+                if (word.length() >= 3) terms.add(word);
+            }
+        }
+        String[] words = name.isEmpty() ? new String[0] : name.split(" ");
+        if (words.length >= 2) {
+            StringBuilder initials = new StringBuilder();
+            for (String word : words) initials.append(word.charAt(0));
+            terms.add(initials.toString());
+            if (words.length >= 3) terms.add(initials.substring(1));
+        }
+        return terms;
+    }
+
+    // Minuscole senza accenti, con la punteggiatura trattata come spazio
+    private static String fuzzyKey(String value) {
+        if (value == null) return "";
+        String stripped = Normalizer.normalize(value, Normalizer.Form.NFD).replaceAll("\\p{M}", "");
+        return stripped.toLowerCase(Locale.ROOT).replaceAll("[^\\p{Alnum}]+", " ").trim();
+    }
+
+    private static String normalize(String value) {
+        return value == null ? "" : value.trim().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,63 @@
+package it.unical.trenical.server.index;
+
+import it.unical.trenical.grpc.common.Ticket;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Biglietti ancora validi ordinati per orario di viaggio, per trovare quelli scaduti senza scorrerli tutti.
+ * <p>
+ * È una coda con priorità sull'orario di viaggio: l'estrazione dei biglietti scaduti costa
+ * O(k log n) per k biglietti estratti. Le voci non vengono rimosse quando un biglietto cambia o viene
+ * eliminato: chi le estrae confronta ogni id con il biglietto corrente e scarta quelle non più valide.
+ * Una modifica che sposta la data di viaggio aggiunge semplicemente una nuova voce.
+ */
+public final class TicketExpiryIndex {
+
+    private record Entry(long travelEpochSecond, String ticketId) {
+    }
+
+    private final PriorityQueue<Entry> queue =
+            new PriorityQueue<>((a, b) -> Long.compare(a.travelEpochSecond, b.travelEpochSecond));
+
+    /**
+     * Registra il biglietto se ha una data di viaggio.
+     */
+    public synchronized void offer(Ticket ticket) {
+        if (ticket == null || !ticket.hasTravelDate()) return;
+        queue.add(new Entry(ticket.getTravelDate().getSeconds(), ticket.getId()));
+    }
+
+    /**
+     * Sostituisce il contenuto con i biglietti indicati.
+     */
+    public synchronized void rebuild(Collection<Ticket> tickets) {
+        queue.clear();
+        for (Ticket ticket : tickets) {
+            offer(ticket);
+        }
+    }
+
+    public synchronized void clear() {
+        queue.clear();
+    }
+
+    /**
+     * Estrae gli id dei biglietti con orario di viaggio precedente a {@code nowEpochSecond}.
+     * Gli id possono riferirsi a biglietti già modificati o eliminati.
+     */
+    public synchronized List<String> pollDue(long nowEpochSecond) {
+        List<String> due = new ArrayList<>();
+        while (!queue.isEmpty() && queue.peek().travelEpochSecond < nowEpochSecond) {
+            due.add(queue.poll().ticketId);
+        }
+        return due;
+    }
+
+    public synchronized int size() {
+        return queue.size();
+    }
+}
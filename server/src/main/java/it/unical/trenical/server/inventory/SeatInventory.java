@@ -0,0 +1,341 @@
+package it.unical.trenical.server.inventory;
+
+import it.unical.trenical.grpc.common.Ticket;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Posti occupati per singola corsa (ID treno + minuto di partenza).
+ * <p>
+ * Il DataStore aggiorna l'inventario a ogni inserimento, modifica o rimozione di un biglietto,
+ * così la disponibilità di una corsa si legge in tempo costante senza scorrere tutti i biglietti.
+ * Contano solo i biglietti con data di viaggio e stato diverso da "Annullato" o "Scaduto".
+ * <p>
+ * Per ogni corsa la {@link SeatMap} è l'unico conteggio: ogni biglietto attivo vi occupa un posto distinto,
+ * oltre ai posti delle prenotazioni in corso, e acquisti e modifiche prendono i posti solo da lì.
+ * Accanto alla mappa si ricorda quale biglietto occupa ciascun posto: un biglietto con posto non valido
+ * o già occupato da un altro biglietto o da una prenotazione altrui riceve un posto libero, e rimuovendo
+ * un biglietto si libera solo il posto che era suo. Se la corsa è piena il biglietto resta senza posto
+ * e prende il primo che si libera.
+ * <p>
+ * Ogni aggiornamento restituisce i biglietti a cui è stato assegnato un posto diverso da quello indicato
+ * (ID biglietto → nuovo posto, stringa vuota se senza posto): il DataStore li salva insieme alla modifica,
+ * così il posto registrato coincide sempre con quello occupato.
+ */
+public final class SeatInventory {
+
+    // Valore usato per i biglietti rimasti senza posto perché la corsa era piena
+    private static final int NO_SEAT = -1;
+
+    /** Stato di una corsa: mappa dei posti e posto assegnato a ciascun biglietto. */
+    private static final class Run {
+        final long epochMinute;
+        final SeatMap seats;
+        final Map<String, Integer> seatByTicket = new LinkedHashMap<>();
+        final Map<Integer, String> ticketBySeat = new HashMap<>();
+
+        Run(long epochMinute, int capacity) {
+            this.epochMinute = epochMinute;
+            this.seats = new SeatMap(capacity);
+        }
+    }
+
+    private final ZoneId zone;
+    private final int seatsPerRun;
+    private final Map<Long, Run> runs = new ConcurrentHashMap<>();
+
+    /**
+     * Crea l'inventario usando il fuso di sistema per interpretare gli orari delle corse.
+     */
+    public SeatInventory(int seatsPerRun) {
+        this(ZoneId.systemDefault(), seatsPerRun);
+    }
+
+    public SeatInventory(ZoneId zone, int seatsPerRun) {
+        this.zone = zone;
+        this.seatsPerRun = seatsPerRun;
+    }
+
+    /**
+     * Chiave della corsa: ID treno nei 32 bit alti, minuto dall'epoch in quelli bassi.
+     */
+    public static long runKey(int trainId, long epochMinute) {
+        return ((long) trainId << 32) | (epochMinute & 0xFFFFFFFFL);
+    }
+
+    public long epochMinute(LocalDateTime dateTime) {
+        return Math.floorDiv(dateTime.atZone(zone).toEpochSecond(), 60);
+    }
+
+    /**
+     * Indica se il biglietto occupa un posto sulla propria corsa.
+     */
+    public static boolean occupiesSeat(Ticket ticket) {
+        if (ticket == null || !ticket.hasTravelDate()) return false;
+        String status = ticket.getStatus();
+        return !"Annullato".equalsIgnoreCase(status) && !"Scaduto".equalsIgnoreCase(status);
+    }
+
+    private static long epochMinuteOf(Ticket ticket) {
+        return Math.floorDiv(ticket.getTravelDate().getSeconds(), 60);
+    }
+
+    private static long runKeyOf(Ticket ticket) {
+        return runKey(ticket.getTrainId(), epochMinuteOf(ticket));
+    }
+
+    private static int seatNumberOf(Ticket ticket) {
+        return parseSeat(ticket.getSeat());
+    }
+
+    private static int parseSeat(String seat) {
+        try {
+            return Integer.parseInt(seat.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private Run runOf(long runKey, long epochMinute) {
+        return runs.computeIfAbsent(runKey, k -> new Run(epochMinute, seatsPerRun));
+    }
+
+    public Map<String, String> ticketAdded(Ticket ticket) {
+        return ticketAdded(ticket, null);
+    }
+
+    /**
+     * Registra un biglietto emesso con i posti di una prenotazione ancora in corso: il posto indicato
+     * è già occupato nella mappa, ma appartiene al biglietto se la prenotazione lo tiene.
+     *
+     * @param reservation prenotazione da cui proviene il posto, oppure null
+     * @return i biglietti a cui è stato assegnato un posto diverso da quello indicato
+     */
+    public Map<String, String> ticketAdded(Ticket ticket, SeatReservation reservation) {
+        Map<String, String> moved = new LinkedHashMap<>();
+        if (!occupiesSeat(ticket)) return moved;
+        Run run = runOf(runKeyOf(ticket), epochMinuteOf(ticket));
+        synchronized (run) {
+            seat(run, ticket.getId(), ticket.getSeat(), reservation, moved);
+        }
+        return moved;
+    }
+
+    /**
+     * @return i biglietti senza posto che hanno ricevuto il posto liberato
+     */
+    public Map<String, String> ticketRemoved(Ticket ticket) {
+        Map<String, String> moved = new LinkedHashMap<>();
+        if (!occupiesSeat(ticket)) return moved;
+        Run run = runs.get(runKeyOf(ticket));
+        if (run == null) return moved;
+        synchronized (run) {
+            unseat(run, ticket.getId(), moved);
+        }
+        return moved;
+    }
+
+    public Map<String, String> ticketReplaced(Ticket previous, Ticket updated) {
+        return ticketReplaced(previous, updated, null);
+    }
+
+    /**
+     * Aggiorna i posti quando un biglietto cambia corsa, posto o stato.
+     * Il nuovo posto viene occupato prima di liberare il vecchio, così un acquisto concorrente
+     * non può prendere il posto di un biglietto che resta sulla stessa corsa.
+     *
+     * @param reservation prenotazione da cui proviene il nuovo posto, oppure null
+     * @return i biglietti a cui è stato assegnato un posto diverso da quello indicato
+     */
+    public Map<String, String> ticketReplaced(Ticket previous, Ticket updated, SeatReservation reservation) {
+        boolean wasActive = occupiesSeat(previous);
+        boolean isActive = occupiesSeat(updated);
+        if (wasActive && isActive && runKeyOf(previous) == runKeyOf(updated)) {
+            Map<String, String> moved = new LinkedHashMap<>();
+            if (seatNumberOf(previous) == seatNumberOf(updated)) return moved;
+            Run run = runOf(runKeyOf(updated), epochMinuteOf(updated));
+            synchronized (run) {
+                Integer oldSeat = run.seatByTicket.get(updated.getId());
+                // Il biglietto occupa già il posto indicato: nulla da spostare
+                if (oldSeat != null && oldSeat != NO_SEAT && oldSeat == seatNumberOf(updated)) return moved;
+                run.seatByTicket.remove(updated.getId());
+                if (oldSeat != null && oldSeat != NO_SEAT) run.ticketBySeat.remove(oldSeat);
+                seat(run, updated.getId(), updated.getSeat(), reservation, moved);
+                if (oldSeat != null && oldSeat != NO_SEAT && !run.ticketBySeat.containsKey(oldSeat)) {
+                    freeSeat(run, oldSeat, moved);
+                }
+            }
+            return moved;
+        }
+        Map<String, String> moved = ticketAdded(updated, reservation);
+        moved.putAll(ticketRemoved(previous));
+        return moved;
+    }
+
+    /**
+     * Assegna al biglietto il posto richiesto se valido e libero, oppure tenuto per lui dalla prenotazione,
+     * altrimenti un posto libero qualsiasi. Se il posto assegnato è diverso da quello indicato lo annota
+     * in {@code moved}.
+     *
+     * @return il posto assegnato, oppure {@link #NO_SEAT} se la corsa è piena
+     */
+    private int seat(Run run, String ticketId, String requestedSeat, SeatReservation reservation,
+                     Map<String, String> moved) {
+        int requested = parseSeat(requestedSeat);
+        int assigned = NO_SEAT;
+        // Un posto occupato nella mappa senza biglietto è di una prenotazione in corso: va preso solo dalla propria
+        if (requested >= 1 && requested <= seatsPerRun && !run.ticketBySeat.containsKey(requested)
+                && (run.seats.claim(requested) || (reservation != null && reservation.holds(run.seats, requested)))) {
+            assigned = requested;
+        } else {
+            int[] free = run.seats.allocate(1);
+            if (free != null) assigned = free[0];
+        }
+        run.seatByTicket.put(ticketId, assigned);
+        if (assigned != NO_SEAT) run.ticketBySeat.put(assigned, ticketId);
+        String label = seatLabel(assigned);
+        if (!label.equals(requestedSeat)) moved.put(ticketId, label);
+        return assigned;
+    }
+
+    private void unseat(Run run, String ticketId, Map<String, String> moved) {
+        Integer seat = run.seatByTicket.remove(ticketId);
+        if (seat == null || seat == NO_SEAT) return;
+        run.ticketBySeat.remove(seat);
+        freeSeat(run, seat, moved);
+    }
+
+    // Un posto liberato va al primo biglietto rimasto senza posto, altrimenti torna prenotabile
+    private void freeSeat(Run run, int seat, Map<String, String> moved) {
+        for (Map.Entry<String, Integer> entry : run.seatByTicket.entrySet()) {
+            if (entry.getValue() == NO_SEAT) {
+                entry.setValue(seat);
+                run.ticketBySeat.put(seat, entry.getKey());
+                moved.put(entry.getKey(), seatLabel(seat));
+                return;
+            }
+        }
+        run.seats.release(seat);
+    }
+
+    private static String seatLabel(int seat) {
+        return seat == NO_SEAT ? "" : String.valueOf(seat);
+    }
+
+    /**
+     * Riserva atomicamente {@code count} posti sulla corsa, preferendo un blocco di posti vicini.
+     * La capacità viene sottratta subito con CAS sulla mappa dei posti, senza lock globali:
+     * due richieste concorrenti non possono ottenere lo stesso posto né superare la capacità,
+     * perché anche ogni biglietto emesso occupa un posto della mappa.
+     *
+     * @return la prenotazione da confermare o annullare, oppure null se i posti liberi non bastano
+     */
+    public SeatReservation reserve(int trainId, LocalDateTime departure, int count) {
+        long minute = epochMinute(departure);
+        SeatMap seats = runOf(runKey(trainId, minute), minute).seats;
+        int[] assigned;
+        int first = seats.allocateAdjacent(count);
+        if (first > 0) {
+            assigned = new int[count];
+            for (int i = 0; i < count; i++) assigned[i] = first + i;
+        } else {
+            assigned = seats.allocate(count);
+        }
+        return assigned != null ? new SeatReservation(trainId, minute, assigned, seats) : null;
+    }
+
+    /**
+     * Posti ancora prenotabili sulla corsa: tiene conto sia dei biglietti emessi sia delle prenotazioni in corso.
+     */
+    public int availableSeats(int trainId, LocalDateTime departure) {
+        return availableSeats(trainId, epochMinute(departure));
+    }
+
+    public int availableSeats(int trainId, long epochMinute) {
+        Run run = runs.get(runKey(trainId, epochMinute));
+        return run == null ? seatsPerRun : run.seats.getFreeSeats();
+    }
+
+    /**
+     * Ricostruisce l'inventario dall'elenco completo dei biglietti (usato all'avvio).
+     * I biglietti vengono esaminati in ordine: il primo che indica un posto lo tiene, quelli con posto
+     * non valido o già occupato ricevono un posto libero della stessa corsa.
+     *
+     * @return i biglietti a cui è stato assegnato un posto diverso da quello indicato, già aggiornati
+     *         (posto vuoto se la corsa è piena)
+     */
+    public List<Ticket> rebuild(Collection<Ticket> tickets) {
+        clear();
+        List<Ticket> conflicting = new ArrayList<>();
+        for (Ticket ticket : tickets) {
+            if (!occupiesSeat(ticket)) continue;
+            Run run = runOf(runKeyOf(ticket), epochMinuteOf(ticket));
+            int requested = seatNumberOf(ticket);
+            if (requested >= 1 && requested <= seatsPerRun && run.seats.claim(requested)) {
+                run.seatByTicket.put(ticket.getId(), requested);
+                run.ticketBySeat.put(requested, ticket.getId());
+            } else {
+                conflicting.add(ticket);
+            }
+        }
+        Map<String, String> moved = new LinkedHashMap<>();
+        List<Ticket> reassigned = new ArrayList<>();
+        for (Ticket ticket : conflicting) {
+            Run run = runOf(runKeyOf(ticket), epochMinuteOf(ticket));
+            int seat = seat(run, ticket.getId(), "", null, moved);
+            String label = seatLabel(seat);
+            if (!label.equals(ticket.getSeat())) {
+                reassigned.add(ticket.toBuilder().setSeat(label).build());
+            }
+        }
+        return reassigned;
+    }
+
+    /**
+     * Dimentica le corse partite prima del minuto indicato, che non possono più essere prenotate.
+     *
+     * @return numero di corse rimosse
+     */
+    public int pruneBefore(long epochMinute) {
+        int before = runs.size();
+        runs.values().removeIf(run -> run.epochMinute < epochMinute);
+        return before - runs.size();
+    }
+
+    public void clear() {
+        runs.clear();
+    }
+
+    public int bookedSeats(int trainId, LocalDateTime departure) {
+        return bookedSeats(trainId, epochMinute(departure));
+    }
+
+    public int bookedSeats(int trainId, long epochMinute) {
+        Run run = runs.get(runKey(trainId, epochMinute));
+        if (run == null) return 0;
+        synchronized (run) {
+            return run.seatByTicket.size();
+        }
+    }
+
+    /**
+     * Numero di corse con almeno un posto prenotato.
+     */
+    public int getTrackedRunCount() {
+        int count = 0;
+        for (Run run : runs.values()) {
+            synchronized (run) {
+                if (!run.seatByTicket.isEmpty()) count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,196 @@
+package it.unical.trenical.server.inventory;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Mappa dei posti di una singola corsa, un bit per posto (1 = occupato).
+ * <p>
+ * I posti sono numerati da 1 a {@link #getCapacity()}. Prenotazioni e rilasci usano compare-and-set
+ * sulle parole da 64 bit, quindi più acquisti concorrenti sulla stessa corsa non richiedono lock:
+ * chi perde la CAS riprova sulla parola aggiornata.
+ */
+public final class SeatMap {
+
+    private final int capacity;
+    private final AtomicLongArray words;
+
+    public SeatMap(int capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException("Capacità non valida: " + capacity);
+        this.capacity = capacity;
+        this.words = new AtomicLongArray((capacity + 63) >>> 6);
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Occupa il posto indicato.
+     * @return true se il posto era libero ed è stato preso da questa chiamata
+     */
+    public boolean claim(int seat) {
+        if (seat < 1 || seat > capacity) return false;
+        int bit = seat - 1;
+        return setIfClear(bit >>> 6, 1L << bit);
+    }
+
+    /**
+     * Libera il posto indicato.
+     * @return true se il posto era occupato
+     */
+    public boolean release(int seat) {
+        if (seat < 1 || seat > capacity) return false;
+        int bit = seat - 1;
+        int index = bit >>> 6;
+        long mask = 1L << bit;
+        while (true) {
+            long current = words.get(index);
+            if ((current & mask) == 0) return false;
+            if (words.compareAndSet(index, current, current & ~mask)) return true;
+        }
+    }
+
+    public boolean isTaken(int seat) {
+        if (seat < 1 || seat > capacity) return false;
+        int bit = seat - 1;
+        return (words.get(bit >>> 6) & (1L << bit)) != 0;
+    }
+
+    public int getFreeSeats() {
+        int taken = 0;
+        for (int i = 0; i < words.length(); i++) {
+            taken += Long.bitCount(words.get(i));
+        }
+        return capacity - taken;
+    }
+
+    /**
+     * Occupa {@code count} posti qualsiasi, partendo dai numeri più bassi.
+     * L'operazione è tutto-o-niente: se i posti liberi non bastano quelli già presi vengono rilasciati.
+     *
+     * @return i numeri dei posti assegnati, oppure null se non ci sono abbastanza posti liberi
+     */
+    public int[] allocate(int count) {
+        if (count <= 0 || count > capacity) return null;
+        int[] seats = new int[count];
+        int taken = 0;
+        for (int index = 0; index < words.length() && taken < count; index++) {
+            while (taken < count) {
+                long current = words.get(index);
+                long free = ~current & validMask(index);
+                if (free == 0) break;
+                // Prende in un colpo solo tutti i bit liberi che servono in questa parola
+                long grab = 0;
+                for (int need = count - taken; need > 0 && free != 0; need--) {
+                    long lowest = free & -free;
+                    grab |= lowest;
+                    free &= ~lowest;
+                }
+                if (words.compareAndSet(index, current, current | grab)) {
+                    while (grab != 0) {
+                        seats[taken++] = (index << 6) + Long.numberOfTrailingZeros(grab) + 1;
+                        grab &= grab - 1;
+                    }
+                }
+            }
+        }
+        if (taken < count) {
+            for (int i = 0; i < taken; i++) release(seats[i]);
+            return null;
+        }
+        return seats;
+    }
+
+    /**
+     * Occupa {@code count} posti consecutivi (al massimo 64).
+     *
+     * @return il numero del primo posto del blocco, oppure -1 se non esiste un blocco libero abbastanza lungo
+     */
+    public int allocateAdjacent(int count) {
+        if (count <= 0 || count > 64 || count > capacity) return -1;
+        int bit = 0;
+        while (bit + count <= capacity) {
+            int index = bit >>> 6;
+            int offset = bit & 63;
+            long current = words.get(index);
+            long free = ~current & validMask(index);
+            if (offset + count <= 64) {
+                long mask = blockMask(offset, count);
+                if ((free & mask) == mask) {
+                    if (words.compareAndSet(index, current, current | mask)) return bit + 1;
+                    continue; // La parola è cambiata: riprova dalla stessa posizione
+                }
+            } else if (claimAcrossWords(index, offset, count)) {
+                return bit + 1;
+            }
+            bit = nextCandidate(bit, count);
+        }
+        return -1;
+    }
+
+    /**
+     * Rilascia tutti i posti indicati.
+     */
+    public void releaseAll(int[] seats) {
+        if (seats == null) return;
+        for (int seat : seats) release(seat);
+    }
+
+    // Blocco a cavallo di due parole: prende la parte bassa e poi l'alta, annullando se la seconda fallisce
+    private boolean claimAcrossWords(int index, int offset, int count) {
+        if (index + 1 >= words.length()) return false;
+        long lowMask = blockMask(offset, 64 - offset);
+        long highMask = blockMask(0, count - (64 - offset));
+        if ((words.get(index + 1) & highMask) != 0 || (highMask & ~validMask(index + 1)) != 0) return false;
+        if (!setIfClear(index, lowMask)) return false;
+        if (setIfClear(index + 1, highMask)) return true;
+        clearBits(index, lowMask);
+        return false;
+    }
+
+    // Posizione da cui ripartire: subito dopo l'ultimo posto occupato del blocco esaminato
+    private int nextCandidate(int bit, int count) {
+        int end = Math.min(bit + count, capacity) - 1;
+        int firstIndex = bit >>> 6;
+        for (int index = end >>> 6; index >= firstIndex; index--) {
+            long mask = -1L;
+            if (index == end >>> 6 && (end & 63) != 63) mask &= (1L << ((end & 63) + 1)) - 1;
+            if (index == firstIndex) mask &= -1L << (bit & 63);
+            long occupied = words.get(index) & mask;
+            if (occupied != 0) {
+                return (index << 6) + (63 - Long.numberOfLeadingZeros(occupied)) + 1;
+            }
+        }
+        // Nessun posto occupato: la CAS è stata persa per contesa, si avanza di uno
+        return bit + 1;
+    }
+
+    /**
+     * Imposta i bit della maschera se sono tutti liberi, ritentando finché la parola cambia sotto di noi.
+     */
+    private boolean setIfClear(int index, long mask) {
+        while (true) {
+            long current = words.get(index);
+            if ((current & mask) != 0) return false;
+            if (words.compareAndSet(index, current, current | mask)) return true;
+        }
+    }
+
+    private void clearBits(int index, long mask) {
+        while (true) {
+            long current = words.get(index);
+            if (words.compareAndSet(index, current, current & ~mask)) return;
+        }
+    }
+
+    private static long blockMask(int offset, int length) {
+        long bits = length == 64 ? -1L : (1L << length) - 1;
+        return bits << offset;
+    }
+
+    // Bit validi della parola: l'ultima può essere usata solo in parte
+    private long validMask(int index) {
+        int remaining = capacity - (index << 6);
+        return remaining >= 64 ? -1L : (1L << remaining) - 1;
+    }
+}
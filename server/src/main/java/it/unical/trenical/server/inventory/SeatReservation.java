@@ -0,0 +1,82 @@
+package it.unical.trenical.server.inventory;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Posti tenuti da parte su una corsa in attesa che i biglietti vengano scritti.
+ * <p>
+ * I posti sono già occupati nella {@link SeatMap} della corsa, quindi nessun altro acquisto può prenderli.
+ * Chi ha ottenuto la prenotazione deve chiamare {@link #commit()} dopo aver salvato i biglietti
+ * oppure {@link #rollback()} se l'operazione fallisce; le due chiamate si escludono a vicenda
+ * e sono idempotenti.
+ */
+public final class SeatReservation {
+
+    private static final int PENDING = 0;
+    private static final int COMMITTED = 1;
+    private static final int ROLLED_BACK = 2;
+
+    private final int trainId;
+    private final long epochMinute;
+    private final int[] seats;
+    private final SeatMap seatMap;
+    private final AtomicInteger state = new AtomicInteger(PENDING);
+
+    SeatReservation(int trainId, long epochMinute, int[] seats, SeatMap seatMap) {
+        this.trainId = trainId;
+        this.epochMinute = epochMinute;
+        this.seats = seats;
+        this.seatMap = seatMap;
+    }
+
+    public int getTrainId() {
+        return trainId;
+    }
+
+    public long getEpochMinute() {
+        return epochMinute;
+    }
+
+    public int getSeatCount() {
+        return seats.length;
+    }
+
+    /**
+     * Numeri dei posti riservati, in ordine di assegnazione.
+     */
+    public int[] getSeats() {
+        return seats.clone();
+    }
+
+    /**
+     * Conferma la prenotazione: da qui in poi i posti appartengono ai biglietti emessi.
+     * @return false se la prenotazione era già stata annullata
+     */
+    public boolean commit() {
+        return state.compareAndSet(PENDING, COMMITTED) || state.get() == COMMITTED;
+    }
+
+    /**
+     * Annulla la prenotazione restituendo i posti alla corsa. Non ha effetto dopo un commit.
+     */
+    public void rollback() {
+        if (state.compareAndSet(PENDING, ROLLED_BACK)) {
+            seatMap.releaseAll(seats);
+        }
+    }
+
+    /**
+     * Indica se la prenotazione, ancora in corso, tiene il posto indicato sulla mappa della corsa.
+     */
+    boolean holds(SeatMap map, int seat) {
+        if (map != seatMap || state.get() != PENDING) return false;
+        for (int held : seats) {
+            if (held == seat) return true;
+        }
+        return false;
+    }
+
+    public boolean isPending() {
+        return state.get() == PENDING;
+    }
+}
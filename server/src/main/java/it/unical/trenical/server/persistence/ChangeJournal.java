@@ -0,0 +1,398 @@
+package it.unical.trenical.server.persistence;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Journal append-only delle modifiche del DataStore (write-ahead log).
+ * <p>
+ * Formato del file: un'intestazione fissa (magic + versione) seguita da commit
+ * {@code [lunghezza][crc32][numeroRecord][record...]}, dove ogni record è
+ * {@code [lunghezza][crc32][operazione][tipo entità][chiave][payload protobuf]}.
+ * Ogni commit viene scritto in coda e reso durevole con {@link FileChannel#force(boolean)}.
+ * All'avvio i commit vengono riapplicati sopra l'ultimo snapshot: un commit si applica per intero
+ * oppure per niente, quindi una coda troncata o con checksum errato (crash durante la scrittura)
+ * viene scartata senza lasciare a metà un acquisto di più posti o un gruppo di commit.
+ * <p>
+ * I journal della versione 1 (record senza commit) vengono riletti e riscritti nel formato corrente.
+ */
+public final class ChangeJournal implements Closeable {
+
+    private static final int MAGIC = 0x54524A31; // "TRJ1"
+    private static final int VERSION = 2;
+    private static final int VERSION_1 = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final int COMMIT_HEADER_SIZE = 12;
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final int MAX_RECORD_SIZE = 64 * 1024 * 1024;
+    private static final int MAX_COMMIT_SIZE = 256 * 1024 * 1024;
+
+    private final Path file;
+    private FileChannel channel;
+    private int version;
+    private long recordCount;
+    // Una scrittura fallita che non è stato possibile annullare: le append successive finirebbero dopo byte non validi
+    private boolean broken;
+
+    /**
+     * Apre (o crea) il journal nel percorso indicato, posizionandosi in coda.
+     */
+    public ChangeJournal(Path file) throws IOException {
+        this.file = file;
+        Path dir = file.toAbsolutePath().getParent();
+        if (dir != null) {
+            Files.createDirectories(dir);
+        }
+        FileChannel ch = open(file);
+        int found = readVersion(ch);
+        if (found != VERSION && found != VERSION_1) {
+            if (ch.size() > 0) {
+                ch.close();
+                Path corrupt = file.resolveSibling(file.getFileName() + ".corrupt");
+                System.err.println("Journal non riconosciuto, spostato in " + corrupt);
+                Files.move(file, corrupt, StandardCopyOption.REPLACE_EXISTING);
+                ch = open(file);
+            }
+            writeHeader(ch);
+            found = VERSION;
+        }
+        this.channel = ch;
+        this.version = found;
+        this.channel.position(channel.size());
+    }
+
+    private static FileChannel open(Path file) throws IOException {
+        return FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * @return la versione indicata nell'intestazione, oppure -1 se l'intestazione non è valida
+     */
+    private static int readVersion(FileChannel ch) throws IOException {
+        if (ch.size() < HEADER_SIZE) return -1;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        ch.read(header, 0);
+        header.flip();
+        return header.getInt() == MAGIC ? header.getInt() : -1;
+    }
+
+    private static void writeHeader(FileChannel ch) throws IOException {
+        ch.truncate(0);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).flip();
+        while (header.hasRemaining()) {
+            ch.write(header, header.position());
+        }
+        ch.force(true);
+        ch.position(HEADER_SIZE);
+    }
+
+    /**
+     * Aggiunge un singolo record e attende che sia su disco.
+     */
+    public void append(JournalRecord record) throws IOException {
+        append(List.of(record));
+    }
+
+    /**
+     * Aggiunge un gruppo di record come un unico commit: una sola scrittura e un solo fsync.
+     * In replay il gruppo viene riapplicato per intero oppure scartato. Se la scrittura fallisce
+     * il file viene riportato alla lunghezza precedente, così i commit successivi restano leggibili.
+     */
+    public synchronized void append(List<JournalRecord> records) throws IOException {
+        if (records.isEmpty()) return;
+        if (broken) {
+            throw new IOException("Journal non scrivibile dopo un errore di scrittura: " + file);
+        }
+        if (version != VERSION) {
+            throw new IOException("Journal in formato precedente, va riletto prima di scrivere: " + file);
+        }
+        ByteBuffer buffer = encodeCommit(records);
+        long start = channel.position();
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        } catch (IOException | RuntimeException e) {
+            discardFrom(start, e);
+            throw e;
+        }
+        recordCount += records.size();
+    }
+
+    /**
+     * Elimina i byte di una scrittura fallita; se non ci riesce il journal rifiuta le append successive
+     * fino al prossimo {@link #reset()}.
+     */
+    private void discardFrom(long start, Exception cause) {
+        try {
+            channel.truncate(start);
+            channel.position(start);
+            channel.force(true);
+        } catch (IOException e) {
+            broken = true;
+            cause.addSuppressed(e);
+        }
+    }
+
+    private static ByteBuffer encodeCommit(List<JournalRecord> records) {
+        ByteBuffer body = encode(records);
+        int length = body.remaining();
+        CRC32 crc = new CRC32();
+        crc.update(body.array(), 0, length);
+        ByteBuffer buffer = ByteBuffer.allocate(COMMIT_HEADER_SIZE + length);
+        buffer.putInt(length).putInt((int) crc.getValue()).putInt(records.size()).put(body).flip();
+        return buffer;
+    }
+
+    private static ByteBuffer encode(List<JournalRecord> records) {
+        int total = 0;
+        byte[][] keys = new byte[records.size()][];
+        for (int i = 0; i < records.size(); i++) {
+            keys[i] = records.get(i).getKey().getBytes(StandardCharsets.UTF_8);
+            total += RECORD_HEADER_SIZE + bodySize(keys[i], records.get(i));
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(total);
+        CRC32 crc = new CRC32();
+        for (int i = 0; i < records.size(); i++) {
+            JournalRecord record = records.get(i);
+            int bodySize = bodySize(keys[i], record);
+            int bodyStart = buffer.position() + RECORD_HEADER_SIZE;
+            buffer.position(bodyStart);
+            buffer.put((byte) record.getOperation().ordinal());
+            buffer.put((byte) record.getEntityType().ordinal());
+            buffer.putShort((short) keys[i].length);
+            buffer.put(keys[i]);
+            buffer.put(record.getPayload());
+            crc.reset();
+            crc.update(buffer.array(), bodyStart, bodySize);
+            buffer.putInt(bodyStart - RECORD_HEADER_SIZE, bodySize);
+            buffer.putInt(bodyStart - 4, (int) crc.getValue());
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static int bodySize(byte[] key, JournalRecord record) {
+        return 4 + key.length + record.getPayload().length;
+    }
+
+    /**
+     * Rilegge tutti i commit validi e ne passa i record al consumer nell'ordine di scrittura.
+     * Un commit viene passato solo se è completo e integro; dal primo commit non valido in poi
+     * la coda del file viene troncata.
+     *
+     * @return numero di record riapplicati
+     */
+    public synchronized long replay(Consumer<JournalRecord> consumer) throws IOException {
+        if (version == VERSION_1) {
+            return replayVersion1(consumer);
+        }
+        long size = channel.size();
+        long position = HEADER_SIZE;
+        long replayed = 0;
+        ByteBuffer commitHeader = ByteBuffer.allocate(COMMIT_HEADER_SIZE);
+        CRC32 crc = new CRC32();
+        while (position + COMMIT_HEADER_SIZE <= size) {
+            commitHeader.clear();
+            readFully(commitHeader, position);
+            commitHeader.flip();
+            int length = commitHeader.getInt();
+            int expectedCrc = commitHeader.getInt();
+            int count = commitHeader.getInt();
+            if (length < 0 || length > MAX_COMMIT_SIZE || count <= 0
+                    || position + COMMIT_HEADER_SIZE + length > size) {
+                break;
+            }
+            ByteBuffer body = ByteBuffer.allocate(length);
+            readFully(body, position + COMMIT_HEADER_SIZE);
+            crc.reset();
+            crc.update(body.array(), 0, length);
+            if ((int) crc.getValue() != expectedCrc) {
+                break;
+            }
+            // Il commit viene decodificato per intero prima di applicarne un qualsiasi record
+            List<JournalRecord> records = decodeCommit(body, count);
+            if (records == null) {
+                break;
+            }
+            records.forEach(consumer);
+            replayed += records.size();
+            position += COMMIT_HEADER_SIZE + length;
+        }
+        discardTail(position, size);
+        recordCount = replayed;
+        return replayed;
+    }
+
+    private static List<JournalRecord> decodeCommit(ByteBuffer body, int count) {
+        body.flip();
+        List<JournalRecord> records = new ArrayList<>(count);
+        CRC32 crc = new CRC32();
+        for (int i = 0; i < count; i++) {
+            if (body.remaining() < RECORD_HEADER_SIZE) return null;
+            int length = body.getInt();
+            int expectedCrc = body.getInt();
+            if (length < 4 || length > body.remaining()) return null;
+            ByteBuffer record = body.slice(body.position(), length);
+            crc.reset();
+            crc.update(record.duplicate());
+            if ((int) crc.getValue() != expectedCrc) return null;
+            JournalRecord decoded = decode(record);
+            if (decoded == null) return null;
+            records.add(decoded);
+            body.position(body.position() + length);
+        }
+        return body.hasRemaining() ? null : records;
+    }
+
+    /**
+     * Replay di un journal della versione 1, con record indipendenti e senza commit. I record validi
+     * vengono poi riscritti nel formato corrente con un file temporaneo sostituito atomicamente.
+     */
+    private long replayVersion1(Consumer<JournalRecord> consumer) throws IOException {
+        long size = channel.size();
+        long position = HEADER_SIZE;
+        List<JournalRecord> records = new ArrayList<>();
+        ByteBuffer recordHeader = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        CRC32 crc = new CRC32();
+        while (position + RECORD_HEADER_SIZE <= size) {
+            recordHeader.clear();
+            readFully(recordHeader, position);
+            recordHeader.flip();
+            int length = recordHeader.getInt();
+            int expectedCrc = recordHeader.getInt();
+            if (length < 4 || length > MAX_RECORD_SIZE || position + RECORD_HEADER_SIZE + length > size) {
+                break;
+            }
+            ByteBuffer body = ByteBuffer.allocate(length);
+            readFully(body, position + RECORD_HEADER_SIZE);
+            crc.reset();
+            crc.update(body.array(), 0, length);
+            if ((int) crc.getValue() != expectedCrc) {
+                break;
+            }
+            body.flip();
+            JournalRecord record = decode(body);
+            if (record == null) {
+                break;
+            }
+            consumer.accept(record);
+            records.add(record);
+            position += RECORD_HEADER_SIZE + length;
+        }
+        if (position < size) {
+            System.err.println("Journal: scartati " + (size - position) + " byte non validi in coda a " + file);
+        }
+        rewriteInCurrentVersion(records);
+        recordCount = records.size();
+        return records.size();
+    }
+
+    private void rewriteInCurrentVersion(List<JournalRecord> records) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).flip();
+            ch.write(header);
+            if (!records.isEmpty()) {
+                ByteBuffer commit = encodeCommit(records);
+                while (commit.hasRemaining()) {
+                    ch.write(commit);
+                }
+            }
+            ch.force(true);
+        }
+        channel.close();
+        try {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+        channel = open(file);
+        channel.position(channel.size());
+        version = VERSION;
+    }
+
+    private void discardTail(long position, long size) throws IOException {
+        if (position < size) {
+            System.err.println("Journal: scartati " + (size - position) + " byte non validi in coda a " + file);
+            channel.truncate(position);
+            channel.force(true);
+        }
+        channel.position(position);
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) throw new IOException("Fine inattesa del journal " + file);
+        }
+    }
+
+    private static JournalRecord decode(ByteBuffer body) {
+        int op = body.get();
+        int type = body.get();
+        int keyLength = body.getShort() & 0xFFFF;
+        if (op < 0 || op >= JournalRecord.Operation.values().length
+                || type < 0 || type >= JournalRecord.EntityType.values().length
+                || keyLength > body.remaining()) {
+            return null;
+        }
+        byte[] key = new byte[keyLength];
+        body.get(key);
+        byte[] payload = new byte[body.remaining()];
+        body.get(payload);
+        return new JournalRecord(JournalRecord.Operation.values()[op], JournalRecord.EntityType.values()[type],
+                new String(key, StandardCharsets.UTF_8), payload);
+    }
+
+    /**
+     * Svuota il journal dopo che uno snapshot completo è stato scritto (compattazione).
+     */
+    public synchronized void reset() throws IOException {
+        writeHeader(channel);
+        version = VERSION;
+        recordCount = 0;
+        broken = false;
+    }
+
+    /**
+     * Numero di record presenti nel journal dall'ultima compattazione.
+     */
+    public synchronized long recordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Dimensione corrente del file in byte.
+     */
+    public synchronized long sizeInBytes() throws IOException {
+        return channel.size();
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel.isOpen()) {
+            channel.close();
+        }
+    }
+}
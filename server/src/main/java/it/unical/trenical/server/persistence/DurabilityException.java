@@ -0,0 +1,15 @@
+package it.unical.trenical.server.persistence;
+
+/**
+ * Modifica applicata in memoria ma non resa durevole: la scrittura del journal è fallita
+ * e anche lo snapshot di riserva non è stato salvato.
+ * <p>
+ * La modifica non viene annullata: il DataStore richiede una compattazione, così il prossimo
+ * salvataggio riuscito la porta su disco. Chi la riceve deve comunque segnalare l'errore al client.
+ */
+public class DurabilityException extends RuntimeException {
+
+    public DurabilityException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
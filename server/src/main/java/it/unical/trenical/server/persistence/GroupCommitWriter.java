@@ -0,0 +1,157 @@
+package it.unical.trenical.server.persistence;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Scrittore dedicato del journal con group commit.
+ * <p>
+ * I thread che modificano i dati accodano i propri record e ricevono un future; il thread di scrittura
+ * raccoglie tutti i commit arrivati entro una breve finestra (o fino a un numero massimo di record),
+ * li scrive con una sola append + fsync e solo allora completa i future del gruppo.
+ * Finestra e dimensione massima sono configurabili tramite le proprietà di sistema
+ * {@value #WINDOW_PROPERTY} e {@value #MAX_BATCH_PROPERTY}.
+ */
+public final class GroupCommitWriter implements Closeable {
+
+    public static final String WINDOW_PROPERTY = "trenical.journal.commitWindowMicros";
+    public static final String MAX_BATCH_PROPERTY = "trenical.journal.maxBatchRecords";
+
+    private static final int DEFAULT_WINDOW_MICROS = 2000;
+    private static final int DEFAULT_MAX_BATCH_RECORDS = 512;
+
+    private final ChangeJournal journal;
+    private final long windowNanos;
+    private final int maxBatchRecords;
+    private final LinkedBlockingQueue<PendingCommit> queue = new LinkedBlockingQueue<>();
+    private final Thread writerThread;
+    private volatile boolean running = true;
+
+    private final AtomicLong batchesWritten = new AtomicLong();
+    private final AtomicLong recordsWritten = new AtomicLong();
+
+    private static final class PendingCommit {
+        final List<JournalRecord> records;
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        PendingCommit(List<JournalRecord> records) {
+            this.records = records;
+        }
+    }
+
+    /**
+     * Crea lo scrittore leggendo finestra e dimensione del gruppo dalle proprietà di sistema.
+     */
+    public GroupCommitWriter(ChangeJournal journal) {
+        this(journal,
+                TimeUnit.MICROSECONDS.toNanos(Integer.getInteger(WINDOW_PROPERTY, DEFAULT_WINDOW_MICROS)),
+                Integer.getInteger(MAX_BATCH_PROPERTY, DEFAULT_MAX_BATCH_RECORDS));
+    }
+
+    public GroupCommitWriter(ChangeJournal journal, long windowNanos, int maxBatchRecords) {
+        this.journal = journal;
+        this.windowNanos = Math.max(0, windowNanos);
+        this.maxBatchRecords = Math.max(1, maxBatchRecords);
+        this.writerThread = new Thread(this::runLoop, "journal-group-commit");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    /**
+     * Accoda un commit. Il future viene completato quando i record sono durevoli su disco,
+     * oppure completato con eccezione se la scrittura fallisce.
+     */
+    public CompletableFuture<Void> submit(List<JournalRecord> records) {
+        PendingCommit commit = new PendingCommit(List.copyOf(records));
+        synchronized (queue) {
+            if (!running) {
+                commit.future.completeExceptionally(new IllegalStateException("Scrittore del journal chiuso"));
+                return commit.future;
+            }
+            queue.add(commit);
+        }
+        return commit.future;
+    }
+
+    private void runLoop() {
+        List<PendingCommit> batch = new ArrayList<>();
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingCommit first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                batch.add(first);
+                int recordCount = first.records.size();
+                long deadline = System.nanoTime() + windowNanos;
+                while (recordCount < maxBatchRecords) {
+                    long remaining = deadline - System.nanoTime();
+                    PendingCommit next = remaining > 0
+                            ? queue.poll(remaining, TimeUnit.NANOSECONDS)
+                            : queue.poll();
+                    if (next == null) break;
+                    batch.add(next);
+                    recordCount += next.records.size();
+                }
+                writeBatch(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void writeBatch(List<PendingCommit> batch) {
+        List<JournalRecord> records = new ArrayList<>();
+        for (PendingCommit commit : batch) {
+            records.addAll(commit.records);
+        }
+        try {
+            journal.append(records);
+            batchesWritten.incrementAndGet();
+            recordsWritten.addAndGet(records.size());
+            for (PendingCommit commit : batch) {
+                commit.future.complete(null);
+            }
+        } catch (Exception e) {
+            for (PendingCommit commit : batch) {
+                commit.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * Numero di append+fsync eseguite finora.
+     */
+    public long getBatchesWritten() {
+        return batchesWritten.get();
+    }
+
+    /**
+     * Numero di record scritti finora.
+     */
+    public long getRecordsWritten() {
+        return recordsWritten.get();
+    }
+
+    /**
+     * Smette di accettare commit, scrive quelli ancora in coda e attende la fine del thread di scrittura.
+     * Il thread non viene interrotto per non chiudere il canale a metà di una scrittura.
+     */
+    @Override
+    public void close() {
+        synchronized (queue) {
+            running = false;
+        }
+        try {
+            writerThread.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package it.unical.trenical.server.persistence;
+
+import com.google.protobuf.MessageLite;
+
+import java.util.Objects;
+
+/**
+ * Record di modifica a livello di entità scritto nel journal.
+ * Ogni record descrive un PUT (inserimento/aggiornamento) o un DELETE di una singola entità,
+ * oppure un CLEAR di tutte le entità di un tipo.
+ */
+public final class JournalRecord {
+
+    /** Tipo di operazione registrata. */
+    public enum Operation {
+        PUT, DELETE, CLEAR
+    }
+
+    /** Tipo di entità a cui si riferisce il record. */
+    public enum EntityType {
+        STATION, TICKET, ROUTE, PROMOTION
+    }
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private final Operation operation;
+    private final EntityType entityType;
+    private final String key;
+    private final byte[] payload;
+
+    public JournalRecord(Operation operation, EntityType entityType, String key, byte[] payload) {
+        this.operation = Objects.requireNonNull(operation, "operation");
+        this.entityType = Objects.requireNonNull(entityType, "entityType");
+        this.key = key != null ? key : "";
+        this.payload = payload != null ? payload : EMPTY;
+    }
+
+    /**
+     * Crea un record di inserimento/aggiornamento con l'entità serializzata in protobuf.
+     */
+    public static JournalRecord put(EntityType entityType, String key, MessageLite entity) {
+        return new JournalRecord(Operation.PUT, entityType, key, entity.toByteArray());
+    }
+
+    /**
+     * Crea un record di cancellazione per la chiave indicata.
+     */
+    public static JournalRecord delete(EntityType entityType, String key) {
+        return new JournalRecord(Operation.DELETE, entityType, key, null);
+    }
+
+    /**
+     * Crea un record che svuota tutte le entità del tipo indicato.
+     */
+    public static JournalRecord clear(EntityType entityType) {
+        return new JournalRecord(Operation.CLEAR, entityType, null, null);
+    }
+
+    public Operation getOperation() {
+        return operation;
+    }
+
+    public EntityType getEntityType() {
+        return entityType;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public byte[] getPayload() {
+        return payload;
+    }
+
+    @Override
+    public String toString() {
+        return operation + " " + entityType + " [" + key + "] (" + payload.length + " byte)";
+    }
+}
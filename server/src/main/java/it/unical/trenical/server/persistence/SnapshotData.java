@@ -0,0 +1,52 @@
+package it.unical.trenical.server.persistence;
+
+import it.unical.trenical.grpc.common.Station;
+import it.unical.trenical.grpc.common.Ticket;
+import it.unical.trenical.grpc.common.Train;
+import it.unical.trenical.grpc.promotion.Promotion;
+import it.unical.trenical.grpc.train.Route;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Contenuto di uno snapshot: le cinque collezioni persistite dal DataStore.
+ * Le liste restituite sono modificabili e appartengono al chiamante.
+ */
+public final class SnapshotData {
+
+    private final List<Station> stations;
+    private final List<Train> trains;
+    private final List<Ticket> tickets;
+    private final List<Route> routes;
+    private final List<Promotion> promotions;
+
+    public SnapshotData(List<Station> stations, List<Train> trains, List<Ticket> tickets,
+                        List<Route> routes, List<Promotion> promotions) {
+        this.stations = stations != null ? stations : new ArrayList<>();
+        this.trains = trains != null ? trains : new ArrayList<>();
+        this.tickets = tickets != null ? tickets : new ArrayList<>();
+        this.routes = routes != null ? routes : new ArrayList<>();
+        this.promotions = promotions != null ? promotions : new ArrayList<>();
+    }
+
+    public List<Station> getStations() {
+        return stations;
+    }
+
+    public List<Train> getTrains() {
+        return trains;
+    }
+
+    public List<Ticket> getTickets() {
+        return tickets;
+    }
+
+    public List<Route> getRoutes() {
+        return routes;
+    }
+
+    public List<Promotion> getPromotions() {
+        return promotions;
+    }
+}
@@ -0,0 +1,509 @@
+package it.unical.trenical.server.persistence;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.MessageLite;
+import com.google.protobuf.Parser;
+import it.unical.trenical.grpc.common.Station;
+import it.unical.trenical.grpc.common.Ticket;
+import it.unical.trenical.grpc.common.Train;
+import it.unical.trenical.grpc.promotion.Promotion;
+import it.unical.trenical.grpc.train.Route;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Snapshot binario del DataStore basato su record protobuf length-delimited.
+ * <p>
+ * Formato del file:
+ * <pre>
+ * header:  magic(4) versione(4) numeroSezioni(4) lunghezzaCorpo(8) crc32Header(4)
+ * sezione: tipo(1) numeroRecord(4) lunghezzaByte(8) crc32Sezione(4) record...  (scritti con writeDelimitedTo)
+ * </pre>
+ * Ogni sezione ha lunghezza e checksum propri, così in lettura le sezioni non richieste vengono saltate
+ * senza toccarne i byte. I file grandi vengono letti tramite {@link FileChannel#map} e decodificati
+ * direttamente dal buffer mappato (senza copiarli nell'heap); le sezioni più grandi vengono divise
+ * in intervalli di record decodificati in parallelo. I record decodificati non condividono i byte del buffer,
+ * quindi la mappatura viene rilasciata subito dopo la lettura: su Windows un file ancora mappato
+ * non può essere sostituito, e il salvataggio successivo fallirebbe fino al passaggio del GC.
+ * Se la JVM non permette di rilasciare la mappatura il file viene sempre letto nell'heap.
+ * La scrittura avviene su un file temporaneo sostituito atomicamente al termine.
+ * <p>
+ * Gli snapshot della versione 1 (sezioni senza checksum proprio, un unico crc32 dell'intero corpo
+ * nell'intestazione) vengono ancora letti; il DataStore li riscrive nel formato corrente al salvataggio successivo.
+ */
+public final class SnapshotStore {
+
+    /** Sezioni dello snapshot, una per tipo di entità. */
+    public enum Section {
+        STATIONS(1), TRAINS(2), TICKETS(3), ROUTES(4), PROMOTIONS(5);
+
+        private final int code;
+
+        Section(int code) {
+            this.code = code;
+        }
+
+        public int getCode() {
+            return code;
+        }
+
+        static Section fromCode(int code) {
+            for (Section s : values()) {
+                if (s.code == code) return s;
+            }
+            return null;
+        }
+    }
+
+    /** Eccezione per snapshot illeggibili (intestazione, versione o checksum non validi). */
+    public static class SnapshotFormatException extends IOException {
+        public SnapshotFormatException(String message) {
+            super(message);
+        }
+    }
+
+    /** Snapshot integro ma scritto in una versione del formato che questo codice non conosce. */
+    public static final class UnsupportedVersionException extends SnapshotFormatException {
+        public UnsupportedVersionException(int version) {
+            super("Versione snapshot non supportata: " + version);
+        }
+    }
+
+    /** Dimensione oltre la quale il file viene mappato in memoria invece di essere letto nell'heap. */
+    public static final String MMAP_THRESHOLD_PROPERTY = "trenical.snapshot.mmapThresholdBytes";
+    /** Dimensione oltre la quale le sezioni vengono decodificate in parallelo. */
+    public static final String PARALLEL_THRESHOLD_PROPERTY = "trenical.snapshot.parallelThresholdBytes";
+
+    static final int MAGIC = 0x54525331; // "TRS1"
+    static final int VERSION = 2;
+    static final int VERSION_1 = 1;
+    static final int HEADER_SIZE = 24;
+    static final int SECTION_HEADER_SIZE = 17;
+    static final int SECTION_HEADER_SIZE_V1 = 13;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int RECORDS_PER_RANGE = 8192;
+    // Rilascio esplicito di un buffer mappato, oppure null se non disponibile
+    private static final MethodHandle UNMAPPER = findUnmapper();
+
+    private final Path file;
+    private final long mmapThreshold;
+    private final long parallelThreshold;
+
+    public SnapshotStore(Path file) {
+        this(file,
+                Long.getLong(MMAP_THRESHOLD_PROPERTY, 4L * 1024 * 1024),
+                Long.getLong(PARALLEL_THRESHOLD_PROPERTY, 1024L * 1024));
+    }
+
+    public SnapshotStore(Path file, long mmapThreshold, long parallelThreshold) {
+        this.file = file;
+        this.mmapThreshold = mmapThreshold;
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    public boolean exists() {
+        return Files.isRegularFile(file);
+    }
+
+    // --- SCRITTURA ---
+
+    /**
+     * Scrive lo snapshot completo in modo atomico e durevole.
+     */
+    public void write(SnapshotData data) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ch.position(HEADER_SIZE);
+            CRC32 crc = new CRC32();
+            DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(ch), BUFFER_SIZE), crc));
+            // Le intestazioni di sezione contengono il checksum dei record che seguono:
+            // vengono scritte come segnaposto e completate dopo il flush finale
+            List<ByteBuffer> sectionHeaders = new ArrayList<>();
+            List<Long> sectionOffsets = new ArrayList<>();
+            long position = HEADER_SIZE;
+            position = writeSection(out, crc, Section.STATIONS, data.getStations(), position, sectionHeaders, sectionOffsets);
+            position = writeSection(out, crc, Section.TRAINS, data.getTrains(), position, sectionHeaders, sectionOffsets);
+            position = writeSection(out, crc, Section.TICKETS, data.getTickets(), position, sectionHeaders, sectionOffsets);
+            position = writeSection(out, crc, Section.ROUTES, data.getRoutes(), position, sectionHeaders, sectionOffsets);
+            position = writeSection(out, crc, Section.PROMOTIONS, data.getPromotions(), position, sectionHeaders, sectionOffsets);
+            out.flush();
+
+            for (int i = 0; i < sectionHeaders.size(); i++) {
+                writeFully(ch, sectionHeaders.get(i), sectionOffsets.get(i));
+            }
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC)
+                    .putInt(VERSION)
+                    .putInt(sectionHeaders.size())
+                    .putLong(position - HEADER_SIZE);
+            crc.reset();
+            crc.update(header.array(), 0, HEADER_SIZE - 4);
+            header.putInt((int) crc.getValue()).flip();
+            writeFully(ch, header, 0);
+            ch.force(true);
+        }
+        try {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static long writeSection(DataOutputStream out, CRC32 crc, Section section,
+                                     List<? extends MessageLite> records, long position,
+                                     List<ByteBuffer> sectionHeaders, List<Long> sectionOffsets) throws IOException {
+        long byteLength = 0;
+        for (MessageLite record : records) {
+            int size = record.getSerializedSize();
+            byteLength += CodedOutputStream.computeUInt32SizeNoTag(size) + size;
+        }
+        out.write(new byte[SECTION_HEADER_SIZE]);
+        crc.reset();
+        for (MessageLite record : records) {
+            record.writeDelimitedTo(out);
+        }
+        ByteBuffer header = ByteBuffer.allocate(SECTION_HEADER_SIZE);
+        header.put((byte) section.getCode())
+                .putInt(records.size())
+                .putLong(byteLength)
+                .putInt((int) crc.getValue())
+                .flip();
+        sectionHeaders.add(header);
+        sectionOffsets.add(position);
+        return position + SECTION_HEADER_SIZE + byteLength;
+    }
+
+    private static void writeFully(FileChannel ch, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            ch.write(buffer, position + buffer.position());
+        }
+    }
+
+    // --- LETTURA ---
+
+    /** Porzione di una sezione da decodificare: buffer con i record e numero di record contenuti. */
+    private static final class RecordRange {
+        final Section section;
+        final ByteBuffer buffer;
+        final int count;
+
+        RecordRange(Section section, ByteBuffer buffer, int count) {
+            this.section = section;
+            this.buffer = buffer;
+            this.count = count;
+        }
+    }
+
+    /**
+     * Legge tutte le sezioni dello snapshot.
+     */
+    public SnapshotData read() throws IOException {
+        return read(EnumSet.allOf(Section.class));
+    }
+
+    /**
+     * Legge lo snapshot decodificando solo le sezioni richieste; le altre non vengono lette.
+     *
+     * @throws SnapshotFormatException se il file non è uno snapshot valido o è corrotto
+     */
+    public SnapshotData read(Set<Section> sections) throws IOException {
+        ByteBuffer buffer;
+        MappedByteBuffer mapped = null;
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = ch.size();
+            if (size < HEADER_SIZE) {
+                throw new SnapshotFormatException("Snapshot troncato: " + file);
+            }
+            if (size > Integer.MAX_VALUE) {
+                throw new SnapshotFormatException("Snapshot troppo grande per essere mappato: " + file);
+            }
+            if (size >= mmapThreshold && UNMAPPER != null) {
+                mapped = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                buffer = mapped;
+            } else {
+                buffer = ByteBuffer.allocate((int) size);
+                while (buffer.hasRemaining()) {
+                    if (ch.read(buffer, buffer.position()) < 0) break;
+                }
+                buffer.flip();
+            }
+        }
+        try {
+            return decode(buffer, sections);
+        } finally {
+            if (mapped != null) unmap(mapped);
+        }
+    }
+
+    private static MethodHandle findUnmapper() {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            return MethodHandles.lookup()
+                    .findVirtual(unsafeClass, "invokeCleaner", MethodType.methodType(void.class, ByteBuffer.class))
+                    .bindTo(field.get(null));
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            System.err.println("Rilascio dei file mappati non disponibile, snapshot letti nell'heap: " + e);
+            return null;
+        }
+    }
+
+    // Il buffer e le sue viste non vanno più usati: dopo il rilascio l'accesso non è valido
+    private static void unmap(MappedByteBuffer buffer) {
+        try {
+            UNMAPPER.invokeExact((ByteBuffer) buffer);
+        } catch (Throwable e) {
+            System.err.println("Impossibile rilasciare la mappatura dello snapshot: " + e);
+        }
+    }
+
+    private SnapshotData decode(ByteBuffer buffer, Set<Section> sections) throws IOException {
+        int size = buffer.limit();
+        if (size < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new SnapshotFormatException("Intestazione snapshot non valida: " + file);
+        }
+        int version = buffer.getInt(4);
+        List<RecordRange> ranges = switch (version) {
+            case VERSION -> locateSections(buffer, sections);
+            case VERSION_1 -> locateSectionsV1(buffer, sections);
+            default -> throw new UnsupportedVersionException(version);
+        };
+        return decodeRanges(ranges);
+    }
+
+    /**
+     * Individua le sezioni richieste di uno snapshot versione 2 leggendo solo le intestazioni;
+     * il checksum viene verificato solo per le sezioni richieste.
+     */
+    private List<RecordRange> locateSections(ByteBuffer buffer, Set<Section> sections) throws IOException {
+        int size = buffer.limit();
+        int sectionCount = buffer.getInt(8);
+        long bodyLength = buffer.getLong(12);
+        CRC32 crc = new CRC32();
+        crc.update(buffer.slice(0, HEADER_SIZE - 4));
+        if ((int) crc.getValue() != buffer.getInt(20)) {
+            throw new SnapshotFormatException("Checksum dell'intestazione non valido: " + file);
+        }
+        if (HEADER_SIZE + bodyLength != size) {
+            throw new SnapshotFormatException("Snapshot troncato: " + file);
+        }
+
+        List<RecordRange> ranges = new ArrayList<>();
+        int offset = HEADER_SIZE;
+        for (int i = 0; i < sectionCount; i++) {
+            if (offset + SECTION_HEADER_SIZE > size) {
+                throw new SnapshotFormatException("Snapshot troncato: " + file);
+            }
+            Section section = Section.fromCode(buffer.get(offset) & 0xFF);
+            int count = buffer.getInt(offset + 1);
+            long byteLength = buffer.getLong(offset + 5);
+            int expectedCrc = buffer.getInt(offset + 13);
+            int dataStart = offset + SECTION_HEADER_SIZE;
+            if (count < 0 || byteLength < 0 || dataStart + byteLength > size) {
+                throw new SnapshotFormatException("Snapshot troncato: " + file);
+            }
+            if (section != null && sections.contains(section)) {
+                ByteBuffer data = buffer.slice(dataStart, (int) byteLength);
+                crc.reset();
+                crc.update(data.duplicate());
+                if ((int) crc.getValue() != expectedCrc) {
+                    throw new SnapshotFormatException("Checksum della sezione " + section + " non valido: " + file);
+                }
+                ranges.addAll(splitIntoRanges(section, data, count));
+            }
+            offset = (int) (dataStart + byteLength);
+        }
+        return ranges;
+    }
+
+    /**
+     * Individua le sezioni richieste di uno snapshot versione 1: l'intestazione contiene un unico crc32
+     * dell'intero corpo, che va quindi verificato per intero anche se si leggono solo alcune sezioni.
+     */
+    private List<RecordRange> locateSectionsV1(ByteBuffer buffer, Set<Section> sections) throws IOException {
+        int size = buffer.limit();
+        int sectionCount = buffer.getInt(8);
+        long bodyLength = buffer.getLong(12);
+        if (bodyLength < 0 || HEADER_SIZE + bodyLength != size) {
+            throw new SnapshotFormatException("Snapshot troncato: " + file);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buffer.slice(HEADER_SIZE, (int) bodyLength));
+        if ((int) crc.getValue() != buffer.getInt(20)) {
+            throw new SnapshotFormatException("Checksum snapshot non valido: " + file);
+        }
+
+        List<RecordRange> ranges = new ArrayList<>();
+        int offset = HEADER_SIZE;
+        for (int i = 0; i < sectionCount; i++) {
+            if (offset + SECTION_HEADER_SIZE_V1 > size) {
+                throw new SnapshotFormatException("Snapshot troncato: " + file);
+            }
+            Section section = Section.fromCode(buffer.get(offset) & 0xFF);
+            int count = buffer.getInt(offset + 1);
+            long byteLength = buffer.getLong(offset + 5);
+            int dataStart = offset + SECTION_HEADER_SIZE_V1;
+            if (count < 0 || byteLength < 0 || dataStart + byteLength > size) {
+                throw new SnapshotFormatException("Snapshot troncato: " + file);
+            }
+            if (section != null && sections.contains(section)) {
+                ranges.addAll(splitIntoRanges(section, buffer.slice(dataStart, (int) byteLength), count));
+            }
+            offset = (int) (dataStart + byteLength);
+        }
+        if (offset != size) {
+            throw new SnapshotFormatException("Snapshot troncato: " + file);
+        }
+        return ranges;
+    }
+
+    private SnapshotData decodeRanges(List<RecordRange> ranges) throws IOException {
+        long requestedBytes = 0;
+        for (RecordRange range : ranges) {
+            requestedBytes += range.buffer.remaining();
+        }
+        Stream<RecordRange> stream = ranges.stream();
+        if (requestedBytes >= parallelThreshold) {
+            stream = stream.parallel();
+        }
+        List<List<?>> decoded;
+        try {
+            decoded = stream.map(this::decodeRange).collect(Collectors.toList());
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        Map<Section, List<Object>> bySection = new EnumMap<>(Section.class);
+        for (int i = 0; i < ranges.size(); i++) {
+            bySection.computeIfAbsent(ranges.get(i).section, s -> new ArrayList<>()).addAll(decoded.get(i));
+        }
+        return new SnapshotData(cast(bySection.get(Section.STATIONS)), cast(bySection.get(Section.TRAINS)),
+                cast(bySection.get(Section.TICKETS)), cast(bySection.get(Section.ROUTES)),
+                cast(bySection.get(Section.PROMOTIONS)));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> List<T> cast(List<Object> list) {
+        return list != null ? (List<T>) (List<?>) list : new ArrayList<>();
+    }
+
+    /**
+     * Divide una sezione in intervalli di al massimo {@link #RECORDS_PER_RANGE} record,
+     * scorrendo solo i prefissi di lunghezza (varint) senza decodificare i messaggi.
+     */
+    private List<RecordRange> splitIntoRanges(Section section, ByteBuffer data, int count) throws IOException {
+        if (count <= RECORDS_PER_RANGE) {
+            return List.of(new RecordRange(section, data, count));
+        }
+        List<RecordRange> ranges = new ArrayList<>();
+        int position = 0;
+        int rangeStart = 0;
+        int inRange = 0;
+        for (int i = 0; i < count; i++) {
+            long lengthAndSize = readVarint(data, position);
+            position += (int) (lengthAndSize >>> 32) + (int) lengthAndSize;
+            if (position > data.limit()) {
+                throw new SnapshotFormatException("Sezione " + section + " troncata: " + file);
+            }
+            if (++inRange == RECORDS_PER_RANGE) {
+                ranges.add(new RecordRange(section, data.slice(rangeStart, position - rangeStart), inRange));
+                rangeStart = position;
+                inRange = 0;
+            }
+        }
+        if (inRange > 0) {
+            ranges.add(new RecordRange(section, data.slice(rangeStart, position - rangeStart), inRange));
+        }
+        if (position != data.limit()) {
+            throw new SnapshotFormatException("Dati inattesi in coda alla sezione " + section + ": " + file);
+        }
+        return ranges;
+    }
+
+    /**
+     * Legge un varint a 32 bit alla posizione indicata.
+     *
+     * @return lunghezza in byte del varint nei 32 bit alti, valore nei 32 bit bassi
+     */
+    private long readVarint(ByteBuffer data, int position) throws SnapshotFormatException {
+        int value = 0;
+        for (int shift = 0, i = 0; shift < 35; shift += 7, i++) {
+            if (position + i >= data.limit()) break;
+            byte b = data.get(position + i);
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return ((long) (i + 1) << 32) | (value & 0xFFFFFFFFL);
+            }
+        }
+        throw new SnapshotFormatException("Lunghezza di record non valida: " + file);
+    }
+
+    private List<?> decodeRange(RecordRange range) {
+        try {
+            return switch (range.section) {
+                case STATIONS -> decodeRecords(range, Station.parser());
+                case TRAINS -> decodeRecords(range, Train.parser());
+                case TICKETS -> decodeRecords(range, Ticket.parser());
+                case ROUTES -> decodeRecords(range, Route.parser());
+                case PROMOTIONS -> decodeRecords(range, Promotion.parser());
+            };
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private <T> List<T> decodeRecords(RecordRange range, Parser<T> parser) throws IOException {
+        List<T> result = new ArrayList<>(range.count);
+        try {
+            CodedInputStream in = CodedInputStream.newInstance(range.buffer);
+            for (int i = 0; i < range.count; i++) {
+                int length = in.readRawVarint32();
+                int oldLimit = in.pushLimit(length);
+                result.add(parser.parseFrom(in));
+                in.popLimit(oldLimit);
+            }
+            if (!in.isAtEnd()) {
+                throw new SnapshotFormatException("Dati inattesi in coda alla sezione " + range.section + ": " + file);
+            }
+        } catch (InvalidProtocolBufferException e) {
+            throw new SnapshotFormatException("Record dello snapshot non valido: " + e.getMessage());
+        }
+        return result;
+    }
+}
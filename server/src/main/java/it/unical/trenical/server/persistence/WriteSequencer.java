@@ -0,0 +1,171 @@
+package it.unical.trenical.server.persistence;
+
+import java.io.Closeable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * Coda di comandi a scrittore singolo su un buffer circolare limitato.
+ * <p>
+ * I thread che modificano i dati non applicano direttamente le modifiche: prenotano una posizione del buffer
+ * con un contatore atomico, vi pubblicano il comando e ricevono un future. Un unico thread di scrittura
+ * esegue i comandi nell'ordine delle posizioni e completa i future con il risultato; l'ordine di esecuzione
+ * è quindi un ordine totale di tutte le modifiche, che il journal registra così com'è.
+ * <p>
+ * Il buffer non cresce: quando è pieno chi pubblica attende che lo scrittore liberi una posizione.
+ * Un comando eseguito dallo scrittore che ne pubblica un altro lo esegue subito, senza attendere sé stesso.
+ */
+public final class WriteSequencer implements Closeable {
+
+    public static final String ENABLED_PROPERTY = "trenical.datastore.singleWriter";
+    public static final String CAPACITY_PROPERTY = "trenical.datastore.ringCapacity";
+
+    private static final int DEFAULT_CAPACITY = 1024;
+    // Tentativi a vuoto prima di sospendere il thread in attesa
+    private static final int SPIN_TRIES = 100;
+    // Attesa di chi pubblica a buffer pieno; lo scrittore invece dorme finché non viene svegliato
+    private static final long PARK_NANOS = 50_000;
+
+    private static final class Command<T> {
+        final Supplier<T> action;
+        final CompletableFuture<T> future = new CompletableFuture<>();
+
+        Command(Supplier<T> action) {
+            this.action = action;
+        }
+
+        void run() {
+            // Comando rifiutato perché pubblicato dopo la chiusura
+            if (future.isDone()) return;
+            try {
+                future.complete(action.get());
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        }
+    }
+
+    private final int mask;
+    private final AtomicReferenceArray<Command<?>> slots;
+    // Prossima posizione da prenotare e prossima posizione che lo scrittore eseguirà
+    private final AtomicLong claimed = new AtomicLong();
+    private final AtomicLong consumed = new AtomicLong();
+    private final Thread writerThread;
+    private volatile boolean running = true;
+
+    /**
+     * Crea la coda con la capacità letta dalla proprietà di sistema {@value #CAPACITY_PROPERTY}.
+     */
+    public WriteSequencer() {
+        this(Integer.getInteger(CAPACITY_PROPERTY, DEFAULT_CAPACITY));
+    }
+
+    /**
+     * @param capacity numero di comandi in attesa oltre il quale chi pubblica si ferma
+     *                 (arrotondato alla potenza di due successiva)
+     */
+    public WriteSequencer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1);
+        this.mask = size - 1;
+        this.slots = new AtomicReferenceArray<>(size);
+        this.writerThread = new Thread(this::runLoop, "datastore-writer");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    /**
+     * Indica se la modalità a scrittore singolo è attiva ({@value #ENABLED_PROPERTY}).
+     */
+    public static boolean isEnabled() {
+        return Boolean.getBoolean(ENABLED_PROPERTY);
+    }
+
+    /**
+     * Pubblica un comando. Il future viene completato dallo scrittore con il valore restituito dal comando,
+     * oppure con l'eccezione che ha lanciato.
+     */
+    public <T> CompletableFuture<T> submit(Supplier<T> action) {
+        Command<T> command = new Command<>(action);
+        if (Thread.currentThread() == writerThread) {
+            command.run();
+            return command.future;
+        }
+        long sequence = claimed.getAndIncrement();
+        // La posizione prenotata va comunque riempita: lo scrittore si ferma solo dopo averle eseguite tutte
+        if (!running) {
+            command.future.completeExceptionally(new IllegalStateException("Coda delle modifiche chiusa"));
+        }
+        // Buffer pieno: si attende che lo scrittore liberi la posizione
+        int tries = 0;
+        while (sequence - consumed.get() > mask) {
+            // Scrittore terminato: la posizione non verrà mai liberata, il comando va rifiutato
+            if (!writerThread.isAlive()) {
+                command.future.completeExceptionally(new IllegalStateException("Coda delle modifiche chiusa"));
+                return command.future;
+            }
+            tries = idle(tries);
+        }
+        slots.set((int) sequence & mask, command);
+        LockSupport.unpark(writerThread);
+        return command.future;
+    }
+
+    private void runLoop() {
+        long sequence = 0;
+        int tries = 0;
+        while (true) {
+            int index = (int) sequence & mask;
+            Command<?> command = slots.get(index);
+            if (command == null) {
+                // Le posizioni prenotate vanno comunque eseguite: si esce solo a coda vuota
+                if (!running && claimed.get() == sequence) break;
+                // Coda vuota: dopo qualche tentativo lo scrittore si sospende fino all'unpark di submit o close,
+                // senza risvegli periodici. Un unpark arrivato prima del park lo fa ripartire subito.
+                if (tries < SPIN_TRIES) {
+                    Thread.onSpinWait();
+                    tries++;
+                } else {
+                    LockSupport.park(this);
+                }
+                continue;
+            }
+            tries = 0;
+            slots.set(index, null);
+            command.run();
+            consumed.set(++sequence);
+        }
+    }
+
+    private static int idle(int tries) {
+        if (tries < SPIN_TRIES) {
+            Thread.onSpinWait();
+        } else {
+            LockSupport.parkNanos(PARK_NANOS);
+        }
+        return tries + 1;
+    }
+
+    /**
+     * Numero di comandi eseguiti finora.
+     */
+    public long getExecutedCount() {
+        return consumed.get();
+    }
+
+    /**
+     * Smette di accettare comandi, esegue quelli già pubblicati e attende la fine dello scrittore.
+     */
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(writerThread);
+        try {
+            writerThread.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
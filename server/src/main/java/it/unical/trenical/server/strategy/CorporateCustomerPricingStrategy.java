@@ -2,10 +2,10 @@ package it.unical.trenical.server.strategy;
 
 import com.google.protobuf.Timestamp;
 import it.unical.trenical.server.DataStore;
+import it.unical.trenical.server.index.PromotionIndex;
 import it.unical.trenical.grpc.promotion.Promotion;
 
 import java.time.Instant;
-import java.time.LocalDate;
 import java.time.LocalTime;
 import java.time.ZoneId;
 
@@ -30,20 +30,32 @@ public class CorporateCustomerPricingStrategy implements PriceCalculationStrateg
     // Delega il calcolo base alla strategia standard
     private final StandardPriceCalculationStrategy standardStrategy;
 
-    private String userType = "standard";
+    private static final String DEFAULT_USER_TYPE = "corporate";
 
     public CorporateCustomerPricingStrategy() {
-        this.standardStrategy = new StandardPriceCalculationStrategy(null, null);
+        this(new StandardPriceCalculationStrategy(null, null));
     }
 
-    public void setUserType(String userType) {
-        this.userType = userType;
+    /**
+     * Riusa una strategia standard già costruita (e la sua mappa delle distanze).
+     */
+    public CorporateCustomerPricingStrategy(StandardPriceCalculationStrategy standardStrategy) {
+        this.standardStrategy = standardStrategy;
     }
+
     @Override
     public double calculateTicketPrice(String departureStation, String arrivalStation,
                                      String serviceClass, Timestamp travelDate,
                                      String promoCode, String trainType) {
-        // Usa il tipo utente impostato
+        return calculateTicketPrice(departureStation, arrivalStation, serviceClass, travelDate,
+                promoCode, trainType, DEFAULT_USER_TYPE);
+    }
+
+    @Override
+    public double calculateTicketPrice(String departureStation, String arrivalStation,
+                                     String serviceClass, Timestamp travelDate,
+                                     String promoCode, String trainType, String userType) {
+        // Le agevolazioni aziendali valgono solo per utenti corporate
         String type = userType != null ? userType : "standard";
         double standardPrice = standardStrategy.calculateTicketPrice(
             departureStation, arrivalStation, serviceClass, travelDate, promoCode, trainType
@@ -75,6 +87,11 @@ public class CorporateCustomerPricingStrategy implements PriceCalculationStrateg
 
     @Override
     public boolean isValidPromoCode(String promoCode) {
+        return isValidPromoCode(promoCode, DEFAULT_USER_TYPE);
+    }
+
+    @Override
+    public boolean isValidPromoCode(String promoCode, String userType) {
         String type = userType != null ? userType.toLowerCase() : "standard";
 
         if (!type.equals("corporate")) {
@@ -94,13 +111,10 @@ public class CorporateCustomerPricingStrategy implements PriceCalculationStrateg
         if (promoCode == null || promoCode.trim().isEmpty()) return false;
 
         try {
-            DataStore dataStore = DataStore.getInstance();
-
-            for (Promotion promo : dataStore.getAllPromotions()) {
-                if (promo.getName().equalsIgnoreCase(promoCode.trim())) {
-                    // Controlla se il tipo utente è nella lista userTypes
-                    return promo.getUserTypesList().contains(userType);
-                }
+            Promotion promo = DataStore.getInstance().getPromotionIndex().firstByCode(promoCode);
+            if (promo != null) {
+                // Controlla se il tipo utente è nella lista userTypes
+                return promo.getUserTypesList().contains(userType);
             }
         } catch (Exception e) {
             System.err.println("[CORPORATE PROMO VALIDATION ERROR] " + e.getMessage());
@@ -118,30 +132,25 @@ public class CorporateCustomerPricingStrategy implements PriceCalculationStrateg
 
         // Controlla promozioni aziendali nel sistema
         try {
-            DataStore dataStore = DataStore.getInstance();
-
-            for (Promotion promo : dataStore.getAllPromotions()) {
-                if (promo.getName().equalsIgnoreCase(promoCode.trim())) {
-
-                    // Verifica se è una promo corporate o generica applicabile
-                    if (isCorporateApplicablePromo(promo, departureStation, arrivalStation,
-                                                  serviceClass, travelDate, trainType)) {
-
-                        double discount = promo.getDiscountPercent() / 100.0;
-
-                        // Bonus del 3% per clienti corporate su promozioni generiche
-                        if (!isCorporateSpecificPromo(promo)) {
-                            discount += 0.03; // 3% bonus corporate
-                            System.out.println("[CORPORATE STRATEGY] Bonus corporate del 3% applicato");
-                        }
+            PromotionIndex index = DataStore.getInstance().getPromotionIndex();
+
+            // Verifica se esiste una promo corporate o generica applicabile
+            Promotion promo = index.findApplicable(promoCode, departureStation + "-" + arrivalStation,
+                                                   serviceClass, trainType, index.dayOf(travelDate));
+            if (promo != null) {
+                double discount = promo.getDiscountPercent() / 100.0;
+
+                // Bonus del 3% per clienti corporate su promozioni generiche
+                if (!isCorporateSpecificPromo(promo)) {
+                    discount += 0.03; // 3% bonus corporate
+                    System.out.println("[CORPORATE STRATEGY] Bonus corporate del 3% applicato");
+                }
 
-                        double discountedPrice = currentPrice * (1.0 - discount);
-                        System.out.println("[CORPORATE STRATEGY] Promozione aziendale applicata: " +
-                                          promoCode + " (" + (discount * 100) + "%)");
+                double discountedPrice = currentPrice * (1.0 - discount);
+                System.out.println("[CORPORATE STRATEGY] Promozione aziendale applicata: " +
+                                  promoCode + " (" + (discount * 100) + "%)");
 
-                        return discountedPrice;
-                    }
-                }
+                return discountedPrice;
             }
         } catch (Exception e) {
             System.err.println("[CORPORATE PROMO ERROR] " + e.getMessage());
@@ -181,47 +190,6 @@ public class CorporateCustomerPricingStrategy implements PriceCalculationStrateg
         }
     }
 
-    /**
-     * Verifica se una promozione è applicabile per clienti corporate
-     */
-    private boolean isCorporateApplicablePromo(Promotion promo, String departureStation,
-                                             String arrivalStation, String serviceClass,
-                                             Timestamp travelDate, String trainType) {
-
-        String routeName = departureStation + "-" + arrivalStation;
-
-        // Verifica criteri base
-        boolean routeOk = promo.getRouteNamesList().isEmpty() ||
-                         promo.getRouteNamesList().contains(routeName);
-
-        boolean classOk = promo.getServiceClassesList().isEmpty() ||
-                         promo.getServiceClassesList().contains(serviceClass);
-
-        boolean typeOk = promo.getTrainType().isEmpty() ||
-                        promo.getTrainType().equalsIgnoreCase(trainType);
-
-        // Verifica validità temporale
-        boolean dateOk = true;
-        if (travelDate != null) {
-            LocalDate travelLocalDate = Instant.ofEpochSecond(travelDate.getSeconds())
-                                               .atZone(ZoneId.systemDefault()).toLocalDate();
-
-            if (promo.hasValidFrom()) {
-                LocalDate validFrom = Instant.ofEpochSecond(promo.getValidFrom().getSeconds())
-                                            .atZone(ZoneId.systemDefault()).toLocalDate();
-                dateOk = !travelLocalDate.isBefore(validFrom);
-            }
-
-            if (dateOk && promo.hasValidTo()) {
-                LocalDate validTo = Instant.ofEpochSecond(promo.getValidTo().getSeconds())
-                                          .atZone(ZoneId.systemDefault()).toLocalDate();
-                dateOk = !travelLocalDate.isAfter(validTo);
-            }
-        }
-
-        return routeOk && classOk && typeOk && dateOk;
-    }
-
     /**
      * Controlla se una promozione è specifica per corporate
      */
@@ -0,0 +1,179 @@
+package it.unical.trenical.server.strategy;
+
+import it.unical.trenical.grpc.common.Station;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Tabella delle distanze tra stazioni, calcolata una sola volta e mai modificata.
+ * <p>
+ * Ogni nome (nome completo, città, nome senza suffissi come "Termini") viene risolto in un indice denso;
+ * la distanza tra due indici è una lettura da un array {@code float[n*n]}. Le distanze derivano dalle
+ * coordinate in stations.json; quelle ferroviarie note, se fornite, hanno la precedenza.
+ * Quando le stazioni cambiano si costruisce una nuova tabella e si sostituisce la precedente.
+ */
+public final class DistanceMatrix {
+
+    /** Valore restituito quando la distanza tra due nomi non è nota. */
+    public static final int UNKNOWN = -1;
+
+    private static final double EARTH_RADIUS_KM = 6371.0;
+
+    private final Map<String, Integer> indexByName;
+    private final float[] distances;
+    private final int size;
+    private final long stationsVersion;
+
+    private DistanceMatrix(Map<String, Integer> indexByName, float[] distances, int size, long stationsVersion) {
+        this.indexByName = indexByName;
+        this.distances = distances;
+        this.size = size;
+        this.stationsVersion = stationsVersion;
+    }
+
+    /**
+     * Costruisce la tabella dalle stazioni e dalle distanze note.
+     * @param stations stazioni con coordinate geografiche
+     * @param knownDistances distanze ferroviarie note per nome (può essere null); sovrascrivono quelle calcolate
+     * @param stationsVersion versione delle stazioni da cui è stata costruita la tabella
+     */
+    public static DistanceMatrix build(Collection<Station> stations,
+                                       Map<String, Map<String, Integer>> knownDistances,
+                                       long stationsVersion) {
+        Map<String, Integer> index = new HashMap<>();
+        Station[] byIndex = new Station[stations.size()];
+        int n = 0;
+        for (Station station : stations) {
+            byIndex[n] = station;
+            register(index, station.getName(), n);
+            register(index, stripSuffixes(station.getName()), n);
+            register(index, station.getCity(), n);
+            n++;
+        }
+        // I nomi presenti solo nelle distanze note ricevono un proprio indice
+        if (knownDistances != null) {
+            for (Map.Entry<String, Map<String, Integer>> entry : knownDistances.entrySet()) {
+                n = registerIfAbsent(index, entry.getKey(), n);
+                for (String to : entry.getValue().keySet()) {
+                    n = registerIfAbsent(index, to, n);
+                }
+            }
+        }
+
+        float[] distances = new float[n * n];
+        Arrays.fill(distances, UNKNOWN);
+        for (int i = 0; i < n; i++) {
+            distances[i * n + i] = 0;
+        }
+        for (int i = 0; i < byIndex.length; i++) {
+            for (int j = i + 1; j < byIndex.length; j++) {
+                Station a = byIndex[i];
+                Station b = byIndex[j];
+                if (!hasCoordinates(a) || !hasCoordinates(b)) continue;
+                float km = (float) haversine(a.getLatitude(), a.getLongitude(), b.getLatitude(), b.getLongitude());
+                distances[i * n + j] = km;
+                distances[j * n + i] = km;
+            }
+        }
+        if (knownDistances != null) {
+            // Prima le distanze inverse, poi quelle dirette, così una voce diretta prevale sempre
+            for (Map.Entry<String, Map<String, Integer>> entry : knownDistances.entrySet()) {
+                int from = index.get(normalize(entry.getKey()));
+                for (Map.Entry<String, Integer> to : entry.getValue().entrySet()) {
+                    int j = index.get(normalize(to.getKey()));
+                    if (from != j) distances[j * n + from] = to.getValue();
+                }
+            }
+            for (Map.Entry<String, Map<String, Integer>> entry : knownDistances.entrySet()) {
+                int from = index.get(normalize(entry.getKey()));
+                for (Map.Entry<String, Integer> to : entry.getValue().entrySet()) {
+                    int j = index.get(normalize(to.getKey()));
+                    if (from != j) distances[from * n + j] = to.getValue();
+                }
+            }
+        }
+        return new DistanceMatrix(index, distances, n, stationsVersion);
+    }
+
+    /**
+     * Indice del nome della stazione, -1 se sconosciuto. I nomi già normalizzati si risolvono
+     * con una sola lettura della mappa.
+     */
+    public int indexOf(String name) {
+        if (name == null) return -1;
+        Integer i = indexByName.get(name);
+        if (i == null) i = indexByName.get(normalize(name));
+        if (i == null) i = indexByName.get(normalize(stripSuffixes(name)));
+        return i != null ? i : -1;
+    }
+
+    /**
+     * Distanza in km tra due indici, {@link #UNKNOWN} se non nota.
+     */
+    public float distance(int from, int to) {
+        if (from < 0 || to < 0) return UNKNOWN;
+        return distances[from * size + to];
+    }
+
+    /**
+     * Distanza in km arrotondata tra due stazioni, {@link #UNKNOWN} se uno dei nomi non è noto
+     * o mancano le coordinate.
+     */
+    public int distance(String from, String to) {
+        float km = distance(indexOf(from), indexOf(to));
+        return km < 0 ? UNKNOWN : Math.round(km);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getStationsVersion() {
+        return stationsVersion;
+    }
+
+    private static void register(Map<String, Integer> index, String name, int i) {
+        if (name == null || name.isBlank()) return;
+        index.putIfAbsent(name, i);
+        index.putIfAbsent(normalize(name), i);
+    }
+
+    private static int registerIfAbsent(Map<String, Integer> index, String name, int next) {
+        String key = normalize(name);
+        if (index.containsKey(key) || index.containsKey(normalize(stripSuffixes(name)))) {
+            if (!index.containsKey(key)) index.put(key, index.get(normalize(stripSuffixes(name))));
+            return next;
+        }
+        register(index, name, next);
+        return next + 1;
+    }
+
+    private static String normalize(String name) {
+        return name.trim().toLowerCase(Locale.ROOT);
+    }
+
+    // Stessa normalizzazione storica della strategia standard: "Roma Termini" -> "Roma"
+    private static String stripSuffixes(String name) {
+        return name.trim()
+                .replace(" Centrale", "")
+                .replace(" Termini", "")
+                .replace(" SMN", "");
+    }
+
+    private static boolean hasCoordinates(Station station) {
+        return station.getLatitude() != 0 || station.getLongitude() != 0;
+    }
+
+    private static double haversine(double lat1, double lon1, double lat2, double lon2) {
+        double deltaLat = Math.toRadians(lat2 - lat1);
+        double deltaLon = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(deltaLat / 2) * Math.sin(deltaLat / 2)
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2))
+                * Math.sin(deltaLon / 2) * Math.sin(deltaLon / 2);
+        return EARTH_RADIUS_KM * 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+    }
+}
@@ -0,0 +1,171 @@
+package it.unical.trenical.server.strategy;
+
+import com.google.protobuf.Timestamp;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * Cache dei preventivi di prezzo, limitata in dimensione (LRU) e in durata (TTL).
+ * <p>
+ * Un preventivo dipende da tratta, classe, orario di viaggio, codice promo, tipo di treno e tipo di utente,
+ * oltre che da promozioni e stazioni. Ogni voce ricorda la versione dei dati di prezzo con cui è stata
+ * calcolata: quando la versione cambia (promozione aggiunta, modificata o rimossa, stazioni modificate)
+ * le voci precedenti non vengono più restituite e la cache si svuota alla prima lettura successiva.
+ */
+public final class FareQuoteCache {
+
+    public static final String MAX_ENTRIES_PROPERTY = "trenical.fareCache.maxEntries";
+    public static final String TTL_SECONDS_PROPERTY = "trenical.fareCache.ttlSeconds";
+
+    private static final int DEFAULT_MAX_ENTRIES = 10_000;
+    private static final int DEFAULT_TTL_SECONDS = 300;
+
+    /**
+     * Chiave di un preventivo. I campi testuali restano come nella richiesta: le strategie confrontano
+     * tratte e classi rispettando le maiuscole, quindi due scritture diverse possono dare prezzi diversi.
+     */
+    public record Key(String departureStation, String arrivalStation, String serviceClass, long travelEpochSecond,
+                      String promoCode, String trainType, String userType) {
+    }
+
+    private static final class Entry {
+        final double price;
+        final long version;
+        final long expiresAtNanos;
+
+        Entry(double price, long version, long expiresAtNanos) {
+            this.price = price;
+            this.version = version;
+            this.expiresAtNanos = expiresAtNanos;
+        }
+    }
+
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final LongSupplier pricingVersion;
+    private final LongSupplier nanoClock;
+    private final LinkedHashMap<Key, Entry> entries;
+    private long cachedVersion;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    /**
+     * Crea la cache con dimensione e TTL letti dalle proprietà di sistema.
+     * @param pricingVersion versione corrente dei dati da cui dipendono i prezzi
+     */
+    public FareQuoteCache(LongSupplier pricingVersion) {
+        this(pricingVersion, Integer.getInteger(MAX_ENTRIES_PROPERTY, DEFAULT_MAX_ENTRIES),
+                TimeUnit.SECONDS.toNanos(Integer.getInteger(TTL_SECONDS_PROPERTY, DEFAULT_TTL_SECONDS)),
+                System::nanoTime);
+    }
+
+    FareQuoteCache(LongSupplier pricingVersion, int maxEntries, long ttlNanos, LongSupplier nanoClock) {
+        this.pricingVersion = pricingVersion;
+        this.maxEntries = Math.max(1, maxEntries);
+        this.ttlNanos = ttlNanos;
+        this.nanoClock = nanoClock;
+        this.cachedVersion = pricingVersion.getAsLong();
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                return size() > FareQuoteCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Costruisce la chiave di un preventivo. Conta l'orario di partenza completo e non solo il giorno:
+     * le strategie usano anche l'ora (es. gli sconti aziendali negli orari business).
+     */
+    public static Key key(String departureStation, String arrivalStation, String serviceClass, Timestamp travelDate,
+                          String promoCode, String trainType, String userType) {
+        long travelEpochSecond = travelDate == null ? Long.MIN_VALUE : travelDate.getSeconds();
+        return new Key(orEmpty(departureStation), orEmpty(arrivalStation), orEmpty(serviceClass), travelEpochSecond,
+                orEmpty(promoCode), orEmpty(trainType), orEmpty(userType));
+    }
+
+    /**
+     * Restituisce il prezzo in cache per la chiave oppure lo calcola e lo memorizza.
+     * Il calcolo avviene fuori dal lock; il risultato viene salvato con la versione letta prima del calcolo,
+     * quindi un prezzo calcolato mentre cambiava una promozione non sopravvive al cambio.
+     */
+    public double getOrCompute(Key key, DoubleSupplier compute) {
+        long version = pricingVersion.getAsLong();
+        long now = nanoClock.getAsLong();
+        synchronized (this) {
+            // La versione cresce sempre: una lettura più vecchia di quella in cache non la svuota
+            if (version > cachedVersion) {
+                invalidateAll(version);
+            }
+            Entry entry = entries.get(key);
+            if (entry != null && entry.version == version && now - entry.expiresAtNanos < 0) {
+                hits.increment();
+                return entry.price;
+            }
+            if (entry != null) {
+                entries.remove(key);
+            }
+        }
+        misses.increment();
+        double price = compute.getAsDouble();
+        synchronized (this) {
+            if (version == cachedVersion) {
+                entries.put(key, new Entry(price, version, now + ttlNanos));
+            }
+        }
+        return price;
+    }
+
+    private void invalidateAll(long version) {
+        if (!entries.isEmpty()) {
+            invalidations.increment();
+        }
+        entries.clear();
+        cachedVersion = version;
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /** Numero di volte in cui la cache è stata svuotata per un cambio di promozioni o stazioni. */
+    public long getInvalidations() {
+        return invalidations.sum();
+    }
+
+    public double getHitRatio() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 0.0 : (double) h / total;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "FareQuoteCache[size=%d, hits=%d, misses=%d, invalidations=%d, hitRatio=%.2f]",
+                size(), getHits(), getMisses(), getInvalidations(), getHitRatio());
+    }
+
+    private static String orEmpty(String value) {
+        return value == null ? "" : value;
+    }
+}
@@ -32,6 +32,25 @@ public interface PriceCalculationStrategy {
         String trainType
     );
 
+    /**
+     * Calcola il prezzo del biglietto per il tipo di utente indicato.
+     * Le strategie non conservano il tipo utente: la stessa istanza può servire richieste concorrenti.
+     *
+     * @param userType Tipo di utente (standard, vip, corporate)
+     * @return Prezzo calcolato secondo la strategia
+     */
+    default double calculateTicketPrice(
+        String departureStation,
+        String arrivalStation,
+        String serviceClass,
+        Timestamp travelDate,
+        String promoCode,
+        String trainType,
+        String userType
+    ) {
+        return calculateTicketPrice(departureStation, arrivalStation, serviceClass, travelDate, promoCode, trainType);
+    }
+
     /**
      * Valida se un codice promozionale è valido per questa strategia.
      *
@@ -40,6 +59,17 @@ public interface PriceCalculationStrategy {
      */
     boolean isValidPromoCode(String promoCode);
 
+    /**
+     * Valida un codice promozionale per il tipo di utente indicato.
+     *
+     * @param promoCode Codice promozionale da validare
+     * @param userType Tipo di utente (standard, vip, corporate)
+     * @return true se il codice è valido, false altrimenti
+     */
+    default boolean isValidPromoCode(String promoCode, String userType) {
+        return isValidPromoCode(promoCode);
+    }
+
     /**
      * Ottiene il nome descrittivo della strategia per logging/debugging.
      *
@@ -17,13 +17,18 @@ import java.util.Map;
  */
 public class PriceCalculator {
 
-    // PATTERN STRATEGY: Riferimento alla strategia corrente
-    private PriceCalculationStrategy strategy;
+    // PATTERN STRATEGY: Strategia usata dai metodi senza tipo utente (di default quella standard)
+    private volatile PriceCalculationStrategy strategy;
 
     // Database condiviso per tutte le strategie
     private final Map<String, Map<String, Integer>> distanceMap;
     private final Map<String, Double> promoCodeDiscounts;
 
+    // Strategie costruite una sola volta e condivise da tutte le richieste: non hanno stato mutabile
+    private final StandardPriceCalculationStrategy standardStrategy;
+    private final VIPCustomerPricingStrategy vipStrategy;
+    private final CorporateCustomerPricingStrategy corporateStrategy;
+
     /**
      * Costruttore con strategia di default (Standard).
      * PATTERN STRATEGY: Inizializza con una strategia predefinita.
@@ -43,12 +48,12 @@ public class PriceCalculator {
         initializeDistanceMap();
         initializePromoCodeDiscounts();
 
+        this.standardStrategy = new StandardPriceCalculationStrategy(distanceMap, promoCodeDiscounts);
+        this.vipStrategy = new VIPCustomerPricingStrategy(standardStrategy);
+        this.corporateStrategy = new CorporateCustomerPricingStrategy(standardStrategy);
+
         // PATTERN STRATEGY: Imposta la strategia (default se null)
-        if (strategy == null) {
-            this.strategy = new StandardPriceCalculationStrategy(distanceMap, promoCodeDiscounts);
-        } else {
-            this.strategy = strategy;
-        }
+        this.strategy = strategy != null ? strategy : standardStrategy;
     }
 
     /**
@@ -73,7 +78,8 @@ public class PriceCalculator {
 
     /**
      * PATTERN STRATEGY - METODO PRINCIPALE CON TIPO UTENTE
-     * Seleziona automaticamente la strategia corretta in base al tipo utente e delega il calcolo.
+     * Seleziona la strategia corretta in base al tipo utente e delega il calcolo.
+     * Non modifica lo stato del calcolatore, quindi può essere usato da più thread contemporaneamente.
      */
     public double calculateTicketPrice(
             String departureStation,
@@ -84,20 +90,44 @@ public class PriceCalculator {
             String trainType,
             String userType // Nuovo parametro per il tipo utente
     ) {
-        // Seleziona strategia in base al tipo utente
-        setStrategyByUserType(userType);
-
-        // PATTERN STRATEGY: Delega il calcolo alla strategia corrente
-        return strategy.calculateTicketPrice(
+        String type = normalizeUserType(userType);
+        return strategyFor(type).calculateTicketPrice(
             departureStation, arrivalStation, serviceClass,
-            travelDate, promoCode, trainType
+            travelDate, promoCode, trainType, type
         );
     }
 
+    /**
+     * PATTERN STRATEGY - SELEZIONE STRATEGIA PER TIPO UTENTE
+     * Restituisce la strategia precostruita per il tipo di utente, senza crearne di nuove.
+     */
+    public PriceCalculationStrategy strategyFor(String userType) {
+        switch (normalizeUserType(userType)) {
+            case "vip":
+            case "premium":
+                return vipStrategy;
+            case "corporate":
+            case "business":
+                return corporateStrategy;
+            default:
+                return standardStrategy;
+        }
+    }
+
+    private static String normalizeUserType(String userType) {
+        return userType == null || userType.isEmpty() ? "standard" : userType.toLowerCase();
+    }
+
+    /**
+     * Nome della strategia usata per il tipo di utente indicato.
+     */
+    public String getStrategyName(String userType) {
+        return strategyFor(userType).getClass().getSimpleName();
+    }
+
     /**
      * PATTERN STRATEGY - CAMBIO STRATEGIA A RUNTIME
-     * Permette di cambiare la strategia di calcolo durante l'esecuzione.
-     * Questo dimostra la flessibilità del pattern Strategy.
+     * Cambia la strategia usata dai metodi senza tipo utente.
      */
     public void setStrategy(PriceCalculationStrategy strategy) {
         if (strategy != null) {
@@ -109,88 +139,30 @@ public class PriceCalculator {
 
     /**
      * PATTERN STRATEGY - FACTORY METHOD AGGIORNATO
-     * Crea e imposta una strategia basata su un tipo di cliente realistico.
-     * Ora riflette i veri casi d'uso del business.
+     * Imposta come strategia corrente quella precostruita per il tipo di cliente.
+     * Influisce solo sui metodi senza tipo utente; i servizi gRPC usano le varianti con il tipo utente.
      */
     public void setStrategyByType(String strategyType) {
-        PriceCalculationStrategy newStrategy;
-
-        switch (strategyType.toLowerCase()) {
-            case "standard":
-                newStrategy = new StandardPriceCalculationStrategy(distanceMap, promoCodeDiscounts);
-                break;
-            case "vip":
-            case "premium":
-                VIPCustomerPricingStrategy vipStrategy = new VIPCustomerPricingStrategy(distanceMap, promoCodeDiscounts);
-                vipStrategy.setUserType("vip");
-                newStrategy = vipStrategy;
-                break;
-            case "corporate":
-            case "business":
-                CorporateCustomerPricingStrategy corporateStrategy = new CorporateCustomerPricingStrategy();
-                corporateStrategy.setUserType("corporate");
-                newStrategy = corporateStrategy;
-                break;
-            default:
-                System.out.println("[STRATEGY PATTERN] Tipo strategia non riconosciuto: " + strategyType +
-                                  ". Uso strategia standard.");
-                newStrategy = new StandardPriceCalculationStrategy(distanceMap, promoCodeDiscounts);
-        }
-
-        this.strategy = newStrategy;
+        this.strategy = strategyFor(strategyType);
         System.out.println("[STRATEGY PATTERN] Strategia cambiata a: " + getCurrentStrategyName() +
                           " per tipo cliente: " + strategyType);
     }
 
     /**
      * PATTERN STRATEGY - SELEZIONE STRATEGIA PER TIPO UTENTE
-     * Seleziona automaticamente la strategia corretta in base al tipo di utente.
+     * Equivalente a {@link #setStrategyByType(String)}, mantenuto per compatibilità.
      */
     public void setStrategyByUserType(String userType) {
-        if (userType == null || userType.isEmpty()) {
-            userType = "standard";
-        }
-
-        switch (userType.toLowerCase()) {
-            case "corporate":
-                CorporateCustomerPricingStrategy corpStrategy = new CorporateCustomerPricingStrategy();
-                corpStrategy.setUserType(userType);
-                this.strategy = corpStrategy;
-                break;
-            case "vip":
-                VIPCustomerPricingStrategy vipStrategy = new VIPCustomerPricingStrategy(distanceMap, promoCodeDiscounts);
-                vipStrategy.setUserType(userType);
-                this.strategy = vipStrategy;
-                break;
-            case "standard":
-            default:
-                StandardPriceCalculationStrategy stdStrategy = new StandardPriceCalculationStrategy(distanceMap, promoCodeDiscounts);
-                stdStrategy.setUserType(userType);
-                this.strategy = stdStrategy;
-                break;
-        }
-
-        System.out.println("[STRATEGY PATTERN] Strategia selezionata per utente " + userType + ": " + strategy.getStrategyName());
+        setStrategyByType(normalizeUserType(userType));
     }
 
     /**
      * PATTERN STRATEGY - VALIDAZIONE CODICE PROMO CON TIPO UTENTE
-     * Valida i codici promo in base al tipo utente e alla strategia corrente.
+     * Valida i codici promo con la strategia del tipo utente, senza cambiare la strategia corrente.
      */
     public boolean isValidPromoCode(String promoCode, String userType) {
-        if (strategy instanceof StandardPriceCalculationStrategy) {
-            ((StandardPriceCalculationStrategy) strategy).setUserType(userType);
-        } else if (strategy instanceof CorporateCustomerPricingStrategy) {
-            ((CorporateCustomerPricingStrategy) strategy).setUserType(userType);
-        } else if (strategy instanceof VIPCustomerPricingStrategy) {
-            ((VIPCustomerPricingStrategy) strategy).setUserType(userType);
-        }
-
-        // Poi seleziona strategia in base al tipo utente
-        setStrategyByUserType(userType);
-
-        // PATTERN STRATEGY: Delega la validazione alla strategia corrente
-        return strategy.isValidPromoCode(promoCode);
+        String type = normalizeUserType(userType);
+        return strategyFor(type).isValidPromoCode(promoCode, type);
     }
 
     /**
@@ -216,28 +188,16 @@ public class PriceCalculator {
     ) {
         Map<String, Double> results = new HashMap<>();
 
-        // Salva la strategia corrente
-        PriceCalculationStrategy currentStrategy = this.strategy;
-
-        // Testa tutte le strategie realistiche
-        PriceCalculationStrategy[] strategies = {
-            new StandardPriceCalculationStrategy(distanceMap, promoCodeDiscounts),
-            new VIPCustomerPricingStrategy(),
-            new CorporateCustomerPricingStrategy()
-        };
-
+        // Testa tutte le strategie realistiche, ciascuna con il proprio tipo utente
+        String[] userTypes = {"standard", "vip", "corporate"};
         String[] strategyNames = {"Standard Customer", "VIP Customer", "Corporate Customer"};
 
-        for (int i = 0; i < strategies.length; i++) {
-            this.strategy = strategies[i];
+        for (int i = 0; i < userTypes.length; i++) {
             double price = calculateTicketPrice(departureStation, arrivalStation,
-                                              serviceClass, travelDate, promoCode, trainType);
+                                              serviceClass, travelDate, promoCode, trainType, userTypes[i]);
             results.put(strategyNames[i], price);
         }
 
-        // Ripristina la strategia originale
-        this.strategy = currentStrategy;
-
         return results;
     }
 
@@ -2,12 +2,12 @@ package it.unical.trenical.server.strategy;
 
 import com.google.protobuf.Timestamp;
 import it.unical.trenical.server.DataStore;
+import it.unical.trenical.server.index.PromotionIndex;
+import it.unical.trenical.grpc.common.Station;
 import it.unical.trenical.grpc.promotion.Promotion;
 
-import java.time.Instant;
-import java.time.LocalDate;
-import java.time.ZoneId;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -25,32 +25,40 @@ public class StandardPriceCalculationStrategy implements PriceCalculationStrateg
     private static final double FIRST_CLASS_MULTIPLIER = 1.8;
     private static final double PREMIUM_TRAIN_MULTIPLIER = 1.5;
 
-    // Database delle distanze (condiviso)
+    // Distanze ferroviarie note (condivise); prevalgono su quelle calcolate dalle coordinate
     private final Map<String, Map<String, Integer>> distanceMap;
 
+    // Tabella delle distanze per indice di stazione, sostituita quando cambiano le stazioni
+    private volatile DistanceMatrix distanceMatrix;
+
+    // Stima approssimativa per le località che non sono stazioni note (posizione lungo l'asse nord-sud)
+    private static final Map<String, Integer> ESTIMATED_POSITIONS = Map.of(
+        "Roma", 0,
+        "Milano", 570,
+        "Napoli", -220,
+        "Firenze", 270,
+        "Bologna", 370,
+        "Torino", 670,
+        "Venezia", 530,
+        "Bari", -400
+    );
+
     // Database legacy dei codici promo (manteniamo per compatibilità)
     private final Map<String, Double> legacyPromoCodeDiscounts;
 
-    private String userType = "standard";
+    private static final String DEFAULT_USER_TYPE = "standard";
 
     public StandardPriceCalculationStrategy(Map<String, Map<String, Integer>> distanceMap,
                                            Map<String, Double> promoCodeDiscounts) {
         this.distanceMap = distanceMap != null ? distanceMap : new HashMap<>();
         this.legacyPromoCodeDiscounts = promoCodeDiscounts != null ? promoCodeDiscounts : new HashMap<>();
 
-        // Inizializza dati se necessario
-        if (this.distanceMap.isEmpty()) {
-            initializeDistanceMap();
-        }
+        // Inizializza dati se necessario (le distanze mancanti si ricavano dalle coordinate delle stazioni)
         if (this.legacyPromoCodeDiscounts.isEmpty()) {
             initializeLegacyPromoCodes();
         }
     }
 
-    public void setUserType(String userType) {
-        this.userType = userType;
-    }
-
     @Override
     public double calculateTicketPrice(String departureStation, String arrivalStation,
                                      String serviceClass, Timestamp travelDate,
@@ -141,48 +149,14 @@ public class StandardPriceCalculationStrategy implements PriceCalculationStrateg
                                                 String arrivalStation, String serviceClass,
                                                 Timestamp travelDate, String trainType) {
         try {
-            DataStore dataStore = DataStore.getInstance();
+            PromotionIndex index = DataStore.getInstance().getPromotionIndex();
 
-            // Converte parametri
+            // Cerca promozione per codice specifico applicabile a tratta, classe, tipo treno e data
             String routeName = departureStation + "-" + arrivalStation;
-            LocalDate travelLocalDate = null;
-            if (travelDate != null) {
-                travelLocalDate = Instant.ofEpochSecond(travelDate.getSeconds())
-                                        .atZone(ZoneId.systemDefault()).toLocalDate();
-            }
-
-            // Cerca promozione per codice specifico
-            for (Promotion promo : dataStore.getAllPromotions()) {
-                if (promo.getName().equalsIgnoreCase(promoCode.trim())) {
-
-                    // Verifica applicabilità
-                    boolean routeOk = promo.getRouteNamesList().isEmpty() ||
-                                     promo.getRouteNamesList().contains(routeName);
-
-                    boolean classOk = promo.getServiceClassesList().isEmpty() ||
-                                     promo.getServiceClassesList().contains(serviceClass);
-
-                    boolean typeOk = promo.getTrainType().isEmpty() ||
-                                    promo.getTrainType().equalsIgnoreCase(trainType);
-
-                    boolean dateOk = true;
-                    if (travelLocalDate != null) {
-                        if (promo.hasValidFrom()) {
-                            LocalDate validFrom = Instant.ofEpochSecond(promo.getValidFrom().getSeconds())
-                                                        .atZone(ZoneId.systemDefault()).toLocalDate();
-                            dateOk = !travelLocalDate.isBefore(validFrom);
-                        }
-                        if (dateOk && promo.hasValidTo()) {
-                            LocalDate validTo = Instant.ofEpochSecond(promo.getValidTo().getSeconds())
-                                                      .atZone(ZoneId.systemDefault()).toLocalDate();
-                            dateOk = !travelLocalDate.isAfter(validTo);
-                        }
-                    }
-
-                    if (routeOk && classOk && typeOk && dateOk) {
-                        return promo.getDiscountPercent() / 100.0; // Converte percentuale in decimale
-                    }
-                }
+            Promotion promo = index.findApplicable(promoCode, routeName, serviceClass, trainType,
+                                                   index.dayOf(travelDate));
+            if (promo != null) {
+                return promo.getDiscountPercent() / 100.0; // Converte percentuale in decimale
             }
 
         } catch (Exception e) {
@@ -194,49 +168,52 @@ public class StandardPriceCalculationStrategy implements PriceCalculationStrateg
 
     @Override
     public boolean isValidPromoCode(String promoCode) {
+        return isValidPromoCode(promoCode, DEFAULT_USER_TYPE);
+    }
+
+    @Override
+    public boolean isValidPromoCode(String promoCode, String userType) {
         if (promoCode == null || promoCode.trim().isEmpty()) {
             return false;
         }
 
         String code = promoCode.toUpperCase().trim();
-        String type = userType != null ? userType.toLowerCase() : "standard";
+        String type = userType != null ? userType.toLowerCase() : DEFAULT_USER_TYPE;
 
         // Verifica nel database delle promozioni per determinare i requisiti
         try {
-            DataStore dataStore = DataStore.getInstance();
-            for (Promotion promo : dataStore.getAllPromotions()) {
-                if (promo.getName().equalsIgnoreCase(code)) {
+            Promotion promo = DataStore.getInstance().getPromotionIndex().firstByCode(code);
+            if (promo != null) {
 
-                    // VALIDAZIONE BASATA SUI DATI DELLA PROMOZIONE:
+                // VALIDAZIONE BASATA SUI DATI DELLA PROMOZIONE:
 
-                    // 1. NUOVO: Controllo esplicito sui tipi di utenti ammessi
-                    if (!promo.getUserTypesList().isEmpty() && !promo.getUserTypesList().contains(type)) {
-                        System.out.println("[STANDARD STRATEGY] Promozione '" + code + "' rifiutata: tipo utente '" + type + "' non in lista ammessi: " + promo.getUserTypesList());
-                        return false;
-                    }
+                // 1. NUOVO: Controllo esplicito sui tipi di utenti ammessi
+                if (!promo.getUserTypesList().isEmpty() && !promo.getUserTypesList().contains(type)) {
+                    System.out.println("[STANDARD STRATEGY] Promozione '" + code + "' rifiutata: tipo utente '" + type + "' non in lista ammessi: " + promo.getUserTypesList());
+                    return false;
+                }
 
-                    // 2. Se la promozione è riservata ai membri loyalty (programma fedeltà)
-                    if (promo.getOnlyForLoyaltyMembers()) {
-                        // Per ora assumiamo che gli utenti VIP siano automaticamente nel programma fedeltà
-                        boolean isLoyaltyMember = type.equals("vip");
-                        if (!isLoyaltyMember) {
-                            System.out.println("[STANDARD STRATEGY] Promozione loyalty '" + code + "' rifiutata: utente non è membro fedeltà");
-                            return false;
-                        }
+                // 2. Se la promozione è riservata ai membri loyalty (programma fedeltà)
+                if (promo.getOnlyForLoyaltyMembers()) {
+                    // Per ora assumiamo che gli utenti VIP siano automaticamente nel programma fedeltà
+                    boolean isLoyaltyMember = type.equals("vip");
+                    if (!isLoyaltyMember) {
+                        System.out.println("[STANDARD STRATEGY] Promozione loyalty '" + code + "' rifiutata: utente non è membro fedeltà");
+                        return false;
                     }
+                }
 
-                    // 3. Se la promozione ha restrizioni specifiche sui tipi di treno business
-                    String trainTypeRestriction = promo.getTrainType();
-                    if (trainTypeRestriction != null && !trainTypeRestriction.isEmpty()) {
-                        if (isBusinessTrainType(trainTypeRestriction) && type.equals("standard")) {
-                            System.out.println("[STANDARD STRATEGY] Promozione business '" + code + "' (treni: " + trainTypeRestriction + ") rifiutata per utente standard");
-                            return false;
-                        }
+                // 3. Se la promozione ha restrizioni specifiche sui tipi di treno business
+                String trainTypeRestriction = promo.getTrainType();
+                if (trainTypeRestriction != null && !trainTypeRestriction.isEmpty()) {
+                    if (isBusinessTrainType(trainTypeRestriction) && type.equals("standard")) {
+                        System.out.println("[STANDARD STRATEGY] Promozione business '" + code + "' (treni: " + trainTypeRestriction + ") rifiutata per utente standard");
+                        return false;
                     }
-
-                    System.out.println("[STANDARD STRATEGY] Promozione '" + code + "' validata per utente " + type);
-                    return true;
                 }
+
+                System.out.println("[STANDARD STRATEGY] Promozione '" + code + "' validata per utente " + type);
+                return true;
             }
         } catch (Exception e) {
             System.err.println("[STANDARD STRATEGY] Errore verifica promozioni: " + e.getMessage());
@@ -273,28 +250,54 @@ public class StandardPriceCalculationStrategy implements PriceCalculationStrateg
      * Calcola la distanza tra due stazioni
      */
     private int getDistance(String from, String to) {
-        // Normalizza nomi stazioni
-        from = normalizeStationName(from);
-        to = normalizeStationName(to);
-
-        if (from.equals(to)) {
+        DistanceMatrix matrix = currentDistanceMatrix();
+        int fromIndex = matrix.indexOf(from);
+        int toIndex = matrix.indexOf(to);
+        if (fromIndex >= 0 ? fromIndex == toIndex : normalizeStationName(from).equals(normalizeStationName(to))) {
             return 0;
         }
 
-        // Cerca distanza diretta
-        Map<String, Integer> fromDistances = distanceMap.get(from);
-        if (fromDistances != null && fromDistances.containsKey(to)) {
-            return fromDistances.get(to);
+        float distance = matrix.distance(fromIndex, toIndex);
+        if (distance >= 0) {
+            return Math.round(distance);
         }
 
-        // Cerca distanza inversa
-        Map<String, Integer> toDistances = distanceMap.get(to);
-        if (toDistances != null && toDistances.containsKey(from)) {
-            return toDistances.get(from);
+        // Stima basata sui nomi (fallback)
+        return estimateDistance(normalizeStationName(from), normalizeStationName(to));
+    }
+
+    /**
+     * Restituisce la tabella delle distanze, ricostruendola se le stazioni sono cambiate dall'ultima volta.
+     */
+    private DistanceMatrix currentDistanceMatrix() {
+        DataStore.Snapshot<Station> stations = DataStore.getInstance().getStationsSnapshot();
+        DistanceMatrix matrix = distanceMatrix;
+        if (matrix != null && matrix.getStationsVersion() == stations.version()) {
+            return matrix;
+        }
+        synchronized (this) {
+            matrix = distanceMatrix;
+            if (matrix == null || matrix.getStationsVersion() != stations.version()) {
+                matrix = buildDistanceMatrix(stations);
+                distanceMatrix = matrix;
+            }
+            return matrix;
         }
+    }
 
-        // Stima basata sui nomi (fallback)
-        return estimateDistance(from, to);
+    private DistanceMatrix buildDistanceMatrix(DataStore.Snapshot<Station> stations) {
+        long version = stations.version();
+        try {
+            // Stazioni e versione vengono dalla stessa vista: la versione della tabella corrisponde alle stazioni usate
+            DistanceMatrix matrix = DistanceMatrix.build(stations.items(), distanceMap, version);
+            System.out.println("[DISTANCE MAP] Tabella distanze costruita con " + matrix.size() + " località");
+            return matrix;
+        } catch (Exception e) {
+            System.err.println("[DISTANCE MAP] Errore nel caricamento stazioni: " + e.getMessage());
+            // Fallback ai valori hardcodati in caso di errore
+            return DistanceMatrix.build(List.of(),
+                    distanceMap.isEmpty() ? hardcodedDistances() : distanceMap, version);
+        }
     }
 
     private String normalizeStationName(String stationName) {
@@ -307,20 +310,8 @@ public class StandardPriceCalculationStrategy implements PriceCalculationStrateg
     }
 
     private int estimateDistance(String from, String to) {
-        // Stima semplice basata su posizione geografica approssimativa
-        Map<String, Integer> coordinates = Map.of(
-            "Roma", 0,
-            "Milano", 570,
-            "Napoli", -220,
-            "Firenze", 270,
-            "Bologna", 370,
-            "Torino", 670,
-            "Venezia", 530,
-            "Bari", -400
-        );
-
-        Integer fromCoord = coordinates.get(from);
-        Integer toCoord = coordinates.get(to);
+        Integer fromCoord = ESTIMATED_POSITIONS.get(from);
+        Integer toCoord = ESTIMATED_POSITIONS.get(to);
 
         if (fromCoord != null && toCoord != null) {
             return Math.abs(fromCoord - toCoord);
@@ -338,81 +329,12 @@ public class StandardPriceCalculationStrategy implements PriceCalculationStrateg
                type.contains("frecciargento");
     }
 
-    private void initializeDistanceMap() {
-        // Carica dinamicamente le stazioni dal DataStore e calcola le distanze
-        try {
-            DataStore dataStore = DataStore.getInstance();
-            var stations = dataStore.getAllStations();
-
-            // Per ogni stazione, calcola la distanza verso tutte le altre
-            for (var fromStation : stations) {
-                Map<String, Integer> distances = new HashMap<>();
-                String fromName = normalizeStationName(fromStation.getName());
-
-                for (var toStation : stations) {
-                    if (fromStation.getId() != toStation.getId()) {
-                        String toName = normalizeStationName(toStation.getName());
-
-                        // Calcola distanza usando coordinate geografiche
-                        double distance = calculateHaversineDistance(
-                            fromStation.getLatitude(), fromStation.getLongitude(),
-                            toStation.getLatitude(), toStation.getLongitude()
-                        );
-
-                        // Converte da km a intero arrotondato
-                        distances.put(toName, (int) Math.round(distance));
-                    }
-                }
-
-                distanceMap.put(fromName, distances);
-            }
-
-            System.out.println("[DISTANCE MAP] Mappa distanze inizializzata con " +
-                             distanceMap.size() + " stazioni dal database");
-
-        } catch (Exception e) {
-            System.err.println("[DISTANCE MAP] Errore nel caricamento stazioni: " + e.getMessage());
-            // Fallback ai valori hardcodati in caso di errore
-            initializeHardcodedDistances();
-        }
-    }
-
-    /**
-     * Calcola la distanza tra due punti geografici usando la formula di Haversine
-     * @param lat1 Latitudine punto 1
-     * @param lon1 Longitudine punto 1
-     * @param lat2 Latitudine punto 2
-     * @param lon2 Longitudine punto 2
-     * @return Distanza in chilometri
-     */
-    private double calculateHaversineDistance(double lat1, double lon1, double lat2, double lon2) {
-        final double R = 6371.0; // Raggio della Terra in km
-
-        // Converte gradi in radianti
-        double lat1Rad = Math.toRadians(lat1);
-        double lon1Rad = Math.toRadians(lon1);
-        double lat2Rad = Math.toRadians(lat2);
-        double lon2Rad = Math.toRadians(lon2);
-
-        // Differenze
-        double deltaLat = lat2Rad - lat1Rad;
-        double deltaLon = lon2Rad - lon1Rad;
-
-        // Formula di Haversine
-        double a = Math.sin(deltaLat / 2) * Math.sin(deltaLat / 2) +
-                   Math.cos(lat1Rad) * Math.cos(lat2Rad) *
-                   Math.sin(deltaLon / 2) * Math.sin(deltaLon / 2);
-
-        double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
-
-        return R * c; // Distanza in km
-    }
-
     /**
      * Metodo di fallback con distanze hardcodated per compatibilità
      */
-    private void initializeHardcodedDistances() {
+    private static Map<String, Map<String, Integer>> hardcodedDistances() {
         System.out.println("[DISTANCE MAP] Usando distanze hardcodated come fallback");
+        Map<String, Map<String, Integer>> distanceMap = new HashMap<>();
 
         // Roma
         Map<String, Integer> romaDistances = new HashMap<>();
@@ -442,6 +364,7 @@ public class StandardPriceCalculationStrategy implements PriceCalculationStrateg
         napoliDistances.put("Bari", 260);
         napoliDistances.put("Firenze", 490);
         distanceMap.put("Napoli", napoliDistances);
+        return distanceMap;
     }
 
     private void initializeLegacyPromoCodes() {
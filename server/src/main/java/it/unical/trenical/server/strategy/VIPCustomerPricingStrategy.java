@@ -2,12 +2,9 @@ package it.unical.trenical.server.strategy;
 
 import com.google.protobuf.Timestamp;
 import it.unical.trenical.server.DataStore;
+import it.unical.trenical.server.index.PromotionIndex;
 import it.unical.trenical.grpc.promotion.Promotion;
 
-import java.time.Instant;
-import java.time.LocalDate;
-import java.time.ZoneId;
-
 /**
  * PATTERN STRATEGY - STRATEGIA CONCRETA PER CLIENTI VIP
  * Implementa la logica di calcolo prezzo per clienti VIP/Premium.
@@ -27,25 +24,36 @@ public class VIPCustomerPricingStrategy implements PriceCalculationStrategy {
     // Delega il calcolo base alla strategia standard
     private final StandardPriceCalculationStrategy standardStrategy;
 
-    private String userType = "vip";
+    private static final String DEFAULT_USER_TYPE = "vip";
 
     public VIPCustomerPricingStrategy() {
-        this.standardStrategy = new StandardPriceCalculationStrategy(null, null);
+        this(new StandardPriceCalculationStrategy(null, null));
     }
 
     public VIPCustomerPricingStrategy(java.util.Map<String, java.util.Map<String, Integer>> distanceMap,
                                      java.util.Map<String, Double> promoCodeDiscounts) {
-        this.standardStrategy = new StandardPriceCalculationStrategy(distanceMap, promoCodeDiscounts);
+        this(new StandardPriceCalculationStrategy(distanceMap, promoCodeDiscounts));
     }
 
-    public void setUserType(String userType) {
-        this.userType = userType;
+    /**
+     * Riusa una strategia standard già costruita (e la sua mappa delle distanze).
+     */
+    public VIPCustomerPricingStrategy(StandardPriceCalculationStrategy standardStrategy) {
+        this.standardStrategy = standardStrategy;
     }
 
     @Override
     public double calculateTicketPrice(String departureStation, String arrivalStation,
                                      String serviceClass, Timestamp travelDate,
                                      String promoCode, String trainType) {
+        return calculateTicketPrice(departureStation, arrivalStation, serviceClass, travelDate,
+                promoCode, trainType, DEFAULT_USER_TYPE);
+    }
+
+    @Override
+    public double calculateTicketPrice(String departureStation, String arrivalStation,
+                                     String serviceClass, Timestamp travelDate,
+                                     String promoCode, String trainType, String userType) {
 
         // 1. Calcola il prezzo con la strategia standard
         double standardPrice = standardStrategy.calculateTicketPrice(
@@ -56,7 +64,7 @@ public class VIPCustomerPricingStrategy implements PriceCalculationStrategy {
         double vipPrice = standardPrice * (1.0 - VIP_BASE_DISCOUNT);
 
         // 3. Applica bonus aggiuntivo se c'è un codice promo valido
-        if (promoCode != null && !promoCode.trim().isEmpty() && isValidPromoCode(promoCode)) {
+        if (promoCode != null && !promoCode.trim().isEmpty() && isValidPromoCode(promoCode, userType)) {
 
             // Controlla se è una promozione VIP esclusiva
             if (isVIPExclusivePromo(promoCode, departureStation, arrivalStation,
@@ -88,6 +96,11 @@ public class VIPCustomerPricingStrategy implements PriceCalculationStrategy {
 
     @Override
     public boolean isValidPromoCode(String promoCode) {
+        return isValidPromoCode(promoCode, DEFAULT_USER_TYPE);
+    }
+
+    @Override
+    public boolean isValidPromoCode(String promoCode, String userType) {
         String type = userType != null ? userType.toLowerCase() : "standard";
 
         if (!type.equals("vip")) {
@@ -107,13 +120,10 @@ public class VIPCustomerPricingStrategy implements PriceCalculationStrategy {
         if (promoCode == null || promoCode.trim().isEmpty()) return false;
 
         try {
-            DataStore dataStore = DataStore.getInstance();
-
-            for (Promotion promo : dataStore.getAllPromotions()) {
-                if (promo.getName().equalsIgnoreCase(promoCode.trim())) {
-                    // Controlla se il tipo utente è nella lista userTypes
-                    return promo.getUserTypesList().contains(userType);
-                }
+            Promotion promo = DataStore.getInstance().getPromotionIndex().firstByCode(promoCode);
+            if (promo != null) {
+                // Controlla se il tipo utente è nella lista userTypes
+                return promo.getUserTypesList().contains(userType);
             }
         } catch (Exception e) {
             System.err.println("[VIP PROMO VALIDATION ERROR] " + e.getMessage());
@@ -128,15 +138,13 @@ public class VIPCustomerPricingStrategy implements PriceCalculationStrategy {
     private boolean isVIPExclusivePromo(String promoCode, String departureStation, String arrivalStation,
                                        String serviceClass, Timestamp travelDate, String trainType) {
         try {
-            DataStore dataStore = DataStore.getInstance();
-
-            for (Promotion promo : dataStore.getAllPromotions()) {
-                if (promo.getName().equalsIgnoreCase(promoCode.trim())) {
-                    // Controlla se è solo per loyalty members (interpretiamo come VIP)
-                    if (promo.getOnlyForLoyaltyMembers()) {
-                        return isPromotionApplicable(promo, departureStation, arrivalStation,
-                                                   serviceClass, travelDate, trainType);
-                    }
+            PromotionIndex index = DataStore.getInstance().getPromotionIndex();
+
+            for (PromotionIndex.CompiledPromotion candidate : index.byCode(promoCode)) {
+                // Controlla se è solo per loyalty members (interpretiamo come VIP)
+                if (candidate.promotion().getOnlyForLoyaltyMembers()) {
+                    return candidate.appliesTo(departureStation + "-" + arrivalStation, serviceClass,
+                                               trainType, index.dayOf(travelDate));
                 }
             }
         } catch (Exception e) {
@@ -146,48 +154,6 @@ public class VIPCustomerPricingStrategy implements PriceCalculationStrategy {
         return false;
     }
 
-    /**
-     * Verifica se una promozione è applicabile ai parametri del viaggio
-     */
-    private boolean isPromotionApplicable(Promotion promo, String departureStation, String arrivalStation,
-                                        String serviceClass, Timestamp travelDate, String trainType) {
-
-        String routeName = departureStation + "-" + arrivalStation;
-
-        // Controlla tratta
-        boolean routeOk = promo.getRouteNamesList().isEmpty() ||
-                         promo.getRouteNamesList().contains(routeName);
-
-        // Controlla classe
-        boolean classOk = promo.getServiceClassesList().isEmpty() ||
-                         promo.getServiceClassesList().contains(serviceClass);
-
-        // Controlla tipo treno
-        boolean typeOk = promo.getTrainType().isEmpty() ||
-                        promo.getTrainType().equalsIgnoreCase(trainType);
-
-        // Controlla validità temporale
-        boolean dateOk = true;
-        if (travelDate != null) {
-            LocalDate travelLocalDate = Instant.ofEpochSecond(travelDate.getSeconds())
-                                               .atZone(ZoneId.systemDefault()).toLocalDate();
-
-            if (promo.hasValidFrom()) {
-                LocalDate validFrom = Instant.ofEpochSecond(promo.getValidFrom().getSeconds())
-                                            .atZone(ZoneId.systemDefault()).toLocalDate();
-                dateOk = !travelLocalDate.isBefore(validFrom);
-            }
-
-            if (dateOk && promo.hasValidTo()) {
-                LocalDate validTo = Instant.ofEpochSecond(promo.getValidTo().getSeconds())
-                                          .atZone(ZoneId.systemDefault()).toLocalDate();
-                dateOk = !travelLocalDate.isAfter(validTo);
-            }
-        }
-
-        return routeOk && classOk && typeOk && dateOk;
-    }
-
     /**
      * Controlla se un codice è esclusivo VIP (legacy)
      */
@@ -0,0 +1,84 @@
+package it.unical.trenical.server.timetable;
+
+import it.unical.trenical.grpc.common.Train;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.ToLongFunction;
+
+/**
+ * Tabellone di una stazione per un giorno: partenze ordinate per orario di partenza e arrivi
+ * ordinati per orario di arrivo.
+ * <p>
+ * È immutabile e viene costruito insieme alle corse del giorno da {@link TimetableEngine}:
+ * quando l'orario cambia il giorno viene rimaterializzato e con lui i tabelloni.
+ */
+public final class StationBoard {
+
+    static final StationBoard EMPTY = new StationBoard(List.of(), List.of());
+
+    /** Una pagina di corse e il numero totale di corse nella fascia oraria richiesta. */
+    public record Page(List<Train> trains, int total) {
+    }
+
+    private final Train[] departures;
+    private final long[] departureTimes;
+    private final Train[] arrivals;
+    private final long[] arrivalTimes;
+
+    StationBoard(List<Train> departures, List<Train> arrivals) {
+        this.departures = sorted(departures, t -> t.getDepartureTime().getSeconds());
+        this.departureTimes = times(this.departures, t -> t.getDepartureTime().getSeconds());
+        this.arrivals = sorted(arrivals, t -> t.getArrivalTime().getSeconds());
+        this.arrivalTimes = times(this.arrivals, t -> t.getArrivalTime().getSeconds());
+    }
+
+    public List<Train> departures() {
+        return List.of(departures);
+    }
+
+    public List<Train> arrivals() {
+        return List.of(arrivals);
+    }
+
+    /**
+     * Partenze nella fascia [from, to] (secondi epoch, estremi inclusi), a partire dalla posizione
+     * {@code offset} e al massimo {@code limit} (0 o negativo per nessun limite).
+     */
+    public Page departures(long from, long to, int offset, int limit) {
+        return page(departures, departureTimes, from, to, offset, limit);
+    }
+
+    /**
+     * Arrivi nella fascia [from, to] (secondi epoch, estremi inclusi), paginati come
+     * {@link #departures(long, long, int, int)}.
+     */
+    public Page arrivals(long from, long to, int offset, int limit) {
+        return page(arrivals, arrivalTimes, from, to, offset, limit);
+    }
+
+    private static Page page(Train[] trains, long[] times, long from, long to, int offset, int limit) {
+        int first = TimetableEngine.lowerBound(times, from);
+        int end = to == Long.MAX_VALUE ? times.length : TimetableEngine.lowerBound(times, to + 1);
+        int total = Math.max(0, end - first);
+        int start = first + Math.min(Math.max(0, offset), total);
+        int stop = limit > 0 ? (int) Math.min(end, (long) start + limit) : end;
+        return new Page(stop > start ? List.of(Arrays.copyOfRange(trains, start, stop)) : List.of(), total);
+    }
+
+    private static Train[] sorted(List<Train> trains, ToLongFunction<Train> time) {
+        List<Train> copy = new ArrayList<>(trains);
+        copy.sort(Comparator.comparingLong(time));
+        return copy.toArray(new Train[0]);
+    }
+
+    private static long[] times(Train[] trains, ToLongFunction<Train> time) {
+        long[] result = new long[trains.length];
+        for (int i = 0; i < trains.length; i++) {
+            result[i] = time.applyAsLong(trains[i]);
+        }
+        return result;
+    }
+}
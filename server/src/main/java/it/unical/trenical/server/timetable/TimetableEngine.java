@@ -0,0 +1,524 @@
+package it.unical.trenical.server.timetable;
+
+import com.google.protobuf.Timestamp;
+import it.unical.trenical.grpc.common.Station;
+import it.unical.trenical.grpc.common.Train;
+import it.unical.trenical.grpc.train.Route;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+
+/**
+ * Orario ferroviario generato su richiesta.
+ * <p>
+ * Invece di creare in anticipo tutte le corse per settimane, mantiene solo gli schemi di servizio
+ * (tratta, orario di partenza, durata) e costruisce le istanze {@link Train} del giorno richiesto
+ * solo quando servono, tenendo in cache gli ultimi giorni calcolati (LRU).
+ * Memoria e tempo di avvio non dipendono quindi dall'orizzonte di prenotazione.
+ * <p>
+ * Le letture usano il lock di lettura e procedono in parallelo, anche quando materializzano giorni
+ * diversi; solo le modifiche a schemi e corse prendono il lock di scrittura.
+ * <p>
+ * Il numero del treno è deterministico ({@code idTratta * 100 + corsa}) e si ripete ogni giorno,
+ * come nei servizi reali: una corsa è identificata da numero e orario di partenza.
+ */
+public final class TimetableEngine {
+
+    public static final String HORIZON_PROPERTY = "trenical.timetable.horizonDays";
+    public static final String CACHED_DAYS_PROPERTY = "trenical.timetable.cachedDays";
+
+    private static final int DEFAULT_HORIZON_DAYS = 180;
+    private static final int DEFAULT_CACHED_DAYS = 16;
+    static final int SLOTS_PER_ROUTE = 100;
+
+    /** Schema di una corsa giornaliera. */
+    static final class TrainPattern {
+        final int trainId;
+        final String name;
+        final String departureStation;
+        final String arrivalStation;
+        final int departureMinuteOfDay;
+        final int durationMinutes;
+
+        TrainPattern(int trainId, String name, String departureStation, String arrivalStation,
+                     int departureMinuteOfDay, int durationMinutes) {
+            this.trainId = trainId;
+            this.name = name;
+            this.departureStation = departureStation;
+            this.arrivalStation = arrivalStation;
+            this.departureMinuteOfDay = departureMinuteOfDay;
+            this.durationMinutes = durationMinutes;
+        }
+    }
+
+    /** Corse di una coppia di stazioni in un giorno, ordinate per orario di partenza. */
+    private static final class RouteBucket {
+        final Train[] trains;
+        final long[] departures;
+
+        RouteBucket(List<Train> runs) {
+            runs.sort(Comparator.comparingLong(t -> t.getDepartureTime().getSeconds()));
+            this.trains = runs.toArray(new Train[0]);
+            this.departures = new long[trains.length];
+            for (int i = 0; i < trains.length; i++) {
+                departures[i] = trains[i].getDepartureTime().getSeconds();
+            }
+        }
+
+        /** Aggiunge le corse che partono in [from, to] (secondi epoch, estremi inclusi). */
+        void collect(long from, long to, List<Train> out) {
+            for (int i = lowerBound(departures, from); i < departures.length && departures[i] <= to; i++) {
+                out.add(trains[i]);
+            }
+        }
+    }
+
+    /**
+     * Corse materializzate per un giorno, in ordine di tratta e orario, indicizzate per numero,
+     * per coppia di stazioni (nomi normalizzati) partenza → arrivo e per tabellone di stazione.
+     */
+    private static final class DayTimetable {
+        final List<Train> trains;
+        // Ultimo accesso (contatore logico), usato per scartare dalla cache il giorno meno recente
+        volatile long lastAccess;
+        final Map<Integer, List<Train>> byId = new HashMap<>();
+        final Map<String, Map<String, RouteBucket>> byStations = new HashMap<>();
+        final Map<String, StationBoard> boards = new HashMap<>();
+
+        DayTimetable(List<Train> trains) {
+            this.trains = Collections.unmodifiableList(trains);
+            Map<String, Map<String, List<Train>>> grouped = new HashMap<>();
+            Map<String, List<Train>> departing = new HashMap<>();
+            Map<String, List<Train>> arriving = new HashMap<>();
+            for (Train t : trains) {
+                byId.computeIfAbsent(t.getId(), k -> new ArrayList<>(1)).add(t);
+                departing.computeIfAbsent(normalize(t.getDepartureStation()), k -> new ArrayList<>()).add(t);
+                arriving.computeIfAbsent(normalize(t.getArrivalStation()), k -> new ArrayList<>()).add(t);
+                grouped.computeIfAbsent(normalize(t.getDepartureStation()), k -> new HashMap<>())
+                        .computeIfAbsent(normalize(t.getArrivalStation()), k -> new ArrayList<>())
+                        .add(t);
+            }
+            grouped.forEach((departure, arrivals) -> {
+                Map<String, RouteBucket> buckets = new HashMap<>();
+                arrivals.forEach((arrival, runs) -> buckets.put(arrival, new RouteBucket(runs)));
+                byStations.put(departure, buckets);
+            });
+            Set<String> stations = new HashSet<>(departing.keySet());
+            stations.addAll(arriving.keySet());
+            for (String station : stations) {
+                boards.put(station, new StationBoard(departing.getOrDefault(station, List.of()),
+                        arriving.getOrDefault(station, List.of())));
+            }
+        }
+    }
+
+    private final ZoneId serviceZone;
+    private final ZoneId queryZone;
+    private final int firstHour;
+    private final int lastHour;
+    private final int stepHours;
+    private final int horizonDays;
+    private final int cachedDays;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private List<TrainPattern> patterns = List.of();
+    private int maxPatternId = 0;
+    private final List<Train> adHocTrains = new ArrayList<>();
+    private final Set<Integer> suspendedIds = new HashSet<>();
+    private final Map<String, Train> runOverrides = new HashMap<>();
+    private final Map<LocalDate, DayTimetable> dayCache = new ConcurrentHashMap<>();
+    private final AtomicLong accessClock = new AtomicLong();
+    private final AtomicLong materializedDays = new AtomicLong();
+
+    /**
+     * Crea il motore con orizzonte e dimensione della cache letti dalle proprietà di sistema.
+     */
+    public TimetableEngine(int firstHour, int lastHour, int stepHours) {
+        this(ZoneId.of("Europe/Rome"), ZoneId.systemDefault(), firstHour, lastHour, stepHours,
+                Integer.getInteger(HORIZON_PROPERTY, DEFAULT_HORIZON_DAYS),
+                Integer.getInteger(CACHED_DAYS_PROPERTY, DEFAULT_CACHED_DAYS));
+    }
+
+    /**
+     * @param serviceZone fuso in cui sono espressi gli orari di servizio
+     * @param queryZone   fuso con cui vengono interpretate le date richieste
+     * @param horizonDays giorni prenotabili a partire da oggi (oggi incluso)
+     * @param cachedDays  numero massimo di giorni materializzati tenuti in cache
+     */
+    public TimetableEngine(ZoneId serviceZone, ZoneId queryZone, int firstHour, int lastHour, int stepHours,
+                           int horizonDays, int cachedDays) {
+        this.serviceZone = serviceZone;
+        this.queryZone = queryZone;
+        this.firstHour = firstHour;
+        this.lastHour = lastHour;
+        this.stepHours = Math.max(1, stepHours);
+        this.horizonDays = Math.max(1, horizonDays);
+        this.cachedDays = Math.max(1, cachedDays);
+    }
+
+    private <T> T read(Supplier<T> action) {
+        lock.readLock().lock();
+        try {
+            return action.get();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private <T> T write(Supplier<T> action) {
+        lock.writeLock().lock();
+        try {
+            return action.get();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Ricostruisce gli schemi di servizio dalle tratte. Va chiamato quando cambiano tratte o stazioni.
+     */
+    public void rebuildPatterns(List<Route> routes, IntFunction<Station> stationById) {
+        write(() -> {
+            doRebuildPatterns(routes, stationById);
+            return null;
+        });
+    }
+
+    private void doRebuildPatterns(List<Route> routes, IntFunction<Station> stationById) {
+        List<TrainPattern> result = new ArrayList<>();
+        Set<String> uniqueKeys = new HashSet<>();
+        int maxId = 0;
+        for (Route route : routes) {
+            Station departure = stationById.apply(route.getDepartureStationId());
+            Station arrival = stationById.apply(route.getArrivalStationId());
+            if (departure == null || arrival == null) continue;
+            int slot = 0;
+            for (int hour = firstHour; hour <= lastHour; hour += stepHours) {
+                slot++;
+                String key = route.getName() + "_" + departure.getName() + "_" + arrival.getName() + "_" + hour;
+                if (!uniqueKeys.add(key)) continue;
+                int trainId = route.getId() * SLOTS_PER_ROUTE + slot;
+                // Durata deterministica tra 60 e 119 minuti, stabile tra una materializzazione e l'altra
+                int duration = 60 + Math.floorMod(Objects.hash(route.getId(), hour), 60);
+                result.add(new TrainPattern(trainId, route.getName(), departure.getName(), arrival.getName(),
+                        hour * 60, duration));
+                maxId = Math.max(maxId, trainId);
+            }
+        }
+        patterns = List.copyOf(result);
+        maxPatternId = maxId;
+        dayCache.clear();
+    }
+
+    /**
+     * Restituisce le corse che partono nel giorno indicato (nel fuso delle richieste).
+     */
+    public List<Train> trainsForDay(LocalDate day) {
+        return read(() -> dayTimetable(day).trains);
+    }
+
+    /**
+     * Cerca le corse del giorno tra due stazioni con partenza nella fascia oraria indicata,
+     * in ordine di orario di partenza.
+     * <p>
+     * Un nome di stazione che coincide (senza distinzione tra maiuscole e minuscole) con quello
+     * di una stazione servita nel giorno viene risolto con una sola ricerca nella mappa; altrimenti
+     * vale come parte del nome, come nella ricerca per sottostringa ("Roma" trova "Roma Termini").
+     * Nomi vuoti o null non filtrano.
+     *
+     * @param timeFrom orario minimo di partenza (incluso), oppure null
+     * @param timeTo   orario massimo di partenza (incluso), oppure null
+     */
+    public List<Train> search(LocalDate day, String departureStation, String arrivalStation,
+                              LocalTime timeFrom, LocalTime timeTo) {
+        // Il giorno materializzato è immutabile: dopo averlo ottenuto non serve più il lock
+        DayTimetable timetable = read(() -> dayTimetable(day));
+        long from = timeFrom == null ? Long.MIN_VALUE : day.atTime(timeFrom).atZone(queryZone).toEpochSecond();
+        long to = timeTo == null ? Long.MAX_VALUE : day.atTime(timeTo).atZone(queryZone).toEpochSecond();
+
+        List<Train> result = new ArrayList<>();
+        int buckets = 0;
+        for (Map<String, RouteBucket> arrivals : matching(timetable.byStations, departureStation)) {
+            for (RouteBucket bucket : matching(arrivals, arrivalStation)) {
+                bucket.collect(from, to, result);
+                buckets++;
+            }
+        }
+        // Più coppie di stazioni: le corse vanno riordinate per orario
+        if (buckets > 1) {
+            result.sort(Comparator.comparingLong(t -> t.getDepartureTime().getSeconds()));
+        }
+        return result;
+    }
+
+    /**
+     * Tabellone partenze e arrivi della stazione nel giorno indicato (nome senza distinzione
+     * tra maiuscole e minuscole). Per una stazione senza corse restituisce un tabellone vuoto.
+     */
+    public StationBoard stationBoard(LocalDate day, String stationName) {
+        StationBoard board = read(() -> dayTimetable(day)).boards.get(normalize(stationName));
+        return board != null ? board : StationBoard.EMPTY;
+    }
+
+    private static <V> Collection<V> matching(Map<String, V> byName, String query) {
+        String key = normalize(query);
+        if (key.isEmpty()) return byName.values();
+        V exact = byName.get(key);
+        if (exact != null) return List.of(exact);
+        List<V> result = new ArrayList<>();
+        byName.forEach((name, value) -> {
+            if (name.contains(key)) result.add(value);
+        });
+        return result;
+    }
+
+    private static String normalize(String stationName) {
+        return stationName == null ? "" : stationName.trim().toLowerCase(Locale.ROOT);
+    }
+
+    // Primo indice con valore >= key
+    static int lowerBound(long[] values, long key) {
+        int low = 0;
+        int high = values.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (values[mid] < key) low = mid + 1;
+            else high = mid;
+        }
+        return low;
+    }
+
+    /**
+     * Cerca la corsa con il numero indicato che parte nel minuto indicato.
+     */
+    public Train findRun(int trainId, LocalDateTime departure) {
+        if (departure == null) return null;
+        List<Train> candidates = read(() -> dayTimetable(departure.toLocalDate())).byId.get(trainId);
+        if (candidates == null) return null;
+        for (Train t : candidates) {
+            LocalDateTime dep = LocalDateTime.ofInstant(
+                    Instant.ofEpochSecond(t.getDepartureTime().getSeconds()), queryZone);
+            if (dep.getYear() == departure.getYear() &&
+                    dep.getDayOfYear() == departure.getDayOfYear() &&
+                    dep.getHour() == departure.getHour() &&
+                    dep.getMinute() == departure.getMinute()) {
+                return t;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Giorno materializzato dalla cache, calcolandolo se manca. Va chiamato con il lock di lettura:
+     * thread che chiedono lo stesso giorno lo materializzano una volta sola, giorni diversi in parallelo.
+     */
+    private DayTimetable dayTimetable(LocalDate day) {
+        DayTimetable cached = dayCache.get(day);
+        if (cached == null) {
+            cached = dayCache.computeIfAbsent(day, d -> {
+                materializedDays.incrementAndGet();
+                DayTimetable computed = new DayTimetable(materialize(d));
+                computed.lastAccess = accessClock.incrementAndGet();
+                return computed;
+            });
+            evictLeastRecentlyUsed();
+        }
+        cached.lastAccess = accessClock.incrementAndGet();
+        return cached;
+    }
+
+    private void evictLeastRecentlyUsed() {
+        while (dayCache.size() > cachedDays) {
+            Map.Entry<LocalDate, DayTimetable> eldest = null;
+            for (Map.Entry<LocalDate, DayTimetable> entry : dayCache.entrySet()) {
+                if (eldest == null || entry.getValue().lastAccess < eldest.getValue().lastAccess) {
+                    eldest = entry;
+                }
+            }
+            if (eldest == null) return;
+            dayCache.remove(eldest.getKey(), eldest.getValue());
+        }
+    }
+
+    private List<Train> materialize(LocalDate day) {
+        LocalDate today = LocalDate.now(serviceZone);
+        LocalDate lastBookable = today.plusDays(horizonDays - 1L);
+        List<Train> result = new ArrayList<>();
+        for (TrainPattern pattern : patterns) {
+            if (suspendedIds.contains(pattern.trainId)) continue;
+            // Un giorno nel fuso delle richieste può coprire due giorni nel fuso di servizio
+            for (int offset = -1; offset <= 1; offset++) {
+                LocalDate serviceDate = day.plusDays(offset);
+                if (serviceDate.isBefore(today) || serviceDate.isAfter(lastBookable)) continue;
+                LocalDateTime departure = serviceDate.atStartOfDay().plusMinutes(pattern.departureMinuteOfDay);
+                Instant departureInstant = departure.atZone(serviceZone).toInstant();
+                if (!departureInstant.atZone(queryZone).toLocalDate().equals(day)) continue;
+                Train override = runOverrides.get(runKey(pattern.trainId, day));
+                if (override != null) {
+                    result.add(override);
+                    continue;
+                }
+                Instant arrivalInstant = departure.plusMinutes(pattern.durationMinutes).atZone(serviceZone).toInstant();
+                result.add(Train.newBuilder()
+                        .setId(pattern.trainId)
+                        .setName(pattern.name)
+                        .setDepartureStation(pattern.departureStation)
+                        .setArrivalStation(pattern.arrivalStation)
+                        .setDepartureTime(Timestamp.newBuilder().setSeconds(departureInstant.getEpochSecond()).build())
+                        .setArrivalTime(Timestamp.newBuilder().setSeconds(arrivalInstant.getEpochSecond()).build())
+                        .build());
+            }
+        }
+        for (Train t : adHocTrains) {
+            if (departureDate(t).equals(day)) {
+                result.add(t);
+            }
+        }
+        return result;
+    }
+
+    private LocalDate departureDate(Train train) {
+        return Instant.ofEpochSecond(train.getDepartureTime().getSeconds()).atZone(queryZone).toLocalDate();
+    }
+
+    private static String runKey(int trainId, LocalDate day) {
+        return trainId + "@" + day;
+    }
+
+    // --- CORSE AGGIUNTE O MODIFICATE MANUALMENTE ---
+
+    /**
+     * Aggiunge una corsa straordinaria, se il numero non è già usato.
+     *
+     * @return true se la corsa è stata aggiunta
+     */
+    public boolean addTrain(Train train) {
+        return write(() -> {
+            if (isKnownId(train.getId())) return false;
+            adHocTrains.add(train);
+            dayCache.remove(departureDate(train));
+            return true;
+        });
+    }
+
+    /**
+     * Aggiorna una corsa straordinaria oppure sostituisce la corsa di orario con lo stesso numero
+     * nel giorno di partenza della corsa aggiornata.
+     *
+     * @return true se è stata trovata una corsa da aggiornare
+     */
+    public boolean updateTrain(Train updated) {
+        return write(() -> {
+            for (int i = 0; i < adHocTrains.size(); i++) {
+                if (adHocTrains.get(i).getId() == updated.getId()) {
+                    dayCache.remove(departureDate(adHocTrains.get(i)));
+                    adHocTrains.set(i, updated);
+                    dayCache.remove(departureDate(updated));
+                    return true;
+                }
+            }
+            if (!isPatternId(updated.getId())) return false;
+            LocalDate day = departureDate(updated);
+            runOverrides.put(runKey(updated.getId(), day), updated);
+            dayCache.remove(day);
+            return true;
+        });
+    }
+
+    /**
+     * Elimina una corsa straordinaria oppure sospende il servizio di orario con quel numero.
+     *
+     * @return true se è stata trovata una corsa da eliminare
+     */
+    public boolean removeTrain(int trainId) {
+        return write(() -> {
+            boolean removed = adHocTrains.removeIf(t -> t.getId() == trainId);
+            if (!removed && isPatternId(trainId)) {
+                removed = suspendedIds.add(trainId);
+            }
+            if (removed) {
+                dayCache.clear();
+            }
+            return removed;
+        });
+    }
+
+    private boolean isKnownId(int trainId) {
+        return isPatternId(trainId) || adHocTrains.stream().anyMatch(t -> t.getId() == trainId);
+    }
+
+    private boolean isPatternId(int trainId) {
+        for (TrainPattern p : patterns) {
+            if (p.trainId == trainId) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Corse straordinarie aggiunte con {@link #addTrain(Train)}.
+     */
+    public List<Train> getAdHocTrains() {
+        return read(() -> new ArrayList<>(adHocTrains));
+    }
+
+    /**
+     * Numero di treno più alto in uso (schemi di orario e corse straordinarie).
+     */
+    public int maxTrainId() {
+        return read(() -> {
+            int max = maxPatternId;
+            for (Train t : adHocTrains) {
+                max = Math.max(max, t.getId());
+            }
+            return max;
+        });
+    }
+
+    /**
+     * Svuota la cache dei giorni materializzati.
+     */
+    public void invalidate() {
+        write(() -> {
+            dayCache.clear();
+            return null;
+        });
+    }
+
+    public int getPatternCount() {
+        return read(() -> patterns.size());
+    }
+
+    public int getCachedDayCount() {
+        return dayCache.size();
+    }
+
+    /**
+     * Numero di giorni materializzati dall'avvio (utile per verificare l'efficacia della cache).
+     */
+    public long getMaterializedDayCount() {
+        return materializedDays.get();
+    }
+
+    public int getHorizonDays() {
+        return horizonDays;
+    }
+}
@@ -0,0 +1,78 @@
+package it.unical.trenical.server.user;
+
+import org.json.JSONObject;
+
+/**
+ * Profilo di un utente come letto da users.json: tipo di cliente, adesione fedeltà ed email.
+ * <p>
+ * L'oggetto è immutabile. Gli altri campi del file (password, biglietti, ...) gestiti dal client
+ * vengono conservati così come sono e riscritti invariati.
+ */
+public final class UserProfile {
+
+    public static final String DEFAULT_CUSTOMER_TYPE = "standard";
+
+    private final String username;
+    private final String email;
+    private final boolean fidelityMember;
+    private final String customerType;
+    private final JSONObject raw;
+    // Posizione nel file, per riscrivere gli utenti nello stesso ordine
+    private final long order;
+
+    private UserProfile(JSONObject raw, long order) {
+        this.raw = raw;
+        this.order = order;
+        this.username = raw.optString("username");
+        this.email = raw.optString("email", "");
+        this.fidelityMember = raw.optBoolean("fidelityMember", false);
+        String type = raw.optString("customerType", DEFAULT_CUSTOMER_TYPE);
+        this.customerType = type.isEmpty() ? DEFAULT_CUSTOMER_TYPE : type;
+    }
+
+    static UserProfile fromJson(JSONObject obj, long order) {
+        return new UserProfile(new JSONObject(obj.toMap()), order);
+    }
+
+    /**
+     * Nuovo utente creato dal server (ad esempio nei test), con i valori predefiniti del vecchio DataStore.
+     */
+    static UserProfile create(String username, String customerType, long order) {
+        JSONObject obj = new JSONObject();
+        obj.put("username", username);
+        obj.put("email", username + "@test.com");
+        obj.put("fidelityMember", false);
+        obj.put("customerType", customerType);
+        return new UserProfile(obj, order);
+    }
+
+    UserProfile withCustomerType(String type) {
+        JSONObject copy = new JSONObject(raw.toMap());
+        copy.put("customerType", type);
+        return new UserProfile(copy, order);
+    }
+
+    JSONObject toJson() {
+        return new JSONObject(raw.toMap());
+    }
+
+    long getOrder() {
+        return order;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+
+    public boolean isFidelityMember() {
+        return fidelityMember;
+    }
+
+    public String getCustomerType() {
+        return customerType;
+    }
+}
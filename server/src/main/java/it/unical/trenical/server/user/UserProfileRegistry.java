@@ -0,0 +1,196 @@
+package it.unical.trenical.server.user;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Profili utente tenuti in memoria, caricati una sola volta da users.json.
+ * <p>
+ * Le letture ({@link #getCustomerType}) non toccano il disco. Il file viene riscritto solo quando un profilo
+ * cambia davvero, conservando i campi gestiti dal client (password, biglietti). Un {@link WatchService}
+ * segue le modifiche esterne al file, ad esempio le registrazioni fatte dal client, e ricarica i profili;
+ * le scritture fatte dal registro stesso vengono riconosciute e ignorate.
+ */
+public final class UserProfileRegistry implements Closeable {
+
+    private final Path file;
+    private final Map<String, UserProfile> profiles = new ConcurrentHashMap<>();
+    private final AtomicLong nextOrder = new AtomicLong();
+    // Ultimo contenuto scritto o letto: serve a ignorare gli eventi generati dalle nostre scritture
+    private volatile String lastKnownContent = "";
+    private final Object writeLock = new Object();
+    private WatchService watchService;
+    private Thread watcherThread;
+
+    public UserProfileRegistry(Path file) {
+        this.file = file;
+        reload();
+    }
+
+    /**
+     * Avvia il thread che osserva la cartella del file e ricarica i profili quando il file cambia.
+     */
+    public synchronized void startWatching() {
+        if (watcherThread != null) return;
+        Path dir = file.toAbsolutePath().getParent();
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+            dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException e) {
+            System.err.println("Impossibile osservare le modifiche a " + file + ": " + e.getMessage());
+            return;
+        }
+        watcherThread = new Thread(this::watchLoop, "users-watcher");
+        watcherThread.setDaemon(true);
+        watcherThread.start();
+    }
+
+    private void watchLoop() {
+        Path name = file.getFileName();
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                boolean changed = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (name.equals(event.context())) changed = true;
+                }
+                key.reset();
+                if (changed) reload();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            // Registro chiuso
+        }
+    }
+
+    /**
+     * Rilegge il file se il contenuto è diverso dall'ultimo noto. Un file illeggibile o scritto a metà
+     * lascia invariati i profili in memoria: il successivo evento di modifica lo rileggerà.
+     */
+    public void reload() {
+        synchronized (writeLock) {
+            String content;
+            try {
+                if (!Files.exists(file)) return;
+                content = Files.readString(file, StandardCharsets.UTF_8).trim();
+            } catch (IOException e) {
+                System.err.println("Errore caricamento utenti: " + e.getMessage());
+                return;
+            }
+            if (content.equals(lastKnownContent)) return;
+            try {
+                Map<String, UserProfile> loaded = new HashMap<>();
+                if (!content.isEmpty()) {
+                    JSONArray arr = new JSONArray(content);
+                    for (int i = 0; i < arr.length(); i++) {
+                        JSONObject obj = arr.getJSONObject(i);
+                        String username = obj.optString("username");
+                        if (!username.isEmpty()) {
+                            loaded.put(username, UserProfile.fromJson(obj, i));
+                        }
+                    }
+                }
+                profiles.keySet().retainAll(loaded.keySet());
+                profiles.putAll(loaded);
+                nextOrder.set(loaded.size());
+                lastKnownContent = content;
+            } catch (Exception e) {
+                System.err.println("Errore caricamento utenti: " + e.getMessage());
+            }
+        }
+    }
+
+    public UserProfile getProfile(String username) {
+        return username == null ? null : profiles.get(username);
+    }
+
+    /**
+     * Tipo di cliente dell'utente, "standard" se l'utente non esiste.
+     */
+    public String getCustomerType(String username) {
+        UserProfile profile = getProfile(username);
+        return profile != null ? profile.getCustomerType() : UserProfile.DEFAULT_CUSTOMER_TYPE;
+    }
+
+    /**
+     * Imposta il tipo di cliente, creando l'utente se non esiste. Il file viene riscritto solo se il valore cambia.
+     * Prima della modifica il file viene riletto, così le modifiche esterne non ancora notificate
+     * dal monitor non vengono sovrascritte.
+     */
+    public void setCustomerType(String username, String customerType) {
+        synchronized (writeLock) {
+            reload();
+            UserProfile current = profiles.get(username);
+            UserProfile updated;
+            if (current == null) {
+                updated = UserProfile.create(username, customerType, nextOrder.getAndIncrement());
+            } else if (current.getCustomerType().equals(customerType)) {
+                return;
+            } else {
+                updated = current.withCustomerType(customerType);
+            }
+            profiles.put(username, updated);
+            persist();
+        }
+    }
+
+    public int size() {
+        return profiles.size();
+    }
+
+    private void persist() {
+        List<UserProfile> ordered = new ArrayList<>(profiles.values());
+        ordered.sort(Comparator.comparingLong(UserProfile::getOrder));
+        JSONArray arr = new JSONArray();
+        for (UserProfile profile : ordered) {
+            arr.put(profile.toJson());
+        }
+        String content = arr.toString(2);
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            lastKnownContent = content;
+            Files.writeString(tmp, content, StandardCharsets.UTF_8);
+            try {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            System.err.println("Errore salvataggio utenti: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (watchService == null) return;
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            System.err.println("Errore nella chiusura del monitor utenti: " + e.getMessage());
+        }
+        watcherThread = null;
+        watchService = null;
+    }
+}
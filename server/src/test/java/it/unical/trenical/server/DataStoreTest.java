@@ -1,8 +1,10 @@
 package it.unical.trenical.server;
 
+import com.google.protobuf.Timestamp;
 import it.unical.trenical.grpc.promotion.Promotion;
 import it.unical.trenical.grpc.common.Station;
 import it.unical.trenical.grpc.common.Ticket;
+import it.unical.trenical.server.inventory.SeatReservation;
 import org.junit.jupiter.api.*;
 
 import java.util.List;
@@ -120,6 +122,102 @@ class DataStoreTest {
         assertNull(dataStore.getTicketById("TEST_T1"), "Il biglietto dovrebbe essere stato eliminato");
     }
 
+    @Test
+    @DisplayName("Test aggiornamento condizionato: una modifica basata su una lettura superata non viene applicata")
+    void testConditionalTicketUpdate() {
+        Ticket original = Ticket.newBuilder().setId("TEST_CAS").setPassengerName("Mario Rossi")
+                .setStatus("Confermato").setPrice(50.0).build();
+        assertTrue(dataStore.addTickets(List.of(original)));
+        assertFalse(dataStore.addTickets(List.of(original.toBuilder().setPrice(1.0).build())),
+                "Un ID già presente non va sovrascritto");
+
+        Ticket cancelled = original.toBuilder().setStatus("Annullato").build();
+        assertTrue(dataStore.updateTicket(original, cancelled));
+        // Modifica costruita dalla lettura precedente all'annullamento
+        assertFalse(dataStore.updateTicket(original, original.toBuilder().setServiceClass("Prima Classe").build()));
+        assertEquals(cancelled, dataStore.getTicketById("TEST_CAS"));
+
+        assertFalse(dataStore.updateTicket(Ticket.newBuilder().setId("TEST_CAS_MISSING").build()),
+                "Un biglietto inesistente non va aggiornato");
+        dataStore.deleteTicket("TEST_CAS");
+    }
+
+    @Test
+    @DisplayName("Test posti: un biglietto inserito direttamente non prende il posto di una prenotazione in corso")
+    void testDirectTicketDoesNotTakeReservedSeat() {
+        java.time.LocalDateTime departure = java.time.LocalDateTime.of(2031, 1, 15, 9, 30);
+        Timestamp travelDate = Timestamp.newBuilder()
+                .setSeconds(departure.atZone(java.time.ZoneId.systemDefault()).toEpochSecond()).build();
+        SeatReservation reservation = dataStore.reserveSeats(987654, departure, 1);
+        assertNotNull(reservation);
+        String held = String.valueOf(reservation.getSeats()[0]);
+        try {
+            Ticket direct = Ticket.newBuilder().setId("TEST_SEAT_DIRECT").setPassengerName("Mario Rossi")
+                    .setTrainId(987654).setTravelDate(travelDate).setStatus("Confermato").setSeat(held).build();
+            dataStore.addTicket(direct);
+            String stored = dataStore.getTicketById("TEST_SEAT_DIRECT").getSeat();
+            assertNotEquals(held, stored, "Il posto della prenotazione non va a un altro biglietto");
+            assertFalse(stored.isEmpty(), "Il biglietto riceve un posto libero, registrato con il biglietto");
+
+            Ticket reserved = direct.toBuilder().setId("TEST_SEAT_RESERVED").build();
+            assertTrue(dataStore.addTickets(List.of(reserved), reservation));
+            assertTrue(reservation.commit());
+            assertEquals(held, dataStore.getTicketById("TEST_SEAT_RESERVED").getSeat());
+        } finally {
+            reservation.rollback();
+        }
+    }
+
+    @Test
+    @DisplayName("Test viste immutabili dei biglietti: nuova versione a ogni modifica, le vecchie non cambiano")
+    void testTicketsSnapshot() {
+        var before = dataStore.getTicketsSnapshot();
+        assertSame(before.items(), dataStore.getAllTickets(), "La lista non dovrebbe essere copiata a ogni lettura");
+        assertThrows(UnsupportedOperationException.class, () -> before.items().add(Ticket.getDefaultInstance()));
+
+        dataStore.addTicket(Ticket.newBuilder().setId("TEST_SNAP").setPassengerName("Mario Rossi").build());
+        var after = dataStore.getTicketsSnapshot();
+
+        assertTrue(after.version() > before.version(), "La versione dovrebbe crescere dopo la modifica");
+        assertTrue(after.items().stream().anyMatch(t -> t.getId().equals("TEST_SNAP")));
+        assertTrue(before.items().stream().noneMatch(t -> t.getId().equals("TEST_SNAP")),
+                "La vista precedente non dovrebbe cambiare");
+
+        dataStore.deleteTicket("TEST_SNAP");
+        assertTrue(dataStore.getTicketsSnapshot().version() > after.version());
+    }
+
+    @Test
+    @DisplayName("Test scadenza biglietti: solo quelli con viaggio passato, una volta sola")
+    void testExpireTickets() {
+        // Il DataStore è condiviso: l'istante della scansione è scelto così che solo i biglietti di test
+        // (viaggi nei primi minuti del 1970) risultino passati, e gli altri biglietti non vengono toccati
+        long now = 7200;
+        dataStore.addTicket(Ticket.newBuilder().setId("TEST_EXP_PAST").setPassengerName("Mario Rossi")
+                .setStatus("Confermato").setTravelDate(Timestamp.newBuilder().setSeconds(now - 3600)).build());
+        dataStore.addTicket(Ticket.newBuilder().setId("TEST_EXP_FUTURE").setPassengerName("Mario Rossi")
+                .setStatus("Confermato").setTravelDate(Timestamp.newBuilder().setSeconds(now + 3600)).build());
+        List<Ticket> others = dataStore.getAllTickets().stream()
+                .filter(t -> !t.getId().startsWith("TEST_")).toList();
+
+        assertEquals(1, dataStore.expireTickets(now));
+        assertEquals("Scaduto", dataStore.getTicketById("TEST_EXP_PAST").getStatus());
+        assertEquals("Confermato", dataStore.getTicketById("TEST_EXP_FUTURE").getStatus());
+        assertEquals(0, dataStore.expireTickets(now), "Un biglietto già scaduto non va aggiornato di nuovo");
+
+        // Spostato a una data passata dopo l'inserimento: la nuova data fa fede
+        var moved = dataStore.getTicketById("TEST_EXP_FUTURE").toBuilder()
+                .setTravelDate(Timestamp.newBuilder().setSeconds(now - 60)).build();
+        dataStore.updateTicket(moved);
+        assertEquals(1, dataStore.expireTickets(now));
+        assertEquals("Scaduto", dataStore.getTicketById("TEST_EXP_FUTURE").getStatus());
+        assertEquals(others, dataStore.getAllTickets().stream()
+                .filter(t -> !t.getId().startsWith("TEST_")).toList(), "I biglietti reali non vanno modificati");
+
+        dataStore.deleteTicket("TEST_EXP_PAST");
+        dataStore.deleteTicket("TEST_EXP_FUTURE");
+    }
+
     @Test
     @DisplayName("Test gestione promozioni")
     void testPromotionManagement() {
@@ -9,6 +9,7 @@ import org.junit.jupiter.api.*;
 import org.mockito.ArgumentCaptor;
 
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
 
@@ -190,8 +191,9 @@ public class TicketServiceImplTest {
                 .setTrainType("INTERCITY")
                 .build();
 
+        // Il prezzo nuovo usa la strategia del tipo di cliente del passeggero (utente sconosciuto: standard)
         when(mockPriceCalculator.calculateTicketPrice(
-                eq("Roma"), eq("Milano"), eq("PREMIUM"), any(), eq(""), eq("INTERCITY")))
+                eq("Roma"), eq("Milano"), eq("PREMIUM"), any(), eq(""), eq("INTERCITY"), eq("standard")))
                 .thenReturn(80.0);
 
         // Esecuzione
@@ -210,6 +212,38 @@ public class TicketServiceImplTest {
         assertEquals(30.0, response.getTariffDiff(), 0.01); // Differenza tariffaria
     }
 
+    @Test
+    @DisplayName("Test modifica biglietto - Il nuovo prezzo usa la strategia del tipo di cliente")
+    public void testModifyTicket_UsesCustomerTypeStrategy() {
+        dataStore.setCustomerType("vip.customer", "vip");
+        String ticketId = UUID.randomUUID().toString();
+        dataStore.addTicket(Ticket.newBuilder()
+                .setId(ticketId)
+                .setTrainId(1)
+                .setPassengerName("vip.customer")
+                .setDepartureStation("Roma")
+                .setArrivalStation("Milano")
+                .setServiceClass("STANDARD")
+                .setPrice(40.0)
+                .setSeat("1")
+                .setTravelDate(Timestamp.newBuilder().setSeconds(Instant.now().getEpochSecond() + 86400).build())
+                .build());
+        when(mockPriceCalculator.calculateTicketPrice(
+                eq("Roma"), eq("Milano"), eq("PREMIUM"), any(), eq(""), eq("INTERCITY"), eq("vip")))
+                .thenReturn(64.0);
+
+        ticketService.modifyTicket(ModifyTicketRequest.newBuilder()
+                .setTicketId(ticketId)
+                .setNewServiceClass("PREMIUM")
+                .setTrainType("INTERCITY")
+                .build(), operationResponseObserver);
+
+        ArgumentCaptor<OperationResponse> responseCaptor = ArgumentCaptor.forClass(OperationResponse.class);
+        verify(operationResponseObserver).onNext(responseCaptor.capture());
+        assertTrue(responseCaptor.getValue().getSuccess());
+        assertEquals(64.0, responseCaptor.getValue().getNewPrice(), 0.01);
+    }
+
     @Test
     @DisplayName("Test modifica biglietto - Biglietto non trovato")
     public void testModifyTicket_TicketNotFound_Failure() {
@@ -331,4 +365,148 @@ public class TicketServiceImplTest {
         assertFalse(response.getSuccess());
         assertTrue(response.getMessage().contains("non trovato"));
     }
-}
\ No newline at end of file
+
+    @Test
+    @DisplayName("Test calcolo prezzi multiplo - Ordine, tipo utente e preventivi duplicati")
+    @SuppressWarnings("unchecked")
+    public void testGetTicketPrices_Batch_Success() {
+        // Preparazione - prezzo diverso per classe, stessa tratta ripetuta più volte
+        when(mockPriceCalculator.calculateTicketPrice(
+                anyString(), anyString(), eq("Prima Classe"), any(), anyString(), anyString(), eq("vip")))
+                .thenReturn(90.0);
+        Timestamp travelDate = Timestamp.newBuilder().setSeconds(Instant.now().getEpochSecond() + 86400).build();
+        GetTicketPricesRequest.Builder request = GetTicketPricesRequest.newBuilder().setUserType("vip");
+        for (int i = 0; i < 40; i++) {
+            request.addQueries(TicketPriceQuery.newBuilder()
+                    .setTrainId(100 + i)
+                    .setDepartureStation("Roma")
+                    .setArrivalStation("Milano")
+                    .setServiceClass(i % 2 == 0 ? "Prima Classe" : "Seconda Classe")
+                    .setTravelDate(travelDate)
+                    .setTrainType("Frecciarossa"));
+        }
+        StreamObserver<GetTicketPricesResponse> observer = mock(StreamObserver.class);
+
+        // Esecuzione
+        ticketService.getTicketPrices(request.build(), observer);
+
+        // Verifica
+        ArgumentCaptor<GetTicketPricesResponse> responseCaptor = ArgumentCaptor.forClass(GetTicketPricesResponse.class);
+        verify(observer).onNext(responseCaptor.capture());
+        verify(observer).onCompleted();
+
+        GetTicketPricesResponse response = responseCaptor.getValue();
+        assertEquals("vip", response.getUserType());
+        assertEquals(40, response.getPricesCount());
+        for (int i = 0; i < 40; i++) {
+            TicketPriceResult result = response.getPrices(i);
+            assertEquals(100 + i, result.getTrainId());
+            assertEquals(i % 2 == 0 ? 90.0 : 50.0, result.getPrice(), 0.001);
+        }
+        // Solo due preventivi distinti: il calcolo avviene una volta per ciascuno
+        verify(mockPriceCalculator, times(2)).calculateTicketPrice(
+                anyString(), anyString(), anyString(), any(), anyString(), anyString(), eq("vip"));
+    }
+
+    private List<Ticket> addListTickets(String passenger, int count) {
+        long travel = Instant.now().getEpochSecond() + 86400;
+        List<Ticket> added = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            added.add(Ticket.newBuilder().setId(passenger + "-" + i).setPassengerName(passenger)
+                    .setStatus("Confermato").setTravelDate(Timestamp.newBuilder().setSeconds(travel)).build());
+        }
+        dataStore.addTickets(added);
+        return added;
+    }
+
+    @SuppressWarnings("unchecked")
+    private ListTicketsResponse listTickets(ListTicketsRequest request) {
+        StreamObserver<ListTicketsResponse> observer = mock(StreamObserver.class);
+        ticketService.listTickets(request, observer);
+        ArgumentCaptor<ListTicketsResponse> captor = ArgumentCaptor.forClass(ListTicketsResponse.class);
+        verify(observer).onNext(captor.capture());
+        verify(observer).onCompleted();
+        return captor.getValue();
+    }
+
+    @Test
+    @DisplayName("Test lista biglietti - Paginazione per passeggero con cursore")
+    public void testListTickets_Pagination() {
+        List<Ticket> mine = addListTickets("pagedUser", 7);
+        addListTickets("otherUser", 3);
+
+        List<String> ids = new ArrayList<>();
+        String token = "";
+        int pages = 0;
+        do {
+            ListTicketsResponse page = listTickets(ListTicketsRequest.newBuilder()
+                    .setPassengerName("pagedUser").setPageSize(3).setPageToken(token).build());
+            page.getTicketsList().forEach(t -> ids.add(t.getId()));
+            token = page.getNextPageToken();
+            pages++;
+        } while (!token.isEmpty());
+
+        assertEquals(3, pages);
+        assertEquals(mine.stream().map(Ticket::getId).toList(), ids);
+        // Senza page_size tutti i biglietti in una risposta, come prima
+        assertEquals(10, listTickets(ListTicketsRequest.getDefaultInstance()).getTicketsCount());
+    }
+
+    @Test
+    @DisplayName("Test lista biglietti - Il cursore resta valido se vengono eliminati biglietti già inviati")
+    public void testListTickets_CursorAfterDeletion() {
+        addListTickets("cursorUser", 6);
+        ListTicketsResponse first = listTickets(ListTicketsRequest.newBuilder()
+                .setPassengerName("cursorUser").setPageSize(3).build());
+        dataStore.deleteTicket("cursorUser-0");
+
+        ListTicketsResponse second = listTickets(ListTicketsRequest.newBuilder()
+                .setPassengerName("cursorUser").setPageSize(3).setPageToken(first.getNextPageToken()).build());
+
+        assertEquals(List.of("cursorUser-3", "cursorUser-4", "cursorUser-5"),
+                second.getTicketsList().stream().map(Ticket::getId).toList());
+        assertTrue(second.getNextPageToken().isEmpty());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    @DisplayName("Test annullamento biglietto - Il biglietto annullato resta nella stessa posizione dell'elenco")
+    public void testCancelTicket_KeepsListPosition() {
+        List<Ticket> added = addListTickets("cancelUser", 4);
+        StreamObserver<OperationResponse> observer = mock(StreamObserver.class);
+
+        ticketService.cancelTicket(CancelTicketRequest.newBuilder().setTicketId("cancelUser-1").build(), observer);
+
+        ArgumentCaptor<OperationResponse> captor = ArgumentCaptor.forClass(OperationResponse.class);
+        verify(observer).onNext(captor.capture());
+        assertTrue(captor.getValue().getSuccess());
+        List<Ticket> listed = listTickets(ListTicketsRequest.newBuilder().setPassengerName("cancelUser").build())
+                .getTicketsList();
+        assertEquals(added.stream().map(Ticket::getId).toList(), listed.stream().map(Ticket::getId).toList());
+        assertEquals("Annullato", listed.get(1).getStatus());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    @DisplayName("Test stream biglietti - Blocchi della dimensione richiesta e cursore non valido")
+    public void testStreamTickets_Chunks() {
+        List<Ticket> added = addListTickets("streamUser", 5);
+        StreamObserver<ListTicketsResponse> observer = mock(StreamObserver.class);
+
+        ticketService.streamTickets(ListTicketsRequest.newBuilder()
+                .setPassengerName("streamUser").setPageSize(2).build(), observer);
+
+        ArgumentCaptor<ListTicketsResponse> captor = ArgumentCaptor.forClass(ListTicketsResponse.class);
+        verify(observer, times(3)).onNext(captor.capture());
+        verify(observer).onCompleted();
+        assertEquals(List.of(2, 2, 1), captor.getAllValues().stream().map(ListTicketsResponse::getTicketsCount).toList());
+        // I biglietti senza posto ne ricevono uno dall'inventario: si confrontano gli ID
+        assertEquals(added.stream().map(Ticket::getId).toList(), captor.getAllValues().stream()
+                .flatMap(r -> r.getTicketsList().stream()).map(Ticket::getId).toList());
+
+        StreamObserver<ListTicketsResponse> invalid = mock(StreamObserver.class);
+        ticketService.streamTickets(ListTicketsRequest.newBuilder().setPageToken("abc").build(), invalid);
+        verify(invalid).onError(any());
+        verify(invalid, never()).onNext(any());
+    }
+}
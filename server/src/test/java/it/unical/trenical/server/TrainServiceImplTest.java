@@ -95,6 +95,31 @@ public class TrainServiceImplTest {
         }
     }
 
+    @Test
+    public void testSearchTrains_WithAvailability() {
+        SearchTrainRequest request = SearchTrainRequest.newBuilder()
+                .setDepartureStation("Roma")
+                .setArrivalStation("Milano")
+                .setIncludeAvailability(true)
+                .build();
+
+        service.searchTrains(request, trainResponseObserver);
+
+        ArgumentCaptor<TrainResponse> responseCaptor = ArgumentCaptor.forClass(TrainResponse.class);
+        verify(trainResponseObserver).onNext(responseCaptor.capture());
+        verify(trainResponseObserver).onCompleted();
+
+        // La disponibilità è allineata ai treni, nello stesso ordine
+        TrainResponse response = responseCaptor.getValue();
+        assertEquals(response.getTrainsCount(), response.getAvailabilityCount());
+        for (int i = 0; i < response.getTrainsCount(); i++) {
+            TrainAvailability availability = response.getAvailability(i);
+            assertEquals(response.getTrains(i).getId(), availability.getTrainId());
+            assertTrue(availability.getSeatsAvailable() >= 0);
+            assertEquals(availability.getSeatsAvailable() == 0, availability.getSoldOut());
+        }
+    }
+
     @Test
     public void testSearchTrains_WithDate() {
         // Preparazione
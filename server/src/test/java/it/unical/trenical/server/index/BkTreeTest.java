@@ -0,0 +1,58 @@
+package it.unical.trenical.server.index;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BkTreeTest {
+
+    @Test
+    @DisplayName("Distanza di Levenshtein")
+    void testDistance() {
+        assertEquals(0, BkTree.distance("reggio", "reggio"));
+        assertEquals(1, BkTree.distance("regio", "reggio"));
+        assertEquals(3, BkTree.distance("kitten", "sitting"));
+        assertEquals(4, BkTree.distance("", "bari"));
+    }
+
+    @Test
+    @DisplayName("La ricerca trova gli stessi termini del confronto con tutti i termini")
+    void testSearchMatchesBruteForce() {
+        Random random = new Random(3);
+        Set<String> terms = new HashSet<>();
+        BkTree tree = new BkTree();
+        for (int i = 0; i < 3000; i++) {
+            String term = randomWord(random);
+            terms.add(term);
+            tree.add(term);
+        }
+        assertEquals(terms.size(), tree.size());
+
+        for (int q = 0; q < 200; q++) {
+            String query = randomWord(random);
+            int k = 1 + random.nextInt(2);
+            Map<String, Integer> expected = new HashMap<>();
+            for (String term : terms) {
+                int d = BkTree.distance(query, term);
+                if (d <= k) expected.put(term, d);
+            }
+            Map<String, Integer> actual = new HashMap<>();
+            tree.search(query, k).forEach(hit -> actual.put(hit.term(), hit.distance()));
+            assertEquals(expected, actual, "Query " + query);
+        }
+    }
+
+    private static String randomWord(Random random) {
+        StringBuilder word = new StringBuilder();
+        int length = 3 + random.nextInt(5);
+        for (int i = 0; i < length; i++) word.append((char) ('a' + random.nextInt(6)));
+        return word.toString();
+    }
+}
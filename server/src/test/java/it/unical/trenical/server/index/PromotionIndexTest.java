@@ -0,0 +1,126 @@
+package it.unical.trenical.server.index;
+
+import com.google.protobuf.Timestamp;
+import it.unical.trenical.grpc.promotion.Promotion;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PromotionIndexTest {
+
+    private static final ZoneId ROME = ZoneId.of("Europe/Rome");
+    private static final LocalDate BASE = LocalDate.of(2030, 6, 1);
+    private static final String[] ROUTES = {"Roma-Milano", "Milano-Napoli", "Bari-Venezia"};
+    private static final String[] CLASSES = {"Prima Classe", "Seconda Classe"};
+    private static final String[] TRAIN_TYPES = {"Frecciarossa", "Italo", "Regionale"};
+    private static final String[] USER_TYPES = {"standard", "vip", "corporate"};
+
+    private static Timestamp midnight(LocalDate day) {
+        return Timestamp.newBuilder().setSeconds(day.atStartOfDay(ROME).toEpochSecond()).build();
+    }
+
+    private static Promotion randomPromotion(Random random, int id) {
+        Promotion.Builder builder = Promotion.newBuilder()
+                .setId(id)
+                .setName("PROMO" + (id % 40))
+                .setDiscountPercent(random.nextInt(8) * 5);
+        if (random.nextBoolean()) builder.addRouteNames(ROUTES[random.nextInt(ROUTES.length)]);
+        if (random.nextInt(4) == 0) builder.addRouteNames(ROUTES[random.nextInt(ROUTES.length)]);
+        if (random.nextBoolean()) builder.addServiceClasses(CLASSES[random.nextInt(CLASSES.length)]);
+        if (random.nextBoolean()) builder.setTrainType(TRAIN_TYPES[random.nextInt(TRAIN_TYPES.length)].toUpperCase());
+        if (random.nextBoolean()) builder.addUserTypes(USER_TYPES[random.nextInt(USER_TYPES.length)]);
+        if (random.nextInt(4) != 0) builder.setValidFrom(midnight(BASE.plusDays(random.nextInt(60))));
+        if (random.nextInt(4) != 0) builder.setValidTo(midnight(BASE.plusDays(30 + random.nextInt(60))));
+        return builder.build();
+    }
+
+    /**
+     * Scansione lineare di riferimento, come il vecchio DataStore.findBestPromotion.
+     */
+    private static Promotion linearBest(List<Promotion> promotions, String route, String serviceClass,
+                                        String trainType, String userType, LocalDate day) {
+        Promotion best = null;
+        double maxDiscount = 0.0;
+        for (Promotion promo : promotions) {
+            boolean routeOk = promo.getRouteNamesList().isEmpty() || promo.getRouteNamesList().contains(route);
+            boolean classOk = promo.getServiceClassesList().isEmpty() || promo.getServiceClassesList().contains(serviceClass);
+            boolean fromOk = !promo.hasValidFrom() || !day.isBefore(LocalDate.ofInstant(
+                    java.time.Instant.ofEpochSecond(promo.getValidFrom().getSeconds()), ROME));
+            boolean toOk = !promo.hasValidTo() || !day.isAfter(LocalDate.ofInstant(
+                    java.time.Instant.ofEpochSecond(promo.getValidTo().getSeconds()), ROME));
+            boolean typeOk = promo.getTrainType().isEmpty() || promo.getTrainType().equalsIgnoreCase(trainType);
+            boolean userOk = userType == null || promo.getUserTypesList().isEmpty()
+                    || promo.getUserTypesList().contains(userType);
+            if (routeOk && classOk && fromOk && toOk && typeOk && userOk && promo.getDiscountPercent() > maxDiscount) {
+                maxDiscount = promo.getDiscountPercent();
+                best = promo;
+            }
+        }
+        return best;
+    }
+
+    @Test
+    @DisplayName("La promozione migliore coincide con quella trovata dalla scansione lineare")
+    void testFindBestMatchesLinearScan() {
+        Random random = new Random(7);
+        List<Promotion> promotions = new ArrayList<>();
+        for (int i = 1; i <= 400; i++) promotions.add(randomPromotion(random, i));
+        PromotionIndex index = PromotionIndex.build(promotions, ROME, 1);
+
+        for (int q = 0; q < 3000; q++) {
+            String route = ROUTES[random.nextInt(ROUTES.length)];
+            String serviceClass = CLASSES[random.nextInt(CLASSES.length)];
+            String trainType = TRAIN_TYPES[random.nextInt(TRAIN_TYPES.length)];
+            String userType = random.nextBoolean() ? null : USER_TYPES[random.nextInt(USER_TYPES.length)];
+            LocalDate day = BASE.plusDays(random.nextInt(120) - 10);
+
+            Promotion expected = linearBest(promotions, route, serviceClass, trainType, userType, day);
+            Promotion actual = index.findBest(route, serviceClass, trainType, userType, day.toEpochDay());
+            assertEquals(expected, actual, "Query " + route + " " + serviceClass + " " + trainType + " "
+                    + userType + " " + day);
+        }
+    }
+
+    @Test
+    @DisplayName("I codici si cercano senza distinguere le maiuscole e rispettano l'ordine di inserimento")
+    void testLookupByCode() {
+        Promotion roma = Promotion.newBuilder().setId(1).setName("Estate").setDiscountPercent(10)
+                .addRouteNames("Roma-Milano").setValidTo(midnight(BASE)).build();
+        Promotion generic = Promotion.newBuilder().setId(2).setName("ESTATE").setDiscountPercent(5).build();
+        PromotionIndex index = PromotionIndex.build(List.of(roma, generic), ROME, 3);
+
+        assertEquals(2, index.byCode(" estate ").size());
+        assertSame(roma, index.firstByCode("ESTATE"));
+        assertNull(index.firstByCode("INVERNO"));
+
+        long before = index.dayOf(midnight(BASE));
+        assertSame(roma, index.findApplicable("estate", "Roma-Milano", "Seconda Classe", "Italo", before));
+        assertSame(generic, index.findApplicable("estate", "Roma-Milano", "Seconda Classe", "Italo", before + 1));
+        assertSame(generic, index.findApplicable("estate", "Bari-Venezia", "", "", PromotionIndex.ANY_DAY));
+        assertEquals(3, index.getVersion());
+    }
+
+    @Test
+    @DisplayName("Una promozione che termina prima di iniziare non vale in nessun giorno")
+    void testReversedValidityNeverApplies() {
+        Promotion reversed = Promotion.newBuilder().setId(1).setName("ROVESCIA").setDiscountPercent(50)
+                .setValidFrom(midnight(BASE.plusDays(10))).setValidTo(midnight(BASE)).build();
+        Promotion regular = Promotion.newBuilder().setId(2).setName("NORMALE").setDiscountPercent(5)
+                .setValidFrom(midnight(BASE)).build();
+        PromotionIndex index = PromotionIndex.build(List.of(reversed, regular), ROME, 1);
+
+        for (int offset = -5; offset <= 60; offset++) {
+            long day = BASE.plusDays(offset).toEpochDay();
+            assertSame(offset < 0 ? null : regular,
+                    index.findBest("Roma-Milano", "Seconda Classe", "Italo", null, day), "Giorno " + offset);
+            assertNull(index.findApplicable("rovescia", "Roma-Milano", "Seconda Classe", "Italo", day));
+        }
+    }
+}
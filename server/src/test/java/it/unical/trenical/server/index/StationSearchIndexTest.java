@@ -0,0 +1,185 @@
+package it.unical.trenical.server.index;
+
+import it.unical.trenical.grpc.common.Station;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StationSearchIndexTest {
+
+    private static Station station(int id, String name, String city) {
+        return Station.newBuilder().setId(id).setName(name).setCity(city).build();
+    }
+
+    private static List<String> names(List<Station> stations) {
+        return stations.stream().map(Station::getName).toList();
+    }
+
+    @Test
+    @DisplayName("Prima i prefissi del nome, poi quelli della città, poi le sottostringhe; a parità la popolarità")
+    void testRanking() {
+        StationSearchIndex index = new StationSearchIndex();
+        index.rebuild(List.of(
+                station(1, "Roma Termini", "Roma"),
+                station(2, "Roma Tiburtina", "Roma"),
+                station(3, "Fiumicino Aeroporto", "Roma"),
+                station(4, "Piazza Romana", "Milano"),
+                station(5, "Milano Centrale", "Milano")));
+        index.setPopularity(Map.of(2, 5, 1, 3));
+
+        assertEquals(List.of("Roma Tiburtina", "Roma Termini", "Fiumicino Aeroporto", "Piazza Romana"),
+                names(index.search("  ROMA", 10)));
+        assertEquals(List.of("Roma Tiburtina", "Roma Termini"), names(index.search("roma", 2)));
+        assertEquals(List.of("Roma Termini"), names(index.search("termini", 10)));
+        assertEquals(List.of("Fiumicino Aeroporto"), names(index.search("aerop", 10)));
+        assertTrue(index.search("napoli", 10).isEmpty());
+        assertTrue(index.search("", 10).isEmpty());
+    }
+
+    @Test
+    @DisplayName("Aggiunte, modifiche e rimozioni aggiornano l'indice senza ricostruirlo")
+    void testIncrementalUpdates() {
+        StationSearchIndex index = new StationSearchIndex();
+        index.rebuild(List.of(station(1, "Napoli Centrale", "Napoli")));
+
+        index.put(station(2, "Napoli Afragola", "Afragola"));
+        assertEquals(2, index.search("napoli", 10).size());
+
+        index.put(station(1, "Napoli Garibaldi", "Napoli"));
+        assertTrue(index.search("centrale", 10).isEmpty());
+        assertEquals(List.of("Napoli Garibaldi"), names(index.search("garib", 10)));
+
+        index.remove(2);
+        assertEquals(List.of("Napoli Garibaldi"), names(index.search("napoli", 10)));
+        assertTrue(index.search("afragola", 10).isEmpty());
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    @DisplayName("Le stazioni trovate coincidono con quelle della scansione con contains")
+    void testMatchesLinearScan() {
+        Random random = new Random(11);
+        String[] parts = {"roma", "milano", "centrale", "porta", "nuova", "san", "marco", "sud", "nord", "est"};
+        List<Station> stations = new ArrayList<>();
+        for (int id = 1; id <= 2000; id++) {
+            String name = parts[random.nextInt(parts.length)] + " " + parts[random.nextInt(parts.length)] + " " + id;
+            stations.add(station(id, name, parts[random.nextInt(parts.length)]));
+        }
+        StationSearchIndex index = new StationSearchIndex();
+        index.rebuild(stations);
+
+        for (int q = 0; q < 300; q++) {
+            String source = stations.get(random.nextInt(stations.size())).getName();
+            int start = random.nextInt(source.length());
+            String query = source.substring(start, Math.min(source.length(), start + 1 + random.nextInt(6))).trim();
+            if (query.isEmpty()) continue;
+
+            Set<Integer> expected = stations.stream()
+                    .filter(s -> s.getName().contains(query) || s.getCity().contains(query))
+                    .map(Station::getId)
+                    .collect(Collectors.toSet());
+            Set<Integer> actual = new HashSet<>();
+            index.search(query, Integer.MAX_VALUE).forEach(s -> actual.add(s.getId()));
+            assertEquals(expected, actual, "Query '" + query + "'");
+        }
+    }
+
+    @Test
+    @DisplayName("La ricerca tollerante trova nomi con errori di battitura, accenti e sigle")
+    void testFuzzySearch() {
+        StationSearchIndex index = new StationSearchIndex();
+        index.rebuild(List.of(
+                station(1, "Reggio Calabria Centrale", "Reggio Calabria"),
+                station(2, "Firenze Santa Maria Novella", "Firenze"),
+                station(3, "Cirò Marina", "Cirò Marina"),
+                station(4, "Roma Termini", "Roma")));
+
+        assertTrue(index.search("Regio Calabria", 5).isEmpty());
+        assertEquals(List.of("Reggio Calabria Centrale"), names(index.searchFuzzy("Regio Calabria", 5, 2)));
+        assertEquals(List.of("Firenze Santa Maria Novella"), names(index.searchFuzzy("Firenze SMN", 5, 2)));
+        assertEquals(List.of("Cirò Marina"), names(index.searchFuzzy("ciro marina", 5, 2)));
+        assertEquals(List.of("Roma Termini"), names(index.searchFuzzy("Roma Trmini", 5, 1)));
+        // Parole corte: nessun errore tollerato
+        assertTrue(index.searchFuzzy("Rom", 5, 2).stream().allMatch(s -> s.getName().startsWith("Roma")));
+        assertTrue(index.searchFuzzy("Pisa", 5, 2).isEmpty());
+
+        // Le corrispondenze esatte restano in testa e l'indice segue le rimozioni
+        index.remove(1);
+        assertTrue(index.searchFuzzy("Regio Calabria", 5, 2).isEmpty());
+    }
+
+    @Test
+    @DisplayName("Benchmark: ricerca con indice e ricerca tollerante contro la scansione lineare con contains")
+    void testBenchmarkAgainstLinearScan() {
+        Random random = new Random(5);
+        String[] parts = {"roma", "milano", "reggio", "calabria", "centrale", "porta", "nuova", "santa", "maria",
+                "novella", "marina", "lido", "terme", "san", "giovanni", "villa", "borgo", "monte"};
+        // Vocabolario di località inventate: i nomi combinano tre parole, le città una
+        List<String> words = new ArrayList<>(List.of(parts));
+        while (words.size() < 2000) {
+            StringBuilder word = new StringBuilder();
+            for (int i = 0, length = 4 + random.nextInt(6); i < length; i++) {
+                word.append(i % 2 == 0 ? "bcdfglmnprstvz".charAt(random.nextInt(14)) : "aeiou".charAt(random.nextInt(5)));
+            }
+            words.add(word.toString());
+        }
+        List<Station> stations = new ArrayList<>();
+        for (int id = 1; id <= 20_000; id++) {
+            stations.add(station(id, words.get(random.nextInt(words.size())) + " " + words.get(random.nextInt(words.size()))
+                    + " " + words.get(random.nextInt(words.size())), words.get(random.nextInt(words.size()))));
+        }
+        StationSearchIndex index = new StationSearchIndex();
+        index.rebuild(stations);
+        String[] queries = {"reg", "calab", "porta nu", "villa s", "lido", "giovani", "rogio calabria", "novela"};
+
+        int rounds = 200;
+        long linearHits = 0;
+        long start = System.nanoTime();
+        for (int r = 0; r < rounds; r++) {
+            for (String query : queries) {
+                String lower = query.toLowerCase();
+                linearHits += stations.stream()
+                        .filter(s -> s.getName().toLowerCase().contains(lower) || s.getCity().toLowerCase().contains(lower))
+                        .limit(10)
+                        .count();
+            }
+        }
+        long linearNanos = System.nanoTime() - start;
+
+        long indexedHits = 0;
+        start = System.nanoTime();
+        for (int r = 0; r < rounds; r++) {
+            for (String query : queries) {
+                indexedHits += index.search(query, 10).size();
+            }
+        }
+        long indexedNanos = System.nanoTime() - start;
+
+        long fuzzyHits = 0;
+        start = System.nanoTime();
+        for (int r = 0; r < rounds; r++) {
+            for (String query : queries) {
+                fuzzyHits += index.searchFuzzy(query, 10, 2).size();
+            }
+        }
+        long fuzzyNanos = System.nanoTime() - start;
+
+        int count = rounds * queries.length;
+        System.out.printf("Ricerca stazioni su %d stazioni, %d query: contains %.1f us/query, indice %.1f us/query, "
+                        + "tollerante %.1f us/query%n", stations.size(), count,
+                linearNanos / 1000.0 / count, indexedNanos / 1000.0 / count, fuzzyNanos / 1000.0 / count);
+
+        // I tempi dipendono dalla macchina: si verificano solo i risultati
+        assertEquals(linearHits, indexedHits);
+        assertTrue(fuzzyHits >= indexedHits);
+    }
+}
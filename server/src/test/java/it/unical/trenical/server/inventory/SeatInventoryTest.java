@@ -0,0 +1,316 @@
+package it.unical.trenical.server.inventory;
+
+import com.google.protobuf.Timestamp;
+import it.unical.trenical.grpc.common.Ticket;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SeatInventoryTest {
+
+    private static final ZoneId ROME = ZoneId.of("Europe/Rome");
+    private static final LocalDateTime BASE = LocalDateTime.of(2030, 3, 10, 8, 0);
+    private static final String[] STATUSES = {"", "Confermato", "Annullato", "Scaduto"};
+
+    private SeatInventory inventory;
+
+    @BeforeEach
+    void setUp() {
+        inventory = new SeatInventory(ROME, 150);
+    }
+
+    private static Ticket ticket(String id, int trainId, LocalDateTime departure, String status) {
+        return Ticket.newBuilder()
+                .setId(id)
+                .setTrainId(trainId)
+                .setTravelDate(Timestamp.newBuilder().setSeconds(departure.atZone(ROME).toEpochSecond()))
+                .setStatus(status)
+                .build();
+    }
+
+    /**
+     * Conteggio di riferimento: scorre tutti i biglietti come faceva il vecchio getAvailableSeats.
+     */
+    private static int recount(Iterable<Ticket> tickets, int trainId, LocalDateTime departure) {
+        int booked = 0;
+        for (Ticket t : tickets) {
+            if (t.getTrainId() != trainId || !t.hasTravelDate()) continue;
+            if (t.getStatus().equalsIgnoreCase("Annullato") || t.getStatus().equalsIgnoreCase("Scaduto")) continue;
+            LocalDateTime ticketTime = LocalDateTime.ofEpochSecond(t.getTravelDate().getSeconds(), 0,
+                    ROME.getRules().getOffset(departure));
+            if (ticketTime.withSecond(0).equals(departure)) booked++;
+        }
+        return booked;
+    }
+
+    @Test
+    @DisplayName("I biglietti annullati, scaduti o senza data non occupano posti")
+    void testOnlyActiveTicketsCount() {
+        inventory.ticketAdded(ticket("a", 1, BASE, ""));
+        inventory.ticketAdded(ticket("b", 1, BASE, "Annullato"));
+        inventory.ticketAdded(ticket("c", 1, BASE, "scaduto"));
+        inventory.ticketAdded(Ticket.newBuilder().setId("d").setTrainId(1).build());
+        inventory.ticketAdded(ticket("e", 1, BASE.plusMinutes(1), ""));
+
+        assertEquals(1, inventory.bookedSeats(1, BASE));
+        assertEquals(1, inventory.bookedSeats(1, BASE.plusMinutes(1)));
+        assertEquals(0, inventory.bookedSeats(2, BASE));
+    }
+
+    @Test
+    @DisplayName("Modifiche e cambi di stato spostano il posto tra le corse")
+    void testReplaceAndRemove() {
+        Ticket original = ticket("t1", 5, BASE, "");
+        inventory.ticketAdded(original);
+        Ticket moved = ticket("t1", 6, BASE.plusHours(2), "");
+        inventory.ticketReplaced(original, moved);
+        assertEquals(0, inventory.bookedSeats(5, BASE));
+        assertEquals(1, inventory.bookedSeats(6, BASE.plusHours(2)));
+
+        Ticket cancelled = moved.toBuilder().setStatus("Annullato").build();
+        inventory.ticketReplaced(moved, cancelled);
+        assertEquals(0, inventory.bookedSeats(6, BASE.plusHours(2)));
+        assertEquals(0, inventory.getTrackedRunCount());
+
+        // La rimozione di un biglietto già annullato non deve toccare i contatori
+        inventory.ticketAdded(ticket("t2", 6, BASE.plusHours(2), ""));
+        inventory.ticketRemoved(cancelled);
+        assertEquals(1, inventory.bookedSeats(6, BASE.plusHours(2)));
+    }
+
+    @Test
+    @DisplayName("Dopo una sequenza casuale di operazioni i contatori coincidono con un conteggio completo")
+    void testMatchesFullRecount() {
+        Random random = new Random(42);
+        Map<String, Ticket> tickets = new LinkedHashMap<>();
+        List<String> ids = new ArrayList<>();
+
+        for (int i = 0; i < 5000; i++) {
+            int op = random.nextInt(3);
+            if (op == 0 || ids.isEmpty()) {
+                Ticket t = ticket("t" + i, 1 + random.nextInt(4), BASE.plusHours(2L * random.nextInt(6)),
+                        STATUSES[random.nextInt(STATUSES.length)]);
+                tickets.put(t.getId(), t);
+                ids.add(t.getId());
+                inventory.ticketAdded(t);
+            } else if (op == 1) {
+                String id = ids.get(random.nextInt(ids.size()));
+                Ticket previous = tickets.get(id);
+                Ticket updated = ticket(id, 1 + random.nextInt(4), BASE.plusHours(2L * random.nextInt(6)),
+                        STATUSES[random.nextInt(STATUSES.length)]);
+                tickets.put(id, updated);
+                inventory.ticketReplaced(previous, updated);
+            } else {
+                String id = ids.remove(random.nextInt(ids.size()));
+                inventory.ticketRemoved(tickets.remove(id));
+            }
+        }
+
+        SeatInventory rebuilt = new SeatInventory(ROME, 150);
+        rebuilt.rebuild(tickets.values());
+        for (int trainId = 1; trainId <= 4; trainId++) {
+            for (int slot = 0; slot < 6; slot++) {
+                LocalDateTime departure = BASE.plusHours(2L * slot);
+                int expected = recount(tickets.values(), trainId, departure);
+                assertEquals(expected, inventory.bookedSeats(trainId, departure),
+                        "Contatore incrementale errato per treno " + trainId + " alle " + departure);
+                assertEquals(expected, rebuilt.bookedSeats(trainId, departure),
+                        "Contatore ricostruito errato per treno " + trainId + " alle " + departure);
+            }
+        }
+    }
+
+    private static Ticket seated(String id, int trainId, LocalDateTime departure, String seat) {
+        return ticket(id, trainId, departure, "").toBuilder().setSeat(seat).build();
+    }
+
+    @Test
+    @DisplayName("La ricostruzione riassegna i posti duplicati o non validi e non permette di superare la capienza")
+    void testRebuildReassignsConflictingSeats() {
+        SeatInventory small = new SeatInventory(ROME, 4);
+        List<Ticket> tickets = List.of(
+                seated("a", 1, BASE, "1"),
+                seated("b", 1, BASE, "1"),
+                seated("c", 1, BASE, "posto"),
+                seated("d", 1, BASE, "99"));
+
+        List<Ticket> reassigned = small.rebuild(tickets);
+
+        assertEquals(List.of("b", "c", "d"), reassigned.stream().map(Ticket::getId).toList());
+        Set<String> seats = new HashSet<>(List.of("1"));
+        for (Ticket ticket : reassigned) {
+            assertTrue(seats.add(ticket.getSeat()), "Posto " + ticket.getSeat() + " assegnato due volte");
+        }
+        assertEquals(4, small.bookedSeats(1, BASE));
+        assertEquals(0, small.availableSeats(1, BASE));
+        assertNull(small.reserve(1, BASE, 1), "La corsa è piena: nessun posto oltre la capienza");
+    }
+
+    @Test
+    @DisplayName("Rimuovere un biglietto con posto duplicato non libera il posto dell'altro biglietto")
+    void testRemovingDuplicateKeepsOtherSeat() {
+        Ticket first = seated("a", 1, BASE, "5");
+        Ticket duplicate = seated("b", 1, BASE, "5");
+        inventory.ticketAdded(first);
+        inventory.ticketAdded(duplicate);
+        assertEquals(148, inventory.availableSeats(1, BASE));
+
+        inventory.ticketRemoved(duplicate);
+        assertEquals(149, inventory.availableSeats(1, BASE));
+        SeatReservation reservation = inventory.reserve(1, BASE, 149);
+        assertNotNull(reservation);
+        for (int seat : reservation.getSeats()) {
+            assertNotEquals(5, seat, "Il posto 5 è ancora del primo biglietto");
+        }
+    }
+
+    @Test
+    @DisplayName("Una corsa piena assegna al biglietto senza posto il primo posto che si libera")
+    void testFullRunAssignsFreedSeat() {
+        SeatInventory small = new SeatInventory(ROME, 2);
+        assertEquals(Map.of(), small.ticketAdded(seated("a", 1, BASE, "1")));
+        assertEquals(Map.of(), small.ticketAdded(seated("b", 1, BASE, "2")));
+        assertEquals(Map.of("c", ""), small.ticketAdded(seated("c", 1, BASE, "2")));
+        assertEquals(3, small.bookedSeats(1, BASE));
+
+        assertEquals(Map.of("c", "1"), small.ticketRemoved(seated("a", 1, BASE, "1")),
+                "Il posto liberato va al biglietto che ne era privo");
+        assertEquals(0, small.availableSeats(1, BASE));
+        assertEquals(Map.of(), small.ticketRemoved(seated("b", 1, BASE, "2")));
+        assertEquals(1, small.availableSeats(1, BASE));
+    }
+
+    @Test
+    @DisplayName("Un posto tenuto da una prenotazione in corso va solo ai biglietti di quella prenotazione")
+    void testReservedSeatIsNotTakenDirectly() {
+        SeatReservation reservation = inventory.reserve(1, BASE, 2);
+        assertNotNull(reservation);
+        int[] held = reservation.getSeats();
+
+        Map<String, String> moved = inventory.ticketAdded(seated("direct", 1, BASE, String.valueOf(held[0])));
+        assertEquals(1, moved.size());
+        int assigned = Integer.parseInt(moved.get("direct"));
+        assertNotEquals(held[0], assigned, "Il posto della prenotazione non va a un altro biglietto");
+        assertNotEquals(held[1], assigned);
+
+        assertEquals(Map.of(), inventory.ticketAdded(seated("r1", 1, BASE, String.valueOf(held[0])), reservation));
+        assertEquals(Map.of(), inventory.ticketAdded(seated("r2", 1, BASE, String.valueOf(held[1])), reservation));
+        assertTrue(reservation.commit());
+        assertEquals(3, inventory.bookedSeats(1, BASE));
+        assertEquals(147, inventory.availableSeats(1, BASE));
+
+        // Dopo la conferma il posto appartiene al biglietto: una modifica diretta che lo indica riceve un altro posto
+        Ticket before = seated("direct", 1, BASE, String.valueOf(assigned));
+        Map<String, String> replaced = inventory.ticketReplaced(before, seated("direct", 1, BASE, String.valueOf(held[1])));
+        assertEquals(1, replaced.size());
+        assertNotEquals(String.valueOf(held[1]), replaced.get("direct"));
+        assertEquals(147, inventory.availableSeats(1, BASE));
+    }
+
+    @Test
+    @DisplayName("Le corse già partite vengono rimosse dall'inventario")
+    void testPruneBefore() {
+        inventory.ticketAdded(ticket("old", 1, BASE, ""));
+        inventory.ticketAdded(ticket("new", 1, BASE.plusHours(1), ""));
+
+        assertEquals(1, inventory.pruneBefore(inventory.epochMinute(BASE.plusMinutes(30))));
+        assertEquals(0, inventory.bookedSeats(1, BASE));
+        assertEquals(1, inventory.bookedSeats(1, BASE.plusHours(1)));
+        inventory.ticketRemoved(ticket("old", 1, BASE, ""));
+        assertEquals(1, inventory.getTrackedRunCount());
+    }
+
+    @Test
+    @DisplayName("Una prenotazione annullata restituisce i posti, una confermata li lascia ai biglietti")
+    void testReservationCommitAndRollback() {
+        SeatReservation first = inventory.reserve(1, BASE, 3);
+        assertNotNull(first);
+        assertArrayEquals(new int[]{1, 2, 3}, first.getSeats());
+        assertEquals(147, inventory.availableSeats(1, BASE));
+
+        first.rollback();
+        assertFalse(first.commit(), "Una prenotazione annullata non può essere confermata");
+        assertEquals(150, inventory.availableSeats(1, BASE));
+
+        SeatReservation second = inventory.reserve(1, BASE, 2);
+        for (int seat : second.getSeats()) {
+            inventory.ticketAdded(ticket("s" + seat, 1, BASE, "").toBuilder().setSeat(String.valueOf(seat)).build(),
+                    second);
+        }
+        assertTrue(second.commit());
+        second.rollback();
+        assertEquals(148, inventory.availableSeats(1, BASE));
+        assertEquals(2, inventory.bookedSeats(1, BASE));
+        assertNull(inventory.reserve(1, BASE, 149));
+    }
+
+    @Test
+    @DisplayName("Con molti thread concorrenti sulla stessa corsa non si vendono mai più posti della capienza")
+    void testConcurrentReservationsNeverOversell() throws Exception {
+        int threads = 64;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        ConcurrentLinkedQueue<Ticket> issued = new ConcurrentLinkedQueue<>();
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final int worker = t;
+            futures.add(pool.submit(() -> {
+                start.await();
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                int failures = 0;
+                for (int attempt = 0; failures < 20; attempt++) {
+                    SeatReservation reservation = inventory.reserve(7, BASE, 1 + random.nextInt(4));
+                    if (reservation == null) {
+                        failures++;
+                        continue;
+                    }
+                    try {
+                        // Circa un acquisto su cinque fallisce dopo aver riservato i posti
+                        if (random.nextInt(5) == 0) continue;
+                        for (int seat : reservation.getSeats()) {
+                            Ticket ticket = ticket(worker + "-" + attempt + "-" + seat, 7, BASE, "").toBuilder()
+                                    .setSeat(String.valueOf(seat)).build();
+                            assertEquals(Map.of(), inventory.ticketAdded(ticket, reservation));
+                            issued.add(ticket);
+                        }
+                        reservation.commit();
+                    } finally {
+                        reservation.rollback();
+                    }
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) future.get(60, TimeUnit.SECONDS);
+        pool.shutdown();
+
+        Set<String> seats = new HashSet<>();
+        for (Ticket ticket : issued) {
+            assertTrue(seats.add(ticket.getSeat()), "Posto " + ticket.getSeat() + " venduto due volte");
+        }
+        assertTrue(issued.size() <= 150, "Venduti " + issued.size() + " posti su 150");
+        assertEquals(issued.size(), inventory.bookedSeats(7, BASE));
+        assertEquals(150 - issued.size(), inventory.availableSeats(7, BASE),
+                "Le prenotazioni annullate devono restituire tutti i posti");
+    }
+}
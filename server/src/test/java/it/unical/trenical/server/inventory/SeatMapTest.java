@@ -0,0 +1,112 @@
+package it.unical.trenical.server.inventory;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SeatMapTest {
+
+    @Test
+    @DisplayName("Occupazione e rilascio di singoli posti")
+    void testClaimAndRelease() {
+        SeatMap map = new SeatMap(150);
+        assertTrue(map.claim(1));
+        assertFalse(map.claim(1), "Un posto occupato non può essere preso di nuovo");
+        assertFalse(map.claim(0));
+        assertFalse(map.claim(151));
+        assertTrue(map.claim(150));
+        assertEquals(148, map.getFreeSeats());
+
+        assertTrue(map.release(1));
+        assertFalse(map.release(1));
+        assertFalse(map.isTaken(1));
+        assertTrue(map.isTaken(150));
+    }
+
+    @Test
+    @DisplayName("allocate prende i posti più bassi ed è tutto-o-niente")
+    void testAllocate() {
+        SeatMap map = new SeatMap(70);
+        map.claim(2);
+        map.claim(4);
+        assertArrayEquals(new int[]{1, 3, 5}, map.allocate(3));
+
+        // 70 posti - 5 occupati = 65 liberi: una richiesta da 66 fallisce senza lasciare posti presi
+        assertNull(map.allocate(66));
+        assertEquals(65, map.getFreeSeats());
+
+        int[] rest = map.allocate(65);
+        assertNotNull(rest);
+        assertEquals(70, rest[rest.length - 1]);
+        assertEquals(0, map.getFreeSeats());
+    }
+
+    @Test
+    @DisplayName("allocateAdjacent trova blocchi consecutivi, anche a cavallo di due parole")
+    void testAllocateAdjacent() {
+        SeatMap map = new SeatMap(150);
+        map.claim(3);
+        assertEquals(4, map.allocateAdjacent(4), "Il blocco 1-2 è troppo corto");
+        assertTrue(map.isTaken(4) && map.isTaken(7));
+        assertFalse(map.isTaken(8));
+
+        // Occupa tutto fino al posto 60 tranne 61-70, che attraversano il confine tra parola 0 e 1
+        for (int seat = 1; seat <= 60; seat++) map.claim(seat);
+        assertEquals(61, map.allocateAdjacent(10));
+        for (int seat = 61; seat <= 70; seat++) assertTrue(map.isTaken(seat));
+
+        // Ultimi posti: il blocco non può uscire dalla capacità
+        for (int seat = 71; seat <= 146; seat++) map.claim(seat);
+        assertEquals(-1, map.allocateAdjacent(5));
+        assertEquals(147, map.allocateAdjacent(4));
+        assertEquals(0, map.getFreeSeats());
+    }
+
+    @Test
+    @DisplayName("Acquisti concorrenti sulla stessa corsa non assegnano mai lo stesso posto")
+    void testConcurrentAllocationNeverOverbooks() throws Exception {
+        SeatMap map = new SeatMap(150);
+        int threads = 8;
+        CountDownLatch start = new CountDownLatch(1);
+        ConcurrentLinkedQueue<Integer> assigned = new ConcurrentLinkedQueue<>();
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            final boolean adjacent = i % 2 == 0;
+            Thread worker = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                while (true) {
+                    if (adjacent) {
+                        int first = map.allocateAdjacent(3);
+                        if (first < 0) break;
+                        for (int s = first; s < first + 3; s++) assigned.add(s);
+                    } else {
+                        int[] seats = map.allocate(2);
+                        if (seats == null) break;
+                        for (int s : seats) assigned.add(s);
+                    }
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        start.countDown();
+        for (Thread worker : workers) worker.join();
+
+        Set<Integer> unique = new HashSet<>(assigned);
+        assertEquals(assigned.size(), unique.size(), "Nessun posto deve essere assegnato due volte");
+        assertEquals(150 - map.getFreeSeats(), unique.size());
+        assertTrue(map.getFreeSeats() < 2, "Devono restare meno posti di quanti ne chieda allocate");
+    }
+}
@@ -0,0 +1,187 @@
+package it.unical.trenical.server.persistence;
+
+import it.unical.trenical.grpc.common.Ticket;
+import it.unical.trenical.server.persistence.JournalRecord.EntityType;
+import it.unical.trenical.server.persistence.JournalRecord.Operation;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChangeJournalTest {
+
+    @TempDir
+    Path tempDir;
+
+    private Ticket ticket(String id) {
+        return Ticket.newBuilder()
+                .setId(id)
+                .setTrainId(1)
+                .setPassengerName("Mario Rossi")
+                .setStatus("Confermato")
+                .build();
+    }
+
+    @Test
+    @DisplayName("I record scritti vengono riletti nello stesso ordine dopo la riapertura")
+    void testAppendAndReplay() throws Exception {
+        Path file = tempDir.resolve("journal.log");
+        try (ChangeJournal journal = new ChangeJournal(file)) {
+            journal.append(JournalRecord.put(EntityType.TICKET, "T1", ticket("T1")));
+            journal.append(List.of(
+                    JournalRecord.put(EntityType.TICKET, "T2", ticket("T2")),
+                    JournalRecord.delete(EntityType.TICKET, "T1")));
+            assertEquals(3, journal.recordCount());
+        }
+
+        List<JournalRecord> replayed = new ArrayList<>();
+        try (ChangeJournal journal = new ChangeJournal(file)) {
+            assertEquals(3, journal.replay(replayed::add));
+        }
+        assertEquals(Operation.PUT, replayed.get(0).getOperation());
+        assertEquals("T1", Ticket.parseFrom(replayed.get(0).getPayload()).getId());
+        assertEquals("T2", replayed.get(1).getKey());
+        assertEquals(Operation.DELETE, replayed.get(2).getOperation());
+        assertEquals(0, replayed.get(2).getPayload().length);
+    }
+
+    @Test
+    @DisplayName("Una coda troncata viene scartata e il journal resta utilizzabile")
+    void testTornTailIsDiscarded() throws Exception {
+        Path file = tempDir.resolve("journal.log");
+        try (ChangeJournal journal = new ChangeJournal(file)) {
+            journal.append(JournalRecord.put(EntityType.TICKET, "T1", ticket("T1")));
+            journal.append(JournalRecord.put(EntityType.TICKET, "T2", ticket("T2")));
+        }
+        // Simula un crash a metà scrittura dell'ultimo record
+        long size = Files.size(file);
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.setLength(size - 3);
+        }
+
+        try (ChangeJournal journal = new ChangeJournal(file)) {
+            List<JournalRecord> replayed = new ArrayList<>();
+            assertEquals(1, journal.replay(replayed::add));
+            assertEquals("T1", replayed.get(0).getKey());
+            journal.append(JournalRecord.put(EntityType.TICKET, "T3", ticket("T3")));
+        }
+
+        try (ChangeJournal journal = new ChangeJournal(file)) {
+            List<String> keys = new ArrayList<>();
+            journal.replay(r -> keys.add(r.getKey()));
+            assertEquals(List.of("T1", "T3"), keys);
+        }
+    }
+
+    @Test
+    @DisplayName("Un record con checksum errato interrompe il replay")
+    void testCorruptedRecordStopsReplay() throws Exception {
+        Path file = tempDir.resolve("journal.log");
+        long firstRecordEnd;
+        try (ChangeJournal journal = new ChangeJournal(file)) {
+            journal.append(JournalRecord.put(EntityType.TICKET, "T1", ticket("T1")));
+            firstRecordEnd = journal.sizeInBytes();
+            journal.append(JournalRecord.put(EntityType.TICKET, "T2", ticket("T2")));
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.seek(firstRecordEnd + 12);
+            raf.write(0x7F);
+        }
+
+        try (ChangeJournal journal = new ChangeJournal(file)) {
+            assertEquals(1, journal.replay(r -> { }));
+            assertEquals(firstRecordEnd, journal.sizeInBytes());
+        }
+    }
+
+    @Test
+    @DisplayName("Il reset dopo la compattazione svuota il journal")
+    void testResetAfterCompaction() throws Exception {
+        Path file = tempDir.resolve("journal.log");
+        try (ChangeJournal journal = new ChangeJournal(file)) {
+            journal.append(JournalRecord.clear(EntityType.TICKET));
+            journal.reset();
+            assertEquals(0, journal.recordCount());
+            journal.append(JournalRecord.delete(EntityType.PROMOTION, "7"));
+        }
+        try (ChangeJournal journal = new ChangeJournal(file)) {
+            List<JournalRecord> replayed = new ArrayList<>();
+            assertEquals(1, journal.replay(replayed::add));
+            assertEquals(EntityType.PROMOTION, replayed.get(0).getEntityType());
+        }
+    }
+
+    @Test
+    @DisplayName("Un commit di più record troncato a metà viene scartato per intero")
+    void testTornCommitIsDiscardedAsAWhole() throws Exception {
+        Path file = tempDir.resolve("journal.log");
+        long firstCommitEnd;
+        try (ChangeJournal journal = new ChangeJournal(file)) {
+            journal.append(JournalRecord.put(EntityType.TICKET, "T1", ticket("T1")));
+            firstCommitEnd = journal.sizeInBytes();
+            // Acquisto di più posti: tre biglietti nello stesso commit
+            journal.append(List.of(
+                    JournalRecord.put(EntityType.TICKET, "T2", ticket("T2")),
+                    JournalRecord.put(EntityType.TICKET, "T3", ticket("T3")),
+                    JournalRecord.put(EntityType.TICKET, "T4", ticket("T4"))));
+        }
+        // Crash dopo che i primi due record del commit sono arrivati su disco
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.setLength(raf.length() - 10);
+        }
+
+        try (ChangeJournal journal = new ChangeJournal(file)) {
+            List<String> keys = new ArrayList<>();
+            assertEquals(1, journal.replay(r -> keys.add(r.getKey())));
+            assertEquals(List.of("T1"), keys);
+            assertEquals(firstCommitEnd, journal.sizeInBytes());
+        }
+    }
+
+    @Test
+    @DisplayName("Un journal della versione 1 viene riletto e riscritto nel formato corrente")
+    void testVersion1JournalIsMigrated() throws Exception {
+        Path file = tempDir.resolve("journal.log");
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(content);
+        out.writeInt(0x54524A31);
+        out.writeInt(1);
+        for (String id : List.of("T1", "T2")) {
+            byte[] key = id.getBytes(StandardCharsets.UTF_8);
+            byte[] payload = ticket(id).toByteArray();
+            ByteBuffer body = ByteBuffer.allocate(4 + key.length + payload.length);
+            body.put((byte) Operation.PUT.ordinal()).put((byte) EntityType.TICKET.ordinal())
+                    .putShort((short) key.length).put(key).put(payload);
+            CRC32 crc = new CRC32();
+            crc.update(body.array());
+            out.writeInt(body.capacity());
+            out.writeInt((int) crc.getValue());
+            out.write(body.array());
+        }
+        Files.write(file, content.toByteArray());
+
+        try (ChangeJournal journal = new ChangeJournal(file)) {
+            List<String> keys = new ArrayList<>();
+            assertEquals(2, journal.replay(r -> keys.add(r.getKey())));
+            assertEquals(List.of("T1", "T2"), keys);
+            journal.append(JournalRecord.delete(EntityType.TICKET, "T1"));
+        }
+        try (ChangeJournal journal = new ChangeJournal(file)) {
+            List<String> keys = new ArrayList<>();
+            assertEquals(3, journal.replay(r -> keys.add(r.getKey())));
+            assertEquals(List.of("T1", "T2", "T1"), keys);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package it.unical.trenical.server.persistence;
+
+import it.unical.trenical.server.persistence.JournalRecord.EntityType;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GroupCommitWriterTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    @DisplayName("Commit concorrenti vengono raggruppati e sono tutti durevoli")
+    void testConcurrentCommitsAreGrouped() throws Exception {
+        final int NUM_THREADS = 16;
+        final int COMMITS_PER_THREAD = 20;
+        Path file = tempDir.resolve("journal.log");
+
+        try (ChangeJournal journal = new ChangeJournal(file)) {
+            GroupCommitWriter writer = new GroupCommitWriter(journal, TimeUnit.MILLISECONDS.toNanos(5), 1024);
+            CountDownLatch start = new CountDownLatch(1);
+            List<Thread> threads = new ArrayList<>();
+            for (int i = 0; i < NUM_THREADS; i++) {
+                final int threadId = i;
+                Thread t = new Thread(() -> {
+                    try {
+                        start.await();
+                        for (int j = 0; j < COMMITS_PER_THREAD; j++) {
+                            CompletableFuture<Void> commit = writer.submit(List.of(
+                                    JournalRecord.delete(EntityType.TICKET, threadId + "-" + j)));
+                            commit.get(10, TimeUnit.SECONDS);
+                        }
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                });
+                threads.add(t);
+                t.start();
+            }
+            start.countDown();
+            for (Thread t : threads) {
+                t.join(20000);
+                assertFalse(t.isAlive(), "Il thread dovrebbe essere terminato");
+            }
+            writer.close();
+
+            int total = NUM_THREADS * COMMITS_PER_THREAD;
+            assertEquals(total, writer.getRecordsWritten());
+            assertTrue(writer.getBatchesWritten() < total,
+                    "I commit concorrenti dovrebbero condividere lo stesso fsync");
+        }
+
+        Set<String> keys = new HashSet<>();
+        try (ChangeJournal journal = new ChangeJournal(file)) {
+            journal.replay(r -> keys.add(r.getKey()));
+        }
+        assertEquals(NUM_THREADS * COMMITS_PER_THREAD, keys.size());
+    }
+
+    @Test
+    @DisplayName("Dopo la chiusura i nuovi commit vengono rifiutati")
+    void testSubmitAfterClose() throws Exception {
+        try (ChangeJournal journal = new ChangeJournal(tempDir.resolve("journal.log"))) {
+            GroupCommitWriter writer = new GroupCommitWriter(journal, 0, 1);
+            writer.submit(List.of(JournalRecord.clear(EntityType.TICKET))).get(5, TimeUnit.SECONDS);
+            writer.close();
+
+            CompletableFuture<Void> late = writer.submit(List.of(JournalRecord.clear(EntityType.TICKET)));
+            assertTrue(late.isCompletedExceptionally());
+            assertEquals(1, journal.recordCount());
+        }
+    }
+}
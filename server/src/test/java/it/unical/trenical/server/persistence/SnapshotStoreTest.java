@@ -0,0 +1,253 @@
+package it.unical.trenical.server.persistence;
+
+import com.google.protobuf.MessageLite;
+import com.google.protobuf.Timestamp;
+import it.unical.trenical.grpc.common.Station;
+import it.unical.trenical.grpc.common.Ticket;
+import it.unical.trenical.grpc.common.Train;
+import it.unical.trenical.grpc.promotion.Promotion;
+import it.unical.trenical.grpc.train.Route;
+import it.unical.trenical.server.persistence.SnapshotStore.Section;
+import it.unical.trenical.server.persistence.SnapshotStore.SnapshotFormatException;
+import it.unical.trenical.server.persistence.SnapshotStore.UnsupportedVersionException;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SnapshotStoreTest {
+
+    @TempDir
+    Path tempDir;
+
+    private SnapshotData sampleData(int trainCount) {
+        List<Station> stations = new ArrayList<>(List.of(
+                Station.newBuilder().setId(1).setName("Roma Termini").setCity("Roma")
+                        .setLatitude(41.9).setLongitude(12.5).build(),
+                Station.newBuilder().setId(2).setName("Milano Centrale").setCity("Milano")
+                        .setLatitude(45.48).setLongitude(9.2).build()));
+        List<Train> trains = new ArrayList<>();
+        for (int i = 1; i <= trainCount; i++) {
+            trains.add(Train.newBuilder()
+                    .setId(i)
+                    .setName("Frecciarossa")
+                    .setDepartureStation("Roma Termini")
+                    .setArrivalStation("Milano Centrale")
+                    .setDepartureTime(Timestamp.newBuilder().setSeconds(1_700_000_000L + i * 3600L))
+                    .build());
+        }
+        List<Ticket> tickets = new ArrayList<>(List.of(Ticket.newBuilder()
+                .setId("T1").setTrainId(1).setPassengerName("Mario Rossi").setPrice(49.9).build()));
+        List<Route> routes = new ArrayList<>(List.of(Route.newBuilder()
+                .setId(1).setName("Frecciarossa").setDepartureStationId(1).setArrivalStationId(2).build()));
+        List<Promotion> promotions = new ArrayList<>(List.of(Promotion.newBuilder()
+                .setId(1).setName("ESTATE").setDiscountPercent(20.0).build()));
+        return new SnapshotData(stations, trains, tickets, routes, promotions);
+    }
+
+    @Test
+    @DisplayName("Scrittura e lettura completa dello snapshot")
+    void testRoundTrip() throws Exception {
+        SnapshotStore store = new SnapshotStore(tempDir.resolve("snapshot.bin"));
+        SnapshotData data = sampleData(500);
+        store.write(data);
+
+        SnapshotData loaded = store.read();
+        assertEquals(data.getStations(), loaded.getStations());
+        assertEquals(data.getTrains(), loaded.getTrains());
+        assertEquals(data.getTickets(), loaded.getTickets());
+        assertEquals(data.getRoutes(), loaded.getRoutes());
+        assertEquals(data.getPromotions(), loaded.getPromotions());
+        assertFalse(Files.exists(tempDir.resolve("snapshot.bin.tmp")), "Il file temporaneo non dovrebbe restare");
+    }
+
+    @Test
+    @DisplayName("Le sezioni non richieste vengono saltate")
+    void testSectionsCanBeSkipped() throws Exception {
+        SnapshotStore store = new SnapshotStore(tempDir.resolve("snapshot.bin"));
+        store.write(sampleData(100));
+
+        SnapshotData loaded = store.read(EnumSet.of(Section.TICKETS, Section.PROMOTIONS));
+        assertTrue(loaded.getTrains().isEmpty());
+        assertTrue(loaded.getStations().isEmpty());
+        assertEquals("T1", loaded.getTickets().get(0).getId());
+        assertEquals(1, loaded.getPromotions().size());
+    }
+
+    @Test
+    @DisplayName("Lettura da file mappato in memoria con decodifica parallela a intervalli")
+    void testMappedParallelRead() throws Exception {
+        Path file = tempDir.resolve("snapshot.bin");
+        SnapshotData data = sampleData(20_000);
+        new SnapshotStore(file).write(data);
+
+        // Soglie a zero: il file viene sempre mappato e decodificato in parallelo
+        SnapshotStore mapped = new SnapshotStore(file, 0, 0);
+        SnapshotData loaded = mapped.read();
+        assertEquals(data.getTrains(), loaded.getTrains());
+        assertEquals(data.getStations(), loaded.getStations());
+        assertEquals(data.getTickets(), loaded.getTickets());
+    }
+
+    @Test
+    @DisplayName("Uno snapshot letto tramite mappatura può essere subito sostituito")
+    void testMappedSnapshotCanBeRewritten() throws Exception {
+        Path file = tempDir.resolve("snapshot.bin");
+        SnapshotData data = sampleData(5_000);
+        SnapshotStore store = new SnapshotStore(file, 0, Long.MAX_VALUE);
+        store.write(data);
+
+        // Lettura sopra la soglia di mappatura seguita dalla riscrittura dello stesso file, come nella compattazione
+        SnapshotData loaded = store.read();
+        SnapshotData changed = sampleData(5_001);
+        store.write(changed);
+        assertEquals(data.getTrains(), loaded.getTrains());
+        assertEquals(changed.getTrains(), store.read().getTrains());
+        assertFalse(Files.exists(file.resolveSibling("snapshot.bin.tmp")));
+    }
+
+    @Test
+    @DisplayName("Una sezione corrotta ma non richiesta non impedisce la lettura")
+    void testCorruptedSkippedSectionIsNotRead() throws Exception {
+        Path file = tempDir.resolve("snapshot.bin");
+        SnapshotStore store = new SnapshotStore(file);
+        store.write(sampleData(50));
+        // Il primo byte dopo intestazione file, sezione stazioni e intestazione sezione treni
+        long stationsLength;
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.seek(SnapshotStore.HEADER_SIZE + 5);
+            stationsLength = raf.readLong();
+            long trainsData = SnapshotStore.HEADER_SIZE + 2L * SnapshotStore.SECTION_HEADER_SIZE + stationsLength;
+            raf.seek(trainsData + 3);
+            int b = raf.read();
+            raf.seek(trainsData + 3);
+            raf.write(b ^ 0x40);
+        }
+
+        SnapshotData loaded = store.read(EnumSet.of(Section.TICKETS, Section.STATIONS));
+        assertEquals(2, loaded.getStations().size());
+        assertThrows(SnapshotFormatException.class, () -> store.read(EnumSet.of(Section.TRAINS)));
+    }
+
+    @Test
+    @DisplayName("Uno snapshot corrotto viene rifiutato")
+    void testCorruptedSnapshotIsRejected() throws Exception {
+        Path file = tempDir.resolve("snapshot.bin");
+        SnapshotStore store = new SnapshotStore(file);
+        store.write(sampleData(10));
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.seek(raf.length() - 5);
+            int b = raf.read();
+            raf.seek(raf.length() - 5);
+            raf.write(b ^ 0x01);
+        }
+        assertThrows(SnapshotFormatException.class, store::read);
+    }
+
+    @Test
+    @DisplayName("File troncati o non riconosciuti vengono rifiutati")
+    void testTruncatedOrForeignFileIsRejected() throws Exception {
+        Path file = tempDir.resolve("snapshot.bin");
+        SnapshotStore store = new SnapshotStore(file);
+        store.write(sampleData(10));
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.setLength(raf.length() / 2);
+        }
+        assertThrows(SnapshotFormatException.class, store::read);
+
+        Files.writeString(file, "[]");
+        assertThrows(SnapshotFormatException.class, store::read);
+    }
+
+    @Test
+    @DisplayName("Gli snapshot della versione 1 vengono ancora letti")
+    void testReadsVersion1Snapshot() throws Exception {
+        Path file = tempDir.resolve("snapshot.bin");
+        SnapshotData data = sampleData(20);
+        writeVersion1(file, data);
+        SnapshotStore store = new SnapshotStore(file);
+
+        SnapshotData loaded = store.read();
+        assertEquals(data.getStations(), loaded.getStations());
+        assertEquals(data.getTrains(), loaded.getTrains());
+        assertEquals(data.getTickets(), loaded.getTickets());
+        assertEquals(data.getRoutes(), loaded.getRoutes());
+        assertEquals(data.getPromotions(), loaded.getPromotions());
+
+        SnapshotData ticketsOnly = store.read(EnumSet.of(Section.TICKETS));
+        assertEquals(data.getTickets(), ticketsOnly.getTickets());
+        assertTrue(ticketsOnly.getTrains().isEmpty());
+
+        // Il checksum unico della versione 1 copre anche le sezioni non richieste
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.seek(raf.length() - 5);
+            int b = raf.read();
+            raf.seek(raf.length() - 5);
+            raf.write(b ^ 0x01);
+        }
+        assertThrows(SnapshotFormatException.class, () -> store.read(EnumSet.of(Section.STATIONS)));
+    }
+
+    @Test
+    @DisplayName("Una versione sconosciuta viene segnalata con un'eccezione specifica")
+    void testUnknownVersionIsReported() throws Exception {
+        Path file = tempDir.resolve("snapshot.bin");
+        SnapshotStore store = new SnapshotStore(file);
+        store.write(sampleData(10));
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.seek(4);
+            raf.writeInt(SnapshotStore.VERSION + 1);
+        }
+        assertThrows(UnsupportedVersionException.class, store::read);
+    }
+
+    /** Scrive lo snapshot nel formato della versione 1: sezioni senza checksum, crc32 del corpo nell'intestazione. */
+    private static void writeVersion1(Path file, SnapshotData data) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(body);
+        writeSectionV1(out, Section.STATIONS, data.getStations());
+        writeSectionV1(out, Section.TRAINS, data.getTrains());
+        writeSectionV1(out, Section.TICKETS, data.getTickets());
+        writeSectionV1(out, Section.ROUTES, data.getRoutes());
+        writeSectionV1(out, Section.PROMOTIONS, data.getPromotions());
+        out.flush();
+        byte[] bytes = body.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        ByteBuffer header = ByteBuffer.allocate(SnapshotStore.HEADER_SIZE)
+                .putInt(SnapshotStore.MAGIC)
+                .putInt(SnapshotStore.VERSION_1)
+                .putInt(Section.values().length)
+                .putLong(bytes.length)
+                .putInt((int) crc.getValue());
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        content.write(header.array());
+        content.write(bytes);
+        Files.write(file, content.toByteArray());
+    }
+
+    private static void writeSectionV1(DataOutputStream out, Section section,
+                                       List<? extends MessageLite> records) throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        for (MessageLite record : records) {
+            record.writeDelimitedTo(payload);
+        }
+        out.writeByte(section.getCode());
+        out.writeInt(records.size());
+        out.writeLong(payload.size());
+        payload.writeTo(out);
+    }
+}
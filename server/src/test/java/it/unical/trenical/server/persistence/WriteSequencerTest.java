@@ -0,0 +1,121 @@
+package it.unical.trenical.server.persistence;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WriteSequencerTest {
+
+    @Test
+    @DisplayName("Comandi pubblicati da più thread eseguiti tutti, in ordine per ciascun thread, da un solo scrittore")
+    void testConcurrentCommandsAreSequenced() throws Exception {
+        final int NUM_THREADS = 8;
+        final int COMMANDS_PER_THREAD = 2000;
+        // Capacità piccola: chi pubblica deve attendere che lo scrittore liberi posizioni
+        WriteSequencer sequencer = new WriteSequencer(16);
+        // Lista non sincronizzata: la modifica solo dallo scrittore
+        List<int[]> applied = new ArrayList<>();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < NUM_THREADS; i++) {
+            final int threadId = i;
+            Thread t = new Thread(() -> {
+                try {
+                    start.await();
+                    CompletableFuture<Boolean> last = null;
+                    for (int j = 0; j < COMMANDS_PER_THREAD; j++) {
+                        final int command = j;
+                        last = sequencer.submit(() -> applied.add(new int[]{threadId, command}));
+                    }
+                    last.get(10, TimeUnit.SECONDS);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            threads.add(t);
+            t.start();
+        }
+        start.countDown();
+        for (Thread t : threads) {
+            t.join(20000);
+            assertFalse(t.isAlive(), "Il thread dovrebbe essere terminato");
+        }
+        sequencer.close();
+
+        assertEquals(NUM_THREADS * COMMANDS_PER_THREAD, applied.size());
+        assertEquals(NUM_THREADS * COMMANDS_PER_THREAD, sequencer.getExecutedCount());
+        int[] next = new int[NUM_THREADS];
+        for (int[] entry : applied) {
+            assertEquals(next[entry[0]]++, entry[1], "I comandi di un thread dovrebbero essere eseguiti in ordine");
+        }
+    }
+
+    @Test
+    @DisplayName("Risultati, eccezioni e comandi pubblicati dallo scrittore stesso")
+    void testResultsAndNestedCommands() throws Exception {
+        WriteSequencer sequencer = new WriteSequencer(4);
+        try {
+            assertEquals(42, sequencer.submit(() -> 42).get(5, TimeUnit.SECONDS));
+
+            ExecutionException error = assertThrows(ExecutionException.class, () -> sequencer.submit(() -> {
+                throw new IllegalArgumentException("comando non valido");
+            }).get(5, TimeUnit.SECONDS));
+            assertInstanceOf(IllegalArgumentException.class, error.getCause());
+
+            // Un comando che ne pubblica un altro non deve attendere sé stesso
+            String nested = sequencer.submit(() -> sequencer.submit(() -> "interno").join())
+                    .get(5, TimeUnit.SECONDS);
+            assertEquals("interno", nested);
+        } finally {
+            sequencer.close();
+        }
+    }
+
+    @Test
+    @DisplayName("A coda vuota lo scrittore resta sospeso senza risvegli periodici e riparte al comando successivo")
+    void testIdleWriterParksUntilSubmit() throws Exception {
+        WriteSequencer sequencer = new WriteSequencer(4);
+        Thread writer = sequencer.submit(Thread::currentThread).get(5, TimeUnit.SECONDS);
+        try {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (writer.getState() != Thread.State.WAITING && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            // WAITING e non TIMED_WAITING: park senza scadenza
+            assertEquals(Thread.State.WAITING, writer.getState());
+
+            assertEquals("sveglio", sequencer.submit(() -> "sveglio").get(5, TimeUnit.SECONDS));
+        } finally {
+            sequencer.close();
+        }
+        assertFalse(writer.isAlive(), "La chiusura deve risvegliare lo scrittore sospeso");
+    }
+
+    @Test
+    @DisplayName("Dopo la chiusura i nuovi comandi vengono rifiutati senza essere eseguiti")
+    void testSubmitAfterClose() {
+        WriteSequencer sequencer = new WriteSequencer(4);
+        sequencer.close();
+        boolean[] executed = {false};
+
+        CompletableFuture<Boolean> rejected = sequencer.submit(() -> executed[0] = true);
+
+        assertThrows(ExecutionException.class, () -> rejected.get(5, TimeUnit.SECONDS));
+        assertFalse(executed[0]);
+
+        // Oltre la capacità il buffer resta pieno: anche questi comandi vanno rifiutati, non lasciati in sospeso
+        for (int i = 0; i < 16; i++) {
+            CompletableFuture<Boolean> overflow = sequencer.submit(() -> executed[0] = true);
+            assertThrows(ExecutionException.class, () -> overflow.get(5, TimeUnit.SECONDS));
+        }
+        assertFalse(executed[0]);
+    }
+}
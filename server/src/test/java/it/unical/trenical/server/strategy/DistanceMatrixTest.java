@@ -0,0 +1,56 @@
+package it.unical.trenical.server.strategy;
+
+import it.unical.trenical.grpc.common.Station;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DistanceMatrixTest {
+
+    private static final List<Station> STATIONS = List.of(
+            Station.newBuilder().setId(1).setName("Roma Termini").setCity("Roma")
+                    .setLatitude(41.9009).setLongitude(12.5024).build(),
+            Station.newBuilder().setId(2).setName("Milano Centrale").setCity("Milano")
+                    .setLatitude(45.4868).setLongitude(9.2037).build(),
+            Station.newBuilder().setId(3).setName("Napoli Centrale").setCity("Napoli")
+                    .setLatitude(40.8518).setLongitude(14.2681).build());
+
+    @Test
+    @DisplayName("Nome completo, città e nome senza suffisso risolvono la stessa stazione")
+    void testNameResolution() {
+        DistanceMatrix matrix = DistanceMatrix.build(STATIONS, null, 0);
+
+        int roma = matrix.indexOf("Roma Termini");
+        assertTrue(roma >= 0);
+        assertEquals(roma, matrix.indexOf("Roma"));
+        assertEquals(roma, matrix.indexOf("  roma termini "));
+        assertEquals(-1, matrix.indexOf("Atlantide"));
+        assertEquals(DistanceMatrix.UNKNOWN, matrix.distance("Roma", "Atlantide"));
+        assertEquals(0, matrix.distance("Roma", "Roma Termini"));
+    }
+
+    @Test
+    @DisplayName("Le distanze derivano dalle coordinate, quelle note prevalgono e la direzione diretta vince")
+    void testDistances() {
+        DistanceMatrix fromCoordinates = DistanceMatrix.build(STATIONS, null, 0);
+        int romaMilano = fromCoordinates.distance("Roma", "Milano");
+        assertTrue(romaMilano > 450 && romaMilano < 500, "Distanza in linea d'aria: " + romaMilano);
+        assertEquals(romaMilano, fromCoordinates.distance("Milano Centrale", "Roma Termini"));
+
+        Map<String, Map<String, Integer>> known = new HashMap<>();
+        known.put("Roma", new HashMap<>(Map.of("Milano", 570, "Bari", 400)));
+        known.put("Milano", new HashMap<>(Map.of("Roma", 575)));
+        DistanceMatrix matrix = DistanceMatrix.build(STATIONS, known, 7);
+
+        assertEquals(570, matrix.distance("Roma Termini", "Milano Centrale"));
+        assertEquals(575, matrix.distance("Milano", "Roma"));
+        assertEquals(400, matrix.distance("Bari", "Roma"), "Le località note solo per nome ricevono un indice");
+        assertEquals(DistanceMatrix.UNKNOWN, matrix.distance("Bari", "Napoli"));
+        assertEquals(7, matrix.getStationsVersion());
+    }
+}
@@ -0,0 +1,89 @@
+package it.unical.trenical.server.strategy;
+
+import com.google.protobuf.Timestamp;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FareQuoteCacheTest {
+
+    private final AtomicLong version = new AtomicLong();
+    private final AtomicLong clock = new AtomicLong();
+    private final AtomicInteger computations = new AtomicInteger();
+
+    private FareQuoteCache cache(int maxEntries) {
+        return new FareQuoteCache(version::get, maxEntries, TimeUnit.MINUTES.toNanos(5), clock::get);
+    }
+
+    private static FareQuoteCache.Key key(String departure, long travelSeconds) {
+        return FareQuoteCache.key(departure, "Milano", "Seconda Classe",
+                Timestamp.newBuilder().setSeconds(travelSeconds).build(), "", "Frecciarossa", "standard");
+    }
+
+    private double quote(FareQuoteCache cache, FareQuoteCache.Key key) {
+        return cache.getOrCompute(key, () -> 10.0 + computations.incrementAndGet());
+    }
+
+    @Test
+    @DisplayName("Preventivi uguali allo stesso orario vengono calcolati una sola volta, orari diversi no")
+    void testHitsAndMisses() {
+        FareQuoteCache cache = cache(100);
+        long morning = 1_900_000_000L;
+
+        assertEquals(11.0, quote(cache, key("Roma", morning)));
+        assertEquals(11.0, quote(cache, key("Roma", morning)));
+        assertEquals(12.0, quote(cache, key("Napoli", morning)));
+        // Stesso giorno ma orario diverso: il prezzo può cambiare (es. orari business), va ricalcolato
+        assertEquals(13.0, quote(cache, key("Roma", morning + 3600)));
+
+        assertEquals(3, computations.get());
+        assertEquals(1, cache.getHits());
+        assertEquals(3, cache.getMisses());
+    }
+
+    @Test
+    @DisplayName("Un cambio di promozioni o stazioni invalida i preventivi, anche quelli in calcolo")
+    void testVersionInvalidation() {
+        FareQuoteCache cache = cache(100);
+        FareQuoteCache.Key key = key("Roma", 1_900_000_000L);
+        quote(cache, key);
+
+        version.incrementAndGet();
+        assertEquals(12.0, quote(cache, key));
+        assertEquals(1, cache.getInvalidations());
+
+        // Prezzo calcolato mentre cambia la versione: non deve restare in cache
+        cache.getOrCompute(key("Bari", 1_900_000_000L), () -> {
+            version.incrementAndGet();
+            return 99.0;
+        });
+        assertEquals(13.0, quote(cache, key("Bari", 1_900_000_000L)));
+        assertEquals(0, cache.getHits());
+    }
+
+    @Test
+    @DisplayName("Le voci scadono dopo il TTL e le meno usate escono quando la cache è piena")
+    void testTtlAndLruEviction() {
+        FareQuoteCache cache = cache(2);
+        FareQuoteCache.Key roma = key("Roma", 1_900_000_000L);
+        quote(cache, roma);
+        quote(cache, key("Napoli", 1_900_000_000L));
+        quote(cache, roma);
+        quote(cache, key("Bari", 1_900_000_000L));
+
+        assertEquals(2, cache.size());
+        assertEquals(1.0, quote(cache, roma) - 10.0, "Roma usata di recente resta in cache");
+        int before = computations.get();
+        quote(cache, key("Napoli", 1_900_000_000L));
+        assertEquals(before + 1, computations.get(), "Napoli era la meno usata ed è stata rimossa");
+
+        clock.addAndGet(TimeUnit.MINUTES.toNanos(6));
+        quote(cache, roma);
+        assertEquals(before + 2, computations.get(), "Una voce scaduta viene ricalcolata");
+    }
+}
@@ -9,6 +9,11 @@ import org.junit.jupiter.api.DisplayName;
 
 import java.time.LocalDate;
 import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -293,6 +298,37 @@ class PriceCalculatorTest {
         dataStore.addPromotion(corpPromo);
     }
 
+    @Test
+    @DisplayName("Calcoli concorrenti con tipi utente diversi non si influenzano a vicenda")
+    void testConcurrentPricingByUserType() throws Exception {
+        Timestamp travelDate = createTravelDate(7);
+        String[] userTypes = {"standard", "vip", "corporate"};
+        double[] expected = new double[userTypes.length];
+        for (int i = 0; i < userTypes.length; i++) {
+            expected[i] = priceCalculator.calculateTicketPrice(
+                    "Roma", "Milano", "Prima Classe", travelDate, "", "Frecciarossa", userTypes[i]);
+        }
+        assertSame(priceCalculator.strategyFor("vip"), priceCalculator.strategyFor("VIP"),
+                "Le strategie devono essere precostruite e riusate");
+
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int n = 0; n < 300; n++) {
+                final int i = n % userTypes.length;
+                results.add(pool.submit(() -> expected[i] == priceCalculator.calculateTicketPrice(
+                        "Roma", "Milano", "Prima Classe", travelDate, "", "Frecciarossa", userTypes[i])));
+            }
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get(), "Il prezzo non deve dipendere dalle richieste concorrenti");
+            }
+        } finally {
+            pool.shutdown();
+        }
+        assertEquals("StandardPriceCalculationStrategy", priceCalculator.getCurrentStrategyName(),
+                "Il calcolo per tipo utente non deve cambiare la strategia corrente");
+    }
+
     private Timestamp createTravelDate(int daysFromNow) {
         return createTimestamp(daysFromNow);
     }
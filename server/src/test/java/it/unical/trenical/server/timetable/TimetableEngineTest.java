@@ -0,0 +1,249 @@
+package it.unical.trenical.server.timetable;
+
+import com.google.protobuf.Timestamp;
+import it.unical.trenical.grpc.common.Station;
+import it.unical.trenical.grpc.common.Train;
+import it.unical.trenical.grpc.train.Route;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TimetableEngineTest {
+
+    private static final ZoneId ROME = ZoneId.of("Europe/Rome");
+
+    private final Map<Integer, Station> stations = Map.of(
+            1, Station.newBuilder().setId(1).setName("Roma Termini").setCity("Roma").build(),
+            2, Station.newBuilder().setId(2).setName("Milano Centrale").setCity("Milano").build(),
+            3, Station.newBuilder().setId(3).setName("Napoli Centrale").setCity("Napoli").build());
+
+    private final List<Route> routes = List.of(
+            Route.newBuilder().setId(1).setName("Frecciarossa").setDepartureStationId(1).setArrivalStationId(2).build(),
+            Route.newBuilder().setId(2).setName("Intercity").setDepartureStationId(3).setArrivalStationId(1).build());
+
+    private TimetableEngine engine;
+
+    @BeforeEach
+    void setUp() {
+        engine = new TimetableEngine(ROME, ROME, 6, 22, 2, 365, 4);
+        engine.rebuildPatterns(routes, stations::get);
+    }
+
+    private LocalDateTime departure(Train t) {
+        return LocalDateTime.ofInstant(Instant.ofEpochSecond(t.getDepartureTime().getSeconds()), ROME);
+    }
+
+    @Test
+    @DisplayName("Le corse di un giorno sono generate dagli schemi, con numeri univoci nel giorno")
+    void testTrainsForDay() {
+        LocalDate day = LocalDate.now(ROME).plusDays(3);
+        List<Train> trains = engine.trainsForDay(day);
+
+        assertEquals(2 * 9, engine.getPatternCount());
+        assertEquals(18, trains.size());
+        Set<Integer> ids = new HashSet<>();
+        for (Train t : trains) {
+            assertTrue(ids.add(t.getId()), "I numeri dei treni dovrebbero essere univoci nel giorno");
+            assertEquals(day, departure(t).toLocalDate());
+            long minutes = (t.getArrivalTime().getSeconds() - t.getDepartureTime().getSeconds()) / 60;
+            assertTrue(minutes >= 60 && minutes < 120, "La durata dovrebbe essere tra 60 e 119 minuti");
+        }
+    }
+
+    @Test
+    @DisplayName("La materializzazione è deterministica anche dopo l'invalidazione della cache")
+    void testDeterministicMaterialization() {
+        LocalDate day = LocalDate.now(ROME).plusDays(1);
+        List<Train> first = engine.trainsForDay(day);
+        engine.invalidate();
+        assertEquals(first, engine.trainsForDay(day));
+    }
+
+    @Test
+    @DisplayName("I giorni fuori dall'orizzonte di prenotazione non hanno corse")
+    void testHorizon() {
+        LocalDate today = LocalDate.now(ROME);
+        assertTrue(engine.trainsForDay(today.minusDays(1)).isEmpty());
+        assertFalse(engine.trainsForDay(today.plusDays(300)).isEmpty(),
+                "Un giorno lontano ma nell'orizzonte dovrebbe avere corse");
+        assertTrue(engine.trainsForDay(today.plusDays(365)).isEmpty());
+    }
+
+    @Test
+    @DisplayName("La cache dei giorni è limitata e riusata")
+    void testDayCacheIsBounded() {
+        LocalDate today = LocalDate.now(ROME);
+        for (int d = 0; d < 30; d++) {
+            engine.trainsForDay(today.plusDays(d));
+        }
+        assertEquals(4, engine.getCachedDayCount());
+        long materialized = engine.getMaterializedDayCount();
+        engine.trainsForDay(today.plusDays(29));
+        assertEquals(materialized, engine.getMaterializedDayCount(), "Un giorno in cache non va ricalcolato");
+    }
+
+    @Test
+    @DisplayName("Ricerca di una corsa per numero e orario")
+    void testFindRun() {
+        LocalDate day = LocalDate.now(ROME).plusDays(2);
+        Train any = engine.trainsForDay(day).get(5);
+        assertEquals(any, engine.findRun(any.getId(), departure(any)));
+        assertNull(engine.findRun(any.getId(), departure(any).plusMinutes(1)));
+        assertNull(engine.findRun(999_999, departure(any)));
+    }
+
+    @Test
+    @DisplayName("La ricerca per stazioni e fascia oraria coincide con il filtro sulle corse del giorno")
+    void testSearchByStationsAndTime() {
+        LocalDate day = LocalDate.now(ROME).plusDays(2);
+        List<Train> all = engine.trainsForDay(day);
+
+        List<Train> exact = engine.search(day, "roma termini", " Milano Centrale", LocalTime.of(9, 0), LocalTime.of(14, 0));
+        List<Train> expected = all.stream()
+                .filter(t -> t.getDepartureStation().equals("Roma Termini") && t.getArrivalStation().equals("Milano Centrale"))
+                .filter(t -> !departure(t).toLocalTime().isBefore(LocalTime.of(9, 0))
+                        && !departure(t).toLocalTime().isAfter(LocalTime.of(14, 0)))
+                .toList();
+        assertEquals(List.of(10, 12, 14), exact.stream().map(t -> departure(t).getHour()).toList());
+        assertEquals(expected, exact);
+
+        // Nome parziale e nessun filtro sull'arrivo: tutte le corse da Roma, in ordine di partenza
+        List<Train> fromRoma = engine.search(day, "Roma", null, null, null);
+        assertEquals(9, fromRoma.size());
+        for (int i = 1; i < fromRoma.size(); i++) {
+            assertTrue(fromRoma.get(i - 1).getDepartureTime().getSeconds() <= fromRoma.get(i).getDepartureTime().getSeconds());
+        }
+        assertEquals(18, engine.search(day, "", "", null, null).size());
+        assertEquals(9, engine.search(day, null, "roma", null, null).size());
+        assertTrue(engine.search(day, "Bari", null, null, null).isEmpty());
+        assertTrue(engine.search(day, null, null, LocalTime.of(23, 0), null).isEmpty());
+    }
+
+    @Test
+    @DisplayName("Il tabellone di stazione è ordinato, filtrabile per orario, paginato e segue le modifiche")
+    void testStationBoard() {
+        LocalDate day = LocalDate.now(ROME).plusDays(2);
+        StationBoard roma = engine.stationBoard(day, "ROMA TERMINI");
+
+        // Roma Termini: partenze del Frecciarossa e arrivi dell'Intercity da Napoli
+        assertEquals(9, roma.departures().size());
+        assertEquals(9, roma.arrivals().size());
+        assertTrue(roma.departures().stream().allMatch(t -> t.getDepartureStation().equals("Roma Termini")));
+        for (int i = 1; i < roma.arrivals().size(); i++) {
+            assertTrue(roma.arrivals().get(i - 1).getArrivalTime().getSeconds()
+                    <= roma.arrivals().get(i).getArrivalTime().getSeconds());
+        }
+
+        long from = day.atTime(8, 0).atZone(ROME).toEpochSecond();
+        long to = day.atTime(16, 0).atZone(ROME).toEpochSecond();
+        StationBoard.Page first = roma.departures(from, to, 0, 2);
+        StationBoard.Page second = roma.departures(from, to, 2, 2);
+        StationBoard.Page last = roma.departures(from, to, 4, 2);
+        assertEquals(5, first.total());
+        assertEquals(List.of(8, 10), first.trains().stream().map(t -> departure(t).getHour()).toList());
+        assertEquals(List.of(12, 14), second.trains().stream().map(t -> departure(t).getHour()).toList());
+        assertEquals(1, last.trains().size());
+        assertTrue(roma.departures(from, to, 10, 2).trains().isEmpty());
+        assertEquals(9, roma.departures(Long.MIN_VALUE, Long.MAX_VALUE, 0, 0).trains().size());
+
+        assertTrue(engine.stationBoard(day, "Bari Centrale").departures().isEmpty());
+
+        // Una corsa sospesa sparisce dal tabellone
+        assertTrue(engine.removeTrain(roma.departures().get(0).getId()));
+        assertEquals(8, engine.stationBoard(day, "Roma Termini").departures().size());
+    }
+
+    @Test
+    @DisplayName("Corse straordinarie, modifiche e sospensioni")
+    void testAdHocTrains() {
+        LocalDate day = LocalDate.now(ROME).plusDays(1);
+        int before = engine.trainsForDay(day).size();
+        int id = engine.maxTrainId() + 1;
+        long dep = day.atTime(12, 30).atZone(ROME).toEpochSecond();
+        Train extra = Train.newBuilder()
+                .setId(id)
+                .setName("Regionale")
+                .setDepartureStation("Roma Termini")
+                .setArrivalStation("Napoli Centrale")
+                .setDepartureTime(Timestamp.newBuilder().setSeconds(dep))
+                .setArrivalTime(Timestamp.newBuilder().setSeconds(dep + 7200))
+                .build();
+
+        assertTrue(engine.addTrain(extra));
+        assertFalse(engine.addTrain(extra), "Lo stesso numero non può essere aggiunto due volte");
+        assertEquals(before + 1, engine.trainsForDay(day).size());
+        assertEquals(extra, engine.findRun(id, day.atTime(12, 30)));
+
+        Train patternRun = engine.trainsForDay(day).get(0);
+        assertTrue(engine.removeTrain(patternRun.getId()));
+        assertTrue(engine.trainsForDay(day).stream().noneMatch(t -> t.getId() == patternRun.getId()));
+
+        assertTrue(engine.removeTrain(id));
+        assertEquals(before - 1, engine.trainsForDay(day).size());
+    }
+
+    @Test
+    @DisplayName("Ricerche concorrenti su più giorni mentre si aggiungono corse straordinarie")
+    void testConcurrentSearchesAndUpdates() throws Exception {
+        LocalDate today = LocalDate.now(ROME);
+        int firstExtraId = engine.maxTrainId() + 1;
+        int extras = 50;
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> tasks = new ArrayList<>();
+            for (int r = 0; r < 7; r++) {
+                int seed = r;
+                tasks.add(pool.submit(() -> {
+                    for (int i = 0; i < 300; i++) {
+                        LocalDate day = today.plusDays((seed + i) % 10 + 1);
+                        // Le corse straordinarie vanno verso Napoli: Roma → Milano resta invariata
+                        assertEquals(9, engine.search(day, "Roma Termini", "Milano Centrale", null, null).size());
+                        engine.stationBoard(day, "Roma Termini");
+                    }
+                }));
+            }
+            tasks.add(pool.submit(() -> {
+                for (int i = 0; i < extras; i++) {
+                    long dep = today.plusDays(i % 10 + 1).atTime(7, i % 60).atZone(ROME).toEpochSecond();
+                    assertTrue(engine.addTrain(Train.newBuilder()
+                            .setId(firstExtraId + i)
+                            .setName("Regionale")
+                            .setDepartureStation("Roma Termini")
+                            .setArrivalStation("Napoli Centrale")
+                            .setDepartureTime(Timestamp.newBuilder().setSeconds(dep))
+                            .setArrivalTime(Timestamp.newBuilder().setSeconds(dep + 7200))
+                            .build()));
+                }
+            }));
+            for (Future<?> task : tasks) {
+                task.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        assertTrue(engine.getCachedDayCount() <= 4, "La cache deve restare limitata");
+        int found = 0;
+        for (int d = 1; d <= 10; d++) {
+            found += engine.search(today.plusDays(d), "Roma Termini", "Napoli Centrale", null, null).size();
+        }
+        assertEquals(extras, found, "Ogni corsa aggiunta deve essere visibile dopo le ricerche concorrenti");
+    }
+}
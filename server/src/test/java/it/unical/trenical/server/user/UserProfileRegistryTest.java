@@ -0,0 +1,113 @@
+package it.unical.trenical.server.user;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UserProfileRegistryTest {
+
+    @TempDir
+    Path tempDir;
+
+    private static final String USERS = """
+            [
+              {"username": "vip.customer", "password": "password123", "customerType": "vip",
+               "fidelityMember": true, "email": "vip@example.com", "tickets": ["t1"]},
+              {"username": "mario.rossi", "password": "segreta", "customerType": "standard",
+               "fidelityMember": false, "email": "mario@example.com", "tickets": []}
+            ]""";
+
+    @Test
+    @DisplayName("I profili vengono letti una volta e restano disponibili senza accedere al file")
+    void testLoad() throws Exception {
+        Path file = tempDir.resolve("users.json");
+        Files.writeString(file, USERS);
+        UserProfileRegistry registry = new UserProfileRegistry(file);
+        Files.delete(file);
+
+        assertEquals(2, registry.size());
+        assertEquals("vip", registry.getCustomerType("vip.customer"));
+        assertTrue(registry.getProfile("vip.customer").isFidelityMember());
+        assertEquals("mario@example.com", registry.getProfile("mario.rossi").getEmail());
+        assertEquals("standard", registry.getCustomerType("sconosciuto"));
+    }
+
+    @Test
+    @DisplayName("La modifica del tipo riscrive il file conservando password e biglietti, solo se cambia qualcosa")
+    void testSetCustomerTypePreservesOtherFields() throws Exception {
+        Path file = tempDir.resolve("users.json");
+        Files.writeString(file, USERS);
+        FileTime original = FileTime.fromMillis(1_000_000L);
+        Files.setLastModifiedTime(file, original);
+        UserProfileRegistry registry = new UserProfileRegistry(file);
+
+        registry.setCustomerType("vip.customer", "vip");
+        assertEquals(original, Files.getLastModifiedTime(file), "Nessuna scrittura se il valore non cambia");
+
+        registry.setCustomerType("mario.rossi", "corporate");
+        registry.setCustomerType("nuovo.utente", "vip");
+
+        JSONArray saved = new JSONArray(Files.readString(file));
+        assertEquals(3, saved.length());
+        JSONObject mario = saved.getJSONObject(1);
+        assertEquals("mario.rossi", mario.getString("username"));
+        assertEquals("corporate", mario.getString("customerType"));
+        assertEquals("segreta", mario.getString("password"));
+        assertEquals(1, saved.getJSONObject(0).getJSONArray("tickets").length());
+        assertEquals("nuovo.utente@test.com", saved.getJSONObject(2).getString("email"));
+
+        UserProfileRegistry reloaded = new UserProfileRegistry(file);
+        assertEquals("corporate", reloaded.getCustomerType("mario.rossi"));
+        assertEquals("vip", reloaded.getCustomerType("nuovo.utente"));
+    }
+
+    @Test
+    @DisplayName("Le modifiche esterne al file vengono rilevate e ricaricate")
+    void testExternalEditIsPickedUp() throws Exception {
+        Path file = tempDir.resolve("users.json");
+        Files.writeString(file, USERS);
+        try (UserProfileRegistry registry = new UserProfileRegistry(file)) {
+            registry.startWatching();
+
+            // Il client registra un nuovo utente riscrivendo il file
+            JSONArray arr = new JSONArray(USERS);
+            arr.put(new JSONObject().put("username", "corp.user").put("customerType", "corporate"));
+            Files.writeString(file, arr.toString(2));
+
+            long deadline = System.currentTimeMillis() + 15_000;
+            while (registry.getProfile("corp.user") == null && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            assertEquals("corporate", registry.getCustomerType("corp.user"));
+            assertEquals(3, registry.size());
+        }
+    }
+
+    @Test
+    @DisplayName("Una modifica del tipo non sovrascrive le modifiche esterne non ancora ricaricate")
+    void testSetCustomerTypeKeepsExternalEdits() throws Exception {
+        Path file = tempDir.resolve("users.json");
+        Files.writeString(file, USERS);
+        // Senza monitor: la modifica esterna è visibile solo rileggendo il file
+        UserProfileRegistry registry = new UserProfileRegistry(file);
+        JSONArray arr = new JSONArray(USERS);
+        arr.put(new JSONObject().put("username", "corp.user").put("customerType", "corporate"));
+        Files.writeString(file, arr.toString(2));
+
+        registry.setCustomerType("mario.rossi", "vip");
+
+        JSONArray saved = new JSONArray(Files.readString(file));
+        assertEquals(3, saved.length());
+        assertEquals("corp.user", saved.getJSONObject(2).getString("username"));
+        assertEquals("vip", saved.getJSONObject(1).getString("customerType"));
+        assertEquals("corporate", registry.getCustomerType("corp.user"));
+    }
+}